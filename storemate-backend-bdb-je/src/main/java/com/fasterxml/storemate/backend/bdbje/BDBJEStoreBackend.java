@@ -465,12 +465,23 @@ public class BDBJEStoreBackend extends StoreBackend
     
             final DatabaseEntry keyEntry = new DatabaseEntry();
             final DatabaseEntry data = new DatabaseEntry();
-            
+            final StorableView view = _viewFor(cb);
+
             try {
                 OperationStatus status;
                 status = crsr.getNext(keyEntry, data, null);
 
                 while (status == OperationStatus.SUCCESS) {
+                    if (view != null) {
+                        view.reset(keyEntry.getData(), keyEntry.getOffset(), keyEntry.getSize(),
+                                data.getData(), data.getOffset(), data.getSize());
+                        // IMPORTANT: need to advance cursor before calling process!
+                        status = crsr.getNext(keyEntry, data, null);
+                        if (cb.processView(view) == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_ENTRY;
+                        }
+                        continue;
+                    }
                     key = storableKey(keyEntry);
                     switch (cb.verifyKey(key)) {
                     case TERMINATE_ITERATION: // all done?
@@ -507,6 +518,7 @@ public class BDBJEStoreBackend extends StoreBackend
             Cursor crsr = _entries.openCursor(null, config);
             final DatabaseEntry keyEntry;
             final DatabaseEntry data = new DatabaseEntry();
+            final StorableView view = _viewFor(cb);
     
             OperationStatus status;
             if (firstKey == null) { // from beginning (i.e. no ranges)
@@ -518,6 +530,16 @@ public class BDBJEStoreBackend extends StoreBackend
             }
             try {
                 while (status == OperationStatus.SUCCESS) {
+                    if (view != null) {
+                        view.reset(keyEntry.getData(), keyEntry.getOffset(), keyEntry.getSize(),
+                                data.getData(), data.getOffset(), data.getSize());
+                        // IMPORTANT: need to advance cursor before calling process!
+                        status = crsr.getNext(keyEntry, data, null);
+                        if (cb.processView(view) == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_ENTRY;
+                        }
+                        continue;
+                    }
                     key = storableKey(keyEntry);
                     switch (cb.verifyKey(key)) {
                     case TERMINATE_ITERATION:
@@ -554,6 +576,7 @@ public class BDBJEStoreBackend extends StoreBackend
             try {
                 final DatabaseEntry data = new DatabaseEntry();
                 final DatabaseEntry keyEntry = dbKey(lastSeen);
+                final StorableView view = _viewFor(cb);
                 OperationStatus status = crsr.getSearchKeyRange(keyEntry, data, null);
 
                 do { // bogus loop so we can break
@@ -569,6 +592,16 @@ public class BDBJEStoreBackend extends StoreBackend
                         }
                     }
                     while (status == OperationStatus.SUCCESS) {
+                        if (view != null) {
+                            view.reset(keyEntry.getData(), keyEntry.getOffset(), keyEntry.getSize(),
+                                    data.getData(), data.getOffset(), data.getSize());
+                            // IMPORTANT: need to advance cursor before calling process!
+                            status = crsr.getNext(keyEntry, data, null);
+                            if (cb.processView(view) == IterationAction.TERMINATE_ITERATION) {
+                                return IterationResult.TERMINATED_FOR_ENTRY;
+                            }
+                            continue;
+                        }
                         key = storableKey(keyEntry);
                         switch (cb.verifyKey(key)) {
                         case TERMINATE_ITERATION: // all done?
@@ -610,6 +643,7 @@ public class BDBJEStoreBackend extends StoreBackend
             final DatabaseEntry keyEntry;
             final DatabaseEntry primaryKeyEntry = new DatabaseEntry();
             final DatabaseEntry data = new DatabaseEntry();
+            final StorableView view = _viewFor(cb);
             
             OperationStatus status;
             if (firstTimestamp <= 0L) { // from beginning (i.e. no ranges)
@@ -634,6 +668,16 @@ public class BDBJEStoreBackend extends StoreBackend
                         status = crsr.getNext(keyEntry, primaryKeyEntry, data, null);
                         continue main_loop;
                     }
+                    if (view != null) {
+                        view.reset(primaryKeyEntry.getData(), primaryKeyEntry.getOffset(), primaryKeyEntry.getSize(),
+                                data.getData(), data.getOffset(), data.getSize());
+                        // IMPORTANT: need to advance cursor before calling process!
+                        status = crsr.getNext(keyEntry, primaryKeyEntry, data, null);
+                        if (cb.processView(view) == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_ENTRY;
+                        }
+                        continue;
+                    }
                     key = storableKey(primaryKeyEntry);
                     switch (cb.verifyKey(key)) {
                     case TERMINATE_ITERATION: // all done?
@@ -0,0 +1,15 @@
+package com.fasterxml.storemate.backend.bdbje;
+
+import java.io.File;
+
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.backend.EntryRecompressionTestBase;
+import com.fasterxml.storemate.store.backend.StoreBackend;
+
+public class EntryRecompressionTest extends EntryRecompressionTestBase
+{
+    @Override
+    protected StoreBackend createBackend(File testRoot, StoreConfig storeConfig) {
+        return new BDBJEBuilder(storeConfig, new BDBJEConfig(new File(testRoot, "bdb"))).buildCreateAndInit();
+    }
+}
@@ -0,0 +1,15 @@
+package com.fasterxml.storemate.backend.bdbje;
+
+import java.io.File;
+
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.backend.JFREventsTestBase;
+import com.fasterxml.storemate.store.backend.StoreBackend;
+
+public class JFREventsTest extends JFREventsTestBase
+{
+    @Override
+    protected StoreBackend createBackend(File testRoot, StoreConfig storeConfig) {
+        return new BDBJEBuilder(storeConfig, new BDBJEConfig(new File(testRoot, "bdb"))).buildCreateAndInit();
+    }
+}
@@ -8,6 +8,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.iq80.leveldb.*;
 
 import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.util.ByteUtil;
 
 import com.fasterxml.storemate.store.*;
 import com.fasterxml.storemate.store.backend.*;
@@ -365,6 +366,7 @@ public class LevelDBStoreBackend extends StoreBackend
     {
         StorableKey key = null;
         try {
+            final StorableView view = _viewFor(cb);
             DBIterator iter = _dataDB.iterator();
             try {
                 if (firstKey == null) {
@@ -375,6 +377,15 @@ public class LevelDBStoreBackend extends StoreBackend
                 main_loop:
                 while (iter.hasNext()) {
                     Map.Entry<byte[], byte[]> entry = iter.next();
+                    if (view != null) {
+                        byte[] rawKey = entry.getKey();
+                        byte[] rawEntry = entry.getValue();
+                        view.reset(rawKey, 0, rawKey.length, rawEntry, 0, rawEntry.length);
+                        if (cb.processView(view) == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_ENTRY;
+                        }
+                        continue main_loop;
+                    }
                     key = storableKey(entry.getKey());
                     switch (cb.verifyKey(key)) {
                     case SKIP_ENTRY: // nothing to do
@@ -410,6 +421,7 @@ public class LevelDBStoreBackend extends StoreBackend
         StorableKey key = null;
         try {
             final byte[] lastSeenRaw = dbKey(lastSeen);
+            final StorableView view = _viewFor(cb);
             DBIterator iter = _dataDB.iterator();
             try {
                 iter.seek(lastSeenRaw);
@@ -427,21 +439,26 @@ public class LevelDBStoreBackend extends StoreBackend
                     entry = iter.next();
                     b = entry.getKey();
                 }
-                main_loop:
                 while (true) {
-                    key = storableKey(b);
-                    switch (cb.verifyKey(key)) {
-                    case TERMINATE_ITERATION: // all done?
-                        return IterationResult.TERMINATED_FOR_KEY;
-                    case PROCESS_ENTRY: // bind, process
-                        break;
-                    case SKIP_ENTRY: // nothing to do
-                    default: // should we warn?
-                        continue main_loop;
-                    }
-                    Storable dbEntry = _storableConverter.decode(key, entry.getValue());
-                    if (cb.processEntry(dbEntry) == IterationAction.TERMINATE_ITERATION) {
-                        return IterationResult.TERMINATED_FOR_ENTRY;
+                    if (view != null) {
+                        byte[] rawEntry = entry.getValue();
+                        view.reset(b, 0, b.length, rawEntry, 0, rawEntry.length);
+                        if (cb.processView(view) == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_ENTRY;
+                        }
+                    } else {
+                        key = storableKey(b);
+                        IterationAction act = cb.verifyKey(key);
+                        if (act == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_KEY;
+                        }
+                        // note: SKIP_ENTRY must also advance iterator (used to loop forever)
+                        if (act == IterationAction.PROCESS_ENTRY) {
+                            Storable dbEntry = _storableConverter.decode(key, entry.getValue());
+                            if (cb.processEntry(dbEntry) == IterationAction.TERMINATE_ITERATION) {
+                                return IterationResult.TERMINATED_FOR_ENTRY;
+                            }
+                        }
                     }
                     if (!iter.hasNext()) {
                         break;
@@ -473,6 +490,7 @@ public class LevelDBStoreBackend extends StoreBackend
 
         StorableKey key = null;
         try {
+            final StorableView view = _viewFor(cb);
             DBIterator iter = _indexDB.iterator();
 
             if (firstTimestamp <= 0L) { // from beginning (i.e. no ranges)
@@ -495,6 +513,22 @@ public class LevelDBStoreBackend extends StoreBackend
                     case TERMINATE_ITERATION: // all done?
                         return IterationResult.TERMINATED_FOR_TIMESTAMP;
                     }
+                    if (view != null) {
+                        // need a copy of primary key for lookup anyway
+                        byte[] primaryKey = Arrays.copyOfRange(rawKey, 8, rawKey.length);
+                        byte[] rawEntry = _dataDB.get(primaryKey);
+                        IterationAction act;
+                        if (rawEntry == null) {
+                            act = cb.processMissingEntry(storableKey(primaryKey));
+                        } else {
+                            view.reset(primaryKey, 0, primaryKey.length, rawEntry, 0, rawEntry.length);
+                            act = cb.processView(view);
+                        }
+                        if (act == IterationAction.TERMINATE_ITERATION) {
+                            return IterationResult.TERMINATED_FOR_ENTRY;
+                        }
+                        continue main_loop;
+                    }
 
                     key = _extractPrimaryKey(rawKey);
                     switch (cb.verifyKey(key)) {
@@ -627,14 +661,6 @@ public class LevelDBStoreBackend extends StoreBackend
     private final boolean _equals(byte[] b1, byte[] b2)
     {
         final int len = b1.length;
-        if (b2.length != len) {
-            return false;
-        }
-        for (int i = 0; i < len; ++i) {
-            if (b1[i] != b2[i]) {
-                return false;
-            }
-        }
-        return true;
+        return (b2.length == len) && ByteUtil.equals(b1, 0, b2, 0, len);
     }
 }
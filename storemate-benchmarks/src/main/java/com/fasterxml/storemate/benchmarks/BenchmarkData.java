@@ -0,0 +1,70 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import com.fasterxml.storemate.shared.StorableKey;
+
+/**
+ * Helper methods for generating test data for benchmarks; all
+ * generation is deterministic so that runs are comparable.
+ */
+public class BenchmarkData
+{
+    private BenchmarkData() { }
+
+    /**
+     * Method for generating content that compresses reasonably well,
+     * similar to textual (JSON, log lines) payloads.
+     */
+    public static byte[] compressibleData(int size)
+    {
+        StringBuilder sb = new StringBuilder(size + 100);
+        final Random rnd = new Random(123);
+        while (sb.length() < size) {
+            sb.append("{\"id\":")
+                .append(sb.length())
+                .append(",\"value\":\"")
+                .append(Integer.toHexString(rnd.nextInt()))
+                .append("\"}\n");
+        }
+        sb.setLength(size);
+        return utf8(sb.toString());
+    }
+
+    /**
+     * Method for generating content that does not compress.
+     */
+    public static byte[] randomData(int size)
+    {
+        byte[] result = new byte[size];
+        new Random(size).nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Method for generating path-like keys like "/data/bucket-12/entry-000123",
+     * padded to given length.
+     */
+    public static StorableKey key(int index, int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        sb.append("/data/bucket-").append(index % 100).append("/entry-");
+        String suffix = String.valueOf(index);
+        while ((sb.length() + suffix.length()) < length) {
+            sb.append('0');
+        }
+        sb.append(suffix);
+        sb.setLength(length);
+        return new StorableKey(utf8(sb.toString()));
+    }
+
+    public static byte[] utf8(String str)
+    {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) { // never occurs
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.fasterxml.storemate.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class for running benchmarks: accepts standard JMH command-line
+ * arguments (like benchmark name regexps), but always enables GC profiler
+ * so that allocation rate ("gc.alloc.rate.norm") is reported along with
+ * throughput, and writes results as JSON for comparing runs.
+ *<p>
+ * Usage:
+ *<pre>
+ *  java -jar storemate-benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]
+ *</pre>
+ */
+public class BenchmarkRunner
+{
+    public final static String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions cmdLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmdLine);
+        builder.addProfiler(GCProfiler.class);
+        if (!cmdLine.getResult().hasValue()) {
+            builder.result(DEFAULT_RESULT_FILE);
+        }
+        if (!cmdLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        Options opts = builder.build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,90 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.Compressors;
+
+/**
+ * Benchmarks for in-memory LZF, GZIP and LZ4 compression/decompression
+ * using {@link Compressors}, at sizes typical for inlined entries
+ * (GZIP range) and buffered files (LZF range).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressorsBenchmark
+{
+    @Param({ "1000", "16000", "64000" })
+    public int size;
+
+    protected ByteContainer _data;
+    protected ByteContainer _lzfData, _gzipData, _lz4Data;
+
+    protected byte[] _rawData, _rawGzipData;
+
+    /**
+     * Reusable output buffer for compressing/uncompressing into caller-provided buffers
+     */
+    protected byte[] _output;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        _data = ByteContainer.simple(BenchmarkData.compressibleData(size));
+        _lzfData = ByteContainer.simple(Compressors.lzfCompress(_data));
+        _gzipData = ByteContainer.simple(Compressors.gzipCompress(_data));
+        _lz4Data = ByteContainer.simple(Compressors.compress(_data, Compression.LZ4));
+        _rawData = _data.asBytes();
+        _rawGzipData = _gzipData.asBytes();
+        _output = new byte[Compressors.codecFor(Compression.GZIP).maxCompressedLength(size)];
+    }
+
+    @Benchmark
+    public byte[] lzfCompress() throws IOException {
+        return Compressors.lzfCompress(_data);
+    }
+
+    @Benchmark
+    public byte[] gzipCompress() throws IOException {
+        return Compressors.gzipCompress(_data);
+    }
+
+    @Benchmark
+    public int gzipCompressIntoBuffer() throws IOException {
+        return Compressors.compress(_rawData, 0, _rawData.length, Compression.GZIP, _output, 0);
+    }
+
+    @Benchmark
+    public byte[] lz4Compress() throws IOException {
+        return Compressors.compress(_data, Compression.LZ4);
+    }
+
+    @Benchmark
+    public ByteContainer lzfUncompress() throws IOException {
+        return Compressors.lzfUncompress(_lzfData);
+    }
+
+    @Benchmark
+    public ByteContainer gzipUncompress() throws IOException {
+        return Compressors.gzipUncompress(_gzipData, size);
+    }
+
+    @Benchmark
+    public int gzipUncompressIntoBuffer() throws IOException {
+        return Compressors.uncompress(_rawGzipData, 0, _rawGzipData.length, Compression.GZIP,
+                _output, 0, _output.length);
+    }
+
+    @Benchmark
+    public ByteContainer lz4Uncompress() throws IOException {
+        return Compressors.uncompress(_lz4Data, Compression.LZ4, size);
+    }
+}
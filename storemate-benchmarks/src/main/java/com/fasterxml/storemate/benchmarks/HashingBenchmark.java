@@ -0,0 +1,87 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
+import com.fasterxml.storemate.shared.hash.BlockMurmur3x64Hasher;
+import com.fasterxml.storemate.shared.hash.IncrementalMurmur3Hasher;
+import com.fasterxml.storemate.shared.hash.IncrementalMurmur3x64Hasher;
+
+/**
+ * Benchmarks comparing block (all-at-once) and incremental Murmur3
+ * hash calculation, for both 32-bit and x64 128-bit variants.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashingBenchmark
+{
+    /**
+     * Chunk size to use for incremental updates, similar to read buffer
+     * sizes used when streaming content.
+     */
+    private final static int CHUNK_SIZE = 4000;
+
+    @Param({ "64", "1000", "64000" })
+    public int size;
+
+    protected byte[] _data;
+
+    protected IncrementalMurmur3Hasher _incrHasher;
+
+    protected IncrementalMurmur3x64Hasher _incrHasher128;
+
+    @Setup
+    public void setup() {
+        _data = BenchmarkData.randomData(size);
+        _incrHasher = new IncrementalMurmur3Hasher(0);
+        _incrHasher128 = new IncrementalMurmur3x64Hasher(0);
+    }
+
+    @Benchmark
+    public int blockMurmur3() {
+        return BlockMurmur3Hasher.instance.hash(0, _data, 0, _data.length);
+    }
+
+    @Benchmark
+    public int incrementalMurmur3() {
+        IncrementalMurmur3Hasher h = _incrHasher;
+        h.reset();
+        h.update(_data, 0, _data.length);
+        return h.calculateHash();
+    }
+
+    @Benchmark
+    public int incrementalMurmur3Chunked()
+    {
+        IncrementalMurmur3Hasher h = _incrHasher;
+        h.reset();
+        final byte[] data = _data;
+        for (int offset = 0, end = data.length; offset < end; offset += CHUNK_SIZE) {
+            h.update(data, offset, Math.min(CHUNK_SIZE, end - offset));
+        }
+        return h.calculateHash();
+    }
+
+    @Benchmark
+    public byte[] blockMurmur3x64() {
+        return BlockMurmur3x64Hasher.instance.hash128(0, _data, 0, _data.length);
+    }
+
+    @Benchmark
+    public byte[] incrementalMurmur3x64Chunked()
+    {
+        IncrementalMurmur3x64Hasher h = _incrHasher128;
+        h.reset();
+        final byte[] data = _data;
+        for (int offset = 0, end = data.length; offset < end; offset += CHUNK_SIZE) {
+            h.update(data, offset, Math.min(CHUNK_SIZE, end - offset));
+        }
+        return h.calculateHash128();
+    }
+}
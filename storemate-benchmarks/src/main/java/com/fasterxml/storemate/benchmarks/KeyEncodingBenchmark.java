@@ -0,0 +1,160 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.util.UTF8Encoder;
+import com.fasterxml.storemate.shared.util.UTF8UrlEncoder;
+import com.fasterxml.storemate.store.file.DefaultFilenameConverter;
+import com.fasterxml.storemate.store.file.FilenameConverter;
+
+/**
+ * Benchmarks for encoding keys as UTF-8, URL-encoding them and converting
+ * them to filenames, over sets of representative keys: all-ASCII path-like
+ * keys (the common case), keys with characters that need escaping, and
+ * keys with a non-ASCII character near the end. Character-by-character
+ * variants are included as the baseline for block-based ASCII handling.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyEncodingBenchmark
+{
+    private final static int KEY_COUNT = 64;
+
+    @Param({ "ascii", "escaped", "nonAscii" })
+    public String keySet;
+
+    @Param({ "32", "96" })
+    public int keyLength;
+
+    protected String[] _keys;
+
+    protected StorableKey[] _rawKeys;
+
+    protected final UTF8UrlEncoder _urlEncoder = new UTF8UrlEncoder();
+
+    protected final FilenameConverter _filenames = new DefaultFilenameConverter();
+
+    @Setup
+    public void setup()
+    {
+        _keys = new String[KEY_COUNT];
+        _rawKeys = new StorableKey[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            String key = new String(BenchmarkData.key(i * 37, keyLength).asBytes(),
+                    StandardCharsets.UTF_8);
+            if ("escaped".equals(keySet)) {
+                key = key.replace('-', ' ');
+            } else if ("nonAscii".equals(keySet)) {
+                key = key.substring(0, keyLength - 4) + "\u00E9" + key.substring(keyLength - 3);
+            }
+            _keys[i] = key;
+            _rawKeys[i] = new StorableKey(key.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public int utf8Encode() {
+        int total = 0;
+        for (String key : _keys) {
+            total += UTF8Encoder.encodeAsUTF8(key).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int utf8EncodeWithFluff() {
+        int total = 0;
+        for (String key : _keys) {
+            total += UTF8Encoder.encodeAsUTF8(key, 4, 2, false).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int utf8EncodeJdk() {
+        int total = 0;
+        for (String key : _keys) {
+            total += key.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int urlEncode() {
+        StringBuilder sb = new StringBuilder(200);
+        int total = 0;
+        for (String key : _keys) {
+            sb.setLength(0);
+            total += _urlEncoder.appendEncoded(sb, key, false).length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int urlEncodeCharwise() {
+        StringBuilder sb = new StringBuilder(200);
+        int total = 0;
+        for (String key : _keys) {
+            sb.setLength(0);
+            total += _urlEncodeCharwise(sb, key).length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int filename() {
+        int total = 0;
+        for (StorableKey key : _rawKeys) {
+            total += _filenames.createFilename(key).length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int filenameBytewise() {
+        int total = 0;
+        for (StorableKey key : _rawKeys) {
+            total += _filenameBytewise(key.asBytes()).length();
+        }
+        return total;
+    }
+
+    /*
+    /**********************************************************************
+    /* Baseline implementations
+    /**********************************************************************
+     */
+
+    private static StringBuilder _urlEncodeCharwise(StringBuilder sb, String input)
+    {
+        for (int i = 0, len = input.length(); i < len; ++i) {
+            char c = input.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~' || c == '/') {
+                sb.append(c);
+            } else {
+                // exact escaping does not matter for baseline, just the cost
+                sb.append('%').append(Integer.toHexString(c));
+            }
+        }
+        return sb;
+    }
+
+    private static String _filenameBytewise(byte[] key)
+    {
+        StringBuilder sb = new StringBuilder(Math.max(8, key.length));
+        for (byte b : key) {
+            boolean safe = (b > 32) && (b < 0x7F) && (b != '/') && (b != '"') && (b != '\\');
+            sb.append(safe ? (char) b : '_');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.store.util.PartitionedWriteMutex;
+
+/**
+ * Benchmarks for {@link PartitionedWriteMutex} under contention:
+ * multiple threads either writing distinct keys (contention only via
+ * partition collisions) or all writing the same key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PartitionedWriteMutexBenchmark
+{
+    private final static int KEY_COUNT = 1024;
+
+    /**
+     * Amount of simulated work done while holding the lock
+     */
+    private final static int WORK_TOKENS = 50;
+
+    @Param({ "4", "64" })
+    public int partitions;
+
+    @Param({ "true", "false" })
+    public boolean fair;
+
+    protected PartitionedWriteMutex _mutex;
+
+    protected StorableKey[] _keys;
+
+    protected final PartitionedWriteMutex.Callback<Object> _callback = new PartitionedWriteMutex.Callback<Object>() {
+        @Override
+        public Object performWrite(StorableKey key) {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return key;
+        }
+    };
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+
+        @Setup
+        public void setup() {
+            index = (int) Thread.currentThread().getId();
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        _mutex = new PartitionedWriteMutex(partitions, fair);
+        _keys = new StorableKey[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            _keys[i] = BenchmarkData.key(i, 32);
+        }
+    }
+
+    @Benchmark
+    public Object distinctKeys(ThreadState state) throws Exception
+    {
+        StorableKey key = _keys[(state.index++) & (KEY_COUNT-1)];
+        return _mutex.partitionedWrite(1L, key, _callback);
+    }
+
+    @Benchmark
+    public Object sameKey() throws Exception {
+        return _mutex.partitionedWrite(1L, _keys[0], _callback);
+    }
+}
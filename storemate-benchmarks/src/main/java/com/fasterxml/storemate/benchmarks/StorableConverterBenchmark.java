@@ -0,0 +1,86 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StorableCreationMetadata;
+import com.fasterxml.storemate.store.file.FileReference;
+import com.fasterxml.storemate.store.impl.StorableConverter;
+
+/**
+ * Benchmarks for encoding and decoding of entry metadata (and inlined
+ * payload) using {@link StorableConverter}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StorableConverterBenchmark
+{
+    @Param({ "100", "3000" })
+    public int inlineSize;
+
+    protected StorableConverter _converter;
+    protected StorableKey _key;
+    protected StorableCreationMetadata _inlineMetadata, _offlineMetadata;
+    protected ByteContainer _inlineData;
+    protected ByteContainer _customMetadata;
+    protected FileReference _fileRef;
+
+    protected byte[] _encodedInlined, _encodedOfflined;
+
+    protected long _modtime;
+
+    @Setup
+    public void setup()
+    {
+        _converter = new StorableConverter();
+        _key = BenchmarkData.key(1234, 40);
+        byte[] data = BenchmarkData.compressibleData(inlineSize);
+        _inlineData = ByteContainer.simple(data);
+        _customMetadata = ByteContainer.simple(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        _modtime = 1380000000000L;
+
+        _inlineMetadata = new StorableCreationMetadata(Compression.NONE,
+                BlockMurmur3Hasher.instance.hash(data), 0);
+        _inlineMetadata.storageSize = data.length;
+
+        _offlineMetadata = new StorableCreationMetadata(Compression.LZF, 0x12345678, 0x7654321);
+        _offlineMetadata.uncompressedSize = 250000L;
+        _offlineMetadata.storageSize = 80000L;
+        _fileRef = new FileReference(new File("/tmp/storemate/2013-09-28/12/34/key-1234.lzf"),
+                "2013-09-28/12/34/key-1234.lzf");
+
+        _encodedInlined = encodeInlined().asBytes();
+        _encodedOfflined = encodeOfflined().asBytes();
+    }
+
+    @Benchmark
+    public Storable encodeInlined() {
+        return _converter.encodeInlined(_key, _modtime, _inlineMetadata, _customMetadata, _inlineData);
+    }
+
+    @Benchmark
+    public Storable encodeOfflined() {
+        return _converter.encodeOfflined(_key, _modtime, _offlineMetadata, _customMetadata, _fileRef);
+    }
+
+    @Benchmark
+    public Storable decodeInlined() {
+        return _converter.decode(_key, _encodedInlined);
+    }
+
+    @Benchmark
+    public Storable decodeOfflined() {
+        return _converter.decode(_key, _encodedOfflined);
+    }
+}
@@ -0,0 +1,119 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+
+/**
+ * Benchmarks for {@link StorableKey} hash code calculation, equality
+ * and ordering checks; keys compared differ only at their last byte,
+ * which is the worst case. Byte-by-byte variants are included as the
+ * baseline for multi-byte comparisons that keys use.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StorableKeyBenchmark
+{
+    @Param({ "16", "32", "64", "128", "256" })
+    public int keyLength;
+
+    protected byte[] _keyBytes;
+
+    protected StorableKey _key, _equalKey, _differentKey;
+
+    /**
+     * Keys that are embedded in a bigger buffer at non-zero offsets,
+     * as is the case for keys extracted from index entries.
+     */
+    protected StorableKey _offsetKey, _otherOffsetKey;
+
+    @Setup
+    public void setup()
+    {
+        _key = BenchmarkData.key(1234, keyLength);
+        _keyBytes = _key.asBytes();
+        _equalKey = new StorableKey(Arrays.copyOf(_keyBytes, _keyBytes.length));
+        byte[] diff = Arrays.copyOf(_keyBytes, _keyBytes.length);
+        ++diff[diff.length-1];
+        _differentKey = new StorableKey(diff);
+
+        byte[] buf = new byte[keyLength + 8];
+        System.arraycopy(_keyBytes, 0, buf, 8, keyLength);
+        _offsetKey = new StorableKey(buf, 8, keyLength);
+        byte[] buf2 = new byte[keyLength + 3];
+        System.arraycopy(diff, 0, buf2, 3, keyLength);
+        _otherOffsetKey = new StorableKey(buf2, 3, keyLength);
+    }
+
+    /**
+     * Hash code calculation for a new key (hash codes are cached after
+     * first calculation)
+     */
+    @Benchmark
+    public int hashCodeNew() {
+        return new StorableKey(_keyBytes).hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return _key.equals(_equalKey);
+    }
+
+    @Benchmark
+    public int compareDifferent() {
+        return _key.compareTo(_differentKey);
+    }
+
+    @Benchmark
+    public int compareWithOffsets() {
+        return _offsetKey.compareTo(_otherOffsetKey);
+    }
+
+    @Benchmark
+    public boolean equalsSameBytewise() {
+        return _equalsBytewise(_keyBytes, _equalKey.asBytes());
+    }
+
+    @Benchmark
+    public int compareDifferentBytewise() {
+        return _compareBytewise(_keyBytes, _differentKey.asBytes());
+    }
+
+    /*
+    /**********************************************************************
+    /* Baseline implementations
+    /**********************************************************************
+     */
+
+    private static boolean _equalsBytewise(byte[] b1, byte[] b2)
+    {
+        final int len = b1.length;
+        if (b2.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (b1[i] != b2[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int _compareBytewise(byte[] b1, byte[] b2)
+    {
+        final int end = Math.min(b1.length, b2.length);
+        for (int i = 0; i < end; ++i) {
+            if (b1[i] != b2[i]) {
+                return (b1[i] & 0xFF) - (b2[i] & 0xFF);
+            }
+        }
+        return b1.length - b2.length;
+    }
+}
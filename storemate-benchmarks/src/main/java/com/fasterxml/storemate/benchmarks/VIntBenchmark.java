@@ -0,0 +1,88 @@
+package com.fasterxml.storemate.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.store.util.BytesToStuff;
+import com.fasterxml.storemate.store.util.StuffToBytes;
+
+/**
+ * Benchmarks for variable-length integer encoding and decoding used
+ * for entry metadata ({@link StuffToBytes}, {@link BytesToStuff}).
+ * Values have a mix of magnitudes, to exercise all encoded lengths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VIntBenchmark
+{
+    private final static int VALUE_COUNT = 1000;
+
+    protected int[] _ints;
+    protected long[] _longs;
+
+    protected byte[] _encodedInts, _encodedLongs;
+
+    @Setup
+    public void setup()
+    {
+        Random rnd = new Random(123);
+        _ints = new int[VALUE_COUNT];
+        _longs = new long[VALUE_COUNT];
+        for (int i = 0; i < VALUE_COUNT; ++i) {
+            // random number of significant bits, to get different lengths
+            _ints[i] = rnd.nextInt() >>> rnd.nextInt(32);
+            _longs[i] = rnd.nextLong() >>> rnd.nextInt(64);
+        }
+        _encodedInts = encodeVInts().asBytes();
+        _encodedLongs = encodeVLongs().asBytes();
+    }
+
+    @Benchmark
+    public ByteContainer encodeVInts()
+    {
+        StuffToBytes w = StuffToBytes.writer(VALUE_COUNT * StuffToBytes.MAX_VINT_LENGTH);
+        for (int value : _ints) {
+            w.appendVInt(value);
+        }
+        return w.bufferedBytes();
+    }
+
+    @Benchmark
+    public ByteContainer encodeVLongs()
+    {
+        StuffToBytes w = StuffToBytes.writer(VALUE_COUNT * StuffToBytes.MAX_VLONG_LENGTH);
+        for (long value : _longs) {
+            w.appendVLong(value);
+        }
+        return w.bufferedBytes();
+    }
+
+    @Benchmark
+    public int decodeVInts()
+    {
+        BytesToStuff r = new BytesToStuff(_encodedInts);
+        int result = 0;
+        for (int i = 0; i < VALUE_COUNT; ++i) {
+            result += r.nextVInt();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public long decodeVLongs()
+    {
+        BytesToStuff r = new BytesToStuff(_encodedLongs);
+        long result = 0L;
+        for (int i = 0; i < VALUE_COUNT; ++i) {
+            result += r.nextVLong();
+        }
+        return result;
+    }
+}
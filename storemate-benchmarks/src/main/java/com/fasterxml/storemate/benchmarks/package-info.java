@@ -0,0 +1,7 @@
+/**
+ * Package that contains JMH micro-benchmarks for hot code paths of
+ * shared and store modules. Benchmarks are run using
+ * {@link com.fasterxml.storemate.benchmarks.BenchmarkRunner}, which
+ * reports allocation rates in addition to throughput.
+ */
+package com.fasterxml.storemate.benchmarks;
@@ -0,0 +1,80 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+import java.io.File;
+
+import com.fasterxml.storemate.backend.bdbje.BDBJEBuilder;
+import com.fasterxml.storemate.backend.bdbje.BDBJEConfig;
+import com.fasterxml.storemate.backend.leveldb.LevelDBBuilder;
+import com.fasterxml.storemate.backend.leveldb.LevelDBConfig;
+import com.fasterxml.storemate.shared.TimeMaster;
+import com.fasterxml.storemate.store.StoreConfig;
+import com.fasterxml.storemate.store.StoreOperationThrottler;
+import com.fasterxml.storemate.store.backend.StoreBackend;
+import com.fasterxml.storemate.store.file.DefaultFilenameConverter;
+import com.fasterxml.storemate.store.file.FileManager;
+import com.fasterxml.storemate.store.file.FileManagerConfig;
+import com.fasterxml.storemate.store.impl.StorableStoreImpl;
+
+/**
+ * Enumeration of backends that workloads can be run against.
+ *<p>
+ * NOTE: LMDB backend is not (yet) included since its module is not part
+ * of the default build.
+ */
+public enum BackendType
+{
+    BDB_JE("bdb") {
+        @Override
+        public StoreBackend createBackend(File dbRoot, StoreConfig storeConfig) {
+            return new BDBJEBuilder(storeConfig, new BDBJEConfig(dbRoot)).buildCreateAndInit();
+        }
+    },
+
+    LEVELDB("leveldb") {
+        @Override
+        public StoreBackend createBackend(File dbRoot, StoreConfig storeConfig) {
+            return new LevelDBBuilder(storeConfig, new LevelDBConfig(dbRoot)).buildCreateAndInit();
+        }
+    },
+    ;
+
+    private final String _id;
+
+    private BackendType(String id) {
+        _id = id;
+    }
+
+    public String id() { return _id; }
+
+    public abstract StoreBackend createBackend(File dbRoot, StoreConfig storeConfig);
+
+    /**
+     * Helper method for constructing a complete store, with backend
+     * data under "db" and external files under "files" sub-directories
+     * of given root directory.
+     *
+     * @param throttler Throttler to use, if any; null for default
+     */
+    public StorableStoreImpl createStore(File root, StoreConfig storeConfig,
+            StoreOperationThrottler throttler)
+    {
+        File filesRoot = new File(root, "files");
+        storeConfig.dataRootForFiles = filesRoot;
+        TimeMaster timeMaster = TimeMaster.nonTestInstance();
+        FileManager fileManager = new FileManager(new FileManagerConfig(filesRoot),
+                timeMaster, new DefaultFilenameConverter());
+        StoreBackend backend = createBackend(new File(root, "db"), storeConfig);
+        return new StorableStoreImpl(storeConfig, backend, timeMaster,
+                fileManager, throttler, null);
+    }
+
+    public static BackendType forId(String id)
+    {
+        for (BackendType type : values()) {
+            if (type._id.equalsIgnoreCase(id) || type.name().equalsIgnoreCase(id)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unrecognized backend type '"+id+"'");
+    }
+}
@@ -0,0 +1,64 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Base class for settings objects that expose settings as public fields,
+ * which can be overridden from command line using "name=value" arguments.
+ */
+public abstract class CommandLineSettings<T extends CommandLineSettings<T>>
+{
+    /**
+     * Method for overriding settings with "name=value" arguments
+     * (where "name" is that of one of public fields).
+     */
+    @SuppressWarnings("unchecked")
+    public T withArgs(String[] args)
+    {
+        for (String arg : args) {
+            int ix = arg.indexOf('=');
+            if (ix <= 0) {
+                throw new IllegalArgumentException("Invalid argument '"+arg+"': expected 'name=value'");
+            }
+            set(arg.substring(0, ix).trim(), arg.substring(ix+1).trim());
+        }
+        return (T) this;
+    }
+
+    public void set(String name, String value)
+    {
+        Field f;
+        try {
+            f = getClass().getField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unrecognized setting '"+name+"'");
+        }
+        if (Modifier.isStatic(f.getModifiers())) {
+            throw new IllegalArgumentException("Unrecognized setting '"+name+"'");
+        }
+        Class<?> type = f.getType();
+        try {
+            if (type == String.class) {
+                f.set(this, value);
+            } else if (type == Integer.TYPE) {
+                f.setInt(this, Integer.parseInt(value));
+            } else if (type == Long.TYPE) {
+                f.setLong(this, Long.parseLong(value));
+            } else if (type == Double.TYPE) {
+                f.setDouble(this, Double.parseDouble(value));
+            } else if (type == Boolean.TYPE) {
+                f.setBoolean(this, Boolean.parseBoolean(value));
+            } else if (type == File.class) {
+                f.set(this, value.isEmpty() ? null : new File(value));
+            } else {
+                throw new IllegalStateException("Unsupported setting type "+type.getName());
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for '"+name+"': '"+value+"'");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+import java.util.Random;
+
+/**
+ * Enumeration of key access distributions, modelled after ones
+ * YCSB uses: uniform over all keys; (scrambled) Zipfian, where a small
+ * set of keys is popular but spread over the keyspace; and "latest",
+ * where most recently inserted keys are the most popular.
+ */
+public enum KeyDistribution
+{
+    UNIFORM,
+    ZIPFIAN,
+    LATEST
+    ;
+
+    /**
+     * Constant used by YCSB; popularity skew of Zipfian distribution
+     */
+    public final static double ZIPFIAN_CONSTANT = 0.99;
+
+    public static KeyDistribution forId(String id)
+    {
+        for (KeyDistribution d : values()) {
+            if (d.name().equalsIgnoreCase(id)) {
+                return d;
+            }
+        }
+        throw new IllegalArgumentException("Unrecognized key distribution '"+id+"'");
+    }
+
+    /**
+     * Factory method for constructing chooser for this distribution.
+     *
+     * @param maxItems Maximum number of items that may exist during the run,
+     *   used for pre-calculating Zipfian constants
+     */
+    public KeyChooser chooser(long maxItems)
+    {
+        switch (this) {
+        case UNIFORM:
+            return new UniformChooser();
+        case ZIPFIAN:
+            return new ZipfianChooser(maxItems, true);
+        case LATEST:
+            return new ZipfianChooser(maxItems, false);
+        }
+        throw new IllegalStateException();
+    }
+
+    /*
+    /**********************************************************************
+    /* Chooser implementations
+    /**********************************************************************
+     */
+
+    /**
+     * Object used to choose indexes of existing keys to access.
+     * Instances are thread-safe.
+     */
+    public abstract static class KeyChooser
+    {
+        /**
+         * @param itemCount Number of items inserted so far; result must be
+         *   between 0 (inclusive) and this value (exclusive)
+         */
+        public abstract long nextIndex(Random rnd, long itemCount);
+    }
+
+    static class UniformChooser extends KeyChooser
+    {
+        @Override
+        public long nextIndex(Random rnd, long itemCount) {
+            return (long) (rnd.nextDouble() * itemCount);
+        }
+    }
+
+    /**
+     * Zipfian generator based on "Quickly Generating Billion-Record Synthetic
+     * Databases" (Gray et al), as used by YCSB. Constants are calculated for
+     * the maximum item count; values beyond current item count are
+     * folded back into range.
+     */
+    static class ZipfianChooser extends KeyChooser
+    {
+        private final long _items;
+        private final double _theta, _zeta2theta, _alpha, _zetan, _eta;
+
+        /**
+         * Whether popular items are scattered across keyspace (true), or
+         * represent the most recently inserted items (false)
+         */
+        private final boolean _scrambled;
+
+        public ZipfianChooser(long items, boolean scrambled)
+        {
+            _items = Math.max(2L, items);
+            _scrambled = scrambled;
+            _theta = ZIPFIAN_CONSTANT;
+            _zeta2theta = _zeta(2, _theta);
+            _alpha = 1.0 / (1.0 - _theta);
+            _zetan = _zeta(_items, _theta);
+            _eta = (1 - Math.pow(2.0 / _items, 1 - _theta)) / (1 - _zeta2theta / _zetan);
+        }
+
+        @Override
+        public long nextIndex(Random rnd, long itemCount)
+        {
+            if (itemCount <= 1L) {
+                return 0L;
+            }
+            long rank = _nextRank(rnd);
+            if (_scrambled) {
+                return _fnvHash64(rank) % itemCount;
+            }
+            // "latest": rank 0 is the newest item
+            return itemCount - 1 - (rank % itemCount);
+        }
+
+        private long _nextRank(Random rnd)
+        {
+            double u = rnd.nextDouble();
+            double uz = u * _zetan;
+            if (uz < 1.0) {
+                return 0L;
+            }
+            if (uz < 1.0 + Math.pow(0.5, _theta)) {
+                return 1L;
+            }
+            return (long) (_items * Math.pow(_eta * u - _eta + 1, _alpha));
+        }
+
+        private static double _zeta(long n, double theta)
+        {
+            double sum = 0.0;
+            for (long i = 0; i < n; ++i) {
+                sum += 1.0 / Math.pow(i + 1, theta);
+            }
+            return sum;
+        }
+
+        private static long _fnvHash64(long value)
+        {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < 8; ++i) {
+                hash ^= (value & 0xFF);
+                hash *= 1099511628211L;
+                value >>>= 8;
+            }
+            return hash & Long.MAX_VALUE;
+        }
+    }
+}
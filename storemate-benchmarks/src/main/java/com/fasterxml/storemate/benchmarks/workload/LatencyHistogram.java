@@ -0,0 +1,106 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+/**
+ * Simple log-linear histogram for recording latencies (in microseconds)
+ * with bounded (about 3%) relative error, using fixed amount of memory.
+ * Instances are not thread-safe: each worker thread records into its own
+ * instance, and instances are merged at the end of the run.
+ */
+public class LatencyHistogram
+{
+    /**
+     * Number of sub-buckets per power of two (above linear range)
+     */
+    private final static int SUB_BUCKETS = 32;
+
+    /**
+     * Values below this are recorded exactly
+     */
+    private final static int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    private final static int BUCKET_COUNT = LINEAR_LIMIT + 58 * SUB_BUCKETS;
+
+    protected final long[] _counts = new long[BUCKET_COUNT];
+
+    protected long _total;
+    protected long _sum;
+    protected long _max;
+
+    public void record(long micros)
+    {
+        if (micros < 0L) {
+            micros = 0L;
+        }
+        ++_counts[_indexFor(micros)];
+        ++_total;
+        _sum += micros;
+        if (micros > _max) {
+            _max = micros;
+        }
+    }
+
+    public void merge(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            _counts[i] += other._counts[i];
+        }
+        _total += other._total;
+        _sum += other._sum;
+        if (other._max > _max) {
+            _max = other._max;
+        }
+    }
+
+    public long getCount() { return _total; }
+
+    public long getMax() { return _max; }
+
+    public double getMean() {
+        return (_total == 0L) ? 0.0 : ((double) _sum / _total);
+    }
+
+    /**
+     * @param percentile Percentile to calculate, between 0.0 and 100.0
+     *
+     * @return Highest value (upper bound of bucket) at given percentile
+     */
+    public long getPercentile(double percentile)
+    {
+        if (_total == 0L) {
+            return 0L;
+        }
+        long needed = (long) Math.ceil(_total * (percentile / 100.0));
+        if (needed < 1L) {
+            needed = 1L;
+        }
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += _counts[i];
+            if (seen >= needed) {
+                return Math.min(_max, _upperBound(i));
+            }
+        }
+        return _max;
+    }
+
+    private static int _indexFor(long value)
+    {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // shift such that (value >> shift) is within [SUB_BUCKETS, 2*SUB_BUCKETS)
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - 5;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    private static long _upperBound(int index)
+    {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int rel = index - LINEAR_LIMIT;
+        int shift = (rel / SUB_BUCKETS) + 1;
+        long base = (rel % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((base + 1) << shift) - 1;
+    }
+}
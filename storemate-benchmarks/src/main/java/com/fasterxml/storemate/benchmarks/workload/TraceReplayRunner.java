@@ -0,0 +1,85 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+import java.io.File;
+
+import com.fasterxml.storemate.store.StoreConfig;
+import com.fasterxml.storemate.store.impl.StorableStoreImpl;
+import com.fasterxml.storemate.store.trace.TraceReader;
+import com.fasterxml.storemate.store.trace.TraceReplayer;
+
+/**
+ * Command-line tool for replaying an operation trace (recorded with
+ * {@link com.fasterxml.storemate.store.trace.RecordingThrottler}) against
+ * a freshly created store, for comparing backends and configurations
+ * with production-shaped load.
+ *<p>
+ * Usage:
+ *<pre>
+ *   java --add-opens java.base/sun.nio.ch=ALL-UNNAMED -cp target/benchmarks.jar \
+ *      com.fasterxml.storemate.benchmarks.workload.TraceReplayRunner \
+ *      trace=ops.trace backends=bdb,leveldb speed=4.0
+ *</pre>
+ */
+public class TraceReplayRunner
+{
+    public static class Settings extends CommandLineSettings<Settings>
+    {
+        /**
+         * Trace file to replay
+         */
+        public File trace = null;
+
+        /**
+         * Comma-separated list of backends to replay trace against
+         */
+        public String backends = "bdb";
+
+        /**
+         * Replay speed relative to recorded: 1.0 for recorded pace;
+         * 0.0 for "as fast as possible"
+         */
+        public double speed = 1.0;
+
+        /**
+         * Whether to synthesize payloads matching recorded sizes (true),
+         * or use empty payloads (false)
+         */
+        public boolean synthesizePayloads = true;
+
+        public int threads = 8;
+
+        public int maxListEntries = 100;
+
+        public File workDir = null;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Settings settings = new Settings().withArgs(args);
+        if (settings.trace == null) {
+            System.err.println("Missing required argument 'trace=<file>'");
+            System.exit(1);
+        }
+        File parent = settings.workDir;
+        if (parent == null) {
+            parent = new File(System.getProperty("java.io.tmpdir"));
+        }
+        for (String id : settings.backends.split(",")) {
+            BackendType type = BackendType.forId(id.trim());
+            File root = new File(parent, "storemate-replay-"+type.id()+"-"+System.currentTimeMillis());
+            StorableStoreImpl store = type.createStore(root, new StoreConfig(), null);
+            store.start();
+            TraceReader reader = TraceReader.open(settings.trace);
+            try {
+                TraceReplayer replayer = new TraceReplayer(store, settings.speed,
+                        settings.synthesizePayloads, settings.threads, settings.maxListEntries);
+                TraceReplayer.Stats stats = replayer.replay(reader);
+                System.out.printf("%s: %s\n", type.id(), stats);
+            } finally {
+                reader.close();
+                store.stop();
+                WorkloadRunner._delete(root);
+            }
+        }
+    }
+}
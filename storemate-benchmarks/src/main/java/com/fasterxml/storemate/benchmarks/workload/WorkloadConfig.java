@@ -0,0 +1,226 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+import java.io.File;
+
+/**
+ * Configuration for a single workload run. Settings are public fields
+ * that can be overridden from command line using "name=value" arguments;
+ * see {@link #fromArgs}.
+ */
+public class WorkloadConfig
+    extends CommandLineSettings<WorkloadConfig>
+{
+    /*
+    /**********************************************************************
+    /* Store setup
+    /**********************************************************************
+     */
+
+    /**
+     * Comma-separated list of backends to run workload against;
+     * see {@link BackendType} for ids.
+     */
+    public String backends = "bdb,leveldb";
+
+    /**
+     * Directory under which temporary store directories are created;
+     * if null, system temporary directory is used.
+     */
+    public File workDir = null;
+
+    /**
+     * Whether store directories should be left in place after the run
+     * (for further inspection)
+     */
+    public boolean keepData = false;
+
+    /*
+    /**********************************************************************
+    /* Load shape
+    /**********************************************************************
+     */
+
+    /**
+     * Number of entries inserted before measured phase
+     */
+    public int recordCount = 20000;
+
+    /**
+     * Number of operations executed during measured phase (across all threads)
+     */
+    public int operationCount = 100000;
+
+    /**
+     * Optional maximum duration of measured phase, in seconds; 0 means
+     * "no limit" (only {@link #operationCount} is used)
+     */
+    public int maxSeconds = 0;
+
+    /**
+     * Number of worker threads for measured phase
+     */
+    public int threads = 4;
+
+    /**
+     * Key access distribution: "uniform", "zipfian" or "latest"
+     */
+    public String keyDistribution = "zipfian";
+
+    /**
+     * Length of generated keys, in bytes
+     */
+    public int keyLength = 24;
+
+    /**
+     * Seed for random number generation; worker threads derive their
+     * seeds from this value.
+     */
+    public long seed = 123L;
+
+    /*
+    /**********************************************************************
+    /* Operation mix; proportions need not add up to 1.0 (are normalized)
+    /**********************************************************************
+     */
+
+    public double readProportion = 0.50;
+
+    /**
+     * Proportion of updates (overwrites) of existing entries
+     */
+    public double updateProportion = 0.30;
+
+    /**
+     * Proportion of inserts of new entries
+     */
+    public double insertProportion = 0.10;
+
+    /**
+     * Proportion of hard deletes of existing entries
+     */
+    public double deleteProportion = 0.05;
+
+    /**
+     * Proportion of last-modified iterations (similar to sync list requests).
+     * Disabled by default since with BDB-JE, iterations concurrent with
+     * writes can run into lock timeouts.
+     */
+    public double iterateProportion = 0.0;
+
+    /**
+     * Maximum number of entries to traverse for a single last-modified iteration
+     */
+    public int iterationBatch = 100;
+
+    /*
+    /**********************************************************************
+    /* Value size mix; proportions need not add up to 1.0 (are normalized)
+    /**********************************************************************
+     */
+
+    /**
+     * Size of "small" values that are inlined in backend
+     */
+    public int inlineSize = 1000;
+    public double inlineProportion = 0.80;
+
+    /**
+     * Size of "medium" values stored in external files, but passed
+     * in as byte arrays
+     */
+    public int mediumSize = 20000;
+    public double mediumProportion = 0.15;
+
+    /**
+     * Size of "large" values, passed as streams
+     */
+    public int largeSize = 250000;
+    public double largeProportion = 0.05;
+
+    /**
+     * Whether generated values are compressible (text-like) or random
+     */
+    public boolean compressibleValues = true;
+
+    /*
+    /**********************************************************************
+    /* Output
+    /**********************************************************************
+     */
+
+    /**
+     * File to write results (JSON) to; if null, results are written
+     * to standard output
+     */
+    public File output = null;
+
+    /**
+     * Optional file to record operation trace of the run (including preload)
+     * to (see {@link com.fasterxml.storemate.store.trace.RecordingThrottler});
+     * if multiple backends are run, backend id is appended to the name.
+     */
+    public File trace = null;
+
+    /*
+    /**********************************************************************
+    /* Construction
+    /**********************************************************************
+     */
+
+    /**
+     * Factory method that constructs configuration with defaults, overridden
+     * with "name=value" arguments (where "name" is that of one of public
+     * fields).
+     */
+    public static WorkloadConfig fromArgs(String[] args) {
+        return new WorkloadConfig().withArgs(args);
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods
+    /**********************************************************************
+     */
+
+    public KeyDistribution keyDistribution() {
+        return KeyDistribution.forId(keyDistribution);
+    }
+
+    /**
+     * Returns cumulative, normalized operation mix, in order of
+     * read, update, insert, delete, iterate.
+     */
+    public double[] operationMix() {
+        return _cumulative(readProportion, updateProportion, insertProportion,
+                deleteProportion, iterateProportion);
+    }
+
+    /**
+     * Returns cumulative, normalized value size mix, in order of
+     * inline, medium, large.
+     */
+    public double[] valueSizeMix() {
+        return _cumulative(inlineProportion, mediumProportion, largeProportion);
+    }
+
+    private static double[] _cumulative(double... values)
+    {
+        double total = 0.0;
+        for (double d : values) {
+            if (d < 0.0) {
+                throw new IllegalArgumentException("Negative proportion: "+d);
+            }
+            total += d;
+        }
+        if (total <= 0.0) {
+            throw new IllegalArgumentException("At least one proportion must be positive");
+        }
+        double[] result = new double[values.length];
+        double sum = 0.0;
+        for (int i = 0; i < values.length; ++i) {
+            sum += values[i];
+            result[i] = sum / total;
+        }
+        return result;
+    }
+}
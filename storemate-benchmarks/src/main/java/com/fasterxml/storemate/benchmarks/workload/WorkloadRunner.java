@@ -0,0 +1,565 @@
+package com.fasterxml.storemate.benchmarks.workload;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.storemate.benchmarks.BenchmarkData;
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.TimeMaster;
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.backend.IterationAction;
+import com.fasterxml.storemate.store.backend.StorableLastModIterationCallback;
+import com.fasterxml.storemate.store.impl.StorableStoreImpl;
+import com.fasterxml.storemate.store.trace.RecordingThrottler;
+import com.fasterxml.storemate.store.trace.TraceWriter;
+
+/**
+ * YCSB-style end-to-end workload driver: builds a complete
+ * {@link StorableStoreImpl} (with actual file manager and backend) in
+ * a temporary directory, preloads it, then runs configured mix of
+ * reads, updates, inserts, deletes and last-modified iterations from
+ * multiple threads. Results (throughput, latency percentiles per operation
+ * type, bytes written to disk and growth of store directories) are
+ * written as JSON, one object per backend.
+ *<p>
+ * Usage:
+ *<pre>
+ *   java --add-opens java.base/sun.nio.ch=ALL-UNNAMED -cp target/benchmarks.jar \
+ *      com.fasterxml.storemate.benchmarks.workload.WorkloadRunner \
+ *      backends=bdb,leveldb threads=8 keyDistribution=latest output=results.json
+ *</pre>
+ * ("--add-opens" is needed for LevelDB backend on Java 9 and above)
+ * See {@link WorkloadConfig} for all settings.
+ */
+public class WorkloadRunner
+{
+    /**
+     * Operation types, in order matching {@link WorkloadConfig#operationMix()}
+     */
+    protected enum Op {
+        READ, UPDATE, INSERT, DELETE, ITERATE;
+    }
+
+    protected final static int VALUE_INLINE = 0;
+    protected final static int VALUE_MEDIUM = 1;
+    protected final static int VALUE_LARGE = 2;
+
+    protected final WorkloadConfig _config;
+
+    /**
+     * Shared source for value contents: values are slices of this buffer
+     * at random offsets, to avoid generation overhead during measurement.
+     */
+    protected final byte[] _valueSource;
+
+    public WorkloadRunner(WorkloadConfig config)
+    {
+        _config = config;
+        int maxValue = Math.max(config.largeSize, Math.max(config.mediumSize, config.inlineSize));
+        int len = 2 * maxValue + 1024;
+        _valueSource = config.compressibleValues ? BenchmarkData.compressibleData(len)
+                : BenchmarkData.randomData(len);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        WorkloadConfig config = WorkloadConfig.fromArgs(args);
+        WorkloadRunner runner = new WorkloadRunner(config);
+        StringBuilder sb = new StringBuilder(1000);
+        sb.append("[\n");
+        String[] ids = config.backends.split(",");
+        for (int i = 0; i < ids.length; ++i) {
+            BackendType type = BackendType.forId(ids[i].trim());
+            System.err.printf("Running workload against backend '%s'...\n", type.id());
+            Map<String,Object> result = runner.run(type);
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            sb.append("  ");
+            _appendJson(sb, result, 1);
+        }
+        sb.append("\n]\n");
+        if (config.output == null) {
+            System.out.print(sb);
+        } else {
+            Writer w = new OutputStreamWriter(new FileOutputStream(config.output), "UTF-8");
+            try {
+                w.write(sb.toString());
+            } finally {
+                w.close();
+            }
+            System.err.printf("Results written to '%s'\n", config.output.getAbsolutePath());
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Main run method
+    /**********************************************************************
+     */
+
+    public Map<String,Object> run(BackendType backendType) throws Exception
+    {
+        final WorkloadConfig config = _config;
+        File root = _createRootDir(backendType);
+        File dbRoot = new File(root, "db");
+        File filesRoot = new File(root, "files");
+
+        RecordingThrottler recorder = null;
+        if (config.trace != null) {
+            File traceFile = config.trace;
+            if (config.backends.indexOf(',') >= 0) {
+                traceFile = new File(traceFile.getPath()+"."+backendType.id());
+            }
+            recorder = new RecordingThrottler(null,
+                    TraceWriter.create(traceFile, System.currentTimeMillis()));
+        }
+        StorableStoreImpl store = backendType.createStore(root, new StoreConfig(), recorder);
+        final TimeMaster timeMaster = store.getTimeMaster();
+        store.start();
+
+        Map<String,Object> result = new LinkedHashMap<String,Object>();
+        try {
+            result.put("backend", backendType.id());
+            result.put("threads", config.threads);
+            result.put("keyDistribution", config.keyDistribution().name().toLowerCase());
+            result.put("recordCount", config.recordCount);
+
+            final long startTime = timeMaster.currentTimeMillis();
+            final AtomicLong itemCount = new AtomicLong(0L);
+
+            // First: preload phase, single-threaded, not measured by operation
+            long ioStart = _diskBytesWritten();
+            Worker loader = new Worker(store, timeMaster, startTime, itemCount, null,
+                    new Random(config.seed));
+            long nanos = System.nanoTime();
+            for (int i = 0; i < config.recordCount; ++i) {
+                loader.insert();
+            }
+            nanos = System.nanoTime() - nanos;
+            long ioAfterLoad = _diskBytesWritten();
+
+            Map<String,Object> load = new LinkedHashMap<String,Object>();
+            load.put("durationMsecs", nanos / 1000000L);
+            load.put("throughputOpsPerSec", _perSecond(config.recordCount, nanos));
+            load.put("payloadBytesWritten", loader._payloadBytes);
+            load.put("diskBytesWritten", _delta(ioStart, ioAfterLoad));
+            load.put("dbSizeBytes", _dirSize(dbRoot));
+            load.put("fileSizeBytes", _dirSize(filesRoot));
+            result.put("load", load);
+
+            // Then measured run
+            final KeyDistribution.KeyChooser chooser = config.keyDistribution().chooser(
+                    config.recordCount + (long) (config.operationCount * config.insertProportion) + 1);
+            final AtomicLong opsLeft = new AtomicLong(config.operationCount);
+            final long deadline = (config.maxSeconds <= 0) ? Long.MAX_VALUE
+                    : (System.currentTimeMillis() + 1000L * config.maxSeconds);
+            final Worker[] workers = new Worker[Math.max(1, config.threads)];
+            Thread[] threads = new Thread[workers.length];
+            for (int i = 0; i < workers.length; ++i) {
+                final Worker w = new Worker(store, timeMaster, startTime, itemCount, chooser,
+                        new Random(config.seed + i + 1));
+                workers[i] = w;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        w.runOperations(opsLeft, deadline);
+                    }
+                }, "workload-"+i);
+            }
+            nanos = System.nanoTime();
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            nanos = System.nanoTime() - nanos;
+            long ioEnd = _diskBytesWritten();
+
+            LatencyHistogram[] hists = new LatencyHistogram[Op.values().length];
+            for (int i = 0; i < hists.length; ++i) {
+                hists[i] = new LatencyHistogram();
+            }
+            long totalOps = 0L, errors = 0L, notFound = 0L, payloadBytes = 0L;
+            for (Worker w : workers) {
+                for (int i = 0; i < hists.length; ++i) {
+                    hists[i].merge(w._latencies[i]);
+                    totalOps += w._latencies[i].getCount();
+                }
+                errors += w._errors;
+                notFound += w._notFound;
+                payloadBytes += w._payloadBytes;
+            }
+            Map<String,Object> run = new LinkedHashMap<String,Object>();
+            run.put("operations", totalOps);
+            run.put("durationMsecs", nanos / 1000000L);
+            run.put("throughputOpsPerSec", _perSecond(totalOps, nanos));
+            run.put("errors", errors);
+            run.put("notFound", notFound);
+            run.put("payloadBytesWritten", payloadBytes);
+            run.put("diskBytesWritten", _delta(ioAfterLoad, ioEnd));
+            run.put("dbSizeBytes", _dirSize(dbRoot));
+            run.put("fileSizeBytes", _dirSize(filesRoot));
+            run.put("entryCount", store.getEntryCount());
+            Map<String,Object> latencies = new LinkedHashMap<String,Object>();
+            for (Op op : Op.values()) {
+                LatencyHistogram h = hists[op.ordinal()];
+                if (h.getCount() > 0L) {
+                    latencies.put(op.name().toLowerCase(), _latencyStats(h));
+                }
+            }
+            run.put("latencyMicros", latencies);
+            result.put("run", run);
+        } finally {
+            store.stop();
+            if (recorder != null) {
+                recorder.stopRecording();
+            }
+            if (!config.keepData) {
+                _delete(root);
+            }
+        }
+        return result;
+    }
+
+    /*
+    /**********************************************************************
+    /* Worker implementation
+    /**********************************************************************
+     */
+
+    protected class Worker
+    {
+        protected final StorableStore _store;
+        protected final TimeMaster _timeMaster;
+        protected final long _startTime;
+        protected final AtomicLong _itemCount;
+        protected final KeyDistribution.KeyChooser _chooser;
+        protected final Random _rnd;
+
+        protected final double[] _opMix;
+        protected final double[] _sizeMix;
+
+        protected final LatencyHistogram[] _latencies;
+
+        protected long _errors, _notFound, _payloadBytes;
+
+        protected final byte[] _readBuffer = new byte[16000];
+
+        public Worker(StorableStore store, TimeMaster timeMaster, long startTime,
+                AtomicLong itemCount, KeyDistribution.KeyChooser chooser, Random rnd)
+        {
+            _store = store;
+            _timeMaster = timeMaster;
+            _startTime = startTime;
+            _itemCount = itemCount;
+            _chooser = chooser;
+            _rnd = rnd;
+            _opMix = _config.operationMix();
+            _sizeMix = _config.valueSizeMix();
+            _latencies = new LatencyHistogram[Op.values().length];
+            for (int i = 0; i < _latencies.length; ++i) {
+                _latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        public void runOperations(AtomicLong opsLeft, long deadline)
+        {
+            int count = 0;
+            while (opsLeft.decrementAndGet() >= 0L) {
+                // checking time is not free, so only do it every now and then
+                if ((++count & 0x3F) == 0 && System.currentTimeMillis() > deadline) {
+                    break;
+                }
+                Op op = _chooseOp();
+                long start = System.nanoTime();
+                try {
+                    switch (op) {
+                    case READ:
+                        read();
+                        break;
+                    case UPDATE:
+                        update();
+                        break;
+                    case INSERT:
+                        insert();
+                        break;
+                    case DELETE:
+                        delete();
+                        break;
+                    case ITERATE:
+                        iterate();
+                        break;
+                    }
+                } catch (Exception e) {
+                    if (++_errors == 1L) {
+                        System.err.printf("First failure for %s: %s\n", op, e);
+                    }
+                }
+                _latencies[op.ordinal()].record((System.nanoTime() - start) / 1000L);
+            }
+        }
+
+        public void read() throws IOException, StoreException
+        {
+            Storable entry = _store.findEntry(StoreOperationSource.REQUEST, null, _existingKey());
+            if (entry == null) {
+                ++_notFound;
+                return;
+            }
+            // also need to read external content, to get realistic cost
+            if (entry.hasExternalData()) {
+                InputStream in = new FileInputStream(entry.getExternalFile(_store.getFileManager()));
+                try {
+                    while (in.read(_readBuffer) >= 0) { }
+                } finally {
+                    in.close();
+                }
+            }
+        }
+
+        public void update() throws IOException, StoreException
+        {
+            _put(_existingKey(), true);
+        }
+
+        public void insert() throws IOException, StoreException
+        {
+            _put(_key(_itemCount.getAndIncrement()), false);
+        }
+
+        public void delete() throws IOException, StoreException
+        {
+            StorableDeletionResult result = _store.hardDelete(StoreOperationSource.REQUEST, null,
+                    _existingKey(), true);
+            if (result.getEntry() == null) {
+                ++_notFound;
+            }
+        }
+
+        public void iterate() throws StoreException
+        {
+            // start from a random point in time, since start of the run
+            long now = _timeMaster.currentTimeMillis();
+            long span = Math.max(1L, now - _startTime);
+            long firstTimestamp = _startTime + (long) (_rnd.nextDouble() * span);
+            final int max = _config.iterationBatch;
+            _store.iterateEntriesByModifiedTime(StoreOperationSource.REQUEST, null, firstTimestamp,
+                    new StorableLastModIterationCallback() {
+                        int count = 0;
+
+                        @Override
+                        public IterationAction verifyTimestamp(long timestamp) {
+                            return IterationAction.PROCESS_ENTRY;
+                        }
+
+                        @Override
+                        public IterationAction verifyKey(StorableKey key) {
+                            return IterationAction.PROCESS_ENTRY;
+                        }
+
+                        @Override
+                        public IterationAction processEntry(Storable entry) {
+                            return (++count < max) ? IterationAction.PROCESS_ENTRY
+                                    : IterationAction.TERMINATE_ITERATION;
+                        }
+            });
+        }
+
+        protected void _put(StorableKey key, boolean update) throws IOException, StoreException
+        {
+            int sizeType = _chooseValueSize();
+            int size = (sizeType == VALUE_INLINE) ? _config.inlineSize
+                    : ((sizeType == VALUE_MEDIUM) ? _config.mediumSize : _config.largeSize);
+            int offset = _rnd.nextInt(_valueSource.length - size);
+            // let store calculate checksum, compress
+            StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                    HashConstants.NO_CHECKSUM, HashConstants.NO_CHECKSUM);
+            StorableCreationResult result;
+            if (sizeType == VALUE_LARGE) { // streamed
+                InputStream in = new ByteArrayInputStream(_valueSource, offset, size);
+                if (update) {
+                    result = _store.upsert(StoreOperationSource.REQUEST, null, key, in,
+                            metadata, null, true);
+                } else {
+                    result = _store.insert(StoreOperationSource.REQUEST, null, key, in,
+                            metadata, null);
+                }
+            } else {
+                ByteContainer data = ByteContainer.simple(_valueSource, offset, size);
+                if (update) {
+                    result = _store.upsert(StoreOperationSource.REQUEST, null, key, data,
+                            metadata, null, true);
+                } else {
+                    result = _store.insert(StoreOperationSource.REQUEST, null, key, data,
+                            metadata, null);
+                }
+            }
+            if (result.succeeded()) {
+                _payloadBytes += size;
+            }
+        }
+
+        protected StorableKey _existingKey() {
+            long count = Math.max(1L, _itemCount.get());
+            return _key(_chooser.nextIndex(_rnd, count));
+        }
+
+        protected StorableKey _key(long index) {
+            return BenchmarkData.key((int) index, _config.keyLength);
+        }
+
+        protected Op _chooseOp() {
+            return Op.values()[_choose(_opMix)];
+        }
+
+        protected int _chooseValueSize() {
+            return _choose(_sizeMix);
+        }
+
+        private int _choose(double[] cumulative)
+        {
+            double d = _rnd.nextDouble();
+            for (int i = 0, end = cumulative.length-1; i < end; ++i) {
+                if (d < cumulative[i]) {
+                    return i;
+                }
+            }
+            return cumulative.length-1;
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods, measurements
+    /**********************************************************************
+     */
+
+    protected static Map<String,Object> _latencyStats(LatencyHistogram h)
+    {
+        Map<String,Object> stats = new LinkedHashMap<String,Object>();
+        stats.put("count", h.getCount());
+        stats.put("mean", Math.round(h.getMean() * 10.0) / 10.0);
+        stats.put("p50", h.getPercentile(50.0));
+        stats.put("p95", h.getPercentile(95.0));
+        stats.put("p99", h.getPercentile(99.0));
+        stats.put("p999", h.getPercentile(99.9));
+        stats.put("max", h.getMax());
+        return stats;
+    }
+
+    /**
+     * Method for finding out how many bytes this process has caused to be
+     * written to storage devices; only available on Linux (via "/proc/self/io").
+     *
+     * @return Number of bytes written, if known; -1 if not
+     */
+    protected static long _diskBytesWritten()
+    {
+        File f = new File("/proc/self/io");
+        if (!f.canRead()) {
+            return -1L;
+        }
+        try {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    if (line.startsWith("write_bytes:")) {
+                        return Long.parseLong(line.substring(12).trim());
+                    }
+                }
+            } finally {
+                r.close();
+            }
+        } catch (Exception e) { }
+        return -1L;
+    }
+
+    protected static long _delta(long start, long end) {
+        return (start < 0L || end < 0L) ? -1L : (end - start);
+    }
+
+    protected static long _perSecond(long count, long nanos) {
+        return (nanos <= 0L) ? 0L : (long) (count * 1000000000.0 / nanos);
+    }
+
+    protected static long _dirSize(File f)
+    {
+        if (f.isFile()) {
+            return f.length();
+        }
+        long total = 0L;
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                total += _dirSize(child);
+            }
+        }
+        return total;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods, other
+    /**********************************************************************
+     */
+
+    protected File _createRootDir(BackendType type) throws IOException
+    {
+        File parent = _config.workDir;
+        if (parent == null) {
+            parent = new File(System.getProperty("java.io.tmpdir"));
+        }
+        File dir = new File(parent, "storemate-workload-"+type.id()+"-"+System.currentTimeMillis());
+        if (!dir.mkdirs()) {
+            throw new IOException("Failed to create work directory '"+dir.getAbsolutePath()+"'");
+        }
+        return dir;
+    }
+
+    protected static void _delete(File f)
+    {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                _delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static void _appendJson(StringBuilder sb, Map<String,Object> map, int indent)
+    {
+        sb.append("{");
+        int i = 0;
+        for (Map.Entry<String,Object> en : map.entrySet()) {
+            if (i++ > 0) {
+                sb.append(',');
+            }
+            sb.append('\n');
+            for (int j = 0; j <= indent; ++j) {
+                sb.append("  ");
+            }
+            sb.append('"').append(en.getKey()).append("\": ");
+            Object value = en.getValue();
+            if (value instanceof Map<?,?>) {
+                _appendJson(sb, (Map<String,Object>) value, indent+1);
+            } else if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else {
+                sb.append('"').append(String.valueOf(value)).append('"');
+            }
+        }
+        sb.append('\n');
+        for (int j = 0; j < indent; ++j) {
+            sb.append("  ");
+        }
+        sb.append("}");
+    }
+}
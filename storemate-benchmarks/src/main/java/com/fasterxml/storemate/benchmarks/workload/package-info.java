@@ -0,0 +1,7 @@
+/**
+ * Package that contains a YCSB-style end-to-end workload generator that
+ * drives a full {@link com.fasterxml.storemate.store.impl.StorableStoreImpl}
+ * over different backends, for comparing backends and configurations.
+ * Main class is {@link com.fasterxml.storemate.benchmarks.workload.WorkloadRunner}.
+ */
+package com.fasterxml.storemate.benchmarks.workload;
@@ -1,14 +1,26 @@
 package com.fasterxml.storemate.shared;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
+import com.fasterxml.storemate.shared.hash.BlockHasher128;
 import com.fasterxml.storemate.shared.hash.BlockHasher32;
+import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
+import com.fasterxml.storemate.shared.hash.BlockMurmur3x64Hasher;
+import com.fasterxml.storemate.shared.hash.IncrementalHasher32;
+import com.fasterxml.storemate.shared.hash.IncrementalMurmur3Hasher;
+import com.fasterxml.storemate.shared.hash.IncrementalMurmur3x64Hasher;
+import com.fasterxml.storemate.shared.util.BufferPool;
 import com.fasterxml.storemate.shared.util.WithBytesCallback;
 
 /**
- * Simple read-only wrapper around basic in-heap byte array, used for buffering.
+ * Simple read-only wrapper around basic in-heap byte array, used for buffering;
+ * or, alternatively, around a {@link ByteBuffer} (heap, direct or memory-mapped).
  */
 public abstract class ByteContainer
 {
@@ -34,7 +46,76 @@ public abstract class ByteContainer
         }
         return new SimpleContainer(bytes, offset, len);
     }
+
+    /**
+     * Factory method for constructing a container for remaining contents
+     * (from position to limit) of given {@link ByteBuffer}. Buffer is not
+     * copied, nor is its position or limit modified; but caller must
+     * ensure that contents are not modified while container is used.
+     *<p>
+     * Note that for direct (and memory-mapped) buffers, access via
+     * {@link #withBytes} and {@link #asBytes} requires copying of contents;
+     * other access methods avoid copying.
+     */
+    public final static ByteContainer forBuffer(ByteBuffer buffer)
+    {
+        if (buffer == null) throw new IllegalArgumentException("Null 'buffer'");
+        if (!buffer.hasRemaining()) {
+            return emptyContainer();
+        }
+        return new BufferContainer(buffer.slice());
+    }
     
+    /**
+     * Factory method for constructing a container for logical concatenation
+     * of given segments; segments are not copied, so caller must ensure that
+     * their contents are not modified while container is used.
+     *<p>
+     * Note that since contents are not contiguous, access via
+     * {@link #withBytes}, {@link #asBytes} and {@link #asByteBuffer} requires
+     * copying of contents; other access methods avoid copying.
+     *
+     * @param segments Segments to include
+     * @param lengths Number of bytes to include from each segment (starting
+     *   from the beginning of segment)
+     */
+    public final static ByteContainer forSegments(byte[][] segments, int[] lengths)
+    {
+        if (segments.length != lengths.length) {
+            throw new IllegalArgumentException("Mismatch between number of segments ("+segments.length
+                    +") and lengths ("+lengths.length+")");
+        }
+        // Skip empty segments, to keep lookups simple
+        int count = 0;
+        for (int i = 0; i < segments.length; ++i) {
+            if (lengths[i] < 0 || lengths[i] > segments[i].length) {
+                throw new IllegalArgumentException("Illegal length for segment #"+i+" ("+lengths[i]
+                        +"): segment length "+segments[i].length);
+            }
+            if (lengths[i] > 0) {
+                ++count;
+            }
+        }
+        if (count == 0) {
+            return emptyContainer();
+        }
+        byte[][] segs = new byte[count][];
+        int[] starts = new int[count+1];
+        int total = 0;
+        for (int i = 0, ix = 0; i < segments.length; ++i) {
+            if (lengths[i] > 0) {
+                segs[ix] = segments[i];
+                starts[ix++] = total;
+                total += lengths[i];
+            }
+        }
+        starts[count] = total;
+        if (count == 1) {
+            return new SimpleContainer(segs[0], 0, total);
+        }
+        return new SegmentedContainer(segs, starts, 0, total);
+    }
+
     /**
      * Accessor for checking how many bytes are contained.
      */
@@ -74,10 +155,35 @@ public abstract class ByteContainer
     public abstract byte[] asBytes();
 
     public abstract int hash(BlockHasher32 hasher, int seed);
+
+    /**
+     * Method for calculating 128-bit hash of contents, as 16-byte array.
+     */
+    public abstract byte[] hash128(BlockHasher128 hasher, int seed);
     
     public abstract void writeBytes(OutputStream out) throws IOException;
 
     public abstract void writeBytes(OutputStream out, int offset, int length) throws IOException;
+
+    /**
+     * Method for writing all contents into given channel; for direct
+     * buffer-backed containers this avoids copying contents to heap.
+     */
+    public void writeBytes(WritableByteChannel out) throws IOException
+    {
+        ByteBuffer bb = asByteBuffer();
+        while (bb.hasRemaining()) {
+            out.write(bb);
+        }
+    }
+
+    /**
+     * Method for accessing contents as a read-only {@link ByteBuffer},
+     * without copying (except for segmented containers, which need to
+     * copy contents). Returned buffer has position of 0 and limit of
+     * {@link #byteLength()}.
+     */
+    public abstract ByteBuffer asByteBuffer();
     
     private final static class NoBytesContainer extends ByteContainer
     {
@@ -101,9 +207,16 @@ public abstract class ByteContainer
 
         @Override public byte[] asBytes() { return NO_BYTES; }
 
+        @Override public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(NO_BYTES).asReadOnlyBuffer();
+        }
+
         @Override public int hash(BlockHasher32 hasher, int seed) {
             return hasher.hash(seed, NO_BYTES);
         }
+        @Override public byte[] hash128(BlockHasher128 hasher, int seed) {
+            return hasher.hash128(seed, NO_BYTES, 0, 0);
+        }
         
         @Override public void writeBytes(OutputStream out)  { }
         @Override
@@ -167,10 +280,18 @@ public abstract class ByteContainer
             }
             return Arrays.copyOfRange(_data, _offset, _offset + _length);
         }
+
+        @Override
+        public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(_data, _offset, _length).slice().asReadOnlyBuffer();
+        }
         
         @Override public int hash(BlockHasher32 hasher, int seed) {
             return hasher.hash(seed, _data, _offset, _length);
         }
+        @Override public byte[] hash128(BlockHasher128 hasher, int seed) {
+            return hasher.hash128(seed, _data, _offset, _length);
+        }
         
         @Override public void writeBytes(OutputStream out) throws IOException {
             out.write(_data, _offset, _length);
@@ -210,4 +331,350 @@ public abstract class ByteContainer
             return new SimpleContainer(_data, _offset + offset, length);
         }
     }
+
+    /**
+     * Container that wraps a {@link ByteBuffer}; if buffer is backed by
+     * an accessible array, that is used directly, otherwise contents are
+     * accessed using absolute (relative to start of the slice) reads.
+     */
+    private final static class BufferContainer extends ByteContainer
+    {
+        /**
+         * Size of buffer used for copying contents of direct buffers into streams,
+         * when no better method is available.
+         */
+        private final static int COPY_BUFFER_SIZE = 8000;
+
+        /**
+         * Slice of contents, with position of 0 and limit of length;
+         * never modified (only its duplicates are)
+         */
+        private final ByteBuffer _buffer;
+
+        private final int _length;
+
+        BufferContainer(ByteBuffer slice) {
+            _buffer = slice;
+            _length = slice.remaining();
+        }
+
+        @Override public int byteLength() {
+            return _length;
+        }
+
+        @Override public byte get(int index) {
+            if (index < 0 || index >= _length) {
+                throw new IllegalArgumentException("Bad offset ("+index+"); this length is "+_length);
+            }
+            return _buffer.get(index);
+        }
+
+        @Override public int getBytes(byte[] buffer, int offset) {
+            _range(0, _length).get(buffer, offset, _length);
+            return (offset + _length);
+        }
+
+        @Override
+        public byte[] asBytes() {
+            byte[] result = new byte[_length];
+            _range(0, _length).get(result);
+            return result;
+        }
+
+        @Override
+        public ByteBuffer asByteBuffer() {
+            return _buffer.asReadOnlyBuffer();
+        }
+
+        @Override public int hash(BlockHasher32 hasher, int seed) {
+            return hasher.hash(seed, _range(0, _length));
+        }
+        @Override public byte[] hash128(BlockHasher128 hasher, int seed) {
+            return hasher.hash128(seed, _range(0, _length));
+        }
+
+        @Override public void writeBytes(OutputStream out) throws IOException {
+            _writeBytes(out, 0, _length);
+        }
+
+        @Override
+        public void writeBytes(OutputStream out, int offset, int length) throws IOException
+        {
+            _checkRange(offset, length);
+            _writeBytes(out, offset, length);
+        }
+
+        @Override
+        public void writeBytes(WritableByteChannel out) throws IOException
+        {
+            ByteBuffer bb = _range(0, _length);
+            while (bb.hasRemaining()) {
+                out.write(bb);
+            }
+        }
+
+        @Override public <T> T withBytes(WithBytesCallback<T> cb) {
+            return withBytes(cb, 0, _length);
+        }
+
+        @Override public <T> T withBytes(WithBytesCallback<T> cb, int offset, int length) {
+            _checkRange(offset, length);
+            if (_buffer.hasArray()) {
+                return cb.withBytes(_buffer.array(), _buffer.arrayOffset() + offset, length);
+            }
+            byte[] copy = new byte[length];
+            _range(offset, length).get(copy);
+            return cb.withBytes(copy, 0, length);
+        }
+
+        @Override
+        public ByteContainer view(int offset, int length) {
+            if (offset == 0 && length == _length) {
+                return this;
+            }
+            _checkRange(offset, length);
+            if (length == 0) {
+                return emptyContainer();
+            }
+            return new BufferContainer(_range(offset, length).slice());
+        }
+
+        private void _writeBytes(OutputStream out, int offset, int length) throws IOException
+        {
+            if (_buffer.hasArray()) {
+                out.write(_buffer.array(), _buffer.arrayOffset() + offset, length);
+                return;
+            }
+            // File streams can write direct buffers without intermediate copy
+            if (out instanceof FileOutputStream) {
+                ByteBuffer bb = _range(offset, length);
+                WritableByteChannel ch = ((FileOutputStream) out).getChannel();
+                while (bb.hasRemaining()) {
+                    ch.write(bb);
+                }
+                return;
+            }
+            ByteBuffer bb = _range(offset, length);
+            byte[] copyBuffer = BufferPool.instance.borrow(COPY_BUFFER_SIZE);
+            try {
+                while (bb.hasRemaining()) {
+                    int count = Math.min(bb.remaining(), copyBuffer.length);
+                    bb.get(copyBuffer, 0, count);
+                    out.write(copyBuffer, 0, count);
+                }
+            } finally {
+                BufferPool.instance.release(copyBuffer);
+            }
+        }
+
+        private ByteBuffer _range(int offset, int length)
+        {
+            ByteBuffer bb = _buffer.duplicate();
+            bb.position(offset);
+            bb.limit(offset + length);
+            return bb;
+        }
+
+        private void _checkRange(int offset, int length)
+        {
+            if (offset < 0 || length < 0 || (offset+length) > _length) {
+                throw new IllegalArgumentException("Bad offset/length ("+offset+"/"+length+"); this length is "+_length);
+            }
+        }
+    }
+
+    /**
+     * Container that logically concatenates contents of multiple segments
+     * (byte arrays), without copying. Hashes are calculated using incremental
+     * variants of known hashers, to avoid copying.
+     */
+    private final static class SegmentedContainer extends ByteContainer
+    {
+        private final byte[][] _segments;
+
+        /**
+         * Logical start offsets of segments; one more entry than there are
+         * segments, last one being total length of all segments.
+         */
+        private final int[] _starts;
+
+        /**
+         * Logical offset and length of contents of this view.
+         */
+        private final int _offset, _length;
+
+        SegmentedContainer(byte[][] segments, int[] starts, int offset, int length) {
+            _segments = segments;
+            _starts = starts;
+            _offset = offset;
+            _length = length;
+        }
+
+        @Override public int byteLength() {
+            return _length;
+        }
+
+        @Override public byte get(int index) {
+            if (index < 0 || index >= _length) {
+                throw new IllegalArgumentException("Bad offset ("+index+"); this length is "+_length);
+            }
+            final int pos = _offset + index;
+            final int seg = _segmentFor(pos);
+            return _segments[seg][pos - _starts[seg]];
+        }
+
+        @Override public int getBytes(byte[] buffer, int offset) {
+            int pos = _offset;
+            int left = _length;
+            for (int seg = _segmentFor(pos); left > 0; ++seg) {
+                final int count = Math.min(left, _starts[seg+1] - pos);
+                System.arraycopy(_segments[seg], pos - _starts[seg], buffer, offset, count);
+                offset += count;
+                pos += count;
+                left -= count;
+            }
+            return offset;
+        }
+
+        @Override
+        public byte[] asBytes() {
+            byte[] result = new byte[_length];
+            getBytes(result, 0);
+            return result;
+        }
+
+        @Override
+        public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(asBytes()).asReadOnlyBuffer();
+        }
+
+        @Override public int hash(BlockHasher32 hasher, int seed) {
+            IncrementalHasher32 incr = null;
+            if (hasher instanceof BlockMurmur3Hasher) {
+                incr = new IncrementalMurmur3Hasher(seed);
+            } else if (hasher instanceof BlockMurmur3x64Hasher) {
+                incr = new IncrementalMurmur3x64Hasher(seed);
+            }
+            if (incr == null) {
+                return hasher.hash(seed, asBytes(), 0, _length);
+            }
+            _update(incr);
+            return incr.calculateHash();
+        }
+
+        @Override public byte[] hash128(BlockHasher128 hasher, int seed) {
+            if (hasher instanceof BlockMurmur3x64Hasher) {
+                IncrementalMurmur3x64Hasher incr = new IncrementalMurmur3x64Hasher(seed);
+                _update(incr);
+                return incr.calculateHash128();
+            }
+            return hasher.hash128(seed, asBytes(), 0, _length);
+        }
+
+        @Override public void writeBytes(OutputStream out) throws IOException {
+            _write(out, _offset, _length);
+        }
+
+        @Override
+        public void writeBytes(OutputStream out, int offset, int length) throws IOException
+        {
+            if (offset < 0 || length < 0 || (offset+length) > _length) {
+                throw new IllegalArgumentException("Bad offset/length ("+offset+"/"+length+"); this length is "+_length);
+            }
+            _write(out, _offset + offset, length);
+        }
+
+        /**
+         * Gathering channels (like {@link java.nio.channels.FileChannel}) get
+         * all segments with a single vectored write.
+         */
+        @Override
+        public void writeBytes(WritableByteChannel out) throws IOException
+        {
+            final int first = _segmentFor(_offset);
+            final int last = _segmentFor(_offset + _length - 1);
+            ByteBuffer[] bufs = new ByteBuffer[last - first + 1];
+            int pos = _offset;
+            int left = _length;
+            for (int i = 0; i < bufs.length; ++i) {
+                final int seg = first + i;
+                final int count = Math.min(left, _starts[seg+1] - pos);
+                bufs[i] = ByteBuffer.wrap(_segments[seg], pos - _starts[seg], count);
+                pos += count;
+                left -= count;
+            }
+            if (out instanceof GatheringByteChannel) {
+                GatheringByteChannel gch = (GatheringByteChannel) out;
+                long toWrite = _length;
+                while (toWrite > 0L) {
+                    toWrite -= gch.write(bufs);
+                }
+            } else {
+                for (ByteBuffer bb : bufs) {
+                    while (bb.hasRemaining()) {
+                        out.write(bb);
+                    }
+                }
+            }
+        }
+
+        @Override public <T> T withBytes(WithBytesCallback<T> cb) {
+            return cb.withBytes(asBytes(), 0, _length);
+        }
+
+        @Override public <T> T withBytes(WithBytesCallback<T> cb, int offset, int length) {
+            return view(offset, length).withBytes(cb);
+        }
+
+        @Override
+        public ByteContainer view(int offset, int length) {
+            if (offset == 0 && length == _length) {
+                return this;
+            }
+            if (offset < 0 || length < 0 || (offset+length) > _length) {
+                throw new IllegalArgumentException("Bad offset/length ("+offset+"/"+length+"); this length is "+_length);
+            }
+            if (length == 0) {
+                return emptyContainer();
+            }
+            final int pos = _offset + offset;
+            final int seg = _segmentFor(pos);
+            // can we just use a single segment?
+            if ((pos + length) <= _starts[seg+1]) {
+                return new SimpleContainer(_segments[seg], pos - _starts[seg], length);
+            }
+            return new SegmentedContainer(_segments, _starts, pos, length);
+        }
+
+        private void _update(IncrementalHasher32 hasher)
+        {
+            int pos = _offset;
+            int left = _length;
+            for (int seg = _segmentFor(pos); left > 0; ++seg) {
+                final int count = Math.min(left, _starts[seg+1] - pos);
+                hasher.update(_segments[seg], pos - _starts[seg], count);
+                pos += count;
+                left -= count;
+            }
+        }
+
+        private void _write(OutputStream out, int pos, int left) throws IOException
+        {
+            for (int seg = _segmentFor(pos); left > 0; ++seg) {
+                final int count = Math.min(left, _starts[seg+1] - pos);
+                out.write(_segments[seg], pos - _starts[seg], count);
+                pos += count;
+                left -= count;
+            }
+        }
+
+        /**
+         * @return Index of segment that contains byte at given logical position
+         */
+        private int _segmentFor(int pos)
+        {
+            int ix = Arrays.binarySearch(_starts, pos);
+            return (ix >= 0) ? ix : (-ix - 2);
+        }
+    }
 }
@@ -0,0 +1,90 @@
+package com.fasterxml.storemate.shared;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Small dictionary of common key prefixes (such as namespaces or
+ * customer ids), used by {@link StorableKeyList} to store prefixes of keys
+ * as single-byte references instead of full copies.
+ *<p>
+ * Dictionaries are immutable, and are meant to contain a small number
+ * of prefixes, since matching is done by linear search (longest prefix
+ * first).
+ *
+ * @since 1.1
+ */
+public class KeyPrefixDictionary
+{
+    /**
+     * Since prefix references are stored as single bytes (with 0 meaning
+     * "no prefix"), at most 255 prefixes can be included.
+     */
+    public final static int MAX_PREFIXES = 255;
+
+    /**
+     * Prefixes, ordered from longest to shortest, so that the first match
+     * found is also the longest one.
+     */
+    protected final StorableKey[] _prefixes;
+
+    public KeyPrefixDictionary(Collection<StorableKey> prefixes)
+    {
+        if (prefixes.size() > MAX_PREFIXES) {
+            throw new IllegalArgumentException("Can not have more than "+MAX_PREFIXES
+                    +" prefixes; got "+prefixes.size());
+        }
+        StorableKey[] arr = new StorableKey[prefixes.size()];
+        int i = 0;
+        for (StorableKey prefix : prefixes) {
+            if (prefix == null || prefix.length() == 0) {
+                throw new IllegalArgumentException("Can not have null or empty prefixes");
+            }
+            arr[i++] = prefix.compact();
+        }
+        Arrays.sort(arr, new Comparator<StorableKey>() {
+            @Override
+            public int compare(StorableKey k1, StorableKey k2) {
+                return k2.length() - k1.length();
+            }
+        });
+        _prefixes = arr;
+    }
+
+    /**
+     * Factory method for constructing a dictionary with given prefixes,
+     * which are UTF-8 encoded to get their byte representation.
+     */
+    public static KeyPrefixDictionary forPrefixes(String... prefixes)
+    {
+        List<StorableKey> keys = new ArrayList<StorableKey>(prefixes.length);
+        for (String prefix : prefixes) {
+            keys.add(new StorableKey(prefix.getBytes(StandardCharsets.UTF_8)));
+        }
+        return new KeyPrefixDictionary(keys);
+    }
+
+    public int size() { return _prefixes.length; }
+
+    public StorableKey getPrefix(int index) {
+        return _prefixes[index];
+    }
+
+    /**
+     * Method for finding the longest prefix in this dictionary that given
+     * key starts with.
+     *
+     * @return Index of the longest matching prefix, if any; -1 if none
+     *   of prefixes match
+     */
+    public int findPrefix(StorableKey key)
+    {
+        final StorableKey[] prefixes = _prefixes;
+        for (int i = 0, end = prefixes.length; i < end; ++i) {
+            if (key.hasPrefix(prefixes[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
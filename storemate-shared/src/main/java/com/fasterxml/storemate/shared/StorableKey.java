@@ -4,6 +4,7 @@ import java.util.Arrays;
 
 import com.fasterxml.storemate.shared.hash.BlockHasher32;
 import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
+import com.fasterxml.storemate.shared.util.ByteUtil;
 import com.fasterxml.storemate.shared.util.WithBytesCallback;
 
 public class StorableKey
@@ -69,13 +70,7 @@ public class StorableKey
         if (prefixLen > _length) {
             return false;
         }
-        // Optimization for common case of no offsets
-        if (_offset == 0 && other._offset == 0) {
-            return _equals(_buffer, other._buffer, prefixLen);
-        }
-        // otherwise offline
-        return _equals(_buffer, _offset, other._buffer, other._offset,
-                _offset + prefixLen);
+        return ByteUtil.equals(_buffer, _offset, other._buffer, other._offset, prefixLen);
     }
     
     /**
@@ -87,34 +82,7 @@ public class StorableKey
         if (length != _length) {
             return false;
         }
-        if (offset == 0 && _offset == 0) {
-            return _equals(_buffer, buffer, length);
-        }
-        return _equals(_buffer, _offset, buffer, offset, length);
-    }
-
-    private final boolean _equals(byte[] b1, byte[] b2, int len)
-    {
-        int ptr = 0;
-        while (ptr < len) {
-            if (b1[ptr] != b2[ptr]) {
-                return false;
-            }
-            ++ptr;
-        }
-        return true;
-    }
-    
-    private final boolean _equals(byte[] b1, int ptr1, byte[] b2, int ptr2, int end)
-    {
-        while (ptr1 < end) {
-            if (b1[ptr1] != b2[ptr2]) {
-                return false;
-            }
-            ++ptr1;
-            ++ptr2;
-        }
-        return true;
+        return ByteUtil.equals(_buffer, _offset, buffer, offset, length);
     }
 
     /*
@@ -170,6 +138,32 @@ public class StorableKey
         return Arrays.copyOfRange(_buffer, _offset, _offset+_length);
     }
 
+    /**
+     * Method that will return a key with same contents as this key, but
+     * backed by an array of exactly the key length: either this key
+     * itself, if already compact, or a copy. Should be used when retaining
+     * keys that may have been constructed as slices of bigger buffers
+     * (such as index entries), so as not to keep those buffers reachable.
+     * Hash code, if already calculated, is retained.
+     */
+    public final StorableKey compact()
+    {
+        if (isCompact()) {
+            return this;
+        }
+        StorableKey key = new StorableKey(asBytes());
+        key._hashCode = _hashCode;
+        return key;
+    }
+
+    /**
+     * Method for checking whether this key uses the whole backing array,
+     * and nothing but it.
+     */
+    public final boolean isCompact() {
+        return (_offset == 0) && (_length == _buffer.length);
+    }
+
     public final StorableKey range(int offset, int length) {
         if (offset < 0 || length < 0 || (offset+length) > _length) {
             throw new IllegalArgumentException("Invalid range (offset "+offset+", length "+length
@@ -249,16 +243,7 @@ public class StorableKey
 
         StorableKey other = (StorableKey) o;
         if (other._length != _length) return false;
-
-        final int end = _offset + _length;
-        final byte[] thisB = _buffer;
-        final byte[] thatB = other._buffer;
-        for (int i1 = _offset, i2 = other._offset; i1 < end; ) {
-            if (thisB[i1++] != thatB[i2++]) {
-                return false;
-            }
-        }
-        return true;
+        return ByteUtil.equals(_buffer, _offset, other._buffer, other._offset, _length);
     }
 
     @Override
@@ -277,41 +262,8 @@ public class StorableKey
     public int compareTo(StorableKey other)
     {
         if (other == null) return 1;
-
-        final byte[] b1  = _buffer;
-        final byte[] b2  = other._buffer;
-
-        if ((_offset + other._offset) > 0) {
-            return _compareWithOffsets(b1, b2, _offset, other._offset, _length, other._length);
-        }
-        final int end = Math.min(_length, other._length);
-        for (int i = 0; i < end; ++i) {
-            if (b1[i] != b2[i]) {
-                return _unsignedDiff(b1[i], b2[i]);
-            }
-        }
-        return _length - other._length;
-    }
-    
-    private final static int _compareWithOffsets(byte[] b1, byte[] b2, int off1, int off2,
-            int len1, int len2)
-    {
-        final int end = off1 + Math.min(len1, len2);
-        for (int i1 = off1, i2 = off2; i1 < end; ++i1, ++i2) {
-            if (b1[i1] != b2[i2]) {
-                return _unsignedDiff(b1[i1], b2[i2]);
-            }
-        }
-        // longer should be sorted after shorter so:
-        return len1 - len2;
-    }
-
-    private final static int _unsignedDiff(byte b1, byte b2)
-    {
-        int i1 = b1 & 0xFF;
-        int i2 = b2 & 0xFF;
-        
-        return i1 - i2;
+        return ByteUtil.compareUnsigned(_buffer, _offset, _length,
+                other._buffer, other._offset, other._length);
     }
 
     /*
@@ -2,6 +2,8 @@ package com.fasterxml.storemate.shared;
 
 import java.util.Comparator;
 
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
 /**
  * @since 1.1
  */
@@ -11,6 +13,8 @@ public class StorableKeyComparator implements Comparator<StorableKey>
     
     @Override
     public int compare(StorableKey o1, StorableKey o2) {
-        return o1.compareTo(o2);
+        if (o2 == null) return 1;
+        return ByteUtil.compareUnsigned(o1._buffer, o1._offset, o1._length,
+                o2._buffer, o2._offset, o2._length);
     }
 }
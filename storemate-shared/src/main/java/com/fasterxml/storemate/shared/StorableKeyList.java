@@ -0,0 +1,168 @@
+package com.fasterxml.storemate.shared;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Memory-compact append-only {@link java.util.List} of {@link StorableKey}s,
+ * used for collecting possibly large numbers of keys in memory.
+ * Instead of retaining key instances (and arrays they refer to), contents
+ * of all keys are copied into a single shared byte array; keys are then
+ * re-created on access by {@link #get}. In addition, if a
+ * {@link KeyPrefixDictionary} is given, matching key prefixes are replaced
+ * with single-byte references.
+ *<p>
+ * Compared to an {@link java.util.ArrayList} of keys, this reduces
+ * per-key overhead from about 50 bytes (key instance, array header, list
+ * slot) to 4 (plus one for prefix reference, when dictionary is used),
+ * which for typical short keys means 2-4x smaller heap footprint.
+ * Downside is that each access creates a new key instance.
+ *<p>
+ * Note that instances are not thread-safe.
+ *
+ * @since 1.1
+ */
+public class StorableKeyList
+    extends AbstractList<StorableKey>
+    implements RandomAccess
+{
+    private final static int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Initial guess for average size of keys, used for sizing
+     * data buffer.
+     */
+    private final static int ESTIMATED_KEY_LENGTH = 24;
+
+    /**
+     * Optional dictionary for prefixes to replace; if not null, each entry
+     * starts with a byte that indicates index of prefix (plus one; 0 meaning
+     * "no prefix").
+     */
+    protected final KeyPrefixDictionary _prefixes;
+
+    /**
+     * Buffer that contains contents of all keys, back to back
+     */
+    protected byte[] _data;
+
+    protected int _dataLength;
+
+    /**
+     * End offsets of entries within {@link #_data}; start offset is the
+     * end offset of the preceding entry (or 0 for the first one)
+     */
+    protected int[] _ends;
+
+    protected int _size;
+
+    public StorableKeyList() {
+        this(DEFAULT_CAPACITY, null);
+    }
+
+    public StorableKeyList(int initialCapacity, KeyPrefixDictionary prefixes)
+    {
+        initialCapacity = Math.max(1, initialCapacity);
+        _prefixes = prefixes;
+        _ends = new int[initialCapacity];
+        _data = new byte[initialCapacity * ESTIMATED_KEY_LENGTH];
+    }
+
+    /*
+    /**********************************************************************
+    /* List implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public int size() { return _size; }
+
+    @Override
+    public boolean add(StorableKey key)
+    {
+        int prefixLength = 0;
+        int prefixRef = -1;
+        if (_prefixes != null) {
+            int ix = _prefixes.findPrefix(key);
+            if (ix >= 0) {
+                prefixLength = _prefixes.getPrefix(ix).length();
+            }
+            prefixRef = ix + 1;
+        }
+        final int copyLength = key.length() - prefixLength;
+        int ptr = _dataLength;
+        final int end = ptr + copyLength + ((prefixRef < 0) ? 0 : 1);
+        if (end > _data.length) {
+            _data = Arrays.copyOf(_data, Math.max(end, _data.length + (_data.length >> 1)));
+        }
+        if (_size == _ends.length) {
+            _ends = Arrays.copyOf(_ends, _size + (_size >> 1) + 1);
+        }
+        if (prefixRef >= 0) {
+            _data[ptr++] = (byte) prefixRef;
+        }
+        System.arraycopy(key._buffer, key._offset + prefixLength, _data, ptr, copyLength);
+        _dataLength = end;
+        _ends[_size++] = end;
+        ++modCount;
+        return true;
+    }
+
+    @Override
+    public StorableKey get(int index)
+    {
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException("Index "+index+", size "+_size);
+        }
+        int ptr = (index == 0) ? 0 : _ends[index-1];
+        final int end = _ends[index];
+        if (_prefixes != null) {
+            int prefixRef = _data[ptr++] & 0xFF;
+            if (prefixRef > 0) {
+                StorableKey prefix = _prefixes.getPrefix(prefixRef - 1);
+                final int prefixLength = prefix.length();
+                byte[] b = new byte[prefixLength + end - ptr];
+                System.arraycopy(prefix._buffer, prefix._offset, b, 0, prefixLength);
+                System.arraycopy(_data, ptr, b, prefixLength, end - ptr);
+                return new StorableKey(b);
+            }
+        }
+        return new StorableKey(Arrays.copyOfRange(_data, ptr, end));
+    }
+
+    @Override
+    public void clear()
+    {
+        _size = 0;
+        _dataLength = 0;
+        ++modCount;
+    }
+
+    /*
+    /**********************************************************************
+    /* Additional API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for checking number of bytes used for storing contents
+     * of keys currently included (not including unused capacity)
+     */
+    public int getContentLength() { return _dataLength; }
+
+    /**
+     * Method for trimming internal buffers to be of exact size needed
+     * for currently included keys; useful when the list is to be retained
+     * without additions.
+     */
+    public void trimToSize()
+    {
+        if (_data.length > _dataLength) {
+            _data = Arrays.copyOf(_data, _dataLength);
+        }
+        if (_ends.length > _size) {
+            _ends = Arrays.copyOf(_ends, _size);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.fasterxml.storemate.shared.compress;
+
+/**
+ * Helper methods for cheaply estimating how compressible content is,
+ * based on a leading sample, before deciding whether (and how) to
+ * compress it.
+ */
+public class Compressibility
+{
+    /**
+     * Default length of leading sample to use for estimation: long enough
+     * to be representative of most content, short enough to be cheap
+     * to process.
+     */
+    public final static int DEFAULT_SAMPLE_LENGTH = 4096;
+
+    /**
+     * Entropy (in bits per byte) at or above which content is considered
+     * incompressible for practical purposes: typical for content that is
+     * already compressed or encrypted (images, archives and such).
+     */
+    public final static double INCOMPRESSIBLE_ENTROPY = 7.5;
+
+    private final static double LOG2 = Math.log(2.0);
+
+    private Compressibility() { }
+
+    /**
+     * Method for calculating order-0 (byte frequency) entropy of given
+     * content, in bits per byte: value between 0.0 (single repeated
+     * byte value) and 8.0 (uniformly random bytes). This gives a lower
+     * bound for ratio achievable by entropy coding alone; actual
+     * compression ratio of LZ-based codecs may be better (for content
+     * with repeated sequences) or worse.
+     */
+    public static double entropyBitsPerByte(byte[] data, int offset, int len)
+    {
+        if (len <= 0) {
+            return 0.0;
+        }
+        final int[] counts = new int[256];
+        for (int i = offset, end = offset+len; i < end; ++i) {
+            ++counts[data[i] & 0xFF];
+        }
+        final double total = len;
+        double bits = 0.0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = count / total;
+                bits -= p * Math.log(p);
+            }
+        }
+        return bits / LOG2;
+    }
+
+    /**
+     * Convenience method for checking whether entropy of given content
+     * suggests that it is not worth compressing.
+     */
+    public static boolean looksIncompressible(byte[] data, int offset, int len) {
+        return entropyBitsPerByte(data, offset, len) >= INCOMPRESSIBLE_ENTROPY;
+    }
+}
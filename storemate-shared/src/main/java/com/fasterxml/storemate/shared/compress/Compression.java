@@ -1,5 +1,14 @@
 package com.fasterxml.storemate.shared.compress;
 
+/**
+ * Enumeration of compression methods that may be used for stored content.
+ * Index of the method is what gets stored with entries, so it must remain
+ * stable across versions; new methods may only be added with new indexes.
+ *<p>
+ * Implementations of methods are provided by {@link CompressionCodec}s,
+ * registered with {@link Compressors#registerCodec} (keyed by index);
+ * standard implementations are registered by default, but may be replaced.
+ */
 public enum Compression
 {
     /**
@@ -17,15 +26,45 @@ public enum Compression
      * Indicates use of basic deflate compression, no header;
      * 'Z' from zip (although technically closer to gzip)
      */
-    GZIP('Z', "gzip", 2)
+    GZIP('Z', "gzip", 2),
+
+    /**
+     * Indicates use of LZ4 compression, using standard LZ4 frame format;
+     * somewhat slower than LZF for compression, but compresses better and
+     * uncompresses faster.
+     */
+    LZ4('4', "lz4", 3),
+
+    /**
+     * Indicates use of deflate compression with zlib header and trailer
+     * (same as HTTP "deflate" encoding); mostly used for small content,
+     * along with preset dictionaries (see {@link CompressionDictionary}).
+     */
+    DEFLATE('D', "deflate", 4)
     ;
-    
+
+    /**
+     * Compression methods indexed by their index, since lookups are done
+     * for every entry read.
+     */
+    private final static Compression[] _byIndex;
+    static {
+        int max = 0;
+        for (Compression comp : values()) {
+            max = Math.max(max, comp._index);
+        }
+        _byIndex = new Compression[max+1];
+        for (Compression comp : values()) {
+            _byIndex[comp._index] = comp;
+        }
+    }
+
     private final char _char;
 
     private final int _index;
 
     private final String _contentEncoding;
-    
+
     private Compression(char c, String contentEnc, int index)
     {
         _char = c;
@@ -37,7 +76,14 @@ public enum Compression
     {
         return (c != null) && (c != Compression.NONE);
     }
-    
+
+    /**
+     * Accessor for the highest index used by any of compression methods.
+     */
+    public static int maxIndex() {
+        return _byIndex.length - 1;
+    }
+
     public char asChar() { return _char; }
     public int asIndex() { return _index; }
 
@@ -50,7 +96,7 @@ public enum Compression
     public String toString() {
         return (this == NONE) ? "none" : _contentEncoding;
     }
-    
+
     /**
      * Helper method that can be called to see if this Compression
      * method is one of acceptable encodings that client has
@@ -61,60 +107,22 @@ public enum Compression
         if (acceptableEncodings == null || acceptableEncodings.isEmpty()) {
             return false;
         }
-        // crude, but functional due to small number of legal values:
+        // crude, but functional as long as names are not substrings of each other
         return acceptableEncodings.indexOf(_contentEncoding) >= 0;
     }
 
-    public static Compression from(String str)
-    {
-        if (str == null) return null;
-        str = str.trim();
-        if (GZIP._contentEncoding.equals(str)) {
-    		    return GZIP;
-        }
-        if (LZF._contentEncoding.equals(str)) {
-    		    return LZF;
-        }
-        if (NONE._contentEncoding.equals(str)) {
-    		    return NONE;
-        }
-        return null;
-    }
-    
-    /*
-    public static Compression valueOf(byte b, boolean errorForUnknown) {
-        return valueOf((char) b, errorForUnknown);
+    public static Compression from(String str) {
+        return forContentEncoding(str);
     }
-    
-    @Deprecated
-    public static Compression valueOf(char c, boolean errorForUnknown)
-    {
-        if (c == '\0') return NONE;
-        for (Compression comp : values()) {
-            if (comp.asChar() == c) {
-                return comp;
-            }
-        }
-        if (errorForUnknown) {
-            throw new IllegalArgumentException("Unrecognized compression value: 0x"
-                    +Integer.toHexString(c)+"");
-        }
-        return null;
-    }
-    */
 
     public static Compression forIndex(int index, boolean errorForUnknown)
     {
-        for (Compression comp : values()) {
-            if (comp.asIndex() == index) {
-                return comp;
-            }
-        }
-        if (errorForUnknown) {
+        Compression comp = (index >= 0 && index < _byIndex.length) ? _byIndex[index] : null;
+        if (comp == null && errorForUnknown) {
             throw new IllegalArgumentException("Unrecognized compression value: 0x"
-                    +Integer.toHexString(index)+" (currently only values 0 - 2 supported)");
+                    +Integer.toHexString(index)+" (currently only values 0 - "+maxIndex()+" supported)");
         }
-        return null;
+        return comp;
     }
 
     /**
@@ -128,15 +136,10 @@ public enum Compression
             return null;
         }
         contentEncoding = contentEncoding.trim();
-        // not the cleanest, but should do for now:
-        if (GZIP._contentEncoding.equals((contentEncoding))) {
-            return GZIP;
-        }
-        if (LZF._contentEncoding.equals((contentEncoding))) {
-            return LZF;
-        }
-        if (NONE._contentEncoding.equals(contentEncoding)) {
-            return NONE;
+        for (Compression comp : _byIndex) {
+            if (comp != null && comp._contentEncoding.equals(contentEncoding)) {
+                return comp;
+            }
         }
         return null;
     }
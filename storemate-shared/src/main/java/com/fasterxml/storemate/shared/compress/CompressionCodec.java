@@ -0,0 +1,192 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.util.WithBytesCallback;
+
+/**
+ * Base class for implementations of compression methods: handles detection
+ * of compressed content (by leading "magic" bytes), block compression and
+ * uncompression, as well as stream wrappers.
+ * Codecs are registered using {@link Compressors#registerCodec}, keyed by
+ * the index of {@link Compression} they implement.
+ *<p>
+ * Implementations must be thread-safe.
+ */
+public abstract class CompressionCodec
+{
+    protected final Compression _compression;
+
+    protected CompressionCodec(Compression comp)
+    {
+        if (comp == null || comp == Compression.NONE) {
+            throw new IllegalArgumentException("Can not create codec for compression '"+comp+"'");
+        }
+        _compression = comp;
+    }
+
+    public Compression getCompression() {
+        return _compression;
+    }
+
+    /**
+     * Name to use as HTTP Content-Encoding, for content compressed using
+     * this codec.
+     */
+    public String getContentEncoding() {
+        return _compression.asContentEncoding();
+    }
+
+    /*
+    /**********************************************************************
+    /* Detection
+    /**********************************************************************
+     */
+
+    /**
+     * Number of leading bytes needed to recognize content compressed using
+     * this codec; also the minimum length of such content.
+     */
+    public abstract int signatureLength();
+
+    /**
+     * Method for checking whether given content starts with signature
+     * ("magic bytes") of this codec. Caller must ensure that at least
+     * {@link #signatureLength} bytes are available.
+     */
+    public abstract boolean hasSignature(byte[] data, int offset, int len);
+
+    /*
+    /**********************************************************************
+    /* Block compress, uncompress
+    /**********************************************************************
+     */
+
+    public abstract byte[] compress(byte[] data, int offset, int len) throws IOException;
+
+    public byte[] compress(ByteContainer data) throws IOException
+    {
+        try {
+            return data.withBytes(new WithBytesCallback<byte[]>() {
+                @Override
+                public byte[] withBytes(byte[] buffer, int offset, int length) {
+                    try {
+                        return compress(buffer, offset, length);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(e);
+                    }
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Method for calculating maximum length of compressed content for content
+     * of given length, that is, minimum output buffer size caller needs for
+     * {@link #compress(byte[], int, int, byte[], int)}.
+     *<p>
+     * Default implementation allows for expansion of 1/8 plus 64 bytes;
+     * codecs with different bounds need to override it.
+     */
+    public int maxCompressedLength(int len) {
+        return len + (len >> 3) + 64;
+    }
+
+    /**
+     * Method for compressing given content into caller-provided output buffer,
+     * which must have at least {@link #maxCompressedLength} bytes of room.
+     *<p>
+     * Default implementation simply copies result of
+     * {@link #compress(byte[], int, int)}; codecs should override it to
+     * avoid allocating a result array.
+     *
+     * @return Length of compressed content
+     */
+    public int compress(byte[] data, int offset, int len, byte[] output, int outputOffset)
+        throws IOException
+    {
+        byte[] comp = compress(data, offset, len);
+        if (comp.length > (output.length - outputOffset)) {
+            throw new IllegalArgumentException("Output buffer too small ("+(output.length - outputOffset)
+                    +" bytes) for "+comp.length+" bytes of "+_compression+" content");
+        }
+        System.arraycopy(comp, 0, output, outputOffset, comp.length);
+        return comp.length;
+    }
+
+    /**
+     * @param expSize Length of uncompressed content, if known; 0 or negative if not
+     */
+    public abstract byte[] uncompress(byte[] data, int offset, int len, int expSize)
+        throws IOException;
+
+    /**
+     * Method for uncompressing given content into caller-provided output buffer;
+     * will fail with an {@link IOException} if uncompressed content is longer
+     * than <code>outputLength</code>.
+     *<p>
+     * Default implementation simply copies result of
+     * {@link #uncompress(byte[], int, int, int)}; codecs should override it to
+     * avoid allocating a result array.
+     *
+     * @return Length of uncompressed content
+     */
+    public int uncompress(byte[] data, int offset, int len,
+            byte[] output, int outputOffset, int outputLength)
+        throws IOException
+    {
+        byte[] result = uncompress(data, offset, len, 0);
+        if (result.length > outputLength) {
+            throw new IOException("Corrupt "+_compression+" data: expected at most "+outputLength
+                    +" bytes, got "+result.length);
+        }
+        System.arraycopy(result, 0, output, outputOffset, result.length);
+        return result.length;
+    }
+
+    /**
+     * @param expSize Length of uncompressed content, if known; 0 or negative if not
+     */
+    public ByteContainer uncompress(ByteContainer data, final int expSize) throws IOException
+    {
+        try {
+            return data.withBytes(new WithBytesCallback<ByteContainer>() {
+                @Override
+                public ByteContainer withBytes(byte[] buffer, int offset, int length) {
+                    try {
+                        return ByteContainer.simple(uncompress(buffer, offset, length, expSize));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Bad "+_compression+" data to uncompress ("
+                                +length+" bytes): "+e.getMessage(), e);
+                    }
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Streaming
+    /**********************************************************************
+     */
+
+    public abstract OutputStream compressingStream(OutputStream out) throws IOException;
+
+    public abstract InputStream uncompressingStream(InputStream in) throws IOException;
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"("+_compression+")";
+    }
+}
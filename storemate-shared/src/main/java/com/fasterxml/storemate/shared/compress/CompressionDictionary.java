@@ -0,0 +1,78 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.util.zip.Adler32;
+
+/**
+ * Preset dictionary used for compressing small entries with
+ * {@link DeflateCodec}: content that is similar to what is being compressed
+ * (usually trained from samples with {@link DictionaryTrainer}) allows
+ * back-references from the very first bytes, which makes compression
+ * useful even for entries of only couple of hundred bytes.
+ *<p>
+ * Dictionaries are identified by small positive numeric ids, stored along
+ * with entries compressed using them; since such entries can not be
+ * uncompressed without the dictionary, contents of a dictionary with given
+ * id must never change. Checksum (Adler-32) of contents is also included in
+ * compressed content, for verification.
+ */
+public class CompressionDictionary
+{
+    /**
+     * Maximum id dictionaries can have: stored as unsigned 16-bit value,
+     * and 0 is reserved to mean "no dictionary".
+     */
+    public final static int MAX_ID = 0xFFFF;
+
+    /**
+     * Maximum length of dictionary contents: deflate can only refer back
+     * to 32kB, so anything before the last 32kB would not be used.
+     */
+    public final static int MAX_LENGTH = 0x8000;
+
+    protected final int _id;
+
+    protected final byte[] _contents;
+
+    protected final int _checksum;
+
+    public CompressionDictionary(int id, byte[] contents)
+    {
+        if (id <= 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("Invalid dictionary id "+id+": must be between 1 and "+MAX_ID);
+        }
+        if (contents == null || contents.length == 0) {
+            throw new IllegalArgumentException("Missing or empty dictionary contents");
+        }
+        if (contents.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Dictionary too long ("+contents.length
+                    +" bytes): can not exceed "+MAX_LENGTH);
+        }
+        _id = id;
+        _contents = contents;
+        Adler32 adler = new Adler32();
+        adler.update(contents, 0, contents.length);
+        _checksum = (int) adler.getValue();
+    }
+
+    public int getId() { return _id; }
+
+    public int getLength() { return _contents.length; }
+
+    /**
+     * Accessor for Adler-32 checksum of dictionary contents, as used for
+     * identifying dictionary within compressed (zlib) content.
+     */
+    public int getChecksum() { return _checksum; }
+
+    /**
+     * Accessor for dictionary contents. Note that the underlying array is
+     * returned as is (without copying), and caller must not modify it.
+     */
+    public byte[] getContents() { return _contents; }
+
+    @Override
+    public String toString() {
+        return String.format("[CompressionDictionary: id %d, %d bytes, checksum 0x%08x]",
+                _id, _contents.length, _checksum);
+    }
+}
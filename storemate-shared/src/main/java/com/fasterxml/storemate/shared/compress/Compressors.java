@@ -1,26 +1,118 @@
 package com.fasterxml.storemate.shared.compress;
 
 import java.io.*;
+import java.util.*;
 
 import com.fasterxml.storemate.shared.ByteContainer;
-import com.fasterxml.storemate.shared.util.WithBytesCallback;
-import com.ning.compress.gzip.OptimizedGZIPInputStream;
-import com.ning.compress.gzip.OptimizedGZIPOutputStream;
-import com.ning.compress.lzf.ChunkDecoder;
-import com.ning.compress.lzf.LZFChunk;
-import com.ning.compress.lzf.LZFEncoder;
-import com.ning.compress.lzf.LZFInputStream;
-import com.ning.compress.lzf.LZFOutputStream;
-import com.ning.compress.lzf.util.ChunkDecoderFactory;
 
+/**
+ * Static facade for compression functionality: contains registry of
+ * {@link CompressionCodec}s (keyed by {@link Compression} index), and
+ * methods for detecting, compressing and uncompressing content.
+ *<p>
+ * Codecs for standard compression methods (LZF, GZIP, LZ4, Deflate) are registered
+ * by default; additional ones may be registered using {@link #registerCodec}.
+ */
 public class Compressors
 {
-    // TODO: perhaps make pluggable?
-    protected final static ChunkDecoder lzfDecoder;
+    /**
+     * Registered codecs, indexed by index of compression they implement.
+     * Copied on write.
+     */
+    private static volatile CompressionCodec[] _codecs = new CompressionCodec[Compression.maxIndex()+1];
+
+    /**
+     * Registered codecs in index order, for signature detection.
+     */
+    private static volatile CompressionCodec[] _codecList = new CompressionCodec[0];
+
+    /**
+     * Maximum signature length of registered codecs.
+     */
+    private static volatile int _maxSignatureLength = 0;
+
     static {
-        lzfDecoder = ChunkDecoderFactory.optimalInstance();
+        registerCodec(LZFCodec.instance);
+        registerCodec(GZIPCodec.instance);
+        registerCodec(LZ4Codec.instance);
+        registerCodec(DeflateCodec.instance);
+    }
+
+    /*
+    /**********************************************************************
+    /* Codec registry
+    /**********************************************************************
+     */
+
+    /**
+     * Method for registering given codec to use for compression method it
+     * implements; will replace existing registration, if any.
+     *
+     * @return Codec previously registered for the compression method, if any;
+     *   null if none
+     */
+    public static CompressionCodec registerCodec(CompressionCodec codec)
+    {
+        synchronized (Compressors.class) {
+            final int index = codec.getCompression().asIndex();
+            CompressionCodec[] codecs = _codecs.clone();
+            CompressionCodec old = codecs[index];
+            codecs[index] = codec;
+
+            int count = 0;
+            int maxSignature = 0;
+            for (CompressionCodec c : codecs) {
+                if (c != null) {
+                    ++count;
+                    maxSignature = Math.max(maxSignature, c.signatureLength());
+                }
+            }
+            CompressionCodec[] list = new CompressionCodec[count];
+            count = 0;
+            for (CompressionCodec c : codecs) {
+                if (c != null) {
+                    list[count++] = c;
+                }
+            }
+            _codecs = codecs;
+            _codecList = list;
+            _maxSignatureLength = maxSignature;
+            return old;
+        }
+    }
+
+    /**
+     * Accessor for finding codec registered for given compression method,
+     * if any.
+     *
+     * @return Codec registered, if any; null if none (including case of
+     *   {@link Compression#NONE})
+     */
+    public static CompressionCodec findCodec(Compression comp) {
+        return (comp == null) ? null : _codecs[comp.asIndex()];
+    }
+
+    /**
+     * Accessor similar to {@link #findCodec}, but one that will throw an
+     * exception if no codec is registered for given compression method.
+     */
+    public static CompressionCodec codecFor(Compression comp)
+    {
+        CompressionCodec codec = findCodec(comp);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unrecognized compression type: "+comp);
+        }
+        return codec;
     }
-    
+
+    /**
+     * Accessor for getting all currently registered codecs, in order of
+     * index of compression they implement.
+     */
+    public static List<CompressionCodec> registeredCodecs() {
+        return Collections.unmodifiableList(Arrays.asList(_codecList));
+    }
+
     /*
     /**********************************************************************
     /* Verification
@@ -34,23 +126,12 @@ public class Compressors
     public static boolean isCompressed(ByteContainer data) {
         return findCompression(data) != null;
     }
-    
+
     public static Compression findCompression(byte[] data, int offset, int len)
     {
-        if (len < 3) {
-            return null;
-        }
-        byte b = data[offset];
-        if (b == LZFChunk.BYTE_Z) { // LZF: // starts with 'ZV' == 0x5A, 0x56
-            if (data[offset+1] == LZFChunk.BYTE_V) {
-                byte third = data[offset+2];
-                if (third == LZFChunk.BLOCK_TYPE_COMPRESSED || third == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
-                    return Compression.LZF;
-                }
-            }
-        } else if (b == 0x1F) { // GZIP: // starts with 0x1F, 0x8B (0x8B1F, little-endian)
-            if ((data[offset+1] & 0xFF) == 0x8B) {
-                return Compression.GZIP;
+        for (CompressionCodec codec : _codecList) {
+            if (len >= codec.signatureLength() && codec.hasSignature(data, offset, len)) {
+                return codec.getCompression();
             }
         }
         return null;
@@ -58,206 +139,146 @@ public class Compressors
 
     public static Compression findCompression(ByteContainer data)
     {
-        if (data.byteLength() < 3) {
-            return null;
+        // only need leading bytes, so let's not access the whole thing
+        final int len = Math.min(data.byteLength(), _maxSignatureLength);
+        byte[] lead = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            lead[i] = data.get(i);
         }
-        byte b = data.get(0);
-        if (b == LZFChunk.BYTE_Z) { // LZF: // starts with 'ZV' == 0x5A, 0x56
-            if (data.get(1) == LZFChunk.BYTE_V) {
-                byte third = data.get(2);
-                if (third == LZFChunk.BLOCK_TYPE_COMPRESSED || third == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
-                    return Compression.LZF;
-                }
-            }
-        } else if (b == 0x1F) { // GZIP: // starts with 0x1F, 0x8B (0x8B1F, little-endian)
-            if ((data.get(1) & 0xFF) == 0x8B) {
-                return Compression.GZIP;
-            }
-        }
-        return null;
+        return findCompression(lead, 0, len);
     }
-    
+
     /*
     /**********************************************************************
     /* Compress
     /**********************************************************************
      */
 
+    public static byte[] compress(ByteContainer data, Compression comp) throws IOException {
+        return codecFor(comp).compress(data);
+    }
+
+    public static byte[] compress(byte[] data, int offset, int len, Compression comp) throws IOException {
+        return codecFor(comp).compress(data, offset, len);
+    }
+
+    /**
+     * Method for compressing given content into caller-provided buffer, which
+     * must have room for at least {@link CompressionCodec#maxCompressedLength}
+     * bytes.
+     *
+     * @return Length of compressed content
+     */
+    public static int compress(byte[] data, int offset, int len, Compression comp,
+            byte[] output, int outputOffset) throws IOException {
+        return codecFor(comp).compress(data, offset, len, output, outputOffset);
+    }
+
     public static byte[] gzipCompress(byte[] data) throws IOException {
         return gzipCompress(data, 0, data.length);
     }
 
-    public static byte[] gzipCompress(byte[] data, int offset, int len) throws IOException
-    {
-        // assume 50% compression rate
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len>>1);
-        OptimizedGZIPOutputStream out = new OptimizedGZIPOutputStream(bytes);
-        out.write(data, offset, len);
-        out.close();
-        return bytes.toByteArray();
+    public static byte[] gzipCompress(byte[] data, int offset, int len) throws IOException {
+        return GZIPCodec.instance.compress(data, offset, len);
     }
 
-    public static byte[] gzipCompress(ByteContainer data) throws IOException
-    {
-        // assume 50% compression rate
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.byteLength()>>1);
-        OptimizedGZIPOutputStream out = new OptimizedGZIPOutputStream(bytes);
-        data.writeBytes(out);
-        out.close();
-        return bytes.toByteArray();
+    public static byte[] gzipCompress(ByteContainer data) throws IOException {
+        return GZIPCodec.instance.compress(data);
     }
-    
+
     public static byte[] lzfCompress(byte[] data) throws IOException {
         return lzfCompress(data, 0, data.length);
     }
 
     public static byte[] lzfCompress(byte[] data, int offset, int len) throws IOException {
-        return LZFEncoder.encode(data, offset, len);
+        return LZFCodec.instance.compress(data, offset, len);
     }
 
     public static byte[] lzfCompress(ByteContainer data) throws IOException {
-        return data.withBytes(new WithBytesCallback<byte[]>() {
-            @Override
-            public byte[] withBytes(byte[] buffer, int offset, int length) {
-                try {
-                    return LZFEncoder.encode(buffer, offset, length);
-                } catch (Exception e) {
-                    throw new IllegalArgumentException(e);
-                }
-            }
-        });
+        return LZFCodec.instance.compress(data);
     }
-    
+
     public static OutputStream compressingStream(OutputStream out, Compression comp) throws IOException
     {
-        if (comp != null) {
-            switch (comp) {
-            case NONE:
-                break;
-            case LZF:
-                return new LZFOutputStream(out);
-            case GZIP:
-                return new OptimizedGZIPOutputStream(out);
-            default: // sanity check
-                throw new IllegalArgumentException("Unrecognized compression type: "+comp);
-            }
+        if (comp == null || comp == Compression.NONE) {
+            return out;
         }
-        return out;
+        return codecFor(comp).compressingStream(out);
     }
-    
+
     /*
     /**********************************************************************
     /* Uncompress
     /**********************************************************************
      */
-    
+
     public static InputStream uncompressingStream(InputStream in, Compression comp)
         throws IOException
     {
-        if (comp != null) {
-            switch (comp) {
-            case NONE:
-                break;
-            case LZF:
-                return new LZFInputStream(in);
-            case GZIP:
-                return new OptimizedGZIPInputStream(in);
-            default: // sanity check
-                throw new IllegalArgumentException("Unrecognized compression type: "+comp);
-            }
+        if (comp == null || comp == Compression.NONE) {
+            return in;
         }
-        return in;
+        return codecFor(comp).uncompressingStream(in);
     }
 
+    /**
+     * @param expSize Length of uncompressed content, if known; 0 or negative if not
+     */
     public static ByteContainer uncompress(ByteContainer data, Compression comp, int expSize)
             throws IOException
     {
-        if (comp != null) {
-            switch (comp) {
-            case NONE:
-                break;
-            case LZF:
-                return lzfUncompress(data);
-            case GZIP:
-                return gzipUncompress(data, expSize);
-            default: // sanity check
-                throw new IllegalArgumentException("Unrecognized compression type: "+comp);
+        if (comp == null || comp == Compression.NONE) {
+            return data;
+        }
+        return codecFor(comp).uncompress(data, expSize);
+    }
+
+    /**
+     * Method for uncompressing given content into caller-provided buffer.
+     *
+     * @return Length of uncompressed content
+     *
+     * @throws IOException If content is corrupt, or longer than <code>outputLength</code>
+     */
+    public static int uncompress(byte[] data, int offset, int len, Compression comp,
+            byte[] output, int outputOffset, int outputLength) throws IOException
+    {
+        if (comp == null || comp == Compression.NONE) {
+            if (len > outputLength) {
+                throw new IOException("Content longer ("+len+" bytes) than output buffer ("
+                        +outputLength+" bytes)");
             }
+            System.arraycopy(data, offset, output, outputOffset, len);
+            return len;
         }
-        return data;
+        return codecFor(comp).uncompress(data, offset, len, output, outputOffset, outputLength);
     }
 
     public static ByteContainer gzipUncompress(ByteContainer compData, int expSize)
         throws IOException
     {
-    	return ByteContainer.simple(gzipUncompress(compData.asBytes(), expSize));
+        return GZIPCodec.instance.uncompress(compData, expSize);
     }
-    
+
     public static byte[] gzipUncompress(byte[] compData, int expSize)
             throws IOException
     {
-        if (expSize <= 0) {
-            return gzipUncompress(compData);
-        }
-        byte[] buffer = new byte[expSize];
-        OptimizedGZIPInputStream in = new OptimizedGZIPInputStream(new ByteArrayInputStream(compData));
-        int offset = 0;
-        int left = buffer.length;
-        int count;
-
-        while (left > 0 && (count = in.read(buffer, offset, left)) > 0) {
-            offset += count;
-            left -= count;
-        }
-        // should have gotten exactly expected amount
-        try {
-            if (offset < expSize) {
-                throw new IOException("Corrupt GZIP/Deflate data: expected "+expSize+" bytes, got "+offset);
-            }
-            // and no more
-            if (in.read() != -1) {
-                throw new IOException("Corrupt GZIP/Deflate data: expected "+expSize+" bytes, got at least one more");
-            }
-        } finally {
-            try { in.close(); } catch (IOException e) { }
-        }
-        return buffer;
+        return GZIPCodec.instance.uncompress(compData, 0, compData.length, expSize);
     }
 
     public static byte[] gzipUncompress(byte[] compData)
         throws IOException
     {
-        OptimizedGZIPInputStream in = new OptimizedGZIPInputStream(new ByteArrayInputStream(compData));
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + (compData.length << 1));
-        byte[] buffer = new byte[500];
-        int count;
-
-        while ((count = in.read(buffer)) > 0) {
-            bytes.write(buffer, 0, count);
-        }
-        in.close();
-        bytes.close();
-        return bytes.toByteArray();
+        return GZIPCodec.instance.uncompress(compData, 0, compData.length, 0);
     }
-    
+
     public static byte[] lzfUncompress(byte[] data) throws IOException
     {
-        return lzfDecoder.decode(data);
+        return LZFCodec.instance.uncompress(data, 0, data.length, 0);
     }
 
     public static ByteContainer lzfUncompress(ByteContainer data) throws IOException
     {
-        return data.withBytes(new WithBytesCallback<ByteContainer>() {
-			@Override
-			public ByteContainer withBytes(byte[] buffer, int offset, int length)
-				throws IllegalArgumentException
-			{
-				try {
-					return ByteContainer.simple(lzfDecoder.decode(buffer, offset, length));
-				} catch (IOException e) {
-					throw new IllegalArgumentException("Bad LZF data to uncompress ("+length+" bytes): "+e.getMessage(), e);
-				}
-			}
-    	});
+        return LZFCodec.instance.uncompress(data, 0);
     }
 }
@@ -0,0 +1,421 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.util.BufferPool;
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * {@link CompressionCodec} for deflate compression using zlib format
+ * (RFC 1950; same as HTTP "deflate" Content-Encoding). Unlike GZIP, zlib
+ * format allows use of preset dictionaries (see {@link CompressionDictionary}),
+ * which makes it usable for compressing small entries: methods that take
+ * a dictionary may be used for that, and content compressed using one
+ * indicates checksum of the dictionary, so that it can not accidentally
+ * be uncompressed using a different one.
+ *<p>
+ * Shares the {@link ZlibPool} of the default {@link GZIPCodec}, since both
+ * use raw deflate encoding and differ only by header and trailer.
+ */
+public class DeflateCodec extends CompressionCodec
+{
+    public final static DeflateCodec instance = new DeflateCodec(GZIPCodec.instance.getZlibPool());
+
+    /**
+     * First header byte: deflate, with 32kB window
+     */
+    final static int CMF_DEFLATE = 0x78;
+
+    /**
+     * Second header byte for content we write without dictionary
+     * ("default" compression level, plus check bits)
+     */
+    final static int FLG_DEFAULT = 0x9C;
+
+    /**
+     * Second header byte for content we write using preset dictionary
+     * ("default" compression level, preset dictionary, plus check bits)
+     */
+    final static int FLG_DICTIONARY = 0xBB;
+
+    final static int FLAG_DICTIONARY = 0x20;
+
+    final static int HEADER_LENGTH = 2;
+
+    final static int DICTIONARY_ID_LENGTH = 4;
+
+    /**
+     * Trailer contains Adler-32 checksum of content
+     */
+    final static int TRAILER_LENGTH = 4;
+
+    private final static int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    protected final static BufferPool _buffers = BufferPool.instance;
+
+    protected final ZlibPool _zlib;
+
+    protected DeflateCodec(ZlibPool zlib) {
+        super(Compression.DEFLATE);
+        _zlib = zlib;
+    }
+
+    @Override
+    public int signatureLength() {
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    public boolean hasSignature(byte[] data, int offset, int len)
+    {
+        if ((data[offset] & 0xFF) != CMF_DEFLATE) {
+            return false;
+        }
+        // Only accept header bytes zlib would produce; specifically ones with
+        // preset dictionary and lowest levels would be ASCII (' ', '}')
+        switch (data[offset+1] & 0xFF) {
+        case 0x01:
+        case 0x5E:
+        case FLG_DEFAULT:
+        case 0xDA:
+        case FLG_DICTIONARY:
+        case 0xF9:
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper method for checking whether given zlib content was compressed
+     * using a preset dictionary.
+     */
+    public static boolean usesDictionary(byte[] data, int offset, int len) {
+        return (len >= HEADER_LENGTH) && (data[offset+1] & FLAG_DICTIONARY) != 0;
+    }
+
+    /*
+    /**********************************************************************
+    /* Compress
+    /**********************************************************************
+     */
+
+    @Override
+    public int maxCompressedLength(int len) {
+        // as per zlib 'deflateBound()', for raw deflate, plus header and trailer
+        return len + (len >> 12) + (len >> 14) + (len >> 25) + 13
+                + HEADER_LENGTH + DICTIONARY_ID_LENGTH + TRAILER_LENGTH;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int len) {
+        return compress(data, offset, len, null);
+    }
+
+    @Override
+    public byte[] compress(ByteContainer data) {
+        return _compress(data.asByteBuffer(), null);
+    }
+
+    @Override
+    public int compress(byte[] data, int offset, int len, byte[] output, int outputOffset) {
+        return _compress(ByteBuffer.wrap(data, offset, len), null, output, outputOffset);
+    }
+
+    /**
+     * Method for compressing given content using given preset dictionary.
+     *
+     * @param dict Dictionary to use, if any; null for none
+     */
+    public byte[] compress(byte[] data, int offset, int len, CompressionDictionary dict) {
+        return _compress(ByteBuffer.wrap(data, offset, len), dict);
+    }
+
+    /**
+     * Method for compressing given content using given preset dictionary.
+     *
+     * @param dict Dictionary to use, if any; null for none
+     */
+    public byte[] compress(ByteContainer data, CompressionDictionary dict) {
+        return _compress(data.asByteBuffer(), dict);
+    }
+
+    /**
+     * Method for compressing given content using given preset dictionary,
+     * into caller-provided buffer.
+     *
+     * @param dict Dictionary to use, if any; null for none
+     *
+     * @return Length of compressed content
+     */
+    public int compress(byte[] data, int offset, int len, CompressionDictionary dict,
+            byte[] output, int outputOffset) {
+        return _compress(ByteBuffer.wrap(data, offset, len), dict, output, outputOffset);
+    }
+
+    protected byte[] _compress(ByteBuffer input, CompressionDictionary dict)
+    {
+        byte[] buffer = _buffers.borrow(maxCompressedLength(input.remaining()));
+        try {
+            int len = _compress(input, dict, buffer, 0);
+            return Arrays.copyOf(buffer, len);
+        } finally {
+            _buffers.release(buffer);
+        }
+    }
+
+    protected int _compress(ByteBuffer input, CompressionDictionary dict,
+            byte[] output, final int outputOffset)
+    {
+        final int trailerStart = output.length - TRAILER_LENGTH;
+        final int headerLength = (dict == null) ? HEADER_LENGTH : (HEADER_LENGTH + DICTIONARY_ID_LENGTH);
+        if ((trailerStart - outputOffset) < headerLength) {
+            throw _outputTooSmall(output, outputOffset);
+        }
+        output[outputOffset] = (byte) CMF_DEFLATE;
+        if (dict == null) {
+            output[outputOffset+1] = (byte) FLG_DEFAULT;
+        } else {
+            output[outputOffset+1] = (byte) FLG_DICTIONARY;
+            ByteUtil.putIntBE(output, outputOffset+HEADER_LENGTH, dict.getChecksum());
+        }
+        int ptr = outputOffset + headerLength;
+        Adler32 adler = new Adler32();
+        adler.update(input.duplicate());
+
+        Deflater def = _zlib.borrowDeflater();
+        try {
+            if (dict != null) {
+                def.setDictionary(dict.getContents());
+            }
+            def.setInput(input.duplicate());
+            def.finish();
+            while (!def.finished()) {
+                if (ptr == trailerStart) {
+                    throw _outputTooSmall(output, outputOffset);
+                }
+                ptr += def.deflate(output, ptr, trailerStart - ptr);
+            }
+        } finally {
+            _zlib.release(def);
+        }
+        ByteUtil.putIntBE(output, ptr, (int) adler.getValue());
+        return ptr + TRAILER_LENGTH - outputOffset;
+    }
+
+    private IllegalArgumentException _outputTooSmall(byte[] output, int outputOffset) {
+        return new IllegalArgumentException("Output buffer too small ("+(output.length - outputOffset)
+                +" bytes) for Deflate content");
+    }
+
+    /*
+    /**********************************************************************
+    /* Uncompress
+    /**********************************************************************
+     */
+
+    @Override
+    public byte[] uncompress(byte[] data, int offset, int len, int expSize) throws IOException {
+        return uncompress(data, offset, len, null, expSize);
+    }
+
+    @Override
+    public int uncompress(byte[] data, int offset, int len,
+            byte[] output, int outputOffset, int outputLength) throws IOException {
+        return uncompress(data, offset, len, null, output, outputOffset, outputLength);
+    }
+
+    /**
+     * Method for uncompressing given content, using given preset dictionary
+     * if content was compressed using one.
+     *
+     * @param dict Dictionary that was used for compressing content, if any
+     * @param expSize Length of uncompressed content, if known; 0 or negative if not
+     *
+     * @throws IOException If content is corrupt, or was compressed using a dictionary
+     *   other than one given
+     */
+    public byte[] uncompress(byte[] data, int offset, int len, CompressionDictionary dict,
+            int expSize) throws IOException
+    {
+        if (expSize > 0) {
+            byte[] result = new byte[expSize];
+            int count = _inflate(data, offset, len, dict, result, 0, expSize);
+            if (count < 0) {
+                throw new IOException("Corrupt Deflate data: expected "+expSize+" bytes, got at least one more");
+            }
+            if (count < expSize) {
+                throw new IOException("Corrupt Deflate data: expected "+expSize+" bytes, got "+count);
+            }
+            return result;
+        }
+        // no trailer to indicate length, so need to guess, retry as necessary
+        long size = Math.max(64L, (long) len << 2);
+        while (true) {
+            byte[] result = new byte[(int) Math.min(size, MAX_ARRAY_LENGTH)];
+            int count = _inflate(data, offset, len, dict, result, 0, result.length);
+            if (count >= 0) {
+                return (count == result.length) ? result : Arrays.copyOf(result, count);
+            }
+            if (result.length == MAX_ARRAY_LENGTH) {
+                throw new IOException("Deflate content too long to uncompress in memory");
+            }
+            size <<= 1;
+        }
+    }
+
+    /**
+     * Method for uncompressing given content into caller-provided buffer,
+     * using given preset dictionary if content was compressed using one.
+     *
+     * @param dict Dictionary that was used for compressing content, if any
+     *
+     * @return Length of uncompressed content
+     */
+    public int uncompress(byte[] data, int offset, int len, CompressionDictionary dict,
+            byte[] output, int outputOffset, int outputLength) throws IOException
+    {
+        int count = _inflate(data, offset, len, dict, output, outputOffset, outputLength);
+        if (count < 0) {
+            throw new IOException("Corrupt Deflate data: expected at most "+outputLength
+                    +" bytes, got more");
+        }
+        return count;
+    }
+
+    /**
+     * @return Length of uncompressed content, if it fit in given output
+     *   space; -1 if not
+     */
+    protected int _inflate(byte[] data, final int offset, final int len, CompressionDictionary dict,
+            byte[] output, final int outputOffset, final int outputLength)
+        throws IOException
+    {
+        if (len < HEADER_LENGTH + TRAILER_LENGTH) {
+            throw new IOException("Corrupt Deflate data: only "+len+" bytes");
+        }
+        final int cmf = data[offset] & 0xFF;
+        final int flg = data[offset+1] & 0xFF;
+        if ((cmf & 0x0F) != 8 || (((cmf << 8) | flg) % 31) != 0) {
+            throw new IOException("Corrupt Deflate data: not in zlib format");
+        }
+        final int end = offset + len;
+        int ptr = offset + HEADER_LENGTH;
+        final boolean usesDict = (flg & FLAG_DICTIONARY) != 0;
+        if (usesDict) {
+            if ((end - ptr) < DICTIONARY_ID_LENGTH + TRAILER_LENGTH) {
+                throw new IOException("Corrupt Deflate data: truncated header");
+            }
+            final int checksum = ByteUtil.getIntBE(data, ptr);
+            if (dict == null) {
+                throw new IOException("Can not uncompress Deflate data: compressed using preset dictionary (checksum 0x"
+                        +Integer.toHexString(checksum)+"), none given");
+            }
+            if (dict.getChecksum() != checksum) {
+                throw new IOException("Can not uncompress Deflate data: compressed using preset dictionary with checksum 0x"
+                        +Integer.toHexString(checksum)+", given dictionary "+dict.getId()
+                        +" has checksum 0x"+Integer.toHexString(dict.getChecksum()));
+            }
+            ptr += DICTIONARY_ID_LENGTH;
+        }
+        int outPtr = outputOffset;
+        final int outEnd = outputOffset + outputLength;
+
+        final Inflater inf = _zlib.borrowInflater();
+        try {
+            if (usesDict) {
+                inf.setDictionary(dict.getContents());
+            }
+            inf.setInput(data, ptr, end - ptr);
+            while (true) {
+                if (outPtr == outEnd) {
+                    // may be done, in which case nothing more to inflate
+                    if (inf.inflate(new byte[1]) > 0) {
+                        return -1;
+                    }
+                } else {
+                    outPtr += inf.inflate(output, outPtr, outEnd - outPtr);
+                }
+                if (inf.finished()) {
+                    break;
+                }
+                if (inf.needsInput() || inf.needsDictionary()) {
+                    throw new IOException("Corrupt Deflate data: unexpected end of content");
+                }
+            }
+            ptr = end - inf.getRemaining();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt Deflate data: "+e.getMessage(), e);
+        } finally {
+            _zlib.release(inf);
+        }
+        if ((end - ptr) != TRAILER_LENGTH) {
+            throw new IOException("Corrupt Deflate data: expected "+TRAILER_LENGTH+" byte trailer, got "
+                    +(end - ptr)+" bytes");
+        }
+        Adler32 adler = new Adler32();
+        adler.update(output, outputOffset, outPtr - outputOffset);
+        if (ByteUtil.getIntBE(data, ptr) != (int) adler.getValue()) {
+            throw new IOException("Corrupt Deflate data: checksum mismatch");
+        }
+        return outPtr - outputOffset;
+    }
+
+    /*
+    /**********************************************************************
+    /* Streaming
+    /**********************************************************************
+     */
+
+    /**
+     * Streams do not use dictionaries, since they are only needed for
+     * small content.
+     */
+    @Override
+    public OutputStream compressingStream(OutputStream out) throws IOException
+    {
+        return new DeflaterOutputStream(out, new Deflater(_zlib.getLevel()), 8000) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream uncompressingStream(InputStream in) throws IOException
+    {
+        return new InflaterInputStream(in, new Inflater(), 8000) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                // would otherwise just look like end of content
+                if (count < 0 && inf.needsDictionary()) {
+                    throw new IOException("Can not uncompress Deflate stream: compressed using preset dictionary");
+                }
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,201 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.util.*;
+
+/**
+ * Helper class for building {@link CompressionDictionary} instances from
+ * samples of content to compress. Uses a simplified version of the "cover"
+ * algorithm (as used by Zstandard dictionary builder): short byte sequences
+ * (k-mers) are scored by number of samples they occur in; then sample
+ * data is divided into epochs (one per dictionary segment), and from each
+ * epoch the segment with highest total score of distinct k-mers is chosen.
+ * K-mers of chosen segments no longer count towards scores of later
+ * segments, to avoid redundancy.
+ *<p>
+ * Segments chosen first are placed at the end of the dictionary, since
+ * deflate encodes shorter (closer) back-references more compactly.
+ *<p>
+ * Instances are immutable and thread-safe; training itself is CPU
+ * intensive, and should not be done too frequently.
+ */
+public class DictionaryTrainer
+{
+    public final static int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+
+    public final static int DEFAULT_SEGMENT_LENGTH = 64;
+
+    /**
+     * Length of byte sequences used for scoring segments; short enough
+     * to find common fragments, long enough to be worth back-reference.
+     */
+    protected final static int KMER_LENGTH = 8;
+
+    protected final int _dictionarySize;
+
+    protected final int _segmentLength;
+
+    public DictionaryTrainer() {
+        this(DEFAULT_DICTIONARY_SIZE, DEFAULT_SEGMENT_LENGTH);
+    }
+
+    public DictionaryTrainer(int dictionarySize, int segmentLength)
+    {
+        if (dictionarySize <= 0 || dictionarySize > CompressionDictionary.MAX_LENGTH) {
+            throw new IllegalArgumentException("Invalid dictionary size ("+dictionarySize
+                    +"): must be between 1 and "+CompressionDictionary.MAX_LENGTH);
+        }
+        if (segmentLength < KMER_LENGTH || segmentLength > dictionarySize) {
+            throw new IllegalArgumentException("Invalid segment length ("+segmentLength
+                    +"): must be between "+KMER_LENGTH+" and dictionary size ("+dictionarySize+")");
+        }
+        _dictionarySize = dictionarySize;
+        _segmentLength = segmentLength;
+    }
+
+    public int getDictionarySize() { return _dictionarySize; }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for building a dictionary with given id from given samples.
+     *
+     * @return Dictionary built, if samples had enough repeating content;
+     *   null if not
+     */
+    public CompressionDictionary train(int id, Collection<byte[]> samples)
+    {
+        int total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        if (total < _segmentLength) {
+            return null;
+        }
+        final byte[] all = new byte[total];
+        final Map<Long,int[]> freqs = new HashMap<Long,int[]>();
+        int ptr = 0;
+        int sampleIndex = 0;
+        for (byte[] sample : samples) {
+            System.arraycopy(sample, 0, all, ptr, sample.length);
+            // only count k-mers within samples, and only once per sample
+            for (int i = ptr, end = ptr + sample.length - KMER_LENGTH; i <= end; ++i) {
+                final Long kmer = _kmer(all, i);
+                int[] freq = freqs.get(kmer);
+                if (freq == null) {
+                    freqs.put(kmer, new int[] { 1, sampleIndex });
+                } else if (freq[1] != sampleIndex) {
+                    ++freq[0];
+                    freq[1] = sampleIndex;
+                }
+            }
+            ptr += sample.length;
+            ++sampleIndex;
+        }
+
+        final byte[] dict = new byte[_dictionarySize];
+        int tail = _dictionarySize;
+        final int epochLength = Math.max(_segmentLength, total / (_dictionarySize / _segmentLength));
+        boolean progress = true;
+
+        // usually one round suffices, but with little sample data need more
+        while (tail > 0 && progress) {
+            progress = false;
+            for (int start = 0; start < total && tail > 0; start += epochLength) {
+                final int end = Math.min(total, start + epochLength);
+                final int segLength = Math.min(tail, Math.min(_segmentLength, end - start));
+                final int segStart = _bestSegment(all, start, end, segLength, freqs);
+                if (segStart < 0) {
+                    continue;
+                }
+                tail -= segLength;
+                System.arraycopy(all, segStart, dict, tail, segLength);
+                // k-mers included no longer add value for other segments
+                for (int i = segStart, last = segStart + segLength - KMER_LENGTH; i <= last; ++i) {
+                    int[] freq = freqs.get(_kmer(all, i));
+                    if (freq != null) {
+                        freq[0] = 0;
+                    }
+                }
+                progress = true;
+            }
+        }
+        if (tail == _dictionarySize) {
+            return null;
+        }
+        return new CompressionDictionary(id, (tail == 0) ? dict
+                : Arrays.copyOfRange(dict, tail, _dictionarySize));
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Method for finding segment of given length within given epoch,
+     * with highest score.
+     *
+     * @return Start offset of the best segment; -1 if no segment has
+     *   positive score
+     */
+    protected int _bestSegment(byte[] all, int start, int end, int segLength,
+            Map<Long,int[]> freqs)
+    {
+        final int kmersPerSegment = segLength - KMER_LENGTH + 1;
+        if (kmersPerSegment <= 0) {
+            return -1;
+        }
+        // counts of distinct k-mers within current window
+        final Map<Long,int[]> active = new HashMap<Long,int[]>();
+        long score = 0L;
+        long bestScore = 0L;
+        int bestStart = -1;
+
+        for (int i = start, last = end - KMER_LENGTH; i <= last; ++i) {
+            final int dropped = i - kmersPerSegment;
+            if (dropped >= start) {
+                final Long kmer = _kmer(all, dropped);
+                int[] count = active.get(kmer);
+                if (--count[0] == 0) {
+                    active.remove(kmer);
+                    score -= _weight(freqs, kmer);
+                }
+            }
+            final Long kmer = _kmer(all, i);
+            int[] count = active.get(kmer);
+            if (count == null) {
+                active.put(kmer, new int[] { 1 });
+                score += _weight(freqs, kmer);
+            } else {
+                ++count[0];
+            }
+            final int segStart = dropped + 1;
+            if (segStart >= start && score > bestScore) {
+                bestScore = score;
+                bestStart = segStart;
+            }
+        }
+        return bestStart;
+    }
+
+    private final static int _weight(Map<Long,int[]> freqs, Long kmer)
+    {
+        int[] freq = freqs.get(kmer);
+        // sequences that occur in just one sample are of no use
+        return (freq == null || freq[0] < 2) ? 0 : freq[0];
+    }
+
+    private final static Long _kmer(byte[] data, int offset)
+    {
+        long l = 0L;
+        for (int i = 0; i < KMER_LENGTH; ++i) {
+            l = (l << 8) | (data[offset+i] & 0xFF);
+        }
+        return Long.valueOf(l);
+    }
+}
@@ -0,0 +1,387 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.util.BufferPool;
+import com.fasterxml.storemate.shared.util.ByteUtil;
+import com.ning.compress.gzip.OptimizedGZIPInputStream;
+import com.ning.compress.gzip.OptimizedGZIPOutputStream;
+
+/**
+ * {@link CompressionCodec} for GZIP compression. Block compression and
+ * uncompression is done directly with {@link Deflater}s and {@link Inflater}s
+ * from a bounded {@link ZlibPool} (which also determines compression level
+ * to use), to avoid costs of creating native zlib state for each call;
+ * streaming uses optimized streams from <code>compress-lzf</code> library.
+ */
+public class GZIPCodec extends CompressionCodec
+{
+    public final static GZIPCodec instance = new GZIPCodec(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Header we write: no flags, no modification time, no extra flags;
+     * "unknown" as operating system.
+     */
+    private final static byte[] HEADER = new byte[] {
+        0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF
+    };
+
+    final static int HEADER_LENGTH = 10;
+
+    /**
+     * Trailer contains CRC32 of content, and its length
+     */
+    final static int TRAILER_LENGTH = 8;
+
+    final static int METHOD_DEFLATE = 8;
+
+    final static int FLAG_HEADER_CRC = 0x02;
+    final static int FLAG_EXTRA = 0x04;
+    final static int FLAG_NAME = 0x08;
+    final static int FLAG_COMMENT = 0x10;
+
+    /**
+     * Maximum expansion ratio of deflate encoding; used for sanity checking
+     * uncompressed length indicated by trailer.
+     */
+    private final static int MAX_DEFLATE_RATIO = 1032;
+
+    private final static int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    protected final static BufferPool _buffers = BufferPool.instance;
+
+    protected final ZlibPool _zlib;
+
+    protected GZIPCodec(int level) {
+        this(new ZlibPool(level, ZlibPool.DEFAULT_MAX_POOLED));
+    }
+
+    protected GZIPCodec(ZlibPool zlib) {
+        super(Compression.GZIP);
+        _zlib = zlib;
+    }
+
+    /**
+     * Factory method for getting codec that compresses using given level
+     * (from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}). To make
+     * {@link Compressors} use such codec, it needs to be registered using
+     * {@link Compressors#registerCodec}.
+     */
+    public static GZIPCodec forLevel(int level) {
+        if (level == instance.getLevel()) {
+            return instance;
+        }
+        return new GZIPCodec(level);
+    }
+
+    public int getLevel() {
+        return _zlib.getLevel();
+    }
+
+    public ZlibPool getZlibPool() {
+        return _zlib;
+    }
+
+    @Override
+    public int signatureLength() {
+        // only 2 bytes of signature, but no valid gzip content is shorter than 3 bytes
+        return 3;
+    }
+
+    @Override
+    public boolean hasSignature(byte[] data, int offset, int len) {
+        // starts with 0x1F, 0x8B (0x8B1F, little-endian)
+        return (data[offset] == 0x1F) && ((data[offset+1] & 0xFF) == 0x8B);
+    }
+
+    /*
+    /**********************************************************************
+    /* Compress
+    /**********************************************************************
+     */
+
+    @Override
+    public int maxCompressedLength(int len) {
+        // as per zlib 'deflateBound()', for raw deflate, plus header and trailer
+        return len + (len >> 12) + (len >> 14) + (len >> 25) + 13
+                + HEADER_LENGTH + TRAILER_LENGTH;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int len) throws IOException {
+        return _compress(ByteBuffer.wrap(data, offset, len));
+    }
+
+    @Override
+    public byte[] compress(ByteContainer data) throws IOException {
+        // no need to copy content, can deflate from buffer (heap or direct)
+        return _compress(data.asByteBuffer());
+    }
+
+    @Override
+    public int compress(byte[] data, int offset, int len, byte[] output, int outputOffset) {
+        return _compress(ByteBuffer.wrap(data, offset, len), output, outputOffset);
+    }
+
+    protected byte[] _compress(ByteBuffer input)
+    {
+        byte[] buffer = _buffers.borrow(maxCompressedLength(input.remaining()));
+        try {
+            int len = _compress(input, buffer, 0);
+            return Arrays.copyOf(buffer, len);
+        } finally {
+            _buffers.release(buffer);
+        }
+    }
+
+    protected int _compress(ByteBuffer input, byte[] output, final int outputOffset)
+    {
+        final int trailerStart = output.length - TRAILER_LENGTH;
+        if ((trailerStart - outputOffset) < HEADER_LENGTH) {
+            throw _outputTooSmall(output, outputOffset);
+        }
+        System.arraycopy(HEADER, 0, output, outputOffset, HEADER_LENGTH);
+        int ptr = outputOffset + HEADER_LENGTH;
+        final int len = input.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(input.duplicate());
+
+        Deflater def = _zlib.borrowDeflater();
+        try {
+            def.setInput(input.duplicate());
+            def.finish();
+            while (!def.finished()) {
+                if (ptr == trailerStart) {
+                    throw _outputTooSmall(output, outputOffset);
+                }
+                ptr += def.deflate(output, ptr, trailerStart - ptr);
+            }
+        } finally {
+            _zlib.release(def);
+        }
+        ByteUtil.putIntLE(output, ptr, (int) crc.getValue());
+        ByteUtil.putIntLE(output, ptr+4, len);
+        return ptr + TRAILER_LENGTH - outputOffset;
+    }
+
+    private IllegalArgumentException _outputTooSmall(byte[] output, int outputOffset) {
+        return new IllegalArgumentException("Output buffer too small ("+(output.length - outputOffset)
+                +" bytes) for GZIP content");
+    }
+
+    /*
+    /**********************************************************************
+    /* Uncompress
+    /**********************************************************************
+     */
+
+    @Override
+    public byte[] uncompress(byte[] data, int offset, int len, int expSize) throws IOException {
+        return _uncompress(ByteBuffer.wrap(data, offset, len), expSize);
+    }
+
+    @Override
+    public ByteContainer uncompress(ByteContainer compData, int expSize) throws IOException {
+        // no need to copy compressed data, can inflate from buffer (heap or direct)
+        return ByteContainer.simple(_uncompress(compData.asByteBuffer(), expSize));
+    }
+
+    @Override
+    public int uncompress(byte[] data, int offset, int len,
+            byte[] output, int outputOffset, int outputLength)
+        throws IOException
+    {
+        int count = _inflate(ByteBuffer.wrap(data, offset, len), output, outputOffset, outputLength);
+        if (count < 0) {
+            throw new IOException("Corrupt GZIP/Deflate data: expected at most "+outputLength
+                    +" bytes, got more");
+        }
+        return count;
+    }
+
+    protected byte[] _uncompress(ByteBuffer input, int expSize) throws IOException
+    {
+        if (expSize > 0) {
+            byte[] result = new byte[expSize];
+            int count = _inflate(input, result, 0, expSize);
+            if (count < 0) {
+                throw new IOException("Corrupt GZIP/Deflate data: expected "+expSize+" bytes, got at least one more");
+            }
+            if (count < expSize) {
+                throw new IOException("Corrupt GZIP/Deflate data: expected "+expSize+" bytes, got "+count);
+            }
+            return result;
+        }
+        // Length unknown, but trailer should tell it (unless multiple members, or 4GB+)
+        final int compLength = input.remaining();
+        long size = (long) compLength << 2;
+        if (compLength >= HEADER_LENGTH + TRAILER_LENGTH) {
+            long trailerSize = _getIntLE(input, input.limit() - 4) & 0xFFFFFFFFL;
+            if (trailerSize <= (long) compLength * MAX_DEFLATE_RATIO) {
+                size = trailerSize;
+            }
+        }
+        // and if not, need to retry with bigger buffers
+        while (true) {
+            byte[] result = new byte[(int) Math.min(size, MAX_ARRAY_LENGTH)];
+            int count = _inflate(input, result, 0, result.length);
+            if (count >= 0) {
+                return (count == result.length) ? result : Arrays.copyOf(result, count);
+            }
+            if (result.length == MAX_ARRAY_LENGTH) {
+                throw new IOException("GZIP content too long to uncompress in memory");
+            }
+            size = Math.max(16L, size << 1);
+        }
+    }
+
+    /**
+     * Method that does actual uncompression of one or more GZIP members.
+     * Position of input buffer is not modified.
+     *
+     * @return Length of uncompressed content, if it fit in given output
+     *   space; -1 if not
+     */
+    protected int _inflate(ByteBuffer input, byte[] output, final int outputOffset, final int outputLength)
+        throws IOException
+    {
+        int ptr = input.position();
+        final int end = input.limit();
+        int outPtr = outputOffset;
+        final int outEnd = outputOffset + outputLength;
+
+        final Inflater inf = _zlib.borrowInflater();
+        try {
+            do {
+                ptr = _skipHeader(input, ptr, end);
+                final int memberStart = outPtr;
+                ByteBuffer members = input.duplicate();
+                members.limit(end);
+                members.position(ptr);
+                inf.reset();
+                inf.setInput(members);
+                while (true) {
+                    if (outPtr == outEnd) {
+                        // may be done, in which case nothing more to inflate
+                        if (inf.inflate(new byte[1]) > 0) {
+                            return -1;
+                        }
+                    } else {
+                        outPtr += inf.inflate(output, outPtr, outEnd - outPtr);
+                    }
+                    if (inf.finished()) {
+                        break;
+                    }
+                    if (inf.needsInput() || inf.needsDictionary()) {
+                        throw new IOException("Corrupt GZIP/Deflate data: unexpected end of content");
+                    }
+                }
+                ptr = end - inf.getRemaining();
+                if ((end - ptr) < TRAILER_LENGTH) {
+                    throw new IOException("Corrupt GZIP/Deflate data: missing trailer");
+                }
+                CRC32 crc = new CRC32();
+                crc.update(output, memberStart, outPtr - memberStart);
+                if (_getIntLE(input, ptr) != (int) crc.getValue()) {
+                    throw new IOException("Corrupt GZIP/Deflate data: CRC mismatch");
+                }
+                if (_getIntLE(input, ptr+4) != (outPtr - memberStart)) {
+                    throw new IOException("Corrupt GZIP/Deflate data: length mismatch");
+                }
+                ptr += TRAILER_LENGTH;
+            } while (ptr < end);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt GZIP/Deflate data: "+e.getMessage(), e);
+        } finally {
+            _zlib.release(inf);
+        }
+        return outPtr - outputOffset;
+    }
+
+    /**
+     * @return Offset of deflate content following the header
+     */
+    protected static int _skipHeader(ByteBuffer input, int ptr, final int end) throws IOException
+    {
+        if ((end - ptr) < HEADER_LENGTH) {
+            throw new IOException("Corrupt GZIP/Deflate data: truncated header");
+        }
+        if (input.get(ptr) != 0x1F || (input.get(ptr+1) & 0xFF) != 0x8B) {
+            throw new IOException("Corrupt GZIP/Deflate data: not in GZIP format");
+        }
+        if (input.get(ptr+2) != METHOD_DEFLATE) {
+            throw new IOException("Corrupt GZIP/Deflate data: unsupported compression method "+input.get(ptr+2));
+        }
+        final int flags = input.get(ptr+3);
+        ptr += HEADER_LENGTH;
+        if ((flags & FLAG_EXTRA) != 0) {
+            if ((end - ptr) < 2) {
+                throw new IOException("Corrupt GZIP/Deflate data: truncated header");
+            }
+            ptr += 2 + ((input.get(ptr) & 0xFF) | ((input.get(ptr+1) & 0xFF) << 8));
+        }
+        if ((flags & FLAG_NAME) != 0) {
+            ptr = _skipZeroTerminated(input, ptr, end);
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            ptr = _skipZeroTerminated(input, ptr, end);
+        }
+        if ((flags & FLAG_HEADER_CRC) != 0) {
+            ptr += 2;
+        }
+        if (ptr > end) {
+            throw new IOException("Corrupt GZIP/Deflate data: truncated header");
+        }
+        return ptr;
+    }
+
+    private static int _getIntLE(ByteBuffer input, int ptr) {
+        return (input.get(ptr) & 0xFF) | ((input.get(ptr+1) & 0xFF) << 8)
+                | ((input.get(ptr+2) & 0xFF) << 16) | (input.get(ptr+3) << 24);
+    }
+
+    private static int _skipZeroTerminated(ByteBuffer input, int ptr, final int end)
+    {
+        while (ptr < end) {
+            if (input.get(ptr++) == 0) {
+                return ptr;
+            }
+        }
+        // signal truncation
+        return end+1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Streaming
+    /**********************************************************************
+     */
+
+    @Override
+    public OutputStream compressingStream(OutputStream out) throws IOException
+    {
+        final int level = getLevel();
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            return new OptimizedGZIPOutputStream(out);
+        }
+        // optimized stream only supports default level, so:
+        return new GZIPOutputStream(out, 8000) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public InputStream uncompressingStream(InputStream in) throws IOException {
+        return new OptimizedGZIPInputStream(in);
+    }
+}
@@ -0,0 +1,273 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.IOException;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * Pure-Java implementation of LZ4 block format
+ * (see [https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md]),
+ * using single-probe hash table for finding matches, similar to
+ * the "fast" mode of the reference implementation.
+ * Used by {@link LZ4Codec} and LZ4 streams for contents of frame blocks.
+ */
+final class LZ4Block
+{
+    final static int MIN_MATCH = 4;
+
+    /**
+     * Last 5 bytes of a block are always literals
+     */
+    final static int LAST_LITERALS = 5;
+
+    /**
+     * Last match must start at least 12 bytes before end of block
+     */
+    final static int MF_LIMIT = 12;
+
+    final static int MAX_DISTANCE = 0xFFFF;
+
+    final static int HASH_LOG = 12;
+
+    /**
+     * Size of hash table (in ints) callers need to pass for compression
+     */
+    final static int HASH_TABLE_SIZE = 1 << HASH_LOG;
+
+    private final static int RUN_MASK = 0xF;
+
+    private final static int ML_MASK = 0xF;
+
+    private LZ4Block() { }
+
+    /**
+     * Method for calculating maximum length compressed version of content
+     * with given length may have.
+     */
+    public static int maxCompressedLength(int len) {
+        return len + (len / 255) + 16;
+    }
+
+    /*
+    /**********************************************************************
+    /* Compression
+    /**********************************************************************
+     */
+
+    /**
+     * Method for compressing given content into given output buffer, which
+     * must have at least {@link #maxCompressedLength} bytes of room.
+     *<p>
+     * Hash table may be reused between calls without clearing, since all
+     * candidate matches are verified.
+     *
+     * @return Length of compressed content
+     */
+    public static int compress(byte[] src, final int srcOff, final int srcLen,
+            byte[] dst, final int dstOff, final int[] table)
+    {
+        final int srcEnd = srcOff + srcLen;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen > MF_LIMIT) { // shorter blocks can not have matches
+            final int mfLimit = srcEnd - MF_LIMIT;
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            int ip = srcOff;
+
+            while (ip < mfLimit) {
+                final int seq = ByteUtil.getIntLE(src, ip);
+                final int h = _hash(seq);
+                int ref = srcOff + table[h];
+                table[h] = ip - srcOff;
+                final int dist = ip - ref;
+                if (dist <= 0 || dist > MAX_DISTANCE || ByteUtil.getIntLE(src, ref) != seq) {
+                    // skip faster over incompressible sections
+                    ip += 1 + ((ip - anchor) >>> 6);
+                    continue;
+                }
+                // extend match backwards over pending literals
+                while (ip > anchor && ref > srcOff && src[ip-1] == src[ref-1]) {
+                    --ip;
+                    --ref;
+                }
+                final int matchLen = MIN_MATCH + _matchLength(src, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+                op = _writeSequence(src, anchor, ip - anchor, dist, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+                if (ip < mfLimit) { // help find matches that overlap end of this one
+                    table[_hash(ByteUtil.getIntLE(src, ip-2))] = ip - 2 - srcOff;
+                }
+            }
+        }
+        op = _writeLastLiterals(src, anchor, srcEnd - anchor, dst, op);
+        return op - dstOff;
+    }
+
+    private final static int _hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * Helper method for counting matching bytes between two positions,
+     * comparing 8 bytes at a time.
+     */
+    private final static int _matchLength(byte[] src, int ip, int ref, final int limit)
+    {
+        final int start = ip;
+        while (ip <= limit - 8) {
+            long diff = ByteUtil.getLongLE(src, ip) ^ ByteUtil.getLongLE(src, ref);
+            if (diff != 0L) {
+                return ip - start + (Long.numberOfTrailingZeros(diff) >> 3);
+            }
+            ip += 8;
+            ref += 8;
+        }
+        while (ip < limit && src[ip] == src[ref]) {
+            ++ip;
+            ++ref;
+        }
+        return ip - start;
+    }
+
+    private final static int _writeSequence(byte[] src, int litStart, int litLen,
+            int offset, int matchLen, byte[] dst, int op)
+    {
+        final int tokenPtr = op++;
+        int token;
+        if (litLen >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            op = _writeLength(dst, op, litLen - RUN_MASK);
+        } else {
+            token = litLen << 4;
+        }
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >> 8);
+        matchLen -= MIN_MATCH;
+        if (matchLen >= ML_MASK) {
+            token |= ML_MASK;
+            op = _writeLength(dst, op, matchLen - ML_MASK);
+        } else {
+            token |= matchLen;
+        }
+        dst[tokenPtr] = (byte) token;
+        return op;
+    }
+
+    private final static int _writeLastLiterals(byte[] src, int litStart, int litLen,
+            byte[] dst, int op)
+    {
+        if (litLen >= RUN_MASK) {
+            dst[op++] = (byte) (RUN_MASK << 4);
+            op = _writeLength(dst, op, litLen - RUN_MASK);
+        } else {
+            dst[op++] = (byte) (litLen << 4);
+        }
+        System.arraycopy(src, litStart, dst, op, litLen);
+        return op + litLen;
+    }
+
+    private final static int _writeLength(byte[] dst, int op, int len)
+    {
+        while (len >= 255) {
+            dst[op++] = (byte) 0xFF;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    /*
+    /**********************************************************************
+    /* Uncompression
+    /**********************************************************************
+     */
+
+    /**
+     * Method for uncompressing given block into output buffer.
+     *
+     * @param dstEnd End offset of space available in output buffer
+     * @param windowStart Lowest offset in output buffer that back-references
+     *   may refer to: start of the block, unless block may refer to contents
+     *   of previous blocks
+     *
+     * @return Length of uncompressed content
+     */
+    public static int uncompress(byte[] src, int srcOff, int srcLen,
+            byte[] dst, final int dstOff, final int dstEnd, final int windowStart)
+        throws IOException
+    {
+        final int srcEnd = srcOff + srcLen;
+        int ip = srcOff;
+        int op = dstOff;
+
+        while (true) {
+            if (ip >= srcEnd) {
+                throw _corrupt("unexpected end of block", ip - srcOff);
+            }
+            final int token = src[ip++] & 0xFF;
+            int litLen = token >>> 4;
+            if (litLen == RUN_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw _corrupt("unexpected end of block", ip - srcOff);
+                    }
+                    b = src[ip++] & 0xFF;
+                    litLen += b;
+                } while (b == 0xFF);
+            }
+            if (litLen < 0 || litLen > (srcEnd - ip) || litLen > (dstEnd - op)) {
+                throw _corrupt("invalid literal length "+litLen, ip - srcOff);
+            }
+            System.arraycopy(src, ip, dst, op, litLen);
+            ip += litLen;
+            op += litLen;
+            if (ip == srcEnd) { // block always ends with literals
+                break;
+            }
+            if ((srcEnd - ip) < 2) {
+                throw _corrupt("unexpected end of block", ip - srcOff);
+            }
+            final int offset = (src[ip] & 0xFF) | ((src[ip+1] & 0xFF) << 8);
+            ip += 2;
+            int matchLen = token & ML_MASK;
+            if (matchLen == ML_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw _corrupt("unexpected end of block", ip - srcOff);
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLen += b;
+                } while (b == 0xFF);
+            }
+            matchLen += MIN_MATCH;
+            final int ref = op - offset;
+            if (offset == 0 || ref < windowStart) {
+                throw _corrupt("invalid match offset "+offset, ip - srcOff);
+            }
+            if (matchLen < 0 || matchLen > (dstEnd - op)) {
+                throw _corrupt("invalid match length "+matchLen, ip - srcOff);
+            }
+            if (offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, op, matchLen);
+                op += matchLen;
+            } else { // overlapping: repeat pattern, doubling the copied length each round
+                final int end = op + matchLen;
+                while (op < end) {
+                    int count = Math.min(op - ref, end - op);
+                    System.arraycopy(dst, ref, dst, op, count);
+                    op += count;
+                }
+            }
+        }
+        return op - dstOff;
+    }
+
+    private static IOException _corrupt(String msg, int offset) {
+        return new IOException("Corrupt LZ4 block: "+msg+" (at offset "+offset+")");
+    }
+}
@@ -0,0 +1,423 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+import java.util.Arrays;
+
+import com.fasterxml.storemate.shared.hash.BlockXXHash32Hasher;
+import com.fasterxml.storemate.shared.util.BufferPool;
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * {@link CompressionCodec} for LZ4 compression, using standard LZ4 frame format
+ * (see [https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md]) so that
+ * content is readable by other LZ4 implementations, and vice versa.
+ * Block compression is implemented by {@link LZ4Block}.
+ *<p>
+ * Frames written use independent blocks of up to 64 kB, and have no checksums
+ * other than that of the frame header (stored entries have content hashes
+ * of their own). Frames written by block compression also contain
+ * content size. When reading, all standard options except for dictionary ids
+ * are supported; concatenated and skippable frames are also accepted.
+ * Block and content checksums are verified by block uncompression but just
+ * skipped by streams.
+ */
+public class LZ4Codec extends CompressionCodec
+{
+    public final static LZ4Codec instance = new LZ4Codec();
+
+    protected final static BufferPool _buffers = BufferPool.instance;
+
+    final static int MAGIC = 0x184D2204;
+
+    final static int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    final static int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    final static int FLAG_VERSION = 0x40;
+    final static int FLAG_VERSION_MASK = 0xC0;
+    final static int FLAG_BLOCK_INDEPENDENCE = 0x20;
+    final static int FLAG_BLOCK_CHECKSUM = 0x10;
+    final static int FLAG_CONTENT_SIZE = 0x08;
+    final static int FLAG_CONTENT_CHECKSUM = 0x04;
+    final static int FLAG_DICT_ID = 0x01;
+
+    /**
+     * Block size we use for writing: 64 kB
+     */
+    final static int BLOCK_SIZE = 0x10000;
+
+    /**
+     * Block descriptor byte for {@link #BLOCK_SIZE}
+     */
+    final static int BD_64K = 0x40;
+
+    /**
+     * High bit of block size indicates that block is stored uncompressed
+     */
+    final static int BLOCK_UNCOMPRESSED = 0x80000000;
+
+    /**
+     * Minimum frame length: magic, flags, block descriptor, header
+     * checksum, end mark
+     */
+    final static int MIN_FRAME_LENGTH = 4 + 3 + 4;
+
+    protected LZ4Codec() {
+        super(Compression.LZ4);
+    }
+
+    @Override
+    public int signatureLength() {
+        return MIN_FRAME_LENGTH;
+    }
+
+    @Override
+    public boolean hasSignature(byte[] data, int offset, int len) {
+        return (ByteUtil.getIntLE(data, offset) == MAGIC)
+                && ((data[offset+4] & FLAG_VERSION_MASK) == FLAG_VERSION);
+    }
+
+    /*
+    /**********************************************************************
+    /* Compress
+    /**********************************************************************
+     */
+
+    @Override
+    public int maxCompressedLength(int len)
+    {
+        // header (with content size), end mark; and room for compressing each block
+        int max = 4 + 3 + 8 + 4;
+        max += (len / BLOCK_SIZE) * (4 + LZ4Block.maxCompressedLength(BLOCK_SIZE));
+        int last = len % BLOCK_SIZE;
+        if (last > 0) {
+            max += 4 + LZ4Block.maxCompressedLength(last);
+        }
+        return max;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int len) throws IOException
+    {
+        byte[] buffer = _buffers.borrow(maxCompressedLength(len));
+        try {
+            return Arrays.copyOf(buffer, compress(data, offset, len, buffer, 0));
+        } finally {
+            _buffers.release(buffer);
+        }
+    }
+
+    @Override
+    public int compress(byte[] data, int offset, int len, byte[] output, int outputOffset)
+    {
+        if ((output.length - outputOffset) < maxCompressedLength(len)) {
+            throw new IllegalArgumentException("Output buffer too small ("+(output.length - outputOffset)
+                    +" bytes) for LZ4 content; need "+maxCompressedLength(len));
+        }
+        int ptr = writeHeader(output, outputOffset, len);
+        final int[] table = new int[LZ4Block.HASH_TABLE_SIZE];
+        for (final int end = offset + len; offset < end; offset += BLOCK_SIZE) {
+            ptr = writeBlock(data, offset, Math.min(BLOCK_SIZE, end - offset), output, ptr, table);
+        }
+        ByteUtil.putIntLE(output, ptr, 0); // end mark
+        return ptr + 4 - outputOffset;
+    }
+
+    /**
+     * Helper method for writing frame header.
+     *
+     * @param contentSize Length of content, if known; negative if not
+     *
+     * @return Offset after header
+     */
+    static int writeHeader(byte[] buffer, int ptr, long contentSize)
+    {
+        final int start = ptr;
+        ByteUtil.putIntLE(buffer, ptr, MAGIC);
+        ptr += 4;
+        int flags = FLAG_VERSION | FLAG_BLOCK_INDEPENDENCE;
+        if (contentSize >= 0L) {
+            flags |= FLAG_CONTENT_SIZE;
+        }
+        buffer[ptr++] = (byte) flags;
+        buffer[ptr++] = (byte) BD_64K;
+        if (contentSize >= 0L) {
+            ByteUtil.putLongLE(buffer, ptr, contentSize);
+            ptr += 8;
+        }
+        buffer[ptr] = _headerChecksum(buffer, start + 4, ptr);
+        return ptr+1;
+    }
+
+    /**
+     * Helper method for compressing and writing a single block, including
+     * block length prefix.
+     *
+     * @return Offset after block
+     */
+    static int writeBlock(byte[] data, int offset, int len, byte[] buffer, int ptr, int[] table)
+    {
+        int compLen = LZ4Block.compress(data, offset, len, buffer, ptr+4, table);
+        if (compLen < len) {
+            ByteUtil.putIntLE(buffer, ptr, compLen);
+            return ptr + 4 + compLen;
+        }
+        // no gain; store as is
+        ByteUtil.putIntLE(buffer, ptr, len | BLOCK_UNCOMPRESSED);
+        System.arraycopy(data, offset, buffer, ptr+4, len);
+        return ptr + 4 + len;
+    }
+
+    /*
+    /**********************************************************************
+    /* Uncompress
+    /**********************************************************************
+     */
+
+    @Override
+    public byte[] uncompress(byte[] data, int offset, int len, int expSize) throws IOException
+    {
+        OutputBuffer out = new OutputBuffer(new byte[Math.max(expSize, 0)], 0, true);
+        final int count = _uncompress(data, offset, len, out, expSize);
+        if (expSize > 0 && count != expSize) {
+            throw new IOException("Corrupt LZ4 data: expected "+expSize+" bytes, got "+count);
+        }
+        return (count == out.buffer.length) ? out.buffer : Arrays.copyOf(out.buffer, count);
+    }
+
+    @Override
+    public int uncompress(byte[] data, int offset, int len,
+            byte[] output, int outputOffset, int outputLength)
+        throws IOException
+    {
+        return _uncompress(data, offset, len,
+                new OutputBuffer(output, outputOffset, outputOffset + outputLength, false), -1);
+    }
+
+    /**
+     * @return Length of uncompressed content
+     */
+    protected int _uncompress(byte[] data, int offset, int len, OutputBuffer out, int expSize)
+        throws IOException
+    {
+        final int end = offset + len;
+        final int outStart = out.start;
+        int outPtr = outStart;
+
+        do {
+            if ((end - offset) < 4) {
+                throw _corrupt("unexpected end of content", offset);
+            }
+            final int magic = ByteUtil.getIntLE(data, offset);
+            offset += 4;
+            if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+                if ((end - offset) < 4) {
+                    throw _corrupt("unexpected end of content", offset);
+                }
+                int skip = ByteUtil.getIntLE(data, offset);
+                if (skip < 0 || skip > (end - offset - 4)) {
+                    throw _corrupt("invalid skippable frame length "+skip, offset);
+                }
+                offset += 4 + skip;
+                continue;
+            }
+            if (magic != MAGIC) {
+                throw _corrupt("invalid frame magic 0x"+Integer.toHexString(magic), offset-4);
+            }
+            // Frame descriptor: flags, block descriptor, optional content size, checksum
+            if ((end - offset) < 3) {
+                throw _corrupt("unexpected end of content", offset);
+            }
+            final int flags = _verifyFlags(data[offset], offset);
+            final int blockMax = _blockMaxSize(data[offset+1], offset+1);
+            int ptr = offset + 2;
+            // if we know the size, can both allocate exactly and verify it
+            int frameEnd = -1;
+            if ((flags & FLAG_CONTENT_SIZE) != 0) {
+                if ((end - ptr) < 9) {
+                    throw _corrupt("unexpected end of content", ptr);
+                }
+                long size = ByteUtil.getLongLE(data, ptr);
+                ptr += 8;
+                if (size < 0L || (outPtr + size) > Integer.MAX_VALUE) {
+                    throw _corrupt("content too big ("+size+" bytes)", ptr-8);
+                }
+                if (out.ensureRoom(outPtr, (int) size, true) < size) {
+                    throw _corrupt("content longer ("+size+" bytes) than output buffer", ptr-8);
+                }
+                frameEnd = outPtr + (int) size;
+            }
+            if (_headerChecksum(data, offset, ptr) != data[ptr]) {
+                throw _corrupt("header checksum mismatch", ptr);
+            }
+            offset = ptr+1;
+
+            // Then blocks, until end mark
+            final int frameStart = outPtr;
+            final boolean blockChecksums = (flags & FLAG_BLOCK_CHECKSUM) != 0;
+            while (true) {
+                if ((end - offset) < 4) {
+                    throw _corrupt("unexpected end of content", offset);
+                }
+                final int blockHeader = ByteUtil.getIntLE(data, offset);
+                offset += 4;
+                if (blockHeader == 0) {
+                    break;
+                }
+                final int blockLen = blockHeader & ~BLOCK_UNCOMPRESSED;
+                if (blockLen > blockMax || blockLen > (end - offset)) {
+                    throw _corrupt("invalid block length "+blockLen, offset-4);
+                }
+                if (blockChecksums) {
+                    if ((end - offset - blockLen) < 4) {
+                        throw _corrupt("unexpected end of content", offset);
+                    }
+                    int exp = ByteUtil.getIntLE(data, offset + blockLen);
+                    if (exp != BlockXXHash32Hasher.instance.hash(data, offset, blockLen)) {
+                        throw _corrupt("block checksum mismatch", offset);
+                    }
+                }
+                // Room needed: at most block size, but may know exact amount remaining
+                int room;
+                if (frameEnd >= 0) {
+                    room = frameEnd - outPtr;
+                } else if (expSize > (outPtr - outStart)) {
+                    room = Math.min(blockMax, expSize - (outPtr - outStart));
+                } else {
+                    room = blockMax;
+                }
+                room = out.ensureRoom(outPtr, room, false);
+                if ((blockHeader & BLOCK_UNCOMPRESSED) != 0) {
+                    if (blockLen > room) {
+                        throw _corrupt("content longer than expected", offset);
+                    }
+                    System.arraycopy(data, offset, out.buffer, outPtr, blockLen);
+                    outPtr += blockLen;
+                } else {
+                    outPtr += LZ4Block.uncompress(data, offset, blockLen, out.buffer, outPtr, outPtr + room,
+                            ((flags & FLAG_BLOCK_INDEPENDENCE) != 0) ? outPtr : frameStart);
+                }
+                offset += blockLen;
+                if (blockChecksums) {
+                    offset += 4;
+                }
+            }
+            if (frameEnd >= 0 && outPtr != frameEnd) {
+                throw _corrupt("expected "+(frameEnd - frameStart)+" bytes, got "+(outPtr - frameStart), offset);
+            }
+            if ((flags & FLAG_CONTENT_CHECKSUM) != 0) {
+                if ((end - offset) < 4) {
+                    throw _corrupt("unexpected end of content", offset);
+                }
+                int exp = ByteUtil.getIntLE(data, offset);
+                offset += 4;
+                if (exp != BlockXXHash32Hasher.instance.hash(out.buffer, frameStart, outPtr - frameStart)) {
+                    throw _corrupt("content checksum mismatch", offset-4);
+                }
+            }
+        } while (offset < end);
+
+        return outPtr - outStart;
+    }
+
+    static int _verifyFlags(byte b, int offset) throws IOException
+    {
+        final int flags = b & 0xFF;
+        if ((flags & FLAG_VERSION_MASK) != FLAG_VERSION) {
+            throw _corrupt("unsupported frame version "+(flags >> 6), offset);
+        }
+        if ((flags & FLAG_DICT_ID) != 0) {
+            throw _corrupt("frames with dictionary id not supported", offset);
+        }
+        return flags;
+    }
+
+    static int _blockMaxSize(byte b, int offset) throws IOException
+    {
+        int sizeId = (b >> 4) & 0x7;
+        if (sizeId < 4) {
+            throw _corrupt("invalid block maximum size id "+sizeId, offset);
+        }
+        // 4 -> 64 kB, 5 -> 256 kB, 6 -> 1 MB, 7 -> 4 MB
+        return 1 << (2 * sizeId + 8);
+    }
+
+    /**
+     * Header checksum is the second byte of XXH32 hash over frame descriptor
+     * (excluding magic and checksum itself)
+     */
+    static byte _headerChecksum(byte[] buffer, int start, int end) {
+        return (byte) (BlockXXHash32Hasher.instance.hash(0, buffer, start, end - start) >> 8);
+    }
+
+    /**
+     * @param offset Offset of problem within content, if known; negative if not
+     */
+    static IOException _corrupt(String msg, int offset)
+    {
+        if (offset < 0) {
+            return new IOException("Corrupt LZ4 data: "+msg);
+        }
+        return new IOException("Corrupt LZ4 data: "+msg+" (at offset "+offset+")");
+    }
+
+    /**
+     * Helper class for keeping track of output buffer, which is either
+     * caller-provided (of fixed size), or allocated (and grown) as needed.
+     */
+    protected final static class OutputBuffer
+    {
+        public byte[] buffer;
+
+        public final int start;
+
+        protected int _end;
+
+        protected final boolean _growable;
+
+        public OutputBuffer(byte[] buffer, int start, boolean growable) {
+            this(buffer, start, buffer.length, growable);
+        }
+
+        public OutputBuffer(byte[] buffer, int start, int end, boolean growable) {
+            this.buffer = buffer;
+            this.start = start;
+            _end = end;
+            _growable = growable;
+        }
+
+        /**
+         * Method for trying to ensure that there is room for given number of
+         * bytes at given offset, growing the buffer if possible.
+         *
+         * @param exact Whether room needed is known exactly (in which case
+         *   buffer is grown to exact size), or just maximum for next block
+         *
+         * @return Number of bytes (up to requested amount) there is room for
+         */
+        public int ensureRoom(int ptr, int room, boolean exact)
+        {
+            if ((_end - ptr) < room && _growable) {
+                int newSize = exact ? (ptr + room) : Math.max(ptr + room, _end + (_end >> 1));
+                buffer = Arrays.copyOf(buffer, newSize);
+                _end = buffer.length;
+            }
+            return Math.min(room, _end - ptr);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Streaming
+    /**********************************************************************
+     */
+
+    @Override
+    public OutputStream compressingStream(OutputStream out) throws IOException {
+        return new LZ4OutputStream(out);
+    }
+
+    @Override
+    public InputStream uncompressingStream(InputStream in) throws IOException {
+        return new LZ4InputStream(in);
+    }
+}
@@ -0,0 +1,218 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * {@link InputStream} that uncompresses content in LZ4 frame format,
+ * one block at a time. Concatenated frames are read as one stream, and
+ * skippable frames are skipped. Block and content checksums, if any,
+ * are skipped without verification.
+ */
+public class LZ4InputStream extends InputStream
+{
+    /**
+     * Size of window that dependent blocks may refer back to.
+     */
+    private final static int WINDOW_SIZE = 0x10000;
+
+    protected final InputStream _in;
+
+    protected final byte[] _header = new byte[16];
+
+    protected byte[] _inputBuffer;
+
+    /**
+     * Buffer for uncompressed content; when reading dependent blocks,
+     * contains up to 64 kB of content of preceding blocks before
+     * content of current block.
+     */
+    protected byte[] _decoded;
+
+    protected int _decodedPtr, _decodedEnd;
+
+    /**
+     * Flags of the current frame, if any; -1 if not within frame.
+     */
+    protected int _flags = -1;
+
+    protected int _blockMax;
+
+    protected boolean _eof, _closed;
+
+    public LZ4InputStream(InputStream in) {
+        _in = in;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (_decodedPtr >= _decodedEnd && !_loadBlock()) {
+            return -1;
+        }
+        return _decoded[_decodedPtr++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (_decodedPtr >= _decodedEnd && !_loadBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, _decodedEnd - _decodedPtr);
+        System.arraycopy(_decoded, _decodedPtr, buffer, offset, count);
+        _decodedPtr += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return _decodedEnd - _decodedPtr;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed) {
+            _closed = true;
+            _eof = true;
+            _decoded = null;
+            _inputBuffer = null;
+            _in.close();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * @return True if a block with content was read; false if end of input
+     *   was reached
+     */
+    protected boolean _loadBlock() throws IOException
+    {
+        if (_closed) {
+            throw new IOException("Stream closed");
+        }
+        while (!_eof) {
+            if (_flags < 0 && !_readFrameHeader()) {
+                _eof = true;
+                break;
+            }
+            _readFully(_header, 0, 4);
+            final int blockHeader = ByteUtil.getIntLE(_header, 0);
+            if (blockHeader == 0) { // end of frame
+                if ((_flags & LZ4Codec.FLAG_CONTENT_CHECKSUM) != 0) {
+                    _readFully(_header, 0, 4);
+                }
+                _flags = -1;
+                continue;
+            }
+            final int blockLen = blockHeader & ~LZ4Codec.BLOCK_UNCOMPRESSED;
+            if (blockLen > _blockMax) {
+                throw LZ4Codec._corrupt("invalid block length "+blockLen, -1);
+            }
+            // for dependent blocks, retain end of previous content as the window
+            int start = 0;
+            if ((_flags & LZ4Codec.FLAG_BLOCK_INDEPENDENCE) == 0) {
+                start = Math.min(_decodedEnd, WINDOW_SIZE);
+                System.arraycopy(_decoded, _decodedEnd - start, _decoded, 0, start);
+            }
+            if ((blockHeader & LZ4Codec.BLOCK_UNCOMPRESSED) != 0) {
+                _readFully(_decoded, start, blockLen);
+                _decodedEnd = start + blockLen;
+            } else {
+                _readFully(_inputBuffer, 0, blockLen);
+                _decodedEnd = start + LZ4Block.uncompress(_inputBuffer, 0, blockLen,
+                        _decoded, start, start + _blockMax, 0);
+            }
+            _decodedPtr = start;
+            if ((_flags & LZ4Codec.FLAG_BLOCK_CHECKSUM) != 0) {
+                _readFully(_header, 0, 4);
+            }
+            if (_decodedEnd > start) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if a frame header was read; false if end of input was
+     *   reached
+     */
+    protected boolean _readFrameHeader() throws IOException
+    {
+        while (true) {
+            // Need to allow for clean end-of-input before frame
+            int count = _in.read(_header, 0, 4);
+            if (count < 0) {
+                return false;
+            }
+            _readFully(_header, count, 4 - count);
+            int magic = ByteUtil.getIntLE(_header, 0);
+            if ((magic & LZ4Codec.SKIPPABLE_MAGIC_MASK) == LZ4Codec.SKIPPABLE_MAGIC) {
+                _readFully(_header, 0, 4);
+                _skipFully(ByteUtil.getIntLE(_header, 0) & 0xFFFFFFFFL);
+                continue;
+            }
+            if (magic != LZ4Codec.MAGIC) {
+                throw LZ4Codec._corrupt("invalid frame magic 0x"+Integer.toHexString(magic), -1);
+            }
+            _readFully(_header, 0, 2);
+            final int flags = LZ4Codec._verifyFlags(_header[0], -1);
+            final int blockMax = LZ4Codec._blockMaxSize(_header[1], -1);
+            int len = 2;
+            if ((flags & LZ4Codec.FLAG_CONTENT_SIZE) != 0) {
+                _readFully(_header, len, 8);
+                len += 8;
+            }
+            _readFully(_header, len, 1);
+            if (LZ4Codec._headerChecksum(_header, 0, len) != _header[len]) {
+                throw LZ4Codec._corrupt("header checksum mismatch", -1);
+            }
+            _flags = flags;
+            if (_blockMax != blockMax) {
+                _blockMax = blockMax;
+                _inputBuffer = new byte[blockMax];
+                _decoded = new byte[WINDOW_SIZE + blockMax];
+            }
+            // new frame, no window from previous frames
+            _decodedPtr = _decodedEnd = 0;
+            return true;
+        }
+    }
+
+    protected void _readFully(byte[] buffer, int offset, int len) throws IOException
+    {
+        while (len > 0) {
+            int count = _in.read(buffer, offset, len);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of LZ4 content");
+            }
+            offset += count;
+            len -= count;
+        }
+    }
+
+    protected void _skipFully(long len) throws IOException
+    {
+        while (len > 0L) {
+            long count = _in.skip(len);
+            if (count <= 0L) {
+                if (_in.read() < 0) {
+                    throw new EOFException("Unexpected end of LZ4 content");
+                }
+                count = 1L;
+            }
+            len -= count;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * {@link OutputStream} that compresses content written using LZ4 frame
+ * format, as a single frame that consists of independent blocks of up to
+ * 64 kB. Since length of content is not known up-front, frame header
+ * does not include it.
+ */
+public class LZ4OutputStream extends FilterOutputStream
+{
+    protected final byte[] _inputBuffer = new byte[LZ4Codec.BLOCK_SIZE];
+
+    protected final byte[] _outputBuffer
+        = new byte[4 + LZ4Block.maxCompressedLength(LZ4Codec.BLOCK_SIZE)];
+
+    protected final int[] _hashTable = new int[LZ4Block.HASH_TABLE_SIZE];
+
+    protected int _inputPtr;
+
+    protected boolean _headerWritten;
+
+    protected boolean _closed;
+
+    public LZ4OutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (_inputPtr == _inputBuffer.length) {
+            _writeBlock();
+        }
+        _inputBuffer[_inputPtr++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int len) throws IOException
+    {
+        _verifyOpen();
+        while (len > 0) {
+            if (_inputPtr == _inputBuffer.length) {
+                _writeBlock();
+            }
+            int count = Math.min(len, _inputBuffer.length - _inputPtr);
+            System.arraycopy(buffer, offset, _inputBuffer, _inputPtr, count);
+            _inputPtr += count;
+            offset += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Flushing will write out all buffered content as a (possibly short) block.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        _verifyOpen();
+        if (_inputPtr > 0) {
+            _writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (_closed) {
+            return;
+        }
+        if (_inputPtr > 0 || !_headerWritten) {
+            _writeBlock();
+        }
+        _closed = true;
+        ByteUtil.putIntLE(_outputBuffer, 0, 0); // end mark
+        out.write(_outputBuffer, 0, 4);
+        out.close();
+    }
+
+    protected void _writeBlock() throws IOException
+    {
+        _verifyOpen();
+        if (!_headerWritten) {
+            _headerWritten = true;
+            int len = LZ4Codec.writeHeader(_outputBuffer, 0, -1L);
+            out.write(_outputBuffer, 0, len);
+        }
+        if (_inputPtr > 0) {
+            int len = LZ4Codec.writeBlock(_inputBuffer, 0, _inputPtr, _outputBuffer, 0, _hashTable);
+            _inputPtr = 0;
+            out.write(_outputBuffer, 0, len);
+        }
+    }
+
+    protected void _verifyOpen() throws IOException
+    {
+        if (_closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
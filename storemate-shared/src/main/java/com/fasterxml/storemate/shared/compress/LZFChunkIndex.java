@@ -0,0 +1,385 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.ning.compress.lzf.LZFChunk;
+import com.ning.compress.lzf.LZFInputStream;
+
+/**
+ * Index of chunks of an LZF-compressed file, mapping uncompressed offsets
+ * to file offsets of chunks that contain them. Since LZF chunks are
+ * compressed independently of each other, this allows reading content
+ * from arbitrary uncompressed offsets by seeking to the start of the
+ * containing chunk, instead of decompressing everything before it.
+ *<p>
+ * Index is built while content is being written, using {@link Builder},
+ * and stored in a compact form (6 bytes per chunk) using {@link #writeTo}.
+ */
+public class LZFChunkIndex
+{
+    /**
+     * Signature used to identify serialized chunk indexes: "LZFi" followed by
+     * version number.
+     */
+    protected final static int SIGNATURE = 0x4C5A4669;
+
+    protected final static int VERSION = 1;
+
+    /**
+     * Length of serialized header: signature, version and chunk count.
+     */
+    protected final static int HEADER_LENGTH = 9;
+
+    /**
+     * Length of serialized information per chunk: uncompressed length (2 bytes)
+     * and chunk length (4 bytes).
+     */
+    protected final static int ENTRY_LENGTH = 6;
+
+    /**
+     * Uncompressed offsets of chunks, followed by total uncompressed length.
+     */
+    protected final long[] _uncompressedOffsets;
+
+    /**
+     * File offsets of chunks, followed by total file length.
+     */
+    protected final long[] _fileOffsets;
+
+    protected LZFChunkIndex(long[] uncompressedOffsets, long[] fileOffsets)
+    {
+        _uncompressedOffsets = uncompressedOffsets;
+        _fileOffsets = fileOffsets;
+    }
+
+    /**
+     * Factory method for constructing index from per-chunk lengths.
+     */
+    protected static LZFChunkIndex construct(int[] uncompressedLengths, int[] chunkLengths, int count)
+    {
+        long[] uncompOffsets = new long[count+1];
+        long[] fileOffsets = new long[count+1];
+        for (int i = 0; i < count; ++i) {
+            uncompOffsets[i+1] = uncompOffsets[i] + uncompressedLengths[i];
+            fileOffsets[i+1] = fileOffsets[i] + chunkLengths[i];
+        }
+        return new LZFChunkIndex(uncompOffsets, fileOffsets);
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors
+    /**********************************************************************
+     */
+
+    public int getChunkCount() {
+        return _fileOffsets.length - 1;
+    }
+
+    public long getUncompressedLength() {
+        return _uncompressedOffsets[_uncompressedOffsets.length - 1];
+    }
+
+    public long getFileLength() {
+        return _fileOffsets[_fileOffsets.length - 1];
+    }
+
+    public long getUncompressedOffset(int chunk) {
+        return _uncompressedOffsets[chunk];
+    }
+
+    public long getFileOffset(int chunk) {
+        return _fileOffsets[chunk];
+    }
+
+    /**
+     * Method for finding index of the chunk that contains content at given
+     * uncompressed offset.
+     *
+     * @return Index of chunk that contains given offset; or, if offset is at
+     *    or beyond end of content, number of chunks
+     */
+    public int findChunk(long uncompressedOffset)
+    {
+        if (uncompressedOffset < 0L) {
+            throw new IllegalArgumentException("Invalid offset ("+uncompressedOffset+"): can not be negative");
+        }
+        if (uncompressedOffset >= getUncompressedLength()) {
+            return getChunkCount();
+        }
+        int ix = Arrays.binarySearch(_uncompressedOffsets, uncompressedOffset);
+        if (ix >= 0) {
+            // should not get empty chunks but just in case
+            while (_uncompressedOffsets[ix+1] == uncompressedOffset) {
+                ++ix;
+            }
+            return ix;
+        }
+        return -(ix + 1) - 1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Reading content
+    /**********************************************************************
+     */
+
+    /**
+     * Method for opening a stream for reading uncompressed content of
+     * indexed file, starting at given uncompressed offset. Stream is
+     * positioned by seeking to the start of the containing chunk, and
+     * skipping the rest within the chunk.
+     */
+    public InputStream openAt(File lzfFile, long uncompressedOffset) throws IOException
+    {
+        FileInputStream fileIn = new FileInputStream(lzfFile);
+        try {
+            return openAt(fileIn.getChannel(), fileIn, lzfFile, uncompressedOffset);
+        } catch (IOException e) {
+            try { fileIn.close(); } catch (IOException e2) { }
+            throw e;
+        }
+    }
+
+    /**
+     * Alternative to {@link #openAt(File, long)} for callers that need to
+     * read the file via a stream of their own (for example, to count bytes
+     * read): channel is positioned as necessary, and given stream (which
+     * must read from the channel) is then used for reading. Stream is not
+     * closed on failure.
+     *
+     * @param lzfFile File being read, for error messages
+     */
+    public InputStream openAt(FileChannel channel, InputStream fileIn, File lzfFile,
+            long uncompressedOffset) throws IOException
+    {
+        final int chunk = findChunk(uncompressedOffset);
+        channel.position(_fileOffsets[chunk]);
+        InputStream in = new LZFInputStream(fileIn);
+        long toSkip = uncompressedOffset - _uncompressedOffsets[chunk];
+        while (toSkip > 0L) {
+            long count = in.skip(toSkip);
+            if (count <= 0L) {
+                throw new EOFException("Unexpected end of LZF content in '"+lzfFile.getAbsolutePath()
+                        +"': failed to skip to offset "+uncompressedOffset);
+            }
+            toSkip -= count;
+        }
+        return in;
+    }
+
+    /*
+    /**********************************************************************
+    /* Serialization
+    /**********************************************************************
+     */
+
+    public void writeTo(OutputStream out) throws IOException
+    {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        final int count = getChunkCount();
+        dataOut.writeInt(SIGNATURE);
+        dataOut.writeByte(VERSION);
+        dataOut.writeInt(count);
+        for (int i = 0; i < count; ++i) {
+            // uncompressed length at most 64k-1, so fits in 2 bytes
+            dataOut.writeChar((int) (_uncompressedOffsets[i+1] - _uncompressedOffsets[i]));
+            dataOut.writeInt((int) (_fileOffsets[i+1] - _fileOffsets[i]));
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Method for calculating length of serialized index with given number
+     * of chunks, as written by {@link #writeTo}.
+     */
+    public static long serializedLength(int chunkCount) {
+        return HEADER_LENGTH + ENTRY_LENGTH * (long) chunkCount;
+    }
+
+    /**
+     * Method for reading index of unknown serialized length; since chunk count
+     * can not be verified before reading, arrays are grown as needed.
+     */
+    public static LZFChunkIndex readFrom(InputStream in) throws IOException {
+        return readFrom(in, -1L);
+    }
+
+    /**
+     * Method for reading index serialized using {@link #writeTo}.
+     *
+     * @param length Length of serialized index (such as that of file it was
+     *   written to) if known, used for verifying chunk count before allocating
+     *   arrays for chunks; -1 if not known
+     */
+    public static LZFChunkIndex readFrom(InputStream in, long length) throws IOException
+    {
+        DataInputStream dataIn = new DataInputStream(in);
+        int sig = dataIn.readInt();
+        if (sig != SIGNATURE) {
+            throw new IOException("Invalid LZF chunk index: unrecognized signature 0x"
+                    +Integer.toHexString(sig));
+        }
+        int version = dataIn.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported LZF chunk index version "+version+" (only supporting "
+                    +VERSION+")");
+        }
+        final int count = dataIn.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid LZF chunk index: negative chunk count ("+count+")");
+        }
+        if (length >= 0L && serializedLength(count) != length) {
+            throw new IOException("Invalid LZF chunk index: chunk count ("+count
+                    +") does not match index length ("+length+" bytes)");
+        }
+        // if length not known, must not trust count for allocation
+        int capacity = (length >= 0L) ? count : Math.min(count, 1024);
+        int[] uncompLengths = new int[capacity];
+        int[] chunkLengths = new int[capacity];
+        for (int i = 0; i < count; ++i) {
+            if (i == capacity) {
+                capacity = (int) Math.min((long) count, 2L * capacity);
+                uncompLengths = Arrays.copyOf(uncompLengths, capacity);
+                chunkLengths = Arrays.copyOf(chunkLengths, capacity);
+            }
+            uncompLengths[i] = dataIn.readChar();
+            chunkLengths[i] = dataIn.readInt();
+        }
+        return construct(uncompLengths, chunkLengths, count);
+    }
+
+    @Override
+    public String toString() {
+        return "[LZFChunkIndex: "+getChunkCount()+" chunks, "+getUncompressedLength()
+                +" bytes uncompressed, "+getFileLength()+" compressed]";
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * {@link OutputStream} wrapper used for building chunk index of LZF content
+     * written through it (so it is to be placed between LZF compressing stream
+     * and actual output), by parsing chunk headers as content is written.
+     * If content turns out not to be valid LZF, indexing is quietly abandoned
+     * (content is still written as is), and no index is built.
+     */
+    public static class Builder extends OutputStream
+    {
+        protected final OutputStream _out;
+
+        protected final byte[] _header = new byte[LZFChunk.HEADER_LEN_COMPRESSED];
+
+        protected int _headerLength;
+
+        protected int _payloadLeft;
+
+        protected int[] _uncompressedLengths = new int[16];
+
+        protected int[] _chunkLengths = new int[16];
+
+        protected int _count;
+
+        protected boolean _invalid;
+
+        public Builder(OutputStream out) {
+            _out = out;
+        }
+
+        /**
+         * Method for constructing index for chunks written so far; only to be
+         * called after full chunks have been written (usually, after closing
+         * the compressing stream).
+         *
+         * @return Index built, if content was valid LZF; null if not (or if
+         *   last chunk is incomplete)
+         */
+        public LZFChunkIndex build()
+        {
+            if (_invalid || _headerLength > 0 || _payloadLeft > 0) {
+                return null;
+            }
+            return construct(_uncompressedLengths, _chunkLengths, _count);
+        }
+
+        public int getChunkCount() { return _count; }
+
+        @Override
+        public void close() throws IOException {
+            _out.close();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            _out.write(b, off, len);
+            final int end = off+len;
+            while (off < end && !_invalid) {
+                if (_payloadLeft > 0) {
+                    int count = Math.min(_payloadLeft, end-off);
+                    _payloadLeft -= count;
+                    off += count;
+                    continue;
+                }
+                _header[_headerLength++] = b[off++];
+                _checkHeader();
+            }
+        }
+
+        private void _checkHeader()
+        {
+            if (_headerLength < 3) {
+                if (_header[_headerLength-1] != ((_headerLength == 1) ? LZFChunk.BYTE_Z : LZFChunk.BYTE_V)) {
+                    _invalid = true;
+                }
+                return;
+            }
+            final int type = _header[2];
+            final int uncompLength, payloadLength;
+            if (type == LZFChunk.BLOCK_TYPE_COMPRESSED) {
+                if (_headerLength < LZFChunk.HEADER_LEN_COMPRESSED) {
+                    return;
+                }
+                payloadLength = _uint16(3);
+                uncompLength = _uint16(5);
+            } else if (type == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+                if (_headerLength < LZFChunk.HEADER_LEN_NOT_COMPRESSED) {
+                    return;
+                }
+                payloadLength = uncompLength = _uint16(3);
+            } else {
+                _invalid = true;
+                return;
+            }
+            if (_count == _chunkLengths.length) {
+                _uncompressedLengths = Arrays.copyOf(_uncompressedLengths, _count + _count);
+                _chunkLengths = Arrays.copyOf(_chunkLengths, _count + _count);
+            }
+            _uncompressedLengths[_count] = uncompLength;
+            _chunkLengths[_count] = _headerLength + payloadLength;
+            ++_count;
+            _payloadLeft = payloadLength;
+            _headerLength = 0;
+        }
+
+        private int _uint16(int offset) {
+            return ((_header[offset] & 0xFF) << 8) | (_header[offset+1] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+
+import com.ning.compress.lzf.ChunkDecoder;
+import com.ning.compress.lzf.LZFChunk;
+import com.ning.compress.lzf.LZFEncoder;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+import com.ning.compress.lzf.util.ChunkDecoderFactory;
+
+/**
+ * {@link CompressionCodec} for LZF compression, as implemented by
+ * <code>compress-lzf</code> library.
+ */
+public class LZFCodec extends CompressionCodec
+{
+    public final static LZFCodec instance = new LZFCodec();
+
+    protected final ChunkDecoder _decoder;
+
+    protected LZFCodec() {
+        super(Compression.LZF);
+        _decoder = ChunkDecoderFactory.optimalInstance();
+    }
+
+    @Override
+    public int signatureLength() {
+        // LZF minimum is 3 bytes for empty content
+        return 3;
+    }
+
+    @Override
+    public boolean hasSignature(byte[] data, int offset, int len)
+    {
+        // starts with 'ZV' == 0x5A, 0x56, followed by block type
+        if (data[offset] == LZFChunk.BYTE_Z && data[offset+1] == LZFChunk.BYTE_V) {
+            byte third = data[offset+2];
+            return (third == LZFChunk.BLOCK_TYPE_COMPRESSED || third == LZFChunk.BLOCK_TYPE_NON_COMPRESSED);
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int len) throws IOException {
+        return LZFEncoder.encode(data, offset, len);
+    }
+
+    @Override
+    public int maxCompressedLength(int len) {
+        return LZFEncoder.estimateMaxWorkspaceSize(len);
+    }
+
+    @Override
+    public int compress(byte[] data, int offset, int len, byte[] output, int outputOffset) {
+        if ((output.length - outputOffset) < maxCompressedLength(len)) {
+            throw new IllegalArgumentException("Output buffer too small ("+(output.length - outputOffset)
+                    +" bytes) for LZF content; need "+maxCompressedLength(len));
+        }
+        return LZFEncoder.appendEncoded(data, offset, len, output, outputOffset) - outputOffset;
+    }
+
+    @Override
+    public byte[] uncompress(byte[] data, int offset, int len, int expSize) throws IOException {
+        return _decoder.decode(data, offset, len);
+    }
+
+    @Override
+    public int uncompress(byte[] data, int offset, int len,
+            byte[] output, int outputOffset, int outputLength)
+        throws IOException
+    {
+        // decoder can only decode at the start of the output array
+        if (outputOffset == 0 && outputLength == output.length) {
+            return _decoder.decode(data, offset, len, output);
+        }
+        return super.uncompress(data, offset, len, output, outputOffset, outputLength);
+    }
+
+    @Override
+    public OutputStream compressingStream(OutputStream out) throws IOException {
+        return new LZFOutputStream(out);
+    }
+
+    @Override
+    public InputStream uncompressingStream(InputStream in) throws IOException {
+        return new LZFInputStream(in);
+    }
+}
@@ -0,0 +1,162 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded pool of raw ("nowrap") {@link Deflater} and {@link Inflater}
+ * instances, shared by all threads. Creating these is costly, as each
+ * instance has native zlib state (of up to a few hundred kB for deflaters),
+ * which is only freed by explicit call to <code>end()</code> or by
+ * finalization; reusing instances (after <code>reset()</code>) avoids
+ * both allocation and reliance on finalization.
+ *<p>
+ * Number of retained instances of each type is capped: instances released
+ * when pool is full are simply ended.
+ */
+public class ZlibPool
+{
+    /**
+     * Default maximum number of instances of each type to retain: enough
+     * for each CPU to have a couple in use at the same time.
+     */
+    public final static int DEFAULT_MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    protected final int _level;
+
+    protected final AtomicReferenceArray<Deflater> _deflaters;
+
+    protected final AtomicReferenceArray<Inflater> _inflaters;
+
+    protected final LongAdder _deflatersCreated = new LongAdder();
+
+    protected final LongAdder _inflatersCreated = new LongAdder();
+
+    /**
+     * @param level Compression level of deflaters (from 0 to 9, or
+     *   {@link Deflater#DEFAULT_COMPRESSION})
+     * @param maxPooled Maximum number of instances of each type to retain
+     */
+    public ZlibPool(int level, int maxPooled)
+    {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level "+level);
+        }
+        _level = level;
+        _deflaters = new AtomicReferenceArray<Deflater>(Math.max(1, maxPooled));
+        _inflaters = new AtomicReferenceArray<Inflater>(Math.max(1, maxPooled));
+    }
+
+    public int getLevel() { return _level; }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for getting a deflater (one that produces raw deflate stream,
+     * without zlib header or trailer), either from pool or newly created.
+     * Caller must return it with {@link #release(Deflater)} when done.
+     */
+    public Deflater borrowDeflater()
+    {
+        Deflater d = _take(_deflaters);
+        if (d == null) {
+            _deflatersCreated.increment();
+            d = new Deflater(_level, true);
+        }
+        return d;
+    }
+
+    public void release(Deflater d)
+    {
+        d.reset();
+        if (!_put(_deflaters, d)) {
+            d.end();
+        }
+    }
+
+    /**
+     * Method for getting an inflater (one that expects raw deflate stream,
+     * without zlib header or trailer), either from pool or newly created.
+     * Caller must return it with {@link #release(Inflater)} when done.
+     */
+    public Inflater borrowInflater()
+    {
+        Inflater i = _take(_inflaters);
+        if (i == null) {
+            _inflatersCreated.increment();
+            i = new Inflater(true);
+        }
+        return i;
+    }
+
+    public void release(Inflater i)
+    {
+        i.reset();
+        if (!_put(_inflaters, i)) {
+            i.end();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Metrics
+    /**********************************************************************
+     */
+
+    public long getDeflatersCreated() { return _deflatersCreated.sum(); }
+
+    public long getInflatersCreated() { return _inflatersCreated.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("[ZlibPool: level %d, created %d deflaters, %d inflaters]",
+                _level, getDeflatersCreated(), getInflatersCreated());
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private final static int _start(int length) {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & 0x7FFFFFFF) % length;
+    }
+
+    private final static <T> T _take(AtomicReferenceArray<T> slots)
+    {
+        final int len = slots.length();
+        for (int i = 0, ix = _start(len); i < len; ++i) {
+            T value = slots.get(ix);
+            if (value != null && slots.compareAndSet(ix, value, null)) {
+                return value;
+            }
+            if (++ix == len) {
+                ix = 0;
+            }
+        }
+        return null;
+    }
+
+    private final static <T> boolean _put(AtomicReferenceArray<T> slots, T value)
+    {
+        final int len = slots.length();
+        for (int i = 0, ix = _start(len); i < len; ++i) {
+            if (slots.get(ix) == null && slots.compareAndSet(ix, null, value)) {
+                return true;
+            }
+            if (++ix == len) {
+                ix = 0;
+            }
+        }
+        return false;
+    }
+}
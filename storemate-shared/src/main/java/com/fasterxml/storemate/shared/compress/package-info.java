@@ -1,5 +1,7 @@
 /**
- * Package that contains convenience access to standard compression
- * algorithsm (GZIP, LZF) that StoreMate supports.
+ * Package that contains convenience access to compression algorithms
+ * StoreMate supports (GZIP, LZF, LZ4), as well as extension point
+ * ({@link com.fasterxml.storemate.shared.compress.CompressionCodec})
+ * for adding new ones.
  */
 package com.fasterxml.storemate.shared.compress;
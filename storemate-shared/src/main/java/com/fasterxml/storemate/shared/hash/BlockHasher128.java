@@ -0,0 +1,41 @@
+package com.fasterxml.storemate.shared.hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for block hashers that produce 128-bit hash values, in addition
+ * to 64-bit (folded) and 32-bit values; latter allows use of implementations
+ * wherever {@link BlockHasher32} is accepted.
+ *<p>
+ * 128-bit hash values are returned as 16-byte arrays, suitable for use
+ * as extended content hashes.
+ */
+public abstract class BlockHasher128 extends BlockHasher32
+{
+    public final static int HASH_LENGTH_128 = 16;
+
+    public final byte[] hash128(byte[] data) {
+        return hash128(DEFAULT_SEED, data, 0, data.length);
+    }
+
+    public abstract byte[] hash128(int seed, byte[] data, int offset, int len);
+
+    public abstract long hash64(int seed, byte[] data, int offset, int len);
+
+    /**
+     * Method for calculating 128-bit hash over remaining contents of given buffer
+     * (from position to limit); position of buffer is not modified.
+     *<p>
+     * Default implementation will use backing array if one is accessible,
+     * and otherwise copy contents; sub-classes should override to avoid copying.
+     */
+    public byte[] hash128(int seed, ByteBuffer data)
+    {
+        if (data.hasArray()) {
+            return hash128(seed, data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return hash128(seed, copy, 0, copy.length);
+    }
+}
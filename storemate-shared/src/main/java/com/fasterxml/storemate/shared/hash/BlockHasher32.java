@@ -1,5 +1,7 @@
 package com.fasterxml.storemate.shared.hash;
 
+import java.nio.ByteBuffer;
+
 public abstract class BlockHasher32
 {
     public final static int DEFAULT_SEED = 0;
@@ -17,4 +19,21 @@ public abstract class BlockHasher32
     }
 
     public abstract int hash(int seed, byte[] data, int offset, int len);
+
+    /**
+     * Method for calculating hash over remaining contents of given buffer
+     * (from position to limit); position of buffer is not modified.
+     *<p>
+     * Default implementation will use backing array if one is accessible,
+     * and otherwise copy contents; sub-classes should override to avoid copying.
+     */
+    public int hash(int seed, ByteBuffer data)
+    {
+        if (data.hasArray()) {
+            return hash(seed, data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return hash(seed, copy, 0, copy.length);
+    }
 }
@@ -1,5 +1,10 @@
 package com.fasterxml.storemate.shared.hash;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
 /**
  * Class that calculates full Murmur3 checksum for given data, using standard
  * Public Domain implementation from
@@ -21,13 +26,13 @@ public final class BlockMurmur3Hasher extends BlockHasher32
         int roundedEnd = offset + (len & 0xfffffffc);  // round down to 4 byte block
 
         for (int i=offset; i<roundedEnd; i+=4) {
-	    	int k1 = (data[i] & 0xff) | ((data[i+1] & 0xff) << 8) | ((data[i+2] & 0xff) << 16) | (data[i+3] << 24);
-	    	k1 *= IncrementalMurmur3Hasher.c1;
-	    	k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
-	    	k1 *= IncrementalMurmur3Hasher.c2;
-	    	h1 ^= k1;
-	    	h1 = (h1 << 13) | (h1 >>> 19);  // ROTL32(h1,13);
-	    	h1 = h1 * 5 + IncrementalMurmur3Hasher.c3;
+            int k1 = ByteUtil.getIntLE(data, i);
+            k1 *= IncrementalMurmur3Hasher.c1;
+            k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
+            k1 *= IncrementalMurmur3Hasher.c2;
+            h1 ^= k1;
+            h1 = (h1 << 13) | (h1 >>> 19);  // ROTL32(h1,13);
+            h1 = h1 * 5 + IncrementalMurmur3Hasher.c3;
         }
 
         int k1 = 0;
@@ -56,4 +61,57 @@ public final class BlockMurmur3Hasher extends BlockHasher32
 
         return h1;
     }
+
+    /**
+     * Variant that reads 4-byte blocks directly from the buffer, so that
+     * contents of direct buffers need not be copied.
+     */
+    @Override
+    public int hash(final int seed, ByteBuffer data)
+    {
+        if (data.hasArray()) {
+            return hash(seed, data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        final ByteBuffer le = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int offset = data.position();
+        final int len = data.remaining();
+        int h1 = seed;
+        int roundedEnd = offset + (len & 0xfffffffc);  // round down to 4 byte block
+
+        for (int i=offset; i<roundedEnd; i+=4) {
+            int k1 = le.getInt(i);
+            k1 *= IncrementalMurmur3Hasher.c1;
+            k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
+            k1 *= IncrementalMurmur3Hasher.c2;
+            h1 ^= k1;
+            h1 = (h1 << 13) | (h1 >>> 19);  // ROTL32(h1,13);
+            h1 = h1 * 5 + IncrementalMurmur3Hasher.c3;
+        }
+
+        int k1 = 0;
+        switch(len & 0x03) {
+          case 3:
+            k1 = (le.get(roundedEnd + 2) & 0xff) << 16;
+          case 2:
+            k1 |= (le.get(roundedEnd + 1) & 0xff) << 8;
+          case 1:
+            k1 |= (le.get(roundedEnd) & 0xff);
+            k1 *= IncrementalMurmur3Hasher.c1;
+            k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
+            k1 *= IncrementalMurmur3Hasher.c2;
+            h1 ^= k1;
+        }
+
+        // finalization
+        h1 ^= len;
+
+        // fmix(h1);
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+
+        return h1;
+    }
 }
@@ -0,0 +1,115 @@
+package com.fasterxml.storemate.shared.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * Class that calculates x64 128-bit variant of Murmur3 hash for given data,
+ * processing content 16 bytes at a time. Results are identical to those of the
+ * reference implementation (<code>MurmurHash3_x64_128</code>), with 128-bit values
+ * serialized as two little-endian longs.
+ *<p>
+ * 64-bit value is calculated by folding (xor'ing) the two halves of the
+ * 128-bit value; and 32-bit value is the lowest 32 bits of the first half.
+ */
+public final class BlockMurmur3x64Hasher extends BlockHasher128
+{
+    public final static BlockMurmur3x64Hasher instance = new BlockMurmur3x64Hasher();
+
+    @Override
+    public int hash(int seed, byte[] data, int offset, int len) {
+        return (int) _hash(seed, data, offset, len, null, false);
+    }
+
+    @Override
+    public long hash64(int seed, byte[] data, int offset, int len) {
+        return _hash(seed, data, offset, len, null, true);
+    }
+
+    @Override
+    public byte[] hash128(int seed, byte[] data, int offset, int len) {
+        long[] h = new long[2];
+        _hash(seed, data, offset, len, h, false);
+        return IncrementalMurmur3x64Hasher._asBytes(h[0], h[1]);
+    }
+
+    /**
+     * Variant of {@link #hash128(int, byte[], int, int)} that returns the two
+     * halves of the 128-bit hash value (in order) in caller-provided array,
+     * instead of allocating a new result array for each call.
+     *
+     * @param result Array of at least 2 elements, into which hash value is stored
+     */
+    public void hash128(int seed, byte[] data, int offset, int len, long[] result) {
+        _hash(seed, data, offset, len, result, false);
+    }
+
+    /**
+     * Variant that reads 16-byte blocks directly from the buffer, so that
+     * contents of direct buffers need not be copied.
+     */
+    @Override
+    public byte[] hash128(int seed, ByteBuffer data)
+    {
+        if (data.hasArray()) {
+            return hash128(seed, data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        final ByteBuffer le = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int offset = data.position();
+        final int len = data.remaining();
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = h1;
+        final int roundedEnd = offset + (len & 0xFFFFFFF0); // round down to 16 byte block
+
+        for (int i = offset; i < roundedEnd; i += 16) {
+            long k1 = IncrementalMurmur3x64Hasher._mixK1(le.getLong(i));
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            long k2 = IncrementalMurmur3x64Hasher._mixK2(le.getLong(i+8));
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        // tail is at most 15 bytes, easiest to just copy
+        byte[] tail = new byte[len & 0xF];
+        for (int i = 0; i < tail.length; ++i) {
+            tail[i] = le.get(roundedEnd + i);
+        }
+        long[] h = new long[] { h1, h2 };
+        IncrementalMurmur3x64Hasher._finish(h, tail, 0, tail.length, len);
+        return IncrementalMurmur3x64Hasher._asBytes(h[0], h[1]);
+    }
+
+    /**
+     * @param result If not null, array into which 128-bit result is stored;
+     *    if null, 64-bit hash (or first half, if not folding) is returned instead
+     */
+    private static long _hash(int seed, byte[] data, int offset, int len,
+            long[] result, boolean fold)
+    {
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = h1;
+        final int roundedEnd = offset + (len & 0xFFFFFFF0); // round down to 16 byte block
+
+        for (int i = offset; i < roundedEnd; i += 16) {
+            long k1 = IncrementalMurmur3x64Hasher._mixK1(ByteUtil.getLongLE(data, i));
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            long k2 = IncrementalMurmur3x64Hasher._mixK2(ByteUtil.getLongLE(data, i+8));
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        if (result == null) {
+            return IncrementalMurmur3x64Hasher._finish64(h1, h2, data, roundedEnd, len & 0xF, len, fold);
+        }
+        result[0] = h1;
+        result[1] = h2;
+        IncrementalMurmur3x64Hasher._finish(result, data, roundedEnd, len & 0xF, len);
+        return 0L;
+    }
+}
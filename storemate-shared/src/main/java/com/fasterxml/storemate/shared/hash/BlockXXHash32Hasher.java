@@ -0,0 +1,68 @@
+package com.fasterxml.storemate.shared.hash;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * Class that calculates 32-bit xxHash (XXH32) checksum for given data,
+ * as specified by [https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md].
+ * Mostly needed for formats that use it, like LZ4 frames; Murmur3 is
+ * used for content hashes.
+ */
+public final class BlockXXHash32Hasher extends BlockHasher32
+{
+    public final static BlockXXHash32Hasher instance = new BlockXXHash32Hasher();
+
+    private final static int PRIME1 = 0x9E3779B1;
+    private final static int PRIME2 = 0x85EBCA77;
+    private final static int PRIME3 = 0xC2B2AE3D;
+    private final static int PRIME4 = 0x27D4EB2F;
+    private final static int PRIME5 = 0x165667B1;
+
+    @Override
+    public int hash(final int seed, byte[] data, int offset, int len)
+    {
+        final int end = offset + len;
+        int h;
+
+        if (len >= 16) {
+            int v1 = seed + PRIME1 + PRIME2;
+            int v2 = seed + PRIME2;
+            int v3 = seed;
+            int v4 = seed - PRIME1;
+            for (final int limit = end - 16; offset <= limit; offset += 16) {
+                v1 = _round(v1, ByteUtil.getIntLE(data, offset));
+                v2 = _round(v2, ByteUtil.getIntLE(data, offset+4));
+                v3 = _round(v3, ByteUtil.getIntLE(data, offset+8));
+                v4 = _round(v4, ByteUtil.getIntLE(data, offset+12));
+            }
+            h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7)
+                + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+        } else {
+            h = seed + PRIME5;
+        }
+        h += len;
+
+        for (; offset + 4 <= end; offset += 4) {
+            h += ByteUtil.getIntLE(data, offset) * PRIME3;
+            h = Integer.rotateLeft(h, 17) * PRIME4;
+        }
+        for (; offset < end; ++offset) {
+            h += (data[offset] & 0xFF) * PRIME5;
+            h = Integer.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private final static int _round(int acc, int input)
+    {
+        acc += input * PRIME2;
+        acc = Integer.rotateLeft(acc, 13);
+        return acc * PRIME1;
+    }
+}
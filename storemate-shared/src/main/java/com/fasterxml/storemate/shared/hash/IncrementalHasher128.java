@@ -0,0 +1,24 @@
+package com.fasterxml.storemate.shared.hash;
+
+/**
+ * Base class for incremental hashers that produce 128-bit hash values,
+ * in addition to 64-bit (folded) and 32-bit ones; latter allows use of
+ * implementations wherever {@link IncrementalHasher32} is accepted.
+ *<p>
+ * As with 32-bit values, calculating 64- or 128-bit values does not reset
+ * state of the hasher.
+ */
+public abstract class IncrementalHasher128 extends IncrementalHasher32
+{
+    /**
+     * Method for completing calculation of the 128-bit hash value for
+     * content fed so far, returned as 16-byte array.
+     */
+    public abstract byte[] calculateHash128();
+
+    /**
+     * Method for completing calculation of the 64-bit hash value for
+     * content fed so far.
+     */
+    public abstract long calculateHash64();
+}
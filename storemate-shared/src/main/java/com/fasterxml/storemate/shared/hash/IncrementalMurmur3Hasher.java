@@ -1,5 +1,7 @@
 package com.fasterxml.storemate.shared.hash;
 
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
 public final class IncrementalMurmur3Hasher extends IncrementalHasher32
 {
     protected final static int c1 = 0xcc9e2d51;
@@ -117,8 +119,7 @@ public final class IncrementalMurmur3Hasher extends IncrementalHasher32
         final int roundedEnd = offset + (len & 0xfffffffc);  // round down to 4 byte block
 
         for (; offset < roundedEnd; offset += 4) {
-//	         	int k1 = _gatherIntLE(data, offset);
-            int k1 = (data[offset] & 0xff) | ((data[offset+1] & 0xff) << 8) | ((data[offset+2] & 0xff) << 16) | (data[offset+3] << 24);
+            int k1 = ByteUtil.getIntLE(data, offset);
             k1 *= c1;
             k1 =  Integer.rotateLeft(k1, 15);
             k1 *= c2;
@@ -205,13 +206,4 @@ public final class IncrementalMurmur3Hasher extends IncrementalHasher32
         }
         _partialBytes = k1;
     }
-
-    protected final static int _gatherIntLE(byte[] data, int index)
-    {
-        int i = data[index] & 0xFF;
-        i |= (data[++index] & 0xFF) << 8;
-        i |= (data[++index] & 0xFF) << 16;
-        i |= (data[++index] << 24);
-        return i;
-    }
 }
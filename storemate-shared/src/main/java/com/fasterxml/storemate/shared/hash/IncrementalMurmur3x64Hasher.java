@@ -0,0 +1,242 @@
+package com.fasterxml.storemate.shared.hash;
+
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+/**
+ * Incremental variant of {@link BlockMurmur3x64Hasher}: produces same hash
+ * values regardless of how content is split between calls to {@link #update}.
+ */
+public final class IncrementalMurmur3x64Hasher extends IncrementalHasher128
+{
+    protected final static long c1 = 0x87c37b91114253d5L;
+    protected final static long c2 = 0x4cf5ad432745937fL;
+
+    private final int _seed;
+
+    /**
+     * Number of bytes for which checksum has been calculated
+     */
+    private long _totalBytes;
+
+    /**
+     * Buffer for content of a partial (less than 16 bytes) block, if any
+     */
+    private final byte[] _partialBytes = new byte[16];
+
+    private int _partialByteCount;
+
+    private long _h1, _h2;
+
+    public IncrementalMurmur3x64Hasher() {
+        this(BlockHasher32.DEFAULT_SEED);
+    }
+
+    public IncrementalMurmur3x64Hasher(int seed)
+    {
+        _seed = seed;
+        reset();
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    @Override
+    public long getLength() {
+        return _totalBytes;
+    }
+
+    @Override
+    public int calculateHash() {
+        return (int) _finish64(_h1, _h2, _partialBytes, 0, _partialByteCount, _totalBytes, false);
+    }
+
+    @Override
+    public long calculateHash64() {
+        return _finish64(_h1, _h2, _partialBytes, 0, _partialByteCount, _totalBytes, true);
+    }
+
+    @Override
+    public byte[] calculateHash128() {
+        long[] h = _calculate();
+        return _asBytes(h[0], h[1]);
+    }
+
+    @Override
+    public void reset() {
+        _partialByteCount = 0;
+        _totalBytes = 0L;
+        _h1 = _h2 = _seed & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int len)
+    {
+        if (data == null || offset < 0 || len < 1 || (offset+len) > data.length) {
+            if (len == 0) {
+                return;
+            }
+            throw new IllegalArgumentException();
+        }
+        _totalBytes += len;
+
+        // First things first: any partial data to complete?
+        if (_partialByteCount > 0) {
+            int count = Math.min(len, 16 - _partialByteCount);
+            System.arraycopy(data, offset, _partialBytes, _partialByteCount, count);
+            _partialByteCount += count;
+            if (_partialByteCount < 16) {
+                return;
+            }
+            _partialByteCount = 0;
+            _update(_partialBytes, 0, 16);
+            offset += count;
+            len -= count;
+        }
+        final int fullLength = len & 0xFFFFFFF0;
+        if (fullLength > 0) {
+            _update(data, offset, fullLength);
+        }
+        int remainder = len & 0xF;
+        if (remainder > 0) {
+            System.arraycopy(data, offset + fullLength, _partialBytes, 0, remainder);
+            _partialByteCount = remainder;
+        }
+    }
+
+    private final void _update(byte[] data, int offset, final int len)
+    {
+        long h1 = _h1;
+        long h2 = _h2;
+        for (final int end = offset + len; offset < end; offset += 16) {
+            long k1 = _mixK1(ByteUtil.getLongLE(data, offset));
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            long k2 = _mixK2(ByteUtil.getLongLE(data, offset+8));
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        _h1 = h1;
+        _h2 = h2;
+    }
+
+    private final long[] _calculate()
+    {
+        long[] h = new long[] { _h1, _h2 };
+        _finish(h, _partialBytes, 0, _partialByteCount, _totalBytes);
+        return h;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods, shared with block hasher
+    /**********************************************************************
+     */
+
+    protected final static long _mixK1(long k1) {
+        k1 *= c1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * c2;
+    }
+
+    protected final static long _mixK2(long k2) {
+        k2 *= c2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * c1;
+    }
+
+    /**
+     * Helper method for mixing in the tail (0 - 15 bytes) and finalizing hash
+     * value; both halves of intermediate hash value are passed in and
+     * returned via given array.
+     */
+    protected final static void _finish(long[] h, byte[] data, int offset, int tailLength,
+            long totalLength)
+    {
+        long h1 = h[0] ^ _tailK1(data, offset, tailLength) ^ totalLength;
+        long h2 = h[1] ^ _tailK2(data, offset, tailLength) ^ totalLength;
+
+        h1 += h2;
+        h2 += h1;
+        h1 = _fmix64(h1);
+        h2 = _fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        h[0] = h1;
+        h[1] = h2;
+    }
+
+    /**
+     * Variant of {@link #_finish} used when only a 64-bit (or 32-bit) hash value
+     * is needed: works on local values, so no result array needs to be allocated.
+     *
+     * @param fold Whether to return the two halves xor'ed together (64-bit hash)
+     *    or just the first half (from which 32-bit hash is taken)
+     */
+    protected final static long _finish64(long h1, long h2, byte[] data, int offset, int tailLength,
+            long totalLength, boolean fold)
+    {
+        h1 ^= _tailK1(data, offset, tailLength) ^ totalLength;
+        h2 ^= _tailK2(data, offset, tailLength) ^ totalLength;
+
+        h1 += h2;
+        h2 += h1;
+        h1 = _fmix64(h1);
+        h2 = _fmix64(h2);
+        h1 += h2;
+        if (!fold) {
+            return h1;
+        }
+        h2 += h1;
+        return h1 ^ h2;
+    }
+
+    protected final static long _tailK1(byte[] data, int offset, int tailLength)
+    {
+        if (tailLength <= 0) {
+            return 0L;
+        }
+        long k1 = 0L;
+        for (int i = Math.min(tailLength, 8); --i >= 0; ) {
+            k1 = (k1 << 8) | (data[offset+i] & 0xFF);
+        }
+        return _mixK1(k1);
+    }
+
+    protected final static long _tailK2(byte[] data, int offset, int tailLength)
+    {
+        if (tailLength <= 8) {
+            return 0L;
+        }
+        long k2 = 0L;
+        for (int i = tailLength; --i >= 8; ) {
+            k2 = (k2 << 8) | (data[offset+i] & 0xFF);
+        }
+        return _mixK2(k2);
+    }
+
+    protected final static long _fmix64(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    protected final static byte[] _asBytes(long h1, long h2)
+    {
+        byte[] result = new byte[16];
+        for (int i = 0; i < 8; ++i) {
+            result[i] = (byte) (h1 >>> (i << 3));
+            result[i+8] = (byte) (h2 >>> (i << 3));
+        }
+        return result;
+    }
+}
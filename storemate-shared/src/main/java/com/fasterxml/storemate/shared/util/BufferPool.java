@@ -0,0 +1,290 @@
+package com.fasterxml.storemate.shared.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free pool of byte arrays, shared by all threads; meant as
+ * replacement for per-thread recycling with {@link BufferRecycler}, which
+ * either retains one buffer per thread (wasteful with big thread pools)
+ * or, due to use of soft references, loses buffers when memory is tight.
+ *<p>
+ * Buffers are pooled in power-of-two size classes, between configured
+ * minimum and maximum sizes; requests for bigger buffers are served by
+ * allocating new, non-pooled arrays. To reduce contention, each size class
+ * is striped (stripe count based on number of CPUs), and calling threads are
+ * mapped to stripes by thread id. Total size of retained buffers is strictly
+ * capped: buffers returned when pool is full are simply dropped.
+ *<p>
+ * Pool also keeps track of borrows, returns, and cases where requests
+ * could not be served from the pool, for diagnostics.
+ */
+public class BufferPool
+{
+    public final static int DEFAULT_MIN_BUFFER_SIZE = 0x1000; // 4k
+
+    public final static int DEFAULT_MAX_BUFFER_SIZE = 0x40000; // 256k
+
+    public final static long DEFAULT_MAX_POOLED_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Number of buffers each stripe of a size class can hold
+     */
+    protected final static int SLOTS_PER_STRIPE = 4;
+
+    /**
+     * Globally shared default pool instance
+     */
+    public final static BufferPool instance = new BufferPool(DEFAULT_MIN_BUFFER_SIZE,
+            DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_POOLED_BYTES);
+
+    protected final int _minSizeShift;
+
+    protected final int _maxBufferSize;
+
+    protected final long _maxPooledBytes;
+
+    protected final int _stripeMask;
+
+    /**
+     * Buffer slots, indexed first by size class, then by stripe
+     */
+    protected final AtomicReferenceArray<byte[]>[][] _slots;
+
+    /*
+    /**********************************************************************
+    /* Accounting
+    /**********************************************************************
+     */
+
+    /**
+     * Total size of buffers currently retained by the pool
+     */
+    protected final AtomicLong _pooledBytes = new AtomicLong();
+
+    /**
+     * Total size of buffers currently borrowed (and not yet returned)
+     */
+    protected final AtomicLong _outstandingBytes = new AtomicLong();
+
+    protected final LongAdder _borrows = new LongAdder();
+
+    protected final LongAdder _poolHits = new LongAdder();
+
+    protected final LongAdder _oversizedAllocations = new LongAdder();
+
+    protected final LongAdder _returns = new LongAdder();
+
+    protected final LongAdder _discards = new LongAdder();
+
+    /*
+    /**********************************************************************
+    /* Construction
+    /**********************************************************************
+     */
+
+    /**
+     * @param minBufferSize Size of the smallest buffers pooled; rounded up
+     *    to the next power of two, if necessary
+     * @param maxBufferSize Size of the biggest buffers pooled; rounded up
+     *    to the next power of two, if necessary
+     * @param maxPooledBytes Maximum total size of buffers retained by pool
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minBufferSize, int maxBufferSize, long maxPooledBytes)
+    {
+        if (minBufferSize < 1 || maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException("Invalid buffer size range: ["+minBufferSize
+                    +", "+maxBufferSize+"]");
+        }
+        _minSizeShift = _sizeShift(minBufferSize);
+        final int maxShift = _sizeShift(maxBufferSize);
+        _maxBufferSize = 1 << maxShift;
+        _maxPooledBytes = maxPooledBytes;
+        final int stripes = _stripeCount(Runtime.getRuntime().availableProcessors());
+        _stripeMask = stripes - 1;
+        final int classes = maxShift - _minSizeShift + 1;
+        _slots = (AtomicReferenceArray<byte[]>[][]) new AtomicReferenceArray<?>[classes][stripes];
+        for (int i = 0; i < classes; ++i) {
+            for (int j = 0; j < stripes; ++j) {
+                _slots[i][j] = new AtomicReferenceArray<byte[]>(SLOTS_PER_STRIPE);
+            }
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for getting a buffer of at least specified size; either from
+     * the pool, or newly allocated. Buffers of pooled size classes are
+     * always of exact class size (power of two).
+     * Caller should return buffer using {@link #release} when done with it.
+     */
+    public byte[] borrow(int minSize)
+    {
+        _borrows.increment();
+        if (minSize > _maxBufferSize) {
+            _oversizedAllocations.increment();
+            _outstandingBytes.addAndGet(minSize);
+            return new byte[minSize];
+        }
+        final int sizeClass = _sizeClass(minSize);
+        final int bufferSize = 1 << (sizeClass + _minSizeShift);
+        _outstandingBytes.addAndGet(bufferSize);
+        final AtomicReferenceArray<byte[]>[] stripes = _slots[sizeClass];
+        final int stripe = _stripe();
+        // check own stripe first, then neighbour
+        byte[] b = _take(stripes[stripe]);
+        if (b == null && _stripeMask > 0) {
+            b = _take(stripes[(stripe + 1) & _stripeMask]);
+        }
+        if (b != null) {
+            _pooledBytes.addAndGet(-bufferSize);
+            _poolHits.increment();
+            return b;
+        }
+        return new byte[bufferSize];
+    }
+
+    /**
+     * Method for returning a buffer borrowed earlier using {@link #borrow}.
+     * Buffer must not be accessed after this call.
+     */
+    public void release(byte[] buffer)
+    {
+        final int len = buffer.length;
+        _returns.increment();
+        _outstandingBytes.addAndGet(-len);
+        // only exact class sizes are pooled
+        if (len > _maxBufferSize || Integer.bitCount(len) != 1
+                || len < (1 << _minSizeShift)) {
+            _discards.increment();
+            return;
+        }
+        // strict cap: reserve space first
+        if (_pooledBytes.addAndGet(len) > _maxPooledBytes) {
+            _pooledBytes.addAndGet(-len);
+            _discards.increment();
+            return;
+        }
+        final AtomicReferenceArray<byte[]>[] stripes = _slots[_sizeClass(len)];
+        final int stripe = _stripe();
+        if (!_put(stripes[stripe], buffer)
+                && ((_stripeMask == 0) || !_put(stripes[(stripe + 1) & _stripeMask], buffer))) {
+            _pooledBytes.addAndGet(-len);
+            _discards.increment();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Metrics
+    /**********************************************************************
+     */
+
+    public int getMaxBufferSize() { return _maxBufferSize; }
+
+    public long getMaxPooledBytes() { return _maxPooledBytes; }
+
+    /**
+     * @return Total size of buffers currently retained by the pool
+     */
+    public long getPooledBytes() { return _pooledBytes.get(); }
+
+    /**
+     * @return Total size of buffers borrowed but not (yet) returned
+     */
+    public long getOutstandingBytes() { return _outstandingBytes.get(); }
+
+    public long getBorrowCount() { return _borrows.sum(); }
+
+    public long getReturnCount() { return _returns.sum(); }
+
+    /**
+     * @return Number of borrow requests served from the pool
+     */
+    public long getPoolHitCount() { return _poolHits.sum(); }
+
+    /**
+     * @return Number of borrow requests that had to allocate a new buffer,
+     *    because pool had no buffer of requested size, or because request
+     *    was for buffer bigger than the biggest pooled size
+     */
+    public long getExhaustedCount() {
+        return _borrows.sum() - _poolHits.sum();
+    }
+
+    /**
+     * @return Number of borrow requests for buffers bigger than the biggest
+     *    pooled size
+     */
+    public long getOversizedCount() { return _oversizedAllocations.sum(); }
+
+    /**
+     * @return Number of returned buffers that were dropped, either due
+     *    to memory cap, lack of free slots, or not being of pooled size
+     */
+    public long getDiscardCount() { return _discards.sum(); }
+
+    @Override
+    public String toString()
+    {
+        return String.format("[BufferPool: pooled %d/%d bytes, outstanding %d bytes; "
+                +"borrows %d (hits %d, oversized %d), returns %d (discarded %d)]",
+                getPooledBytes(), _maxPooledBytes, getOutstandingBytes(),
+                getBorrowCount(), getPoolHitCount(), getOversizedCount(),
+                getReturnCount(), getDiscardCount());
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private final int _sizeClass(int size) {
+        return Math.max(0, _sizeShift(size) - _minSizeShift);
+    }
+
+    private final int _stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & _stripeMask;
+    }
+
+    private final static byte[] _take(AtomicReferenceArray<byte[]> slots)
+    {
+        for (int i = 0; i < SLOTS_PER_STRIPE; ++i) {
+            byte[] b = slots.get(i);
+            if (b != null && slots.compareAndSet(i, b, null)) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    private final static boolean _put(AtomicReferenceArray<byte[]> slots, byte[] buffer)
+    {
+        for (int i = 0; i < SLOTS_PER_STRIPE; ++i) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Exponent of the smallest power of two that is at least given size
+     */
+    private final static int _sizeShift(int size) {
+        return (size <= 1) ? 0 : (32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    private final static int _stripeCount(int cpus) {
+        return 1 << _sizeShift(Math.max(1, Math.min(cpus, 64)));
+    }
+}
@@ -16,7 +16,11 @@ import java.lang.ref.SoftReference;
  * hold on to for life-cycle of its buffer: so basically caller just gets
  * holder once, gets a buffer if it needs one, as well as returns it back
  * to holder when it is done.
+ *
+ * @deprecated Since 1.1 use {@link BufferPool} instead, which bounds memory
+ *   retained independent of number of threads.
  */
+@Deprecated
 public class BufferRecycler extends ThreadLocal<SoftReference<BufferRecycler.Holder>>
 {
     protected final int _initialBufferSize;
@@ -3,15 +3,22 @@ package com.fasterxml.storemate.shared.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.util.*;
 import java.util.zip.Checksum;
 
+import com.fasterxml.storemate.shared.ByteContainer;
+
 /**
  * Helper class that is similar to {@link java.io.ByteArrayOutputStream}
  * in usage, but bit more efficient for use cases StoreMate has.
  * Instead of a single byte array, underlying storage is a List of
- * arrays (that is, segmented virtual array). The biggest chunk is
- * also recycled as necessary using {@link BufferRecycler})
+ * arrays (that is, segmented virtual array). All segments are
+ * borrowed from, and returned to, the shared {@link BufferPool}.
+ * Contents can be accessed without copying, either as a segmented
+ * {@link ByteContainer} (see {@link #asByteContainer}), or by writing
+ * them into a {@link GatheringByteChannel} using a single vectored write.
  *<p>
  * Note that instances are NOT designed to be reusable, since instance
  * creation is cheap as the underlying buffers are automatically recycled
@@ -42,9 +49,7 @@ public class ByteAggregator
      * with small content, but can also help reduce first-chunk overhead for
      * larger ones.
      */
-    protected final static BufferRecycler _bufferRecycler = new BufferRecycler(MIN_FIRST_BLOCK_SIZE);
-
-    protected final BufferRecycler.Holder _bufferHolder;
+    protected final BufferPool _bufferPool;
 
     protected LinkedList<byte[]> _pastBlocks = null;
 
@@ -68,23 +73,19 @@ public class ByteAggregator
     
     public ByteAggregator()
     {
-        _bufferHolder = _bufferRecycler.getHolder();
-        _currBlock = _bufferHolder.borrowBuffer();
-        _currBlockPtr = 0;
+        this(MIN_FIRST_BLOCK_SIZE);
     }
 
     public ByteAggregator(int minSize)
     {
-        _bufferHolder = _bufferRecycler.getHolder();
-        _currBlock = _bufferHolder.borrowBuffer(minSize);
+        _bufferPool = BufferPool.instance;
+        _currBlock = _bufferPool.borrow(Math.max(minSize, MIN_FIRST_BLOCK_SIZE));
         _currBlockPtr = 0;
     }
     
     public ByteAggregator(byte[] data, int offset, int len)
     {
-        _bufferHolder = _bufferRecycler.getHolder();        
-        _currBlock = _bufferHolder.borrowBuffer(len);
-        _currBlockPtr = 0;
+        this(len);
         System.arraycopy(data, offset, _currBlock, 0, len);
         _currBlockPtr = len;
     }
@@ -113,16 +114,14 @@ public class ByteAggregator
     
     /**
      * Method for clearing out all aggregated content, but <b>without</b>
-     * returning all recyclable buffers, to make it possible to use
+     * returning the current block, to make it possible to use
      * this instance efficiently.
      */
     public void resetForReuse()
     {
         _pastLen = 0;
         _currBlockPtr = 0;
-        if (_pastBlocks != null) {
-            _pastBlocks.clear();
-        }
+        _releasePastBlocks();
     }
 
     /**
@@ -137,11 +136,11 @@ public class ByteAggregator
     {
         _pastLen = 0;
         _currBlockPtr = 0;
-        if (_pastBlocks != null) {
-            _pastBlocks.clear();
+        _releasePastBlocks();
+        if (_currBlock != null) {
+            _bufferPool.release(_currBlock);
+            _currBlock = null;
         }
-        _bufferHolder.returnBuffer(_currBlock);
-        _currBlock = null;
     }
 
     /*
@@ -288,6 +287,55 @@ public class ByteAggregator
         }
     }
 
+    /**
+     * Method for writing contents of this aggregator into provided
+     * {@link GatheringByteChannel}, using a single vectored write for all
+     * segments (unless channel only writes partial contents, in which case
+     * writes are repeated as necessary).
+     *
+     * @return Number of bytes written
+     */
+    public long writeTo(GatheringByteChannel out) throws IOException
+    {
+        final ByteBuffer[] bufs = new ByteBuffer[_segmentCount()];
+        int ix = 0;
+        if (_pastBlocks != null) {
+            for (byte[] block : _pastBlocks) {
+                bufs[ix++] = ByteBuffer.wrap(block);
+            }
+        }
+        bufs[ix] = ByteBuffer.wrap(_currBlock, 0, _currBlockPtr);
+        final long total = size();
+        long left = total;
+        while (left > 0L) {
+            left -= out.write(bufs);
+        }
+        return total;
+    }
+
+    /**
+     * Method for accessing aggregated contents as a {@link ByteContainer},
+     * without copying. Note that the container shares segments with this
+     * aggregator, so it must not be used after {@link #release} (or
+     * {@link #resetForReuse}) has been called.
+     */
+    public ByteContainer asByteContainer()
+    {
+        final int count = _segmentCount();
+        byte[][] segments = new byte[count][];
+        int[] lengths = new int[count];
+        int ix = 0;
+        if (_pastBlocks != null) {
+            for (byte[] block : _pastBlocks) {
+                segments[ix] = block;
+                lengths[ix++] = block.length;
+            }
+        }
+        segments[ix] = _currBlock;
+        lengths[ix] = _currBlockPtr;
+        return ByteContainer.forSegments(segments, lengths);
+    }
+
     /**
      * Method that can be used to access contents aggregated, by
      * getting aggregator to call {@link WithBytesCallback#withBytes} once
@@ -398,7 +446,21 @@ public class ByteAggregator
             _pastBlocks = new LinkedList<byte[]>();
         }
         _pastBlocks.add(_currBlock);
-        _currBlock = new byte[newSize];
+        _currBlock = _bufferPool.borrow(newSize);
         _currBlockPtr = 0;
     }
+
+    private int _segmentCount() {
+        return (_pastBlocks == null) ? 1 : (_pastBlocks.size() + 1);
+    }
+
+    private void _releasePastBlocks()
+    {
+        if (_pastBlocks != null) {
+            for (byte[] block : _pastBlocks) {
+                _bufferPool.release(block);
+            }
+            _pastBlocks.clear();
+        }
+    }
 }
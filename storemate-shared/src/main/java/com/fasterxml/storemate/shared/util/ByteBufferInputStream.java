@@ -0,0 +1,57 @@
+package com.fasterxml.storemate.shared.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Simple {@link InputStream} implementation for reading contents of
+ * a {@link ByteBuffer}, without copying it (beyond reads caller does).
+ * Stream operates on a duplicate of given buffer, so position of
+ * the original buffer is not modified.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    protected final ByteBuffer _buffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        _buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int available() {
+        return _buffer.remaining();
+    }
+
+    @Override
+    public int read() {
+        return _buffer.hasRemaining() ? (_buffer.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0) {
+            return 0;
+        }
+        final int left = _buffer.remaining();
+        if (left <= 0) {
+            return -1;
+        }
+        if (len > left) {
+            len = left;
+        }
+        _buffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        if (n <= 0L) {
+            return 0L;
+        }
+        int count = (int) Math.min(n, _buffer.remaining());
+        _buffer.position(_buffer.position() + count);
+        return count;
+    }
+}
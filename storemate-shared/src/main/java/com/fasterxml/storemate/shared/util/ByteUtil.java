@@ -1,36 +1,182 @@
 package com.fasterxml.storemate.shared.util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Low-level helper methods for accessing and comparing contents of byte
+ * arrays. Multi-byte reads use {@link VarHandle} views, which HotSpot compiles
+ * into single (possibly unaligned) loads instead of per-byte reads and shifts;
+ * comparisons use {@link Arrays#mismatch}, which is intrinsified to compare
+ * multiple bytes at a time. Scanning methods check 8 bytes at a time using
+ * "SIMD within a register" (SWAR) tricks on <code>long</code>s.
+ */
 public class ByteUtil
 {
+    private final static VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.BIG_ENDIAN);
+    private final static VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.BIG_ENDIAN);
+    private final static VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final static long ONES = 0x0101010101010101L;
+
+    private final static long HIGH_BITS = 0x8080808080808080L;
+
     private ByteUtil() { }
-    
+
+    /*
+    /**********************************************************************
+    /* Writes
+    /**********************************************************************
+     */
+
     public final static void putLongBE(byte[] buffer, int offset, long value)
     {
-        putIntBE(buffer, offset, (int) (value >>> 32));
-        putIntBE(buffer, offset+4, (int) value);
+        LONG_BE.set(buffer, offset, value);
     }
 
     public final static void putIntBE(byte[] buffer, int offset, int value)
     {
-        buffer[offset] = (byte) (value >> 24);
-        buffer[++offset] = (byte) (value >> 16);
-        buffer[++offset] = (byte) (value >> 8);
-        buffer[++offset] = (byte) value;
+        INT_BE.set(buffer, offset, value);
+    }
+
+    public final static void putLongLE(byte[] buffer, int offset, long value)
+    {
+        LONG_LE.set(buffer, offset, value);
     }
 
+    public final static void putIntLE(byte[] buffer, int offset, int value)
+    {
+        INT_LE.set(buffer, offset, value);
+    }
+
+    /*
+    /**********************************************************************
+    /* Reads
+    /**********************************************************************
+     */
+
     public final static long getLongBE(byte[] buffer, int offset)
     {
-        long l1 = getIntBE(buffer, offset);
-        long l2 = getIntBE(buffer, offset+4);
-        return (l1 << 32) | ((l2 << 32) >>> 32);
+        return (long) LONG_BE.get(buffer, offset);
     }
     
     public final static int getIntBE(byte[] buffer, int offset)
     {
-        return (buffer[offset] << 24)
-            | ((buffer[++offset] & 0xFF) << 16)
-            | ((buffer[++offset] & 0xFF) << 8)
-            | (buffer[++offset] & 0xFF)
-            ;
+        return (int) INT_BE.get(buffer, offset);
+    }
+
+    public final static long getLongLE(byte[] buffer, int offset)
+    {
+        return (long) LONG_LE.get(buffer, offset);
+    }
+
+    public final static int getIntLE(byte[] buffer, int offset)
+    {
+        return (int) INT_LE.get(buffer, offset);
+    }
+
+    /*
+    /**********************************************************************
+    /* Comparison
+    /**********************************************************************
+     */
+
+    /**
+     * Method for checking whether given two byte sequences, of same length,
+     * have identical contents.
+     */
+    public final static boolean equals(byte[] b1, int offset1, byte[] b2, int offset2, int len)
+    {
+        return Arrays.mismatch(b1, offset1, offset1+len, b2, offset2, offset2+len) < 0;
+    }
+
+    /**
+     * Method for comparing two byte sequences lexicographically, treating bytes
+     * as unsigned values; if one sequence is prefix of the other, shorter one is
+     * sorted first.
+     *
+     * @return Negative number if first sequence sorts before second; positive number
+     *   if after; 0 if sequences are identical.
+     */
+    public final static int compareUnsigned(byte[] b1, int offset1, int len1,
+            byte[] b2, int offset2, int len2)
+    {
+        int i = Arrays.mismatch(b1, offset1, offset1+len1, b2, offset2, offset2+len2);
+        if (i < 0) {
+            return 0;
+        }
+        // mismatch at end of shorter one means it's a prefix
+        if (i < len1 && i < len2) {
+            return (b1[offset1+i] & 0xFF) - (b2[offset2+i] & 0xFF);
+        }
+        return len1 - len2;
+    }
+
+    /*
+    /**********************************************************************
+    /* Scanning, SWAR helpers
+    /**********************************************************************
+     */
+
+    /**
+     * Method for finding length of the leading run of 7-bit ASCII bytes
+     * (ones with value below 0x80) within given byte sequence.
+     *
+     * @return Number of leading ASCII bytes; <code>length</code> if all
+     *   bytes are ASCII
+     */
+    public final static int asciiPrefixLength(byte[] buffer, int offset, int length)
+    {
+        int i = 0;
+        for (final int last = length - 8; i <= last; i += 8) {
+            long highBits = getLongLE(buffer, offset+i) & HIGH_BITS;
+            if (highBits != 0L) {
+                // little-endian, so the lowest set bit is the first non-ASCII byte
+                return i + (Long.numberOfTrailingZeros(highBits) >> 3);
+            }
+        }
+        for (; i < length; ++i) {
+            if (buffer[offset+i] < 0) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Method for checking whether any of 8 bytes of given word has
+     * (unsigned) value less than <code>n</code>, where <code>n</code>
+     * must be at most 128.
+     */
+    public final static boolean hasByteLessThan(long word, int n)
+    {
+        return ((word - ONES * n) & ~word & HIGH_BITS) != 0L;
+    }
+
+    /**
+     * Method for checking whether any of 8 bytes of given word has
+     * (unsigned) value greater than <code>n</code>, where <code>n</code>
+     * must be at most 127.
+     */
+    public final static boolean hasByteGreaterThan(long word, int n)
+    {
+        return (((word + ONES * (127 - n)) | word) & HIGH_BITS) != 0L;
+    }
+
+    /**
+     * Method for checking whether any of 8 bytes of given word equals
+     * given byte value.
+     */
+    public final static boolean hasByte(long word, int value)
+    {
+        long x = word ^ (ONES * (value & 0xFF));
+        return ((x - ONES) & ~x & HIGH_BITS) != 0L;
     }
 }
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import com.fasterxml.storemate.shared.ByteContainer;
 import com.fasterxml.storemate.shared.compress.Compression;
@@ -177,6 +178,10 @@ public class IOUtil
     {
         if (bytes == null) return null;
         if (length == 0) return "";
+        // usually all ASCII, in which case we can use bulk copy
+        if (ByteUtil.asciiPrefixLength(bytes, offset, length) == length) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
         StringBuilder sb = new StringBuilder(length);
         for (int i = offset, end = offset+length; i < end; ++i) {
             // due to sign extension, 0x80-0xFF will become "funny"; caller is only to feed ASCII
@@ -197,11 +202,7 @@ public class IOUtil
     {
         if (bytes == null) return null;
         if (length == 0) return "";
-        StringBuilder sb = new StringBuilder(length);
-        for (int i = offset, end = offset+length; i < end; ++i) {
-            sb.append((char) (bytes[i] & 0xFF));
-        }
-        return sb.toString();
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -3,6 +3,7 @@ package com.fasterxml.storemate.shared.util;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -12,6 +13,10 @@ import java.util.*;
  * Note that methods in here are somewhat optimized, but not ridiculously so.
  * Reason is that conversion method results are expected to be cached so that
  * these methods will not be hot spots during normal operation.
+ * The one exception is handling of leading ASCII content (usually all of
+ * the content, for keys): it is checked 8 chars at a time and copied in
+ * bulk, and per-character encoding only starts from the first non-ASCII
+ * character.
  */
 public final class UTF8Encoder
 {
@@ -60,6 +65,10 @@ public final class UTF8Encoder
         if (text == null) {
             return null;
         }
+        final int asciiLen = _asciiPrefixLength(text);
+        if (asciiLen == text.length()) { // all ASCII: can use bulk copy
+            return text.getBytes(StandardCharsets.ISO_8859_1);
+        }
         SoftReference<UTF8Encoder> ref = _threadEncoder.get();
         UTF8Encoder enc = (ref == null) ? null : ref.get();
 
@@ -67,7 +76,7 @@ public final class UTF8Encoder
             enc = new UTF8Encoder();
             _threadEncoder.set(new SoftReference<UTF8Encoder>(enc));
         }
-        return enc._encodeAsUTF8(text);
+        return enc._encodeAsUTF8(text, asciiLen);
     }
 
     /**
@@ -149,13 +158,15 @@ public final class UTF8Encoder
     /**********************************************************
      */
     
-    private byte[] _encodeAsUTF8(String text)
+    private byte[] _encodeAsUTF8(String text, int inputPtr)
     {
-        int inputPtr = 0;
         int inputEnd = text.length();
-        int outputPtr = 0;
         byte[] outputBuffer = _encodingBuffer;
         int outputEnd = outputBuffer.length;
+        if (inputPtr > outputEnd) {
+            inputPtr = outputEnd;
+        }
+        int outputPtr = _copyAscii(text, inputPtr, outputBuffer, 0);
         
         final ByteArrayBuilder byteBuilder = new ByteArrayBuilder(_encodingBuffer);
         
@@ -237,10 +248,16 @@ public final class UTF8Encoder
 
     private byte[] _encodeAsUTF8(byte[] prefix, String text)
     {
-        int inputPtr = 0;
         int inputEnd = text.length();
+        int inputPtr = _asciiPrefixLength(text);
         int outputPtr = prefix.length;
 
+        if (inputPtr == inputEnd) { // all ASCII: can use bulk copy
+            byte[] result = new byte[outputPtr + inputEnd];
+            System.arraycopy(prefix, 0, result, 0, outputPtr);
+            _copyAscii(text, inputEnd, result, outputPtr);
+            return result;
+        }
         if (outputPtr > _encodingBuffer.length) {
             _encodingBuffer = new byte[outputPtr];
         }
@@ -249,6 +266,8 @@ public final class UTF8Encoder
         final ByteArrayBuilder byteBuilder = new ByteArrayBuilder(_encodingBuffer);
         byte[] outputBuffer = byteBuilder.getCurrentSegment();
         int outputEnd = outputBuffer.length;
+        inputPtr = Math.min(inputPtr, outputEnd - outputPtr);
+        outputPtr = _copyAscii(text, inputPtr, outputBuffer, outputPtr);
         
         main_loop:
         while (inputPtr < inputEnd) {
@@ -329,10 +348,15 @@ public final class UTF8Encoder
     private byte[] _encodeAsUTF8(String text, int prefixLen, int suffixLen,
             boolean clearPrefix)
     {
-        int inputPtr = 0;
         int inputEnd = text.length();
+        int inputPtr = _asciiPrefixLength(text);
         int outputPtr = prefixLen;
 
+        if (inputPtr == inputEnd) { // all ASCII: can use bulk copy; new arrays are zeroed
+            byte[] result = new byte[outputPtr + inputEnd + suffixLen];
+            _copyAscii(text, inputEnd, result, outputPtr);
+            return result;
+        }
         if (outputPtr >= _encodingBuffer.length) {
             _encodingBuffer = new byte[outputPtr + Math.min(128, inputEnd << 1)];
         } else if (clearPrefix) {
@@ -342,6 +366,8 @@ public final class UTF8Encoder
         final ByteArrayBuilder byteBuilder = new ByteArrayBuilder(_encodingBuffer);
         byte[] outputBuffer = byteBuilder.getCurrentSegment();
         int outputEnd = outputBuffer.length;
+        inputPtr = Math.min(inputPtr, outputEnd - outputPtr);
+        outputPtr = _copyAscii(text, inputPtr, outputBuffer, outputPtr);
         
         main_loop:
         while (inputPtr < inputEnd) {
@@ -423,6 +449,42 @@ public final class UTF8Encoder
     /**********************************************************
      */
 
+    /**
+     * Method for finding length of the leading ASCII section of given
+     * text; checks blocks of 8 chars by combining them, to only need
+     * a single comparison per block.
+     */
+    private static int _asciiPrefixLength(String text)
+    {
+        final int end = text.length();
+        int i = 0;
+        for (final int last = end - 8; i <= last; i += 8) {
+            int combined = text.charAt(i) | text.charAt(i+1) | text.charAt(i+2) | text.charAt(i+3)
+                    | text.charAt(i+4) | text.charAt(i+5) | text.charAt(i+6) | text.charAt(i+7);
+            if (combined > 0x7F) {
+                break;
+            }
+        }
+        while (i < end && text.charAt(i) <= 0x7F) {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Helper method for copying first <code>count</code> characters of given
+     * text, all known to be ASCII, into given buffer.
+     *
+     * @return Offset in buffer after last copied byte
+     */
+    @SuppressWarnings("deprecation")
+    private static int _copyAscii(String text, int count, byte[] buffer, int offset)
+    {
+        // deprecated, but exactly what we need: for compact (Latin-1) Strings, a bulk copy
+        text.getBytes(0, count, buffer, offset);
+        return offset + count;
+    }
+
     /**
      * Method called to calculate UTF code point, from a surrogate pair.
      */
@@ -83,11 +83,20 @@ public class UTF8UrlEncoder
             boolean escapeSlash)
     {
         final int[] safe = escapeSlash ? SAFE_ASCII_NO_SLASH : SAFE_ASCII_WITH_SLASH;
-        for (int i = 0, len = input.length(); i < len; ++i) {
+        final int len = input.length();
+        int i = _safePrefixLength(input, 0, safe);
+        if (i == len) { // common case: nothing to escape
+            return sb.append(input);
+        }
+        sb.append(input, 0, i);
+        for (; i < len; ++i) {
             char c = input.charAt(i);
             if (c <= 127) {
                 if (safe[c] != 0) {
-                    sb.append(c);
+                    // start of a safe run? If so, append it as a block
+                    int end = _safePrefixLength(input, i, safe);
+                    sb.append(input, i, end);
+                    i = end - 1;
                 } else {
                     appendSingleByteEncoded(sb, c);
                 }
@@ -98,6 +107,36 @@ public class UTF8UrlEncoder
         return sb;
     }
 
+    /**
+     * Helper method for finding end of run of characters that need no escaping,
+     * starting at given index. Checks blocks of 8 characters using a single
+     * range check and table lookups combined without branching.
+     */
+    private final static int _safePrefixLength(String input, int i, int[] safe)
+    {
+        final int end = input.length();
+        for (final int last = end - 8; i <= last; i += 8) {
+            final char c0 = input.charAt(i), c1 = input.charAt(i+1),
+                    c2 = input.charAt(i+2), c3 = input.charAt(i+3),
+                    c4 = input.charAt(i+4), c5 = input.charAt(i+5),
+                    c6 = input.charAt(i+6), c7 = input.charAt(i+7);
+            if ((c0 | c1 | c2 | c3 | c4 | c5 | c6 | c7) > 127) {
+                break;
+            }
+            if ((safe[c0] & safe[c1] & safe[c2] & safe[c3]
+                    & safe[c4] & safe[c5] & safe[c6] & safe[c7]) == 0) {
+                break;
+            }
+        }
+        for (; i < end; ++i) {
+            char c = input.charAt(i);
+            if (c > 127 || safe[c] == 0) {
+                break;
+            }
+        }
+        return i;
+    }
+
     private final void appendSingleByteEncoded(StringBuilder sb, int value)
     {
         if (_encodeSpaceUsingPlus && value == 32) {
@@ -0,0 +1,109 @@
+package com.fasterxml.storemate.shared;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
+import com.fasterxml.storemate.shared.util.WithBytesAsArray;
+
+/**
+ * Tests for {@link ByteBuffer}-backed {@link ByteContainer}s, verifying
+ * that they behave identically to array-backed ones.
+ */
+public class ByteContainerTest extends SharedTestBase
+{
+    public void testBufferContainers() throws Exception
+    {
+        final byte[] data = biggerRandomData(20001).getBytes("UTF-8");
+        final ByteBuffer heap = ByteBuffer.wrap(data);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+        direct.position(10);
+        direct.put(data);
+        direct.position(10);
+
+        for (ByteBuffer bb : new ByteBuffer[] { heap, direct, heap.asReadOnlyBuffer() }) {
+            ByteContainer c = ByteContainer.forBuffer(bb);
+            // must not change buffer position
+            assertEquals(data.length, bb.remaining());
+            _verifySame(ByteContainer.simple(data), c);
+            _verifySame(ByteContainer.simple(data, 3, 1000), c.view(3, 1000));
+            _verifySame(ByteContainer.simple(data, 17, 4), c.view(10, 2000).view(7, 4));
+            assertSame(c, c.view(0, data.length));
+            assertEquals(0, c.view(5, 0).byteLength());
+        }
+        assertEquals(0, ByteContainer.forBuffer(ByteBuffer.allocateDirect(0)).byteLength());
+    }
+
+    public void testWriteToFile() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(50000).getBytes("UTF-8");
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+        ByteContainer c = ByteContainer.forBuffer(direct);
+
+        File f = File.createTempFile("storemate-bb", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(f);
+            c.writeBytes(out);
+            c.writeBytes(out, 100, 50);
+            out.close();
+            byte[] read = readFile(f);
+            assertEquals(data.length + 50, read.length);
+            Assert.assertArrayEquals(data, Arrays.copyOf(read, data.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 100, 150),
+                    Arrays.copyOfRange(read, data.length, read.length));
+        } finally {
+            f.delete();
+        }
+    }
+
+    public void testUncompressFromBuffer() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(30000).getBytes("UTF-8");
+        for (Compression comp : new Compression[] { Compression.GZIP, Compression.LZF }) {
+            byte[] compressed = (comp == Compression.GZIP)
+                    ? Compressors.gzipCompress(data) : Compressors.lzfCompress(data);
+            ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+            direct.put(compressed);
+            direct.flip();
+            ByteContainer c = ByteContainer.forBuffer(direct);
+            assertEquals(comp, Compressors.findCompression(c));
+            Assert.assertArrayEquals(data, Compressors.uncompress(c, comp, data.length).asBytes());
+            Assert.assertArrayEquals(data, Compressors.uncompress(c, comp, 0).asBytes());
+        }
+    }
+
+    private void _verifySame(ByteContainer exp, ByteContainer act) throws IOException
+    {
+        final int len = exp.byteLength();
+        assertEquals(len, act.byteLength());
+        Assert.assertArrayEquals(exp.asBytes(), act.asBytes());
+        Assert.assertArrayEquals(exp.asBytes(), act.withBytes(WithBytesAsArray.instance));
+        byte[] buf = new byte[len + 2];
+        assertEquals(len + 2, act.getBytes(buf, 2));
+        Assert.assertArrayEquals(exp.asBytes(), Arrays.copyOfRange(buf, 2, len + 2));
+        assertEquals(exp.get(len - 1), act.get(len - 1));
+        assertEquals(exp.hash(BlockMurmur3Hasher.instance, 0), act.hash(BlockMurmur3Hasher.instance, 0));
+        assertEquals(exp.hash(BlockMurmur3Hasher.instance, 123), act.hash(BlockMurmur3Hasher.instance, 123));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        act.writeBytes(bytes);
+        act.writeBytes(Channels.newChannel(bytes));
+        byte[] written = bytes.toByteArray();
+        assertEquals(2 * len, written.length);
+        Assert.assertArrayEquals(exp.asBytes(), Arrays.copyOf(written, len));
+        Assert.assertArrayEquals(exp.asBytes(), Arrays.copyOfRange(written, len, 2 * len));
+
+        ByteBuffer bb = act.asByteBuffer();
+        assertEquals(0, bb.position());
+        assertEquals(len, bb.limit());
+        assertTrue(bb.isReadOnly());
+    }
+}
@@ -85,6 +85,32 @@ public abstract class SharedTestBase extends TestCase
         return sb.toString();
     }
 
+    /**
+     * Method for generating small JSON documents that are similar to each other
+     * (but with some variation), as typically stored as small entries.
+     */
+    protected byte[] smallJsonDoc(int index) throws IOException
+    {
+        Random rnd = new Random(index);
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"id\":").append(index)
+            .append(",\"type\":\"").append((rnd.nextInt(3) == 0) ? "customer" : "account")
+            .append("\",\"created\":").append(1400000000000L + rnd.nextInt(100000000))
+            .append(",\"attributes\":{\"active\":").append(rnd.nextBoolean())
+            .append(",\"region\":\"").append((rnd.nextInt(2) == 0) ? "us-east-1" : "eu-west-1")
+            .append("\",\"score\":").append(rnd.nextInt(1000))
+            .append("},\"tags\":[");
+        for (int i = 0, count = rnd.nextInt(5); i < count; ++i) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("\"tag-").append(rnd.nextInt(20)).append('"');
+        }
+        sb.append("],\"description\":\"Entry number ").append(index)
+            .append(" with some generic description text\"}");
+        return sb.toString().getBytes("UTF-8");
+    }
+
     /*
     /**********************************************************************
     /* Exception verification methods
@@ -0,0 +1,98 @@
+package com.fasterxml.storemate.shared;
+
+import java.util.*;
+
+public class StorableKeyListTest extends SharedTestBase
+{
+    public void testCompactKey()
+    {
+        final byte[] b = new byte[] { 0, 1, 2, 3, 4, 5 };
+        StorableKey full = new StorableKey(b);
+        assertTrue(full.isCompact());
+        assertSame(full, full.compact());
+
+        StorableKey slice = new StorableKey(b, 2, 3);
+        assertFalse(slice.isCompact());
+        int hash = slice.hashCode();
+        StorableKey compact = slice.compact();
+        assertTrue(compact.isCompact());
+        assertEquals(slice, compact);
+        assertEquals(hash, compact.hashCode());
+        assertEquals(3, compact.asBytes().length);
+    }
+
+    public void testSimpleList()
+    {
+        StorableKeyList list = new StorableKeyList(1, null);
+        List<StorableKey> exp = _keys(200);
+        list.addAll(exp);
+        assertEquals(exp, list);
+        assertEquals(exp.size(), list.size());
+        assertEquals(exp.get(17), list.get(17));
+        // no per-key overhead without prefixes
+        assertEquals(_totalLength(exp), list.getContentLength());
+        list.trimToSize();
+        assertEquals(exp, new ArrayList<StorableKey>(list));
+
+        list.clear();
+        assertEquals(0, list.size());
+        list.add(new StorableKey(new byte[0]));
+        assertEquals(0, list.get(0).length());
+    }
+
+    public void testListWithPrefixes()
+    {
+        KeyPrefixDictionary prefixes = KeyPrefixDictionary.forPrefixes("ns1/", "ns1/sub/", "ns2/");
+        assertEquals(3, prefixes.size());
+        assertEquals(1, prefixes.findPrefix(_key("ns1/foo")));
+        // longest one must be found first
+        assertEquals(0, prefixes.findPrefix(_key("ns1/sub/foo")));
+        assertEquals(-1, prefixes.findPrefix(_key("ns3/foo")));
+
+        StorableKeyList list = new StorableKeyList(10, prefixes);
+        List<StorableKey> exp = _keys(300);
+        for (StorableKey key : exp) {
+            list.add(key);
+        }
+        assertEquals(exp, list);
+        // 3 of 4 keys have a prefix; all have a prefix marker
+        assertTrue(list.getContentLength() < _totalLength(exp) - 300);
+
+        try {
+            list.get(300);
+            fail("Should not pass");
+        } catch (IndexOutOfBoundsException e) {
+            verifyException(e, "Index 300");
+        }
+    }
+
+    private List<StorableKey> _keys(int count)
+    {
+        final String[] prefixes = new String[] { "ns1/", "ns1/sub/", "ns2/", "ns3/" };
+        List<StorableKey> keys = new ArrayList<StorableKey>();
+        for (int i = 0; i < count; ++i) {
+            keys.add(_key(prefixes[i & 3]+"entry-"+i));
+        }
+        return keys;
+    }
+
+    private StorableKey _key(String str)
+    {
+        try {
+            // embed in a bigger buffer to verify offsets are handled
+            byte[] b = ("xx"+str).getBytes("UTF-8");
+            return new StorableKey(b, 2, b.length-2);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int _totalLength(List<StorableKey> keys)
+    {
+        int total = 0;
+        for (StorableKey key : keys) {
+            total += key.length();
+        }
+        return total;
+    }
+}
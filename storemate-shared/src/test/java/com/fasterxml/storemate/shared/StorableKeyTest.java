@@ -78,4 +78,46 @@ public class StorableKeyTest extends SharedTestBase
         assertEquals(254, s2.compareTo(s1));
     }
 
+    public void testEqualsWithOffsets()
+    {
+        final byte[] b = new byte[] { 9, 9, 1, 2, 3, 4, 5 };
+        StorableKey s1 = new StorableKey(b, 2, 5);
+        assertTrue(s1.equals(new byte[] { 1, 2, 3, 4, 5 }, 0, 5));
+        assertTrue(s1.equals(new byte[] { 0, 1, 2, 3, 4, 5 }, 1, 5));
+        // difference at the last byte must be caught, even with offsets
+        assertFalse(s1.equals(new byte[] { 0, 1, 2, 3, 4, 6 }, 1, 5));
+        assertFalse(s1.equals(new byte[] { 1, 2, 3, 4 }, 0, 4));
+
+        assertEquals(s1, new StorableKey(new byte[] { 1, 2, 3, 4, 5 }));
+        assertFalse(s1.equals(new StorableKey(new byte[] { 1, 2, 3, 4, 6 })));
+    }
+
+    /**
+     * Test to verify that comparisons work for keys long enough to be
+     * compared multiple bytes at a time, with differences at all positions.
+     */
+    public void testLongerKeys()
+    {
+        for (int len = 1; len <= 130; len += 7) {
+            byte[] b1 = new byte[len + 3];
+            for (int i = 0; i < len; ++i) {
+                b1[i + 3] = (byte) (i * 31);
+            }
+            StorableKey key = new StorableKey(b1, 3, len);
+            for (int diff = 0; diff < len; ++diff) {
+                byte[] b2 = key.asBytes();
+                b2[diff] = (byte) (b2[diff] ^ 0x80);
+                StorableKey other = new StorableKey(b2);
+                assertFalse(key.equals(other));
+                int exp = (b1[diff + 3] & 0xFF) - (b2[diff] & 0xFF);
+                assertEquals(exp, key.compareTo(other));
+                assertEquals(-exp, StorableKeyComparator.instance.compare(other, key));
+            }
+            StorableKey same = new StorableKey(key.asBytes());
+            assertEquals(key, same);
+            assertEquals(key.hashCode(), same.hashCode());
+            assertEquals(0, key.compareTo(same));
+            assertTrue(key.hasPrefix(same.range(0, len / 2)));
+        }
+    }
 }
@@ -41,6 +41,30 @@ public class TestUTF8Encoder extends SharedTestBase
         _verifyFluff(STRING2, 13, 73500);
     }
 
+    // ASCII sections are handled in blocks, so verify non-ASCII chars at all positions
+    public void testMixedContent() throws Exception
+    {
+        final byte[] PREFIX = new byte[] { 1, 2, 3};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; ++i) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        for (String nonAscii : new String[] { "\u00D8", "\u20AC", "\uD83D\uDE00" }) {
+            for (int i = 0; i < 40; ++i) {
+                String str = sb.substring(0, i) + nonAscii + sb.substring(i);
+                _verify(str);
+                _verifyPrefix(str, PREFIX);
+                _verifyFluff(str, 3, 2);
+            }
+        }
+        // and long ASCII prefix, longer than encoding buffer
+        String longAscii = biggerRandomData(2000).replaceAll("[^\\p{ASCII}]", "x");
+        _verify(longAscii);
+        _verify(longAscii + "\u00D8");
+        _verifyPrefix(longAscii + "\u00D8", PREFIX);
+        _verifyFluff(longAscii + "\u00D8", 7, 1);
+    }
+
     /*
     /**********************************************************************
     /* Secondary test methods
@@ -19,6 +19,21 @@ public class TestUTF8UrlEncoder extends SharedTestBase
         assertEquals("here%2Fthen", enc.encode("here/then", true));
     }
 
+    // safe runs are checked in blocks of 8, so verify unsafe chars at all positions
+    public void testLongerEncoding()
+    {
+        UTF8UrlEncoder enc = new UTF8UrlEncoder(false);
+        final String BASE = "abcdefghijklmnopqrstuvwxyz-0123456789";
+        assertEquals(BASE, enc.encode(BASE, true));
+        for (int i = 0; i <= BASE.length(); ++i) {
+            String pre = BASE.substring(0, i), post = BASE.substring(i);
+            assertEquals(pre+"%20"+post, enc.encode(pre+" "+post, true));
+            assertEquals(pre+"/"+post, enc.encode(pre+"/"+post, false));
+            assertEquals(pre+"%2F"+post, enc.encode(pre+"/"+post, true));
+            assertEquals(pre+"%C2%A9"+post, enc.encode(pre+"\u00A9"+post, true));
+        }
+    }
+
     /*
     /**********************************************************************
     /* Decoding tests
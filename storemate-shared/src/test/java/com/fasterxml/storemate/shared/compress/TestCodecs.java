@@ -0,0 +1,547 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import org.junit.Assert;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.SharedTestBase;
+
+public class TestCodecs extends SharedTestBase
+{
+    /*
+    /**********************************************************************
+    /* Registry, detection
+    /**********************************************************************
+     */
+
+    public void testStandardCodecs() throws Exception
+    {
+        assertSame(Compression.LZ4, Compression.forIndex(3, true));
+        assertSame(Compression.LZ4, Compression.forContentEncoding(" lz4 "));
+        assertEquals("LZ4", Compression.LZ4.name());
+        assertTrue(Arrays.asList(Compression.values()).containsAll(Arrays.asList(Compression.NONE,
+                Compression.LZF, Compression.GZIP, Compression.LZ4, Compression.DEFLATE)));
+        assertNull(Compressors.findCodec(Compression.NONE));
+
+        final byte[] data = biggerCompressibleData(20000).getBytes("UTF-8");
+        assertNull(Compressors.findCompression(data, 0, data.length));
+        for (Compression comp : new Compression[] { Compression.LZF, Compression.GZIP, Compression.LZ4,
+                Compression.DEFLATE }) {
+            CompressionCodec codec = Compressors.codecFor(comp);
+            assertSame(comp, codec.getCompression());
+            assertEquals(comp.asContentEncoding(), codec.getContentEncoding());
+
+            byte[] compressed = Compressors.compress(data, 0, data.length, comp);
+            assertTrue(compressed.length < data.length);
+            assertSame(comp, Compressors.findCompression(compressed, 0, compressed.length));
+            assertSame(comp, Compressors.findCompression(ByteContainer.simple(compressed)));
+            Assert.assertArrayEquals(data, Compressors.uncompress(ByteContainer.simple(compressed),
+                    comp, data.length).asBytes());
+            Assert.assertArrayEquals(data, Compressors.uncompress(ByteContainer.simple(compressed),
+                    comp, 0).asBytes());
+            Assert.assertArrayEquals(data, _readAll(Compressors.uncompressingStream(
+                    new ByteArrayInputStream(compressed), comp)));
+
+            // and streaming compression as well
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = Compressors.compressingStream(bytes, comp);
+            out.write(data);
+            out.close();
+            Assert.assertArrayEquals(data, codec.uncompress(bytes.toByteArray(), 0, bytes.size(), 0));
+        }
+    }
+
+    public void testCustomCodec() throws Exception
+    {
+        // Compression methods are a closed set (indexes are stored); but implementations can be replaced
+        assertSame(Compression.DEFLATE, Compression.valueOf("DEFLATE"));
+        assertEquals(4, Compression.maxIndex());
+        assertNull(Compression.forIndex(100, false));
+        try {
+            Compression.forIndex(100, true);
+            fail("Should not accept unknown index");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Unrecognized compression value");
+        }
+        final Compression comp = Compression.DEFLATE;
+        final CompressionCodec std = Compressors.findCodec(comp);
+        assertSame(std, Compressors.registerCodec(new ReversingCodec(comp)));
+        try {
+            byte[] data = "abcdef".getBytes("UTF-8");
+            byte[] compressed = Compressors.compress(data, 0, data.length, comp);
+            assertEquals("#REVfedcba", new String(compressed, "UTF-8"));
+            assertSame(comp, Compressors.findCompression(compressed, 0, compressed.length));
+            Assert.assertArrayEquals(data, Compressors.uncompress(ByteContainer.simple(compressed),
+                    comp, 0).asBytes());
+        } finally {
+            Compressors.registerCodec(std);
+        }
+        assertSame(std, Compressors.codecFor(comp));
+    }
+
+    public void testCompressIntoBuffer() throws Exception
+    {
+        for (Compression comp : new Compression[] { Compression.LZF, Compression.GZIP, Compression.LZ4 }) {
+            final CompressionCodec codec = Compressors.codecFor(comp);
+            for (int len : new int[] { 0, 100, 20000, 150000 }) {
+                final byte[] data = biggerCompressibleData(len).getBytes("UTF-8");
+                byte[] output = new byte[3 + codec.maxCompressedLength(data.length)];
+                int compLen = Compressors.compress(data, 0, data.length, comp, output, 3);
+                byte[] exp = codec.compress(data, 0, data.length);
+                Assert.assertArrayEquals(exp, Arrays.copyOfRange(output, 3, 3 + compLen));
+
+                byte[] result = new byte[data.length + 2];
+                assertEquals(data.length, Compressors.uncompress(output, 3, compLen, comp,
+                        result, 2, data.length));
+                Assert.assertArrayEquals(data, Arrays.copyOfRange(result, 2, result.length));
+                result = new byte[data.length];
+                assertEquals(data.length, codec.uncompress(output, 3, compLen, result, 0, data.length));
+                Assert.assertArrayEquals(data, result);
+                if (data.length > 0) {
+                    try {
+                        codec.uncompress(output, 3, compLen, result, 1, data.length - 1);
+                        fail("Should not pass");
+                    } catch (IOException e) {
+                        verifyException(e, "Corrupt");
+                    }
+                }
+            }
+            try {
+                codec.compress(new byte[1000], 0, 1000, new byte[10], 0);
+                fail("Should not pass");
+            } catch (IllegalArgumentException e) {
+                verifyException(e, "Output buffer too small");
+            }
+        }
+    }
+
+    public void testGZIPCompatibility() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(50000).getBytes("UTF-8");
+        // content written by JDK, in two members
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final int half = data.length / 2;
+        for (int i = 0; i < 2; ++i) {
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(data, i * half, (i == 0) ? half : (data.length - half));
+            out.finish();
+        }
+        byte[] jdk = bytes.toByteArray();
+        byte[] named = Arrays.copyOf(jdk, jdk.length + 4);
+        // also with file name in header: add FNAME flag, and 3-letter name
+        named[3] = 0x08;
+        System.arraycopy(jdk, 10, named, 14, jdk.length - 10);
+        named[10] = 'a'; named[11] = 'b'; named[12] = 'c'; named[13] = 0;
+
+        final GZIPCodec codec = GZIPCodec.instance;
+        Assert.assertArrayEquals(data, codec.uncompress(jdk, 0, jdk.length, data.length));
+        Assert.assertArrayEquals(data, codec.uncompress(jdk, 0, jdk.length, 0));
+        Assert.assertArrayEquals(data, codec.uncompress(named, 0, named.length, 0));
+
+        // and JDK must be able to read what we write
+        byte[] ours = codec.compress(data, 0, data.length);
+        Assert.assertArrayEquals(data, _readAll(new GZIPInputStream(new ByteArrayInputStream(ours))));
+
+        // corrupt CRC should be caught
+        ours[ours.length - 6] ^= 1;
+        try {
+            codec.uncompress(ours, 0, ours.length, data.length);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "CRC mismatch");
+        }
+    }
+
+    public void testGZIPLevels() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(50000).getBytes("UTF-8");
+        assertSame(GZIPCodec.instance, GZIPCodec.forLevel(Deflater.DEFAULT_COMPRESSION));
+        GZIPCodec fast = GZIPCodec.forLevel(Deflater.BEST_SPEED);
+        GZIPCodec best = GZIPCodec.forLevel(Deflater.BEST_COMPRESSION);
+        assertEquals(Deflater.BEST_SPEED, fast.getLevel());
+        byte[] fastComp = fast.compress(data, 0, data.length);
+        byte[] bestComp = best.compress(data, 0, data.length);
+        assertTrue(bestComp.length < fastComp.length);
+        Assert.assertArrayEquals(data, GZIPCodec.instance.uncompress(fastComp, 0, fastComp.length, 0));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = best.compressingStream(bytes);
+        out.write(data);
+        out.close();
+        Assert.assertArrayEquals(bestComp, bytes.toByteArray());
+        try {
+            GZIPCodec.forLevel(11);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Invalid compression level");
+        }
+    }
+
+    public void testZlibPool() throws Exception
+    {
+        ZlibPool pool = new ZlibPool(Deflater.BEST_SPEED, 2);
+        Deflater d1 = pool.borrowDeflater();
+        Deflater d2 = pool.borrowDeflater();
+        Deflater d3 = pool.borrowDeflater();
+        assertEquals(3L, pool.getDeflatersCreated());
+        pool.release(d1);
+        pool.release(d2);
+        pool.release(d3); // will be dropped
+        Deflater d = pool.borrowDeflater();
+        assertTrue(d == d1 || d == d2);
+        pool.release(d);
+        assertEquals(3L, pool.getDeflatersCreated());
+
+        // and reuse via codec should not create more
+        GZIPCodec codec = new GZIPCodec(pool);
+        final byte[] data = biggerCompressibleData(5000).getBytes("UTF-8");
+        for (int i = 0; i < 10; ++i) {
+            byte[] comp = codec.compress(data, 0, data.length);
+            Assert.assertArrayEquals(data, codec.uncompress(comp, 0, comp.length, data.length));
+        }
+        assertEquals(3L, pool.getDeflatersCreated());
+        assertEquals(1L, pool.getInflatersCreated());
+    }
+
+    public void testCompressibility() throws Exception
+    {
+        byte[] data = new byte[8192];
+        assertEquals(0.0, Compressibility.entropyBitsPerByte(data, 0, data.length), 0.0001);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        assertEquals(8.0, Compressibility.entropyBitsPerByte(data, 0, data.length), 0.0001);
+        assertTrue(Compressibility.looksIncompressible(data, 0, data.length));
+        // two values, evenly distributed: 1 bit
+        assertEquals(1.0, Compressibility.entropyBitsPerByte(data, 0, 2), 0.0001);
+
+        byte[] text = biggerCompressibleData(8000).getBytes("UTF-8");
+        assertFalse(Compressibility.looksIncompressible(text, 0, text.length));
+        byte[] gzipped = Compressors.gzipCompress(text);
+        assertTrue(Compressibility.looksIncompressible(gzipped, 0, gzipped.length));
+    }
+
+    /*
+    /**********************************************************************
+    /* Deflate, dictionaries
+    /**********************************************************************
+     */
+
+    public void testDeflateCompatibility() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(20000).getBytes("UTF-8");
+        final DeflateCodec codec = DeflateCodec.instance;
+
+        // JDK should read what we write
+        byte[] comp = codec.compress(data, 0, data.length);
+        assertFalse(DeflateCodec.usesDictionary(comp, 0, comp.length));
+        Inflater inf = new Inflater();
+        inf.setInput(comp);
+        byte[] result = new byte[data.length];
+        assertEquals(data.length, inf.inflate(result));
+        assertTrue(inf.finished());
+        inf.end();
+        Assert.assertArrayEquals(data, result);
+
+        // and vice versa, for all levels
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; ++level) {
+            Deflater def = new Deflater(level);
+            def.setInput(data);
+            def.finish();
+            byte[] buffer = new byte[data.length + 100];
+            int len = def.deflate(buffer);
+            def.end();
+            assertSame(Compression.DEFLATE, Compressors.findCompression(buffer, 0, len));
+            Assert.assertArrayEquals(data, codec.uncompress(buffer, 0, len, 0));
+        }
+
+        // corrupt checksum must be caught
+        comp[comp.length-1] ^= 1;
+        try {
+            codec.uncompress(comp, 0, comp.length, data.length);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "checksum mismatch");
+        }
+        // and text that starts with 'x' not mistaken as compressed
+        byte[] text = "x = 3; x} ".getBytes("UTF-8");
+        assertNull(Compressors.findCompression(text, 0, text.length));
+        assertNull(Compressors.findCompression(text, 6, 4));
+    }
+
+    public void testDictionaryTraining() throws Exception
+    {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i = 0; i < 200; ++i) {
+            samples.add(smallJsonDoc(i));
+        }
+        DictionaryTrainer trainer = new DictionaryTrainer(4096, 64);
+        CompressionDictionary dict = trainer.train(3, samples);
+        assertNotNull(dict);
+        assertEquals(3, dict.getId());
+        assertTrue(dict.getLength() > 0 && dict.getLength() <= 4096);
+
+        // should help a lot with small documents not included in samples
+        final DeflateCodec codec = DeflateCodec.instance;
+        long plainTotal = 0L, dictTotal = 0L;
+        for (int i = 1000; i < 1100; ++i) {
+            byte[] doc = smallJsonDoc(i);
+            byte[] plain = codec.compress(doc, 0, doc.length);
+            byte[] comp = codec.compress(doc, 0, doc.length, dict);
+            assertTrue(DeflateCodec.usesDictionary(comp, 0, comp.length));
+            assertSame(Compression.DEFLATE, Compressors.findCompression(comp, 0, comp.length));
+            Assert.assertArrayEquals(doc, codec.uncompress(comp, 0, comp.length, dict, doc.length));
+            Assert.assertArrayEquals(doc, codec.uncompress(comp, 0, comp.length, dict, 0));
+            plainTotal += plain.length;
+            dictTotal += comp.length;
+        }
+        assertTrue("Dictionary compressed "+dictTotal+" vs "+plainTotal, dictTotal * 2 < plainTotal);
+
+        // which JDK can also read, given dictionary
+        byte[] doc = smallJsonDoc(5000);
+        byte[] comp = codec.compress(doc, 0, doc.length, dict);
+        Inflater inf = new Inflater();
+        inf.setInput(comp);
+        byte[] result = new byte[doc.length];
+        assertEquals(0, inf.inflate(result));
+        assertTrue(inf.needsDictionary());
+        assertEquals(dict.getChecksum(), inf.getAdler());
+        inf.setDictionary(dict.getContents());
+        assertEquals(doc.length, inf.inflate(result));
+        inf.end();
+        Assert.assertArrayEquals(doc, result);
+
+        // but we can not do without the dictionary, or with another one
+        try {
+            codec.uncompress(comp, 0, comp.length, doc.length);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "compressed using preset dictionary");
+        }
+        try {
+            codec.uncompress(comp, 0, comp.length, new CompressionDictionary(4, "abcdefgh".getBytes("UTF-8")), 0);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "given dictionary 4");
+        }
+        try {
+            _readAll(codec.uncompressingStream(new ByteArrayInputStream(comp)));
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "preset dictionary");
+        }
+
+        // and nothing to train from random data
+        samples.clear();
+        samples.add(biggerRandomData(5000).getBytes("UTF-8"));
+        assertNull(trainer.train(1, samples));
+        samples.clear();
+        assertNull(trainer.train(1, samples));
+    }
+
+    /*
+    /**********************************************************************
+    /* LZ4
+    /**********************************************************************
+     */
+
+    public void testLZ4RoundTrip() throws Exception
+    {
+        final LZ4Codec codec = LZ4Codec.instance;
+        for (int len : new int[] { 0, 1, 12, 13, 100, 65535, 65536, 65537, 300000 }) {
+            byte[] random = biggerRandomData(len).getBytes("UTF-8");
+            byte[] text = biggerCompressibleData(len).getBytes("UTF-8");
+            byte[] repeated = new byte[len];
+            Arrays.fill(repeated, (byte) 'a');
+
+            for (byte[] data : new byte[][] { random, text, repeated }) {
+                byte[] comp = codec.compress(data, 0, data.length);
+                Assert.assertArrayEquals(data, codec.uncompress(comp, 0, comp.length, data.length));
+                Assert.assertArrayEquals(data, codec.uncompress(comp, 0, comp.length, 0));
+                Assert.assertArrayEquals(data, _readAll(codec.uncompressingStream(
+                        new ByteArrayInputStream(comp))));
+
+                // stream in uneven chunks
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                OutputStream out = codec.compressingStream(bytes);
+                for (int i = 0; i < data.length; ) {
+                    int count = Math.min(data.length - i, 1 + (i % 7919));
+                    if (count == 1) {
+                        out.write(data[i]);
+                    } else {
+                        out.write(data, i, count);
+                    }
+                    i += count;
+                    if ((i % 3) == 0) {
+                        out.flush();
+                    }
+                }
+                out.close();
+                byte[] streamed = bytes.toByteArray();
+                Assert.assertArrayEquals(data, codec.uncompress(streamed, 0, streamed.length, 0));
+                Assert.assertArrayEquals(data, _readAll(codec.uncompressingStream(
+                        new ByteArrayInputStream(streamed))));
+            }
+            if (len >= 65536) { // long runs should compress to much less than 1%
+                assertTrue(codec.compress(repeated, 0, len).length < len / 100);
+            }
+        }
+    }
+
+    public void testLZ4Compatibility() throws Exception
+    {
+        final LZ4Codec codec = LZ4Codec.instance;
+        // empty frame written by reference implementation: has content checksum
+        byte[] empty = new byte[] { 0x04, 0x22, 0x4D, 0x18, 0x64, 0x40, (byte) 0xA7,
+                0, 0, 0, 0, 0x05, 0x5D, (byte) 0xCC, 0x02 };
+        assertSame(Compression.LZ4, Compressors.findCompression(empty, 0, empty.length));
+        assertEquals(0, codec.uncompress(empty, 0, empty.length, 0).length);
+        assertEquals(-1, codec.uncompressingStream(new ByteArrayInputStream(empty)).read());
+
+        // concatenated frames, with skippable frame in between
+        byte[] first = codec.compress(ByteContainer.simple("first,".getBytes("UTF-8")));
+        byte[] second = codec.compress(ByteContainer.simple("second".getBytes("UTF-8")));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(first);
+        bytes.write(new byte[] { 0x50, 0x2A, 0x4D, 0x18, 2, 0, 0, 0, 1, 2 });
+        bytes.write(second);
+        byte[] all = bytes.toByteArray();
+        assertEquals("first,second", new String(codec.uncompress(all, 0, all.length, 0), "UTF-8"));
+        assertEquals("first,second", new String(_readAll(codec.uncompressingStream(
+                new ByteArrayInputStream(all))), "UTF-8"));
+    }
+
+    public void testLZ4FromBuffer() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(100000).getBytes("UTF-8");
+        byte[] compressed = LZ4Codec.instance.compress(data, 0, data.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+        direct.put(compressed);
+        direct.flip();
+        ByteContainer c = ByteContainer.forBuffer(direct);
+        assertSame(Compression.LZ4, Compressors.findCompression(c));
+        Assert.assertArrayEquals(data, Compressors.uncompress(c, Compression.LZ4, data.length).asBytes());
+    }
+
+    public void testLZ4Corrupt() throws Exception
+    {
+        final LZ4Codec codec = LZ4Codec.instance;
+        final byte[] data = biggerCompressibleData(5000).getBytes("UTF-8");
+        final byte[] comp = codec.compress(data, 0, data.length);
+
+        // wrong expected length
+        try {
+            codec.uncompress(comp, 0, comp.length, data.length + 1);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Corrupt LZ4");
+        }
+        // broken header
+        byte[] broken = Arrays.copyOf(comp, comp.length);
+        ++broken[5];
+        try {
+            codec.uncompress(broken, 0, broken.length, 0);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Corrupt LZ4");
+        }
+        // truncated
+        try {
+            codec.uncompress(comp, 0, comp.length - 10, 0);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "Corrupt LZ4");
+        }
+        try {
+            _readAll(codec.uncompressingStream(new ByteArrayInputStream(comp, 0, comp.length - 10)));
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "end of LZ4");
+        }
+        // and random changes within blocks must not cause anything but IOException
+        for (int i = 20; i < comp.length - 4; i += 7) {
+            broken = Arrays.copyOf(comp, comp.length);
+            broken[i] ^= 0x5A;
+            try {
+                codec.uncompress(broken, 0, broken.length, 0);
+            } catch (IOException e) {
+                verifyException(e, "Corrupt LZ4");
+            }
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods, classes
+    /**********************************************************************
+     */
+
+    private byte[] _readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Trivial "compression" that just reverses content, prefixed by "#REV"
+     */
+    static class ReversingCodec extends CompressionCodec
+    {
+        private final static byte[] SIGNATURE = new byte[] { '#', 'R', 'E', 'V' };
+
+        public ReversingCodec(Compression comp) {
+            super(comp);
+        }
+
+        @Override
+        public int signatureLength() { return 4; }
+
+        @Override
+        public boolean hasSignature(byte[] data, int offset, int len) {
+            return (data[offset] == '#') && (data[offset+1] == 'R')
+                    && (data[offset+2] == 'E') && (data[offset+3] == 'V');
+        }
+
+        @Override
+        public byte[] compress(byte[] data, int offset, int len) {
+            byte[] result = new byte[len+4];
+            System.arraycopy(SIGNATURE, 0, result, 0, 4);
+            for (int i = 0; i < len; ++i) {
+                result[len + 3 - i] = data[offset+i];
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] uncompress(byte[] data, int offset, int len, int expSize) {
+            byte[] result = new byte[len-4];
+            for (int i = 0; i < result.length; ++i) {
+                result[result.length - 1 - i] = data[offset+4+i];
+            }
+            return result;
+        }
+
+        @Override
+        public OutputStream compressingStream(OutputStream out) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream uncompressingStream(InputStream in) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
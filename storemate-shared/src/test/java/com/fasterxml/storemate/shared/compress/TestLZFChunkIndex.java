@@ -0,0 +1,153 @@
+package com.fasterxml.storemate.shared.compress;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.SharedTestBase;
+import com.ning.compress.lzf.LZFChunk;
+import com.ning.compress.lzf.LZFOutputStream;
+
+public class TestLZFChunkIndex extends SharedTestBase
+{
+    public void testBuildAndFind() throws Exception
+    {
+        final byte[] data = _data(300000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LZFChunkIndex.Builder builder = new LZFChunkIndex.Builder(bytes);
+        OutputStream out = new LZFOutputStream(builder);
+        // write in odd-sized pieces, so headers get split
+        for (int offset = 0; offset < data.length; offset += 777) {
+            out.write(data, offset, Math.min(777, data.length - offset));
+        }
+        out.close();
+        final byte[] lzf = bytes.toByteArray();
+        // and content itself must not be changed
+        Assert.assertArrayEquals(data, Compressors.uncompress(ByteContainer.simple(lzf),
+                Compression.LZF, data.length).asBytes());
+
+        LZFChunkIndex index = builder.build();
+        assertNotNull(index);
+        final int chunks = (data.length + LZFChunk.MAX_CHUNK_LEN - 1) / LZFChunk.MAX_CHUNK_LEN;
+        assertEquals(chunks, index.getChunkCount());
+        assertEquals(data.length, index.getUncompressedLength());
+        assertEquals(lzf.length, index.getFileLength());
+        for (int i = 0; i < chunks; ++i) {
+            // each chunk must start with a chunk header
+            int fileOffset = (int) index.getFileOffset(i);
+            assertEquals(LZFChunk.BYTE_Z, lzf[fileOffset]);
+            assertEquals(LZFChunk.BYTE_V, lzf[fileOffset+1]);
+        }
+
+        assertEquals(0, index.findChunk(0L));
+        assertEquals(0, index.findChunk(LZFChunk.MAX_CHUNK_LEN - 1));
+        assertEquals(1, index.findChunk(LZFChunk.MAX_CHUNK_LEN));
+        assertEquals(chunks-1, index.findChunk(data.length - 1));
+        assertEquals(chunks, index.findChunk(data.length));
+        try {
+            index.findChunk(-1L);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "can not be negative");
+        }
+
+        // serialization should round-trip
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        index.writeTo(indexBytes);
+        assertEquals(9 + 6 * chunks, indexBytes.size());
+        LZFChunkIndex index2 = LZFChunkIndex.readFrom(new ByteArrayInputStream(indexBytes.toByteArray()));
+        assertEquals(index.getChunkCount(), index2.getChunkCount());
+        for (int i = 0; i <= chunks; ++i) {
+            assertEquals(index.getFileOffset(i), index2.getFileOffset(i));
+            assertEquals(index.getUncompressedOffset(i), index2.getUncompressedOffset(i));
+        }
+        try {
+            LZFChunkIndex.readFrom(new ByteArrayInputStream(lzf));
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "unrecognized signature");
+        }
+
+        // and corrupt chunk count must not be trusted
+        byte[] corrupt = indexBytes.toByteArray();
+        corrupt[5] = (byte) 0x7F;
+        try {
+            LZFChunkIndex.readFrom(new ByteArrayInputStream(corrupt), corrupt.length);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "does not match index length");
+        }
+        try {
+            LZFChunkIndex.readFrom(new ByteArrayInputStream(corrupt));
+            fail("Should not pass");
+        } catch (EOFException e) { }
+        index2 = LZFChunkIndex.readFrom(new ByteArrayInputStream(indexBytes.toByteArray()), indexBytes.size());
+        assertEquals(index.getChunkCount(), index2.getChunkCount());
+    }
+
+    public void testOpenAt() throws Exception
+    {
+        final byte[] data = _data(200000);
+        File file = File.createTempFile("storemate-lzf", ".L");
+        try {
+            LZFChunkIndex.Builder builder = new LZFChunkIndex.Builder(new FileOutputStream(file));
+            OutputStream out = new LZFOutputStream(builder);
+            out.write(data);
+            out.close();
+            LZFChunkIndex index = builder.build();
+
+            for (int offset : new int[] { 0, 1, 65534, 65535, 65536, 150000, data.length - 1 }) {
+                InputStream in = index.openAt(file, offset);
+                byte[] actual = _readAll(in);
+                in.close();
+                Assert.assertArrayEquals("Content from offset "+offset,
+                        Arrays.copyOfRange(data, offset, data.length), actual);
+            }
+            InputStream in = index.openAt(file, data.length);
+            assertEquals(-1, in.read());
+            in.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testInvalidContent() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LZFChunkIndex.Builder builder = new LZFChunkIndex.Builder(bytes);
+        byte[] data = _data(1000);
+        builder.write(data);
+        builder.close();
+        // content written as is, but no index
+        Assert.assertArrayEquals(data, bytes.toByteArray());
+        assertNull(builder.build());
+
+        // and same for truncated content
+        builder = new LZFChunkIndex.Builder(new ByteArrayOutputStream());
+        byte[] lzf = Compressors.lzfCompress(_data(100000));
+        builder.write(lzf, 0, lzf.length - 1);
+        assertNull(builder.build());
+    }
+
+    private byte[] _data(int length) throws IOException
+    {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) ('a' + ((i * 7) % 23) + (i / 1000) % 3);
+        }
+        return data;
+    }
+
+    private byte[] _readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4000];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
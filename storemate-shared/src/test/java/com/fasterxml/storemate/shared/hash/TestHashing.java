@@ -125,4 +125,17 @@ public class TestHashing extends SharedTestBase
 	    // also, should work via Checksum
          assertEquals(exp, hasher.getValue());
     }
+
+    // Reference values from the xxHash distribution
+    public void testXXHash32() throws Exception
+    {
+        BlockXXHash32Hasher h = BlockXXHash32Hasher.instance;
+        assertEquals(0x02CC5D05, h.hash(new byte[0]));
+        assertEquals(0x550D7456, h.hash("a".getBytes("UTF-8")));
+        assertEquals(0x32D153FF, h.hash("abc".getBytes("UTF-8")));
+        assertEquals(0xE2293B2F, h.hash("Nobody inspects the spammish repetition".getBytes("UTF-8")));
+        // and offsets must work as well
+        byte[] padded = "xxabcxx".getBytes("UTF-8");
+        assertEquals(0x32D153FF, h.hash(padded, 2, 3));
+    }
 }
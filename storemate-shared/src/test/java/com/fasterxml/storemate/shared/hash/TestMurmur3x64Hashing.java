@@ -0,0 +1,99 @@
+package com.fasterxml.storemate.shared.hash;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.SharedTestBase;
+import com.fasterxml.storemate.shared.util.ByteUtil;
+
+public class TestMurmur3x64Hashing extends SharedTestBase
+{
+    /**
+     * Test to verify that values match those of reference implementation
+     */
+    public void testKnownValues() throws Exception
+    {
+        _verifyKnown(0, 0L, 0L, "");
+        _verifyKnown(0, 0x629942693e10f867L, 0x92db0b82baeb5347L, "hell");
+        _verifyKnown(1, 0xa78ddff5adae8d10L, 0x128900ef20900135L, "hello");
+        _verifyKnown(2, 0x8a486b23f422e826L, 0xf962a2c58947765fL, "hello ");
+        _verifyKnown(3, 0x2ea59f466f6bed8cL, 0xc610990acc428a17L, "hello w");
+        _verifyKnown(4, 0x79f6305a386c572cL, 0x46305aed3483b94eL, "hello wo");
+        _verifyKnown(5, 0xc2219d213ec1f1b5L, 0xa1d8e2e0a52785bdL, "hello wor");
+        _verifyKnown(0, 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L,
+                "The quick brown fox jumps over the lazy dog");
+    }
+
+    public void testIncremental() throws Exception
+    {
+        final byte[] data = biggerRandomData(3001).getBytes("UTF-8");
+        for (int len : new int[] { 0, 1, 8, 15, 16, 17, 31, 100, data.length }) {
+            byte[] exp = BlockMurmur3x64Hasher.instance.hash128(7, data, 0, len);
+            assertEquals(BlockHasher128.HASH_LENGTH_128, exp.length);
+
+            IncrementalMurmur3x64Hasher hasher = new IncrementalMurmur3x64Hasher(7);
+            Random rnd = new Random(len);
+            for (int i = 0; i < len; ) {
+                int amount = Math.min(1 + rnd.nextInt(37), len - i);
+                hasher.update(data, i, amount);
+                i += amount;
+                // should not change state
+                hasher.calculateHash128();
+            }
+            assertEquals(len, (int) hasher.getLength());
+            Assert.assertArrayEquals(exp, hasher.calculateHash128());
+            assertEquals(BlockMurmur3x64Hasher.instance.hash64(7, data, 0, len), hasher.calculateHash64());
+            assertEquals(BlockMurmur3x64Hasher.instance.hash(7, data, 0, len), hasher.calculateHash());
+            assertEquals(ByteUtil.getLongLE(exp, 0) ^ ByteUtil.getLongLE(exp, 8), hasher.calculateHash64());
+            assertEquals((int) ByteUtil.getLongLE(exp, 0), hasher.calculateHash());
+
+            hasher.reset();
+            for (int i = 0; i < len; ++i) {
+                hasher.update(data[i]);
+            }
+            Assert.assertArrayEquals(exp, hasher.calculateHash128());
+        }
+    }
+
+    public void testWithContainers() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(1000).getBytes("UTF-8");
+        byte[] exp = BlockMurmur3x64Hasher.instance.hash128(data);
+        Assert.assertArrayEquals(exp, ByteContainer.simple(data).hash128(BlockMurmur3x64Hasher.instance, 0));
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 3);
+        direct.position(3);
+        direct.put(data);
+        direct.position(3);
+        ByteContainer c = ByteContainer.forBuffer(direct);
+        Assert.assertArrayEquals(exp, c.hash128(BlockMurmur3x64Hasher.instance, 0));
+        Assert.assertArrayEquals(BlockMurmur3x64Hasher.instance.hash128(0, data, 10, 99),
+                c.view(10, 99).hash128(BlockMurmur3x64Hasher.instance, 0));
+        assertEquals(BlockMurmur3x64Hasher.instance.hash(data),
+                c.hash(BlockMurmur3x64Hasher.instance, 0));
+    }
+
+    private void _verifyKnown(int seed, long h1, long h2, String input) throws Exception
+    {
+        byte[] data = input.getBytes("UTF-8");
+        byte[] exp = new byte[16];
+        for (int i = 0; i < 8; ++i) {
+            exp[i] = (byte) (h1 >>> (8 * i));
+            exp[i+8] = (byte) (h2 >>> (8 * i));
+        }
+        Assert.assertArrayEquals(exp, BlockMurmur3x64Hasher.instance.hash128(seed, data, 0, data.length));
+        assertEquals(h1 ^ h2, BlockMurmur3x64Hasher.instance.hash64(seed, data, 0, data.length));
+        assertEquals((int) h1, BlockMurmur3x64Hasher.instance.hash(seed, data, 0, data.length));
+        long[] result = new long[2];
+        BlockMurmur3x64Hasher.instance.hash128(seed, data, 0, data.length, result);
+        assertEquals(h1, result[0]);
+        assertEquals(h2, result[1]);
+        IncrementalMurmur3x64Hasher hasher = new IncrementalMurmur3x64Hasher(seed);
+        hasher.update(data, 0, data.length);
+        Assert.assertArrayEquals(exp, hasher.calculateHash128());
+        assertEquals(h1 ^ h2, hasher.calculateHash64());
+        assertEquals((int) h1, hasher.calculateHash());
+    }
+}
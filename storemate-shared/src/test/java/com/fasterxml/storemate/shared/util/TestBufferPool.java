@@ -0,0 +1,102 @@
+package com.fasterxml.storemate.shared.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.fasterxml.storemate.shared.SharedTestBase;
+
+public class TestBufferPool extends SharedTestBase
+{
+    public void testSizeClasses()
+    {
+        BufferPool pool = new BufferPool(1000, 20000, 1000000L);
+        assertEquals(32768, pool.getMaxBufferSize());
+        assertEquals(1024, pool.borrow(1).length);
+        assertEquals(1024, pool.borrow(1024).length);
+        assertEquals(2048, pool.borrow(1025).length);
+        assertEquals(32768, pool.borrow(32768).length);
+        // bigger ones allocated as requested
+        assertEquals(32769, pool.borrow(32769).length);
+        assertEquals(5, pool.getBorrowCount());
+        assertEquals(1, pool.getOversizedCount());
+        assertEquals(5, pool.getExhaustedCount());
+        assertEquals(1024 + 1024 + 2048 + 32768 + 32769, pool.getOutstandingBytes());
+    }
+
+    public void testRecycling()
+    {
+        BufferPool pool = new BufferPool(1024, 8192, 1000000L);
+        byte[] b1 = pool.borrow(3000);
+        byte[] b2 = pool.borrow(3000);
+        assertNotSame(b1, b2);
+        pool.release(b1);
+        assertEquals(4096, pool.getPooledBytes());
+        assertEquals(4096, pool.getOutstandingBytes());
+        assertSame(b1, pool.borrow(4000));
+        // different size class, not reused
+        assertNotSame(b2, pool.borrow(5000));
+        pool.release(b2);
+        assertSame(b2, pool.borrow(2049));
+        assertEquals(2, pool.getPoolHitCount());
+        assertEquals(0, pool.getPooledBytes());
+
+        // non-pooled sizes are just dropped
+        pool.release(new byte[3000]);
+        pool.release(pool.borrow(10000));
+        assertEquals(2, pool.getDiscardCount());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    public void testMemoryCap()
+    {
+        BufferPool pool = new BufferPool(1024, 8192, 10000L);
+        List<byte[]> buffers = new ArrayList<byte[]>();
+        for (int i = 0; i < 5; ++i) {
+            buffers.add(pool.borrow(4096));
+        }
+        for (byte[] b : buffers) {
+            pool.release(b);
+        }
+        // only two fit within the cap
+        assertEquals(8192, pool.getPooledBytes());
+        assertEquals(3, pool.getDiscardCount());
+        assertEquals(0, pool.getOutstandingBytes());
+    }
+
+    public void testConcurrentUse() throws Exception
+    {
+        final BufferPool pool = new BufferPool(1024, 65536, 200000L);
+        final int THREADS = 8;
+        ExecutorService exec = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int t = 0; t < THREADS; ++t) {
+            final int seed = t;
+            results.add(exec.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Random rnd = new Random(seed);
+                    for (int i = 0; i < 5000; ++i) {
+                        byte[] b = pool.borrow(1 + rnd.nextInt(70000));
+                        // verify no one else is using it
+                        b[0] = (byte) seed;
+                        Thread.yield();
+                        if (b[0] != (byte) seed) {
+                            throw new IllegalStateException("Buffer shared between threads");
+                        }
+                        pool.release(b);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : results) {
+            f.get();
+        }
+        exec.shutdown();
+        assertEquals(0, pool.getOutstandingBytes());
+        assertTrue(pool.getPooledBytes() <= pool.getMaxPooledBytes());
+        assertEquals(THREADS * 5000, pool.getBorrowCount());
+        assertEquals(THREADS * 5000, pool.getReturnCount());
+        assertTrue(pool.getPoolHitCount() > 0);
+    }
+}
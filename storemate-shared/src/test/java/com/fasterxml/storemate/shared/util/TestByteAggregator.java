@@ -1,9 +1,15 @@
 package com.fasterxml.storemate.shared.util;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
+import org.junit.Assert;
+
+import com.fasterxml.storemate.shared.ByteContainer;
 import com.fasterxml.storemate.shared.SharedTestBase;
 import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
+import com.fasterxml.storemate.shared.hash.BlockMurmur3x64Hasher;
 import com.fasterxml.storemate.shared.hash.IncrementalMurmur3Hasher;
 
 public class TestByteAggregator extends SharedTestBase
@@ -94,4 +100,70 @@ public class TestByteAggregator extends SharedTestBase
             assertEquals((byte) i, output[i]);
         }
     }
+
+    public void testSegmentedAccess() throws Exception
+    {
+        final byte[] data = biggerRandomData(700 * 1000).getBytes("UTF-8");
+        ByteAggregator aggr = new ByteAggregator();
+        aggr.write(data);
+
+        ByteContainer c = aggr.asByteContainer();
+        assertEquals(data.length, c.byteLength());
+        Assert.assertArrayEquals(data, c.asBytes());
+        assertEquals(data[data.length-1], c.get(data.length-1));
+        // hashes must match, without needing to copy contents
+        assertEquals(BlockMurmur3Hasher.instance.hash(0, data, 0, data.length),
+                c.hash(BlockMurmur3Hasher.instance, 0));
+        Assert.assertArrayEquals(BlockMurmur3x64Hasher.instance.hash128(data),
+                c.hash128(BlockMurmur3x64Hasher.instance, 0));
+
+        // as well as views that span segments
+        final int from = 3000, len = 300 * 1000;
+        ByteContainer view = c.view(from, len);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, from, from+len), view.asBytes());
+        assertEquals(BlockMurmur3Hasher.instance.hash(0, data, from, len),
+                view.hash(BlockMurmur3Hasher.instance, 0));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        c.writeBytes(bytes, from, len);
+        Assert.assertArrayEquals(view.asBytes(), bytes.toByteArray());
+        assertEquals(data[from + 100], view.view(100, 10).get(0));
+
+        aggr.release();
+    }
+
+    public void testGatheringWrite() throws Exception
+    {
+        final byte[] data = biggerCompressibleData(600 * 1000).getBytes("UTF-8");
+        ByteAggregator aggr = new ByteAggregator();
+        aggr.write(data);
+        File f = File.createTempFile("storemate-aggr", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(f);
+            FileChannel ch = out.getChannel();
+            assertEquals(data.length, aggr.writeTo(ch));
+            // and via container as well
+            aggr.asByteContainer().view(10, 200000).writeBytes(ch);
+            out.close();
+            byte[] read = readFile(f);
+            assertEquals(data.length + 200000, read.length);
+            Assert.assertArrayEquals(data, Arrays.copyOf(read, data.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 10, 200010),
+                    Arrays.copyOfRange(read, data.length, read.length));
+        } finally {
+            f.delete();
+        }
+        aggr.release();
+    }
+
+    public void testSegmentRecycling() throws Exception
+    {
+        final long before = BufferPool.instance.getOutstandingBytes();
+        ByteAggregator aggr = new ByteAggregator();
+        aggr.write(new byte[400 * 1000]);
+        assertTrue(BufferPool.instance.getOutstandingBytes() - before >= 400 * 1000);
+        aggr.resetForReuse();
+        aggr.write(new byte[100]);
+        aggr.release();
+        assertEquals(before, BufferPool.instance.getOutstandingBytes());
+    }
 }
@@ -0,0 +1,73 @@
+package com.fasterxml.storemate.shared.util;
+
+import java.util.Arrays;
+
+import com.fasterxml.storemate.shared.SharedTestBase;
+
+public class TestByteUtil extends SharedTestBase
+{
+    public void testReadsAndWrites()
+    {
+        byte[] buf = new byte[13];
+        ByteUtil.putLongBE(buf, 1, 0x0102030405060708L);
+        ByteUtil.putIntBE(buf, 9, 0x8090A0B0);
+        assertEquals(1, buf[1]);
+        assertEquals(8, buf[8]);
+        assertEquals((byte) 0x80, buf[9]);
+        assertEquals(0x0102030405060708L, ByteUtil.getLongBE(buf, 1));
+        assertEquals(0x0807060504030201L, ByteUtil.getLongLE(buf, 1));
+        assertEquals(0x8090A0B0, ByteUtil.getIntBE(buf, 9));
+        assertEquals(0xB0A09080, ByteUtil.getIntLE(buf, 9));
+    }
+
+    public void testCompare()
+    {
+        byte[] b1 = new byte[] { 0, 1, 2, 3, (byte) 0xF0 };
+        byte[] b2 = new byte[] { 1, 2, 3, 4, 5 };
+        assertTrue(ByteUtil.equals(b1, 1, b2, 0, 3));
+        assertFalse(ByteUtil.equals(b1, 1, b2, 0, 4));
+        assertEquals(0, ByteUtil.compareUnsigned(b1, 1, 3, b2, 0, 3));
+        // prefix sorts first
+        assertEquals(-1, ByteUtil.compareUnsigned(b1, 1, 2, b2, 0, 3));
+        assertEquals(1, ByteUtil.compareUnsigned(b1, 1, 3, b2, 0, 2));
+        // and bytes are unsigned
+        assertEquals(0xF0 - 4, ByteUtil.compareUnsigned(b1, 1, 4, b2, 0, 4));
+        assertEquals(4 - 0xF0, ByteUtil.compareUnsigned(b2, 0, 4, b1, 1, 4));
+    }
+
+    public void testAsciiPrefixLength()
+    {
+        byte[] b = new byte[40];
+        Arrays.fill(b, (byte) 'a');
+        assertEquals(40, ByteUtil.asciiPrefixLength(b, 0, 40));
+        assertEquals(0, ByteUtil.asciiPrefixLength(b, 3, 0));
+        // check every position, to cover both block and tail checks
+        for (int i = 0; i < b.length; ++i) {
+            b[i] = (byte) 0xC3;
+            assertEquals(i, ByteUtil.asciiPrefixLength(b, 0, 40));
+            if (i > 0) {
+                assertEquals(i - 1, ByteUtil.asciiPrefixLength(b, 1, 39));
+            }
+            b[i] = 0x7F;
+        }
+    }
+
+    public void testSWARChecks()
+    {
+        final long base = 0x4141414141414141L; // all 'A's
+        assertFalse(ByteUtil.hasByteLessThan(base, 0x41));
+        assertFalse(ByteUtil.hasByteGreaterThan(base, 0x41));
+        assertFalse(ByteUtil.hasByte(base, '/'));
+        for (int shift = 0; shift < 64; shift += 8) {
+            long mask = ~(0xFFL << shift);
+            assertTrue(ByteUtil.hasByteLessThan((base & mask) | (0x20L << shift), 33));
+            assertFalse(ByteUtil.hasByteLessThan((base & mask) | (0x21L << shift), 33));
+            assertTrue(ByteUtil.hasByteGreaterThan((base & mask) | (0x7FL << shift), 0x7E));
+            assertTrue(ByteUtil.hasByteGreaterThan((base & mask) | (0xE0L << shift), 0x7E));
+            assertFalse(ByteUtil.hasByteGreaterThan((base & mask) | (0x7EL << shift), 0x7E));
+            assertTrue(ByteUtil.hasByte((base & mask) | (0x2FL << shift), '/'));
+            assertFalse(ByteUtil.hasByte((base & mask) | (0x30L << shift), '/'));
+            assertTrue(ByteUtil.hasByte((base & mask) | (0xFFL << shift), 0xFF));
+        }
+    }
+}
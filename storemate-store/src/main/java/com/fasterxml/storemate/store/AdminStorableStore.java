@@ -3,6 +3,10 @@ package com.fasterxml.storemate.store;
 import java.io.IOException;
 import java.util.List;
 
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.util.SlowOperation;
+
 /**
  * Extension of the core {@link StorableStore} API, which adds
  * methods useful for Admin tools, interfaces.
@@ -56,4 +60,57 @@ public abstract class AdminStorableStore extends StorableStore
 
     public abstract int removeEntries(StoreOperationSource source, int maxToRemove)
         throws IOException, StoreException;
+
+    /**
+     * Method for rewriting specified entry using the current entry format
+     * version, if it was stored using an older version. Contents, including
+     * last-modified timestamp, are retained as is.
+     * 
+     * @return Rewritten entry, if entry was migrated; null if there was no
+     *    such entry, or it did not need migration
+     */
+    public abstract Storable migrateEntry(StoreOperationSource source, StorableKey key)
+        throws IOException, StoreException;
+
+    /**
+     * Method for rewriting content of specified entry using given compression
+     * method. Recompressed content (inlined, or a new external file) is
+     * produced first, without holding entry lock; after which entry is
+     * replaced under its partition lock, but only if it has not been modified
+     * in the meantime (concurrent modifications win). All other information,
+     * including last-modified timestamp, is retained as is; and content hash
+     * is verified before rewrite.
+     * Entries that are deleted, have no content, were compressed using a
+     * preset dictionary or would not get smaller are left as is.
+     * 
+     * @return Result of the operation, with both previous and new entry, if
+     *    entry was rewritten or was modified concurrently (in which case
+     *    result is not successful); null if there was no such entry, or it
+     *    was not recompressed
+     */
+    public abstract StorableCreationResult recompressEntry(StoreOperationSource source,
+            StorableKey key, Compression compression)
+        throws IOException, StoreException;
+
+    /**
+     * Method for reconciling reference counts of files shared by entries with
+     * identical content (see {@link com.fasterxml.storemate.store.dedup.ContentDeduplicator})
+     * with entries that actually refer to them, by scanning all entries.
+     * Counts that are too low are fixed right away; counts that are too high only
+     * if the same mismatch was found by the previous call. Shared files not
+     * referred to are deleted.
+     * 
+     * @return Number of fixes made; 0 if counts were consistent (or if
+     *    content index is not used)
+     */
+    public abstract int reconcileSharedFiles(StoreOperationSource source)
+        throws IOException, StoreException;
+
+    /**
+     * Method for accessing slowest operations traced during the last completed
+     * tracing window and the current one, if slow-operation tracing is enabled.
+     * 
+     * @return List of slowest operations; empty if tracing is not enabled
+     */
+    public abstract List<SlowOperation> getSlowestOperations();
 }
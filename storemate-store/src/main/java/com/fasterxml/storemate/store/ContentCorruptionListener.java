@@ -0,0 +1,25 @@
+package com.fasterxml.storemate.store;
+
+/**
+ * Interface for objects that are to be notified when content read using
+ * verification (see {@link StorableContent#withVerification}) does not
+ * match length and hash stored for the entry; typically used for
+ * logging and collecting metrics, and for triggering repair of the entry
+ * (for example, from a replica).
+ *<p>
+ * Note that listener is called by the thread reading content, before
+ * read fails with a {@link StoreException}.
+ */
+public interface ContentCorruptionListener
+{
+    /**
+     * @param content Content that failed verification; contains entry as
+     *    well as expected length ({@link StorableContent#getLength}) and hash
+     *    ({@link StorableContent#getHash})
+     * @param actualLength Length of content read (so far, if content was
+     *    longer than expected)
+     * @param actualHash Hash of content read (so far, if content was longer
+     *    than expected)
+     */
+    public void corruptContentFound(StorableContent content, long actualLength, int actualHash);
+}
@@ -8,6 +8,7 @@ import com.fasterxml.storemate.shared.compress.Compression;
 import com.fasterxml.storemate.shared.util.IOUtil;
 import com.fasterxml.storemate.shared.util.WithBytesCallback;
 import com.fasterxml.storemate.store.file.FileManager;
+import com.fasterxml.storemate.store.impl.StorableConverter;
 import com.fasterxml.storemate.store.impl.StorableFlags;
 
 /**
@@ -53,6 +54,12 @@ public class Storable
      */
     
     protected final int _metadataOffset, _metadataLength;
+
+    /**
+     * Time-to-live, in seconds, if any specified; 0 if none.
+     * Only stored with format version 2 and above.
+     */
+    protected final int _timeToLiveSecs;
     
     /*
     /**********************************************************************
@@ -85,6 +92,18 @@ public class Storable
      * this specifically points to actual payload data
      */
     protected final int _payloadOffset;
+
+    /**
+     * Location of optional extended (64- or 128-bit) content hash;
+     * length of 0 if none. Only stored with format version 2 and above.
+     */
+    protected final int _extHashOffset, _extHashLength;
+
+    /**
+     * Id of preset dictionary used for compressing inlined data, if any;
+     * 0 if none. Only stored with format version 2 and above.
+     */
+    protected final int _dictionaryId;
     
     /*
     /**********************************************************************
@@ -98,6 +117,35 @@ public class Storable
             int contentHash, int compressedHash, long originalLength,
             int metadataOffset, int metadataLength,
             int payloadOffset, long storageLength)
+    {
+        this(key, bytes, lastMod, statusFlags, comp, externalPathLength,
+                contentHash, compressedHash, originalLength,
+                metadataOffset, metadataLength, payloadOffset, storageLength,
+                0, 0, 0);
+    }
+
+    public Storable(StorableKey key, ByteContainer bytes,
+            long lastMod, int statusFlags,
+            Compression comp, int externalPathLength,
+            int contentHash, int compressedHash, long originalLength,
+            int metadataOffset, int metadataLength,
+            int payloadOffset, long storageLength,
+            int extHashOffset, int extHashLength, int timeToLiveSecs)
+    {
+        this(key, bytes, lastMod, statusFlags, comp, externalPathLength,
+                contentHash, compressedHash, originalLength,
+                metadataOffset, metadataLength, payloadOffset, storageLength,
+                extHashOffset, extHashLength, timeToLiveSecs, 0);
+    }
+
+    public Storable(StorableKey key, ByteContainer bytes,
+            long lastMod, int statusFlags,
+            Compression comp, int externalPathLength,
+            int contentHash, int compressedHash, long originalLength,
+            int metadataOffset, int metadataLength,
+            int payloadOffset, long storageLength,
+            int extHashOffset, int extHashLength, int timeToLiveSecs,
+            int dictionaryId)
     {
         _key = key;
         _rawEntry = bytes;
@@ -119,6 +167,11 @@ public class Storable
         _payloadOffset = payloadOffset;
         _storageLength = storageLength;
 
+        _extHashOffset = extHashOffset;
+        _extHashLength = extHashLength;
+        _timeToLiveSecs = timeToLiveSecs;
+        _dictionaryId = dictionaryId;
+
         // Sanity checking
         if (externalPathLength > 0) {
             if ((payloadOffset + externalPathLength) != bytes.byteLength()) {
@@ -156,7 +209,8 @@ public class Storable
                 _contentHash, _compressedHash, _originalLength,
                 _metadataOffset, _metadataLength,
                 payloadOffset,
-                removeData ? 0 : _storageLength);
+                removeData ? 0 : _storageLength,
+                _extHashOffset, _extHashLength, _timeToLiveSecs, _dictionaryId);
     }
     
     /*
@@ -184,6 +238,28 @@ public class Storable
     }
 
     public boolean isDeleted() { return _isDeleted; }
+
+    /**
+     * Accessor for time-to-live (in seconds) specified for the entry, if any;
+     * 0 if none.
+     */
+    public int getTimeToLiveSecs() { return _timeToLiveSecs; }
+
+    /**
+     * Accessor for id of the preset dictionary that was used for compressing
+     * inlined data, if any; 0 if none. Content compressed using a dictionary
+     * can only be uncompressed using the same dictionary (see
+     * {@link StorableStore#findCompressionDictionary}).
+     */
+    public int getDictionaryId() { return _dictionaryId; }
+
+    /**
+     * Accessor for format version marker of the serialized entry (one of
+     * <code>StorableConverter.VERSION_xxx</code> constants).
+     */
+    public byte getFormatVersion() {
+        return _rawEntry.get(StorableConverter.OFFSET_VERSION);
+    }
     
     /**
      * Method to check whether this entry was created (or last updated) by
@@ -239,6 +315,17 @@ public class Storable
         return IOUtil.getLatin1String(_rawEntry.view(_payloadOffset, _externalPathLength));
     }
     
+    /**
+     * Accessor for optional extended (64- or 128-bit) content hash;
+     * returns empty container if entry has none.
+     */
+    public ByteContainer getExtendedContentHash() {
+        if (_extHashLength <= 0) {
+            return ByteContainer.emptyContainer();
+        }
+        return _rawEntry.view(_extHashOffset, _extHashLength);
+    }
+
     public ByteContainer getMetadata() {
         if (_metadataLength <= 0) {
             return ByteContainer.emptyContainer();
@@ -0,0 +1,341 @@
+package com.fasterxml.storemate.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.shared.hash.IncrementalMurmur3Hasher;
+import com.fasterxml.storemate.shared.util.BufferPool;
+import com.fasterxml.storemate.shared.util.ByteBufferInputStream;
+import com.fasterxml.storemate.store.jfr.FileIOEvent;
+import com.fasterxml.storemate.store.jfr.FileReadInputStream;
+import com.fasterxml.storemate.store.util.VerifyingInputStream;
+
+/**
+ * Value class returned from negotiated reads (see
+ * {@link StorableStore#readContent}), to give access to content of an entry
+ * in form that client accepts: either stored bytes as is (possibly compressed,
+ * in which case {@link #getContentEncoding} indicates encoding to use for
+ * response), or decoded (uncompressed) content.
+ *<p>
+ * Stored bytes of external entries can be transferred without copying
+ * via {@link #transferTo(WritableByteChannel)}, which uses
+ * {@link FileChannel#transferTo}.
+ *<p>
+ * Content can optionally be verified as it is read (see {@link #withVerification}),
+ * against length and hash stored for the entry.
+ */
+public class StorableContent
+{
+    protected final static BufferPool _buffers = BufferPool.instance;
+
+    /**
+     * Size of buffers to use for copying decoded content.
+     */
+    protected final static int COPY_BUFFER_SIZE = 64000;
+
+    protected final Storable _entry;
+
+    /**
+     * Encoding of content as served: stored compression for raw content
+     * (which may be {@link Compression#NONE}); and {@link Compression#NONE}
+     * for decoded content.
+     */
+    protected final Compression _contentEncoding;
+
+    /**
+     * Whether stored bytes are served as is, or not.
+     */
+    protected final boolean _raw;
+
+    protected final long _length;
+
+    protected final int _hash;
+
+    /**
+     * Content to serve, for inlined entries.
+     */
+    protected final ByteContainer _inlined;
+
+    /**
+     * File that has content to serve, for external entries.
+     */
+    protected final File _file;
+
+    /**
+     * Compression to decode content of {@link #_file} with, if any.
+     */
+    protected final Compression _fileCompression;
+
+    /**
+     * Whether content is to be verified as it is read.
+     */
+    protected final boolean _verify;
+
+    /**
+     * Listener to notify if verification fails, if any.
+     */
+    protected final ContentCorruptionListener _corruptionListener;
+
+    protected StorableContent(Storable entry, Compression contentEncoding, boolean raw,
+            long length, int hash, ByteContainer inlined, File file, Compression fileCompression)
+    {
+        _entry = entry;
+        _contentEncoding = contentEncoding;
+        _raw = raw;
+        _length = length;
+        _hash = hash;
+        _inlined = inlined;
+        _file = file;
+        _fileCompression = fileCompression;
+        _verify = false;
+        _corruptionListener = null;
+    }
+
+    protected StorableContent(StorableContent base, ContentCorruptionListener listener)
+    {
+        _entry = base._entry;
+        _contentEncoding = base._contentEncoding;
+        _raw = base._raw;
+        _length = base._length;
+        _hash = base._hash;
+        _inlined = base._inlined;
+        _file = base._file;
+        _fileCompression = base._fileCompression;
+        _verify = true;
+        _corruptionListener = listener;
+    }
+
+    /**
+     * Factory method for content of an inlined (or empty) entry.
+     */
+    public static StorableContent forInlined(Storable entry, Compression contentEncoding,
+            boolean raw, int hash, ByteContainer content) {
+        return new StorableContent(entry, contentEncoding, raw, content.byteLength(), hash,
+                content, null, Compression.NONE);
+    }
+
+    /**
+     * Factory method for serving stored bytes of an external entry as is.
+     */
+    public static StorableContent forRawFile(Storable entry, File file) {
+        final Compression comp = entry.getCompression();
+        return new StorableContent(entry, comp, true, entry.getStorageLength(),
+                (comp == Compression.NONE) ? entry.getContentHash() : entry.getCompressedHash(),
+                null, file, Compression.NONE);
+    }
+
+    /**
+     * Factory method for serving decoded content of an external entry.
+     */
+    public static StorableContent forDecodedFile(Storable entry, File file) {
+        return new StorableContent(entry, Compression.NONE, false, entry.getActualUncompressedLength(),
+                entry.getContentHash(), null, file, entry.getCompression());
+    }
+
+    /**
+     * Method for constructing instance that verifies content as it is read:
+     * hash (compressed hash for raw compressed content, content hash otherwise)
+     * is calculated incrementally, and once all content has been read, compared
+     * to one stored for the entry; as is length of content. On mismatch, read
+     * fails with {@link StoreException.Internal}, after notifying given
+     * listener (if any). Content that is longer than expected fails as soon
+     * as extra content is read.
+     *<p>
+     * Note that content is only verified when read fully; and that
+     * {@link #transferTo(WritableByteChannel)} can not avoid copying content
+     * via user space, since content must be hashed.
+     *
+     * @param listener Listener to notify about corrupt content, if any
+     */
+    public StorableContent withVerification(ContentCorruptionListener listener) {
+        return new StorableContent(this, listener);
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors
+    /**********************************************************************
+     */
+
+    public Storable getEntry() { return _entry; }
+
+    /**
+     * Accessor for checking whether stored bytes are served as is
+     * (true), or decoded (false).
+     */
+    public boolean isRaw() { return _raw; }
+
+    /**
+     * Accessor for encoding of content served (to be used as
+     * "Content-Encoding", unless {@link Compression#NONE}).
+     */
+    public Compression getContentEncoding() { return _contentEncoding; }
+
+    public boolean hasExternalData() { return _file != null; }
+
+    /**
+     * Length of content served, in bytes.
+     */
+    public long getLength() { return _length; }
+
+    /**
+     * Hash of content as served, for verification by recipient: compressed
+     * hash for compressed raw content, content hash otherwise.
+     * Note that hash may be {@link com.fasterxml.storemate.shared.hash.HashConstants#NO_CHECKSUM}
+     * if not known (for example, for some pre-compressed content).
+     */
+    public int getHash() { return _hash; }
+
+    /**
+     * Accessor for checking whether content is verified as it is read.
+     */
+    public boolean isVerifying() { return _verify; }
+
+    /*
+    /**********************************************************************
+    /* Content access
+    /**********************************************************************
+     */
+
+    /**
+     * Method for opening a stream to read content served.
+     */
+    public InputStream asStream() throws IOException
+    {
+        InputStream in;
+        if (_file == null) {
+            in = new ByteBufferInputStream(_inlined.asByteBuffer());
+        } else {
+            final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_READ, null, _entry.getKey());
+            in = Compressors.uncompressingStream(new FileReadInputStream(fileEvent,
+                    new FileInputStream(_file), _file, _entry.getCompression()), _fileCompression);
+        }
+        if (_verify) {
+            in = new Verifying(in);
+        }
+        return in;
+    }
+
+    /**
+     * Method for writing content served into given channel. Raw content of
+     * external entries is transferred using {@link FileChannel#transferTo},
+     * which avoids copying content via user space where possible.
+     *
+     * @return Number of bytes written
+     */
+    public long transferTo(WritableByteChannel out) throws IOException
+    {
+        if (_file == null && !_verify) {
+            _inlined.writeBytes(out);
+            return _inlined.byteLength();
+        }
+        if (_raw && !_verify) {
+            final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_READ, null, _entry.getKey());
+            FileInputStream in = new FileInputStream(_file);
+            long total = 0L;
+            try {
+                final FileChannel ch = in.getChannel();
+                final long length = ch.size();
+                while (total < length) {
+                    long count = ch.transferTo(total, length - total, out);
+                    if (count <= 0L) { // should not occur, but better safe than looping forever
+                        throw new EOFException("Failed to transfer content of file '"+_file.getAbsolutePath()
+                                +"': only "+total+" of "+length+" bytes transferred");
+                    }
+                    total += count;
+                }
+                return total;
+            } finally {
+                in.close();
+                fileEvent.finish(_file, total, _entry.getCompression());
+            }
+        }
+        InputStream in = asStream();
+        byte[] buffer = _buffers.borrow(COPY_BUFFER_SIZE);
+        try {
+            long total = 0L;
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                ByteBuffer bb = ByteBuffer.wrap(buffer, 0, count);
+                while (bb.hasRemaining()) {
+                    out.write(bb);
+                }
+                total += count;
+            }
+            return total;
+        } finally {
+            _buffers.release(buffer);
+            in.close();
+        }
+    }
+
+    /**
+     * Method for writing content served into given stream; if stream is
+     * a {@link FileOutputStream}, will use {@link #transferTo(WritableByteChannel)}.
+     *
+     * @return Number of bytes written
+     */
+    public long transferTo(OutputStream out) throws IOException
+    {
+        if (out instanceof FileOutputStream) {
+            return transferTo(((FileOutputStream) out).getChannel());
+        }
+        if (_file == null && !_verify) {
+            _inlined.writeBytes(out);
+            return _inlined.byteLength();
+        }
+        InputStream in = asStream();
+        byte[] buffer = _buffers.borrow(COPY_BUFFER_SIZE);
+        try {
+            long total = 0L;
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+                total += count;
+            }
+            return total;
+        } finally {
+            _buffers.release(buffer);
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[StorableContent: key "+_entry.getKey()+", "+(_raw ? "raw" : "decoded")
+                +", encoding "+_contentEncoding+", "+_length+" bytes]";
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Stream used for verifying content as it is read; reports failures to
+     * the listener, and fails with {@link StoreException.Internal}.
+     */
+    protected class Verifying extends VerifyingInputStream
+    {
+        public Verifying(InputStream in) {
+            super(in, new IncrementalMurmur3Hasher(), _length, _hash);
+        }
+
+        @Override
+        protected IOException _verificationFailed(long actualLength, int actualHash)
+        {
+            if (_corruptionListener != null) {
+                _corruptionListener.corruptContentFound(StorableContent.this, actualLength, actualHash);
+            }
+            return new StoreException.Internal(_entry.getKey(), "Corrupt "+(_raw ? "stored" : "decoded")
+                    +" content: expected "+_length+" bytes with hash 0x"+Integer.toHexString(_hash)
+                    +", got "+actualLength+" bytes with hash 0x"+Integer.toHexString(actualHash));
+        }
+    }
+}
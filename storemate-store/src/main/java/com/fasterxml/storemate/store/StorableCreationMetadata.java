@@ -45,6 +45,19 @@ public class StorableCreationMetadata
      */
     public Compression compression;
 
+    /**
+     * Optional extended content hash (8 or 16 bytes, that is, 64 or 128 bits)
+     * on uncompressed content; only stored with entry format version 2
+     * or above. Null if not available.
+     */
+    public byte[] extendedContentHash;
+
+    /**
+     * Optional time-to-live for the entry, in seconds; 0 means "none".
+     * Only stored with entry format version 2 or above.
+     */
+    public int timeToLiveSecs;
+
     /*
     /**********************************************************************
     /* Additional gathered state
@@ -66,6 +79,12 @@ public class StorableCreationMetadata
     public FileReference dataFile;
 
     public long storageSize = -1L;
+
+    /**
+     * Id of the preset dictionary used for compressing inlined content,
+     * if any; 0 if none. Only stored with entry format version 2 or above.
+     */
+    public int dictionaryId;
     
     /*
     /**********************************************************************
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import com.fasterxml.storemate.shared.*;
+import com.fasterxml.storemate.shared.compress.CompressionDictionary;
 
 import com.fasterxml.storemate.store.backend.IterationResult;
 import com.fasterxml.storemate.store.backend.StorableIterationCallback;
@@ -61,7 +62,58 @@ public abstract class StorableStore
      * to check for this.
      */
     public abstract <T> T leaseOffHeapBuffer(ByteBufferCallback<T> cb);
-    
+
+    /**
+     * Accessor for finding compression dictionary with given id, needed for
+     * uncompressing inlined data of entries compressed using one (see
+     * {@link Storable#getDictionaryId}).
+     *
+     * @return Dictionary with given id, if known; null if not
+     */
+    public abstract CompressionDictionary findCompressionDictionary(int id);
+
+    /**
+     * Accessor for getting uncompressed inlined content of given entry:
+     * if entry is compressed, content is uncompressed (using dictionary
+     * if necessary); or, if decompressed content cache is enabled (see
+     * {@link StoreConfig#decompressedCacheSize}), returned from cache if
+     * recently uncompressed.
+     *
+     * @return Uncompressed inlined content, if entry has inlined content;
+     *   null if not
+     */
+    public abstract ByteContainer getUncompressedInlinedData(Storable entry)
+        throws StoreException;
+
+    /**
+     * Method for opening a stream for reading uncompressed content of
+     * given external (non-inlined) entry, optionally limited to given
+     * range of uncompressed content. If entry is LZF-compressed and has
+     * a chunk index (see {@link StoreConfig#lzfChunkIndex}), reading starts
+     * from the chunk that contains start of the range; otherwise content
+     * before range needs to be uncompressed and skipped.
+     *
+     * @param range (optional) Range of uncompressed content to read; if null,
+     *   all content is read
+     *
+     * @return Stream for reading content, if entry has external data; null if not
+     */
+    public abstract InputStream openUncompressedExternalData(Storable entry, ByteRange range)
+        throws StoreException;
+
+    /**
+     * Method for negotiated reading of content of given entry: if stored
+     * content is not compressed, or is compressed using one of encodings
+     * acceptable to client (as indicated by HTTP "Accept-Encoding" header),
+     * stored bytes are served as is, without uncompressing and recompressing;
+     * otherwise content is decoded.
+     *
+     * @param acceptableEncodings Encodings client accepts, if any (null or
+     *   empty if none)
+     */
+    public abstract StorableContent readContent(Storable entry, String acceptableEncodings)
+        throws StoreException;
+
     /*
     /**********************************************************************
     /* API, store metadata access
@@ -0,0 +1,362 @@
+package com.fasterxml.storemate.store;
+
+import java.util.Arrays;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.util.IOUtil;
+import com.fasterxml.storemate.shared.util.WithBytesCallback;
+import com.fasterxml.storemate.store.impl.StorableConverter;
+import com.fasterxml.storemate.store.impl.StorableFlags;
+import com.fasterxml.storemate.store.util.StuffToBytes;
+
+/**
+ * Reusable, lazily decoding "flyweight" view over raw entry bytes as
+ * stored in backend. Unlike {@link Storable}, fields are decoded on
+ * demand: fixed-offset header fields (last-modified timestamp, status,
+ * compression, content hash) are read directly from the buffer, and
+ * variable-length section only if one of its fields is accessed.
+ *<p>
+ * Backends reuse a single instance for all entries of an iteration
+ * (see {@link com.fasterxml.storemate.store.backend.StorableIterationCallback#processView}),
+ * so contents are only valid during callback; use {@link #toStorable()} or
+ * {@link #getKey()} to get copies to retain.
+ */
+public class StorableView
+{
+    protected final StorableConverter _converter;
+
+    protected byte[] _keyBuffer;
+    protected int _keyOffset, _keyLength;
+
+    protected byte[] _raw;
+    protected int _offset, _length;
+
+    /*
+    /**********************************************************************
+    /* Lazily decoded variable-length section
+    /**********************************************************************
+     */
+
+    protected boolean _variableDecoded;
+
+    protected int _compressedHash;
+    protected long _originalLength;
+    protected int _metadataOffset, _metadataLength;
+    protected long _storageLength;
+    protected int _payloadOffset;
+
+    /*
+    /**********************************************************************
+    /* Construction, reuse
+    /**********************************************************************
+     */
+
+    public StorableView(StorableConverter conv) {
+        _converter = conv;
+    }
+
+    /**
+     * Method called by backend to point this view to a new entry.
+     */
+    public StorableView reset(byte[] keyBuffer, int keyOffset, int keyLength,
+            byte[] raw, int offset, int length)
+    {
+        if (length <= StorableConverter.OFFSET_CONTENT_HASH+4) {
+            throw new IllegalArgumentException("Invalid entry: only "+length+" bytes");
+        }
+        final byte version = raw[offset + StorableConverter.OFFSET_VERSION];
+        if (version == StorableConverter.VERSION_2) {
+            if (length < StorableConverter.V2_HEADER_LENGTH) {
+                throw new IllegalArgumentException("Invalid entry: only "+length+" bytes");
+            }
+        } else if (version != StorableConverter.VERSION_1) {
+            throw new IllegalArgumentException("Unsupported version number: 0x"
+                    +Integer.toHexString(version)
+                    +" (currently only supporting 0x"+Integer.toHexString(StorableConverter.VERSION_1)
+                    +" and 0x"+Integer.toHexString(StorableConverter.VERSION_2)+")");
+        }
+        _keyBuffer = keyBuffer;
+        _keyOffset = keyOffset;
+        _keyLength = keyLength;
+        _raw = raw;
+        _offset = offset;
+        _length = length;
+        _variableDecoded = false;
+        return this;
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors, key
+    /**********************************************************************
+     */
+
+    public int getKeyLength() { return _keyLength; }
+
+    public <T> T withKey(WithBytesCallback<T> cb) {
+        return cb.withBytes(_keyBuffer, _keyOffset, _keyLength);
+    }
+
+    /**
+     * Method for checking whether key of this entry starts with given prefix,
+     * without constructing a key instance.
+     */
+    public boolean keyHasPrefix(StorableKey prefix)
+    {
+        final int len = prefix.length();
+        if (len > _keyLength) {
+            return false;
+        }
+        final byte[] buffer = _keyBuffer;
+        for (int i = 0, ptr = _keyOffset; i < len; ++i, ++ptr) {
+            if (buffer[ptr] != (byte) prefix.byteAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accessor for constructing a {@link StorableKey} that contains
+     * a copy of the key.
+     */
+    public StorableKey getKey() {
+        return new StorableKey(Arrays.copyOfRange(_keyBuffer, _keyOffset, _keyOffset+_keyLength));
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors, fixed-offset header fields
+    /**********************************************************************
+     */
+
+    public byte getFormatVersion() {
+        return _raw[_offset + StorableConverter.OFFSET_VERSION];
+    }
+
+    public long getLastModified() {
+        return _getLongBE(_raw, _offset + StorableConverter.OFFSET_LASTMOD);
+    }
+
+    public boolean isDeleted() {
+        return (_raw[_offset + StorableConverter.OFFSET_STATUS] & StorableFlags.F_STATUS_SOFT_DELETED) != 0;
+    }
+
+    public boolean isReplicated() {
+        return (_raw[_offset + StorableConverter.OFFSET_STATUS] & StorableFlags.F_STATUS_REPLICATED) != 0;
+    }
+
+    public Compression getCompression() {
+        Compression comp = Compression.forIndex(_raw[_offset + StorableConverter.OFFSET_COMPRESSION], true);
+        return (comp == null) ? Compression.NONE : comp;
+    }
+
+    public int getContentHash() {
+        return _getIntBE(_raw, _offset + StorableConverter.OFFSET_CONTENT_HASH);
+    }
+
+    public boolean hasExternalData() {
+        return _externalPathLength() > 0;
+    }
+
+    /**
+     * Accessor for time-to-live (in seconds) of the entry, if any; 0 if none
+     * (always the case for entries stored using format version 1).
+     */
+    public int getTimeToLiveSecs() {
+        if (getFormatVersion() == StorableConverter.VERSION_2) {
+            return _getIntBE(_raw, _offset + StorableConverter.OFFSET_V2_TTL);
+        }
+        return 0;
+    }
+
+    /**
+     * Accessor for id of preset dictionary used for compressing the entry,
+     * if any; 0 if none (always the case for entries stored using format
+     * version 1).
+     */
+    public int getDictionaryId() {
+        if (getFormatVersion() == StorableConverter.VERSION_2) {
+            final int ptr = _offset + StorableConverter.OFFSET_V2_DICTIONARY_ID;
+            return ((_raw[ptr] & 0xFF) << 8) | (_raw[ptr+1] & 0xFF);
+        }
+        return 0;
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors, variable-length section
+    /**********************************************************************
+     */
+
+    public int getCompressedHash() {
+        _decodeVariable();
+        return _compressedHash;
+    }
+
+    public long getOriginalLength() {
+        _decodeVariable();
+        return _originalLength;
+    }
+
+    public long getStorageLength() {
+        _decodeVariable();
+        return _storageLength;
+    }
+
+    public int getMetadataLength() {
+        _decodeVariable();
+        return _metadataLength;
+    }
+
+    public boolean hasInlineData() {
+        return (_externalPathLength() == 0) && (getStorageLength() > 0L);
+    }
+
+    public long getActualUncompressedLength() {
+        if (getCompression() != Compression.NONE) {
+            return getOriginalLength();
+        }
+        return getStorageLength();
+    }
+
+    public String getExternalFilePath()
+    {
+        final int pathLength = _externalPathLength();
+        if (pathLength <= 0) {
+            return null;
+        }
+        _decodeVariable();
+        return IOUtil.getLatin1String(_raw, _payloadOffset, pathLength);
+    }
+
+    public <T> T withMetadata(WithBytesCallback<T> cb) {
+        _decodeVariable();
+        return cb.withBytes(_raw, _metadataOffset, _metadataLength);
+    }
+
+    public <T> T withInlinedData(WithBytesCallback<T> cb)
+    {
+        if (!hasInlineData()) {
+            return cb.withBytes(_raw, _offset, 0);
+        }
+        return cb.withBytes(_raw, _payloadOffset, (int) _storageLength);
+    }
+
+    public <T> T withRaw(WithBytesCallback<T> cb) {
+        return cb.withBytes(_raw, _offset, _length);
+    }
+
+    /*
+    /**********************************************************************
+    /* Conversion
+    /**********************************************************************
+     */
+
+    /**
+     * Method for constructing a fully decoded {@link Storable} from
+     * a copy of current contents; instance may be retained after
+     * callback returns.
+     */
+    public Storable toStorable()
+    {
+        return _converter.decode(getKey(),
+                Arrays.copyOfRange(_raw, _offset, _offset+_length));
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected int _externalPathLength() {
+        return _raw[_offset + StorableConverter.OFFSET_EXT_PATH_LENGTH] & 0xFF;
+    }
+
+    /**
+     * Method that decodes fields of the variable-length section (or,
+     * for version 2 entries, rest of fixed-width header), if not
+     * yet done for the current entry.
+     */
+    protected void _decodeVariable()
+    {
+        if (_variableDecoded) {
+            return;
+        }
+        final byte[] raw = _raw;
+        // With version 2 all fields are at fixed offsets
+        if (getFormatVersion() == StorableConverter.VERSION_2) {
+            final int offset = _offset;
+            _compressedHash = _getIntBE(raw, offset + StorableConverter.OFFSET_V2_COMPRESSED_HASH);
+            _originalLength = _getLongBE(raw, offset + StorableConverter.OFFSET_V2_ORIGINAL_LENGTH);
+            _storageLength = _getLongBE(raw, offset + StorableConverter.OFFSET_V2_STORAGE_LENGTH);
+            _metadataLength = _getIntBE(raw, offset + StorableConverter.OFFSET_V2_METADATA_LENGTH);
+            _metadataOffset = offset + StorableConverter.OFFSET_V2_EXT_HASH
+                    + (raw[offset + StorableConverter.OFFSET_V2_EXT_HASH_LENGTH] & 0xFF);
+            _payloadOffset = _metadataOffset + _metadataLength;
+            _variableDecoded = true;
+            return;
+        }
+        int ptr = _offset + StorableConverter.OFFSET_CONTENT_HASH + 4;
+        if (getCompression() != Compression.NONE) {
+            _compressedHash = _getIntBE(raw, ptr);
+            ptr += 4;
+            long l = 0L;
+            while (true) {
+                int i = raw[ptr++];
+                l = (l << 7) + (i & 0x7F);
+                if (i < 0) {
+                    break;
+                }
+            }
+            // 0 used to mean N/A, since VLongs can't be negative
+            _originalLength = (l == 0L) ? -1L : l;
+        } else {
+            _compressedHash = 0;
+            _originalLength = -1L;
+        }
+        int metaLength = 0;
+        for (int count = 0; ; ) {
+            int i = raw[ptr++];
+            metaLength = (metaLength << 7) + (i & 0x7F);
+            if (i < 0) {
+                break;
+            }
+            if (++count >= StuffToBytes.MAX_VINT_LENGTH) {
+                throw new IllegalArgumentException("Corrupt entry: invalid metadata length");
+            }
+        }
+        _metadataOffset = ptr;
+        _metadataLength = metaLength;
+        ptr += metaLength;
+        long storageLength = 0L;
+        while (true) {
+            int i = raw[ptr++];
+            storageLength = (storageLength << 7) + (i & 0x7F);
+            if (i < 0) {
+                break;
+            }
+        }
+        _storageLength = storageLength;
+        _payloadOffset = ptr;
+        _variableDecoded = true;
+    }
+
+    private final static int _getIntBE(byte[] buffer, int offset)
+    {
+        return (buffer[offset] << 24)
+            | ((buffer[offset+1] & 0xFF) << 16)
+            | ((buffer[offset+2] & 0xFF) << 8)
+            | (buffer[offset+3] & 0xFF)
+            ;
+    }
+
+    private final static long _getLongBE(byte[] buffer, int offset)
+    {
+        long l1 = _getIntBE(buffer, offset);
+        long l2 = _getIntBE(buffer, offset+4);
+        return (l1 << 32) | ((l2 << 32) >>> 32);
+    }
+}
@@ -1,6 +1,7 @@
 package com.fasterxml.storemate.store;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 
 import org.skife.config.DataAmount;
 
@@ -17,6 +18,11 @@ public class StoreConfig
     public final static int DEFAULT_MIN_FOR_COMPRESS = 200;
     public final static int DEFAULT_MAX_FOR_GZIP = 16000;
     public final static int DEFAULT_MIN_PAYLOAD_FOR_STREAMING = 64000;
+    public final static double DEFAULT_COMPRESSION_NANOS_PER_SAVED_BYTE = 20.0;
+    public final static int DEFAULT_MIN_FOR_DICTIONARY = 64;
+    public final static int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+    public final static int DEFAULT_DICTIONARY_TRAINING_SAMPLES = 500;
+    public final static int DEFAULT_MAX_DECOMPRESSED_CACHE_ENTRY = 64000;
 
     /**
      * Default number of partitions in which local keyspace is sliced, for
@@ -41,6 +47,65 @@ public class StoreConfig
      */
     public boolean compressionEnabled = true;
 
+    /**
+     * Whether compression method for entries is to be chosen adaptively
+     * (see {@link com.fasterxml.storemate.store.impl.CompressionSelector}),
+     * based on sampled compressibility of content and running statistics
+     * on compression ratios (per key prefix, see {@link #commonKeyPrefixes}).
+     * If disabled (default), GZIP is used for entries up to
+     * {@link #maxUncompressedSizeForGZIP} bytes, and LZF for bigger ones.
+     */
+    public boolean adaptiveCompression = false;
+
+    /**
+     * Optional set of compression methods (by content encoding names, like
+     * "lzf", "gzip" and "lz4") to choose from when using
+     * adaptive compression. If null, all registered methods are considered.
+     *<p>
+     * Note that versions of StoreMate that do not support all methods
+     * may not be able to read entries compressed using them.
+     */
+    public String[] adaptiveCompressionCodecs = null;
+
+    /**
+     * Whether small entries (ones of at most {@link #maxUncompressedSizeForGZIP}
+     * bytes) are to be compressed using preset dictionaries, trained from
+     * sampled entries of each key namespace (see {@link #commonKeyPrefixes}).
+     * Such entries are stored using "deflate" compression, with id of the
+     * dictionary in entry header; and can only be uncompressed using the same
+     * dictionary (see {@link StorableStore#findCompressionDictionary}).
+     *<p>
+     * Requires entry format version 2, as well as a
+     * {@link com.fasterxml.storemate.store.state.NodeStateStore} for persisting
+     * dictionaries, given when constructing the store.
+     */
+    public boolean dictionaryCompression = false;
+
+    /**
+     * Whether chunk indexes are to be written for LZF-compressed external
+     * files (as "sidecar" files next to storage files, see
+     * {@link com.fasterxml.storemate.store.file.FileManager#chunkIndexFileFor}),
+     * to allow reading ranges of content without uncompressing everything
+     * before the range (see {@link StorableStore#openUncompressedExternalData}).
+     * Indexes are only written for files that consist of more than one chunk.
+     */
+    public boolean lzfChunkIndex = false;
+
+    /**
+     * Whether external files with identical content (same 128-bit hash and
+     * length of content, and same compression) are to be shared between
+     * entries, instead of each entry having its own copy: newly written
+     * duplicate file is deleted, and entry refers to the existing one.
+     * Files are reference-counted, and only deleted once no entries refer
+     * to them.
+     *<p>
+     * Requires entry format version 2 (for storing 128-bit content hash),
+     * as well as a {@link com.fasterxml.storemate.store.state.NodeStateStore}
+     * for persisting index of shared files, given when constructing the store.
+     * Pre-compressed content is never shared.
+     */
+    public boolean deduplicateExternalContent = false;
+
     /**
      * Whether checksum is required when storing pre-compressed entries,
      * for actual uncompressed content. If so, and caller does not provide
@@ -49,6 +114,22 @@ public class StoreConfig
      */
     public boolean requireChecksumForPreCompressed = true;
 
+    /**
+     * Whether entries stored using an older entry format version should be
+     * rewritten using current version ({@link #entryFormatVersion}) when
+     * read. If disabled (default), entries are only migrated by explicit
+     * sweeps (see {@link com.fasterxml.storemate.store.impl.EntryFormatMigrator}).
+     */
+    public boolean migrateEntriesOnRead = false;
+
+    /**
+     * Optional set of common key prefixes (such as namespaces), UTF-8
+     * encoded, used for reducing memory usage of keys collected in memory
+     * by administrative operations. Prefixes are only used for in-memory
+     * representation, and do not affect how entries are stored.
+     */
+    public String[] commonKeyPrefixes = null;
+
     /*
     /**********************************************************************
     /* Simple config properties, numeric
@@ -66,6 +147,48 @@ public class StoreConfig
      */
     public int lockPartitions = DEFAULT_LOCK_PARTITIONS;
 
+    /**
+     * Entry format version to use for writing new entries: either 1
+     * (original, compact format with variable-length header) or 2
+     * (fixed-width header, with room for extended content hash and
+     * time-to-live). Entries in either format can always be read; but
+     * note that versions of StoreMate that only support version 1 can
+     * not read entries written using version 2.
+     *<p>
+     * Default is 1, so that upgraded nodes can still be rolled back to
+     * an earlier version; version 2 (which is needed for format migration
+     * to do anything) must be explicitly enabled. Default will be changed
+     * in a later version.
+     */
+    public int entryFormatVersion = 1;
+
+    /*
+    /**********************************************************************
+    /* Simple config properties, diagnostics
+    /**********************************************************************
+     */
+
+    /**
+     * Number of slowest operations to retain per tracing window, for
+     * slow-operation tracing (see
+     * {@link com.fasterxml.storemate.store.util.SlowOperationTracer}).
+     * Default of 0 means that tracing is disabled.
+     */
+    public int slowOperationsToTrace = 0;
+
+    /**
+     * Length of time windows (in milliseconds) for slow-operation tracing;
+     * slowest operations of each window are logged (at most once per window)
+     * when window completes.
+     */
+    public long slowOperationWindowMsecs = 60000L;
+
+    /**
+     * Sampling rate for slow-operation tracing: one out of this many
+     * operations is traced. Default of 1 means every operation is traced.
+     */
+    public int slowOperationSampleRate = 1;
+
     /*
     /**********************************************************************
     /* Simple config properties, paths
@@ -109,6 +232,36 @@ public class StoreConfig
      */
     public int maxUncompressedSizeForGZIP = DEFAULT_MAX_FOR_GZIP;
 
+    /**
+     * When using adaptive compression ({@link #adaptiveCompression}), amount of
+     * CPU time (in nanoseconds) that is considered worth spending on compression
+     * to save one byte of storage space: higher values favor better compression
+     * ratios, lower values faster codecs (or no compression).
+     * Default value of 20 nanoseconds typically favors fast codecs (LZ4, LZF)
+     * for compressible content.
+     */
+    public double compressionNanosPerSavedByte = DEFAULT_COMPRESSION_NANOS_PER_SAVED_BYTE;
+
+    /**
+     * When using dictionary compression ({@link #dictionaryCompression}),
+     * minimum size of uncompressed payload to compress using dictionary;
+     * lower than {@link #minUncompressedSizeForCompression}, since with
+     * a good dictionary even tiny entries compress well.
+     */
+    public int minUncompressedSizeForDictionary = DEFAULT_MIN_FOR_DICTIONARY;
+
+    /**
+     * Maximum size of compression dictionaries to train, in bytes; at most
+     * 32k (since deflate can not refer further back).
+     */
+    public int dictionarySize = DEFAULT_DICTIONARY_SIZE;
+
+    /**
+     * Number of sampled entries used for training a compression dictionary
+     * for a key namespace.
+     */
+    public int dictionaryTrainingSamples = DEFAULT_DICTIONARY_TRAINING_SAMPLES;
+
     /**
      * We will read up to this number of bytes in memory, before switching
      * to actual streaming handling. Note that streaming content will
@@ -135,7 +288,22 @@ public class StoreConfig
      * N bytes. Default is 1 megabyte.
      */
     public DataAmount maxPerEntryBuffering = new DataAmount("1MB");
-    
+
+    /**
+     * Amount of off-heap memory to use for caching decompressed content of
+     * frequently read compressed inlined entries (see
+     * {@link StorableStore#getUncompressedInlinedData}); null (default)
+     * to disable caching. Note that all of this memory is allocated up front,
+     * when store is created.
+     */
+    public DataAmount decompressedCacheSize = null;
+
+    /**
+     * Maximum decompressed size of a single entry to cache, when using
+     * decompressed content cache ({@link #decompressedCacheSize}).
+     */
+    public int decompressedCacheMaxEntrySize = DEFAULT_MAX_DECOMPRESSED_CACHE_ENTRY;
+
     /*
     /**********************************************************************
     /* Overridable handlers
@@ -156,11 +324,15 @@ public class StoreConfig
     public StorableConverter createStorableConverter()
     {
         if (storableConverter == null || storableConverter == StorableConverter.class) {
-            return new StorableConverter();
+            return new StorableConverter(StorableConverter.versionFor(entryFormatVersion));
         }
         try {
-            return (StorableConverter) storableConverter.newInstance();
-        } catch (Exception e) {
+            return storableConverter.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            Throwable t = (e.getCause() == null) ? e : e.getCause();
+            throw new IllegalStateException("Failed to instantiate StorableConverter of type "
+                    +storableConverter+": "+t, t);
+        } catch (ReflectiveOperationException e) {
             throw new IllegalStateException("Failed to instantiate StorableConverter of type "
                     +storableConverter+": "+e, e);
         }
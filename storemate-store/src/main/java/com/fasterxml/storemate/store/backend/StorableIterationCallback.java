@@ -27,4 +27,39 @@ public abstract class StorableIterationCallback
      */
     public abstract IterationAction processEntry(Storable entry)
         throws StoreException;
+
+    /**
+     * Method backends call before iteration to see whether this callback
+     * wants to process entries as reusable {@link StorableView}s (by
+     * {@link #processView}), instead of fully decoded {@link Storable}s.
+     * If true is returned, {@link #verifyKey} and {@link #processEntry}
+     * are not called; instead, {@link #processView} is called for every
+     * entry. This avoids per-entry allocations, and is useful for
+     * callbacks that only need to access a few fields of all entries.
+     *<p>
+     * Note that backends are not required to support views; those that
+     * do not will call {@link #verifyKey} and {@link #processEntry} as usual,
+     * so callbacks need to implement those as well.
+     *<p>
+     * Default implementation returns false.
+     */
+    public boolean wantsViews() {
+        return false;
+    }
+
+    /**
+     * Method called for each entry, if {@link #wantsViews} returned true.
+     * Note that view is reused for subsequent entries, so callback
+     * must not retain it; instead, {@link StorableView#toStorable()} may be
+     * used for entries to retain.
+     * 
+     * @return Action to take; {@link IterationAction#TERMINATE_ITERATION} to stop
+     *   iteration, other values to continue
+     */
+    public IterationAction processView(StorableView entry)
+        throws StoreException
+    {
+        throw new UnsupportedOperationException("processView() not implemented by "
+                +getClass().getName());
+    }
 }
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.store.Storable;
 import com.fasterxml.storemate.store.StorableStore;
+import com.fasterxml.storemate.store.StorableView;
 import com.fasterxml.storemate.store.StoreException;
 import com.fasterxml.storemate.store.impl.StorableConverter;
 import com.fasterxml.storemate.store.util.OverwriteChecker;
@@ -307,4 +308,21 @@ public abstract class StoreBackend
      */
     public abstract boolean deleteEntry(StorableKey key)
         throws IOException, StoreException;
+
+    /*
+    /**********************************************************************
+    /* Helper methods for sub-classes
+    /**********************************************************************
+     */
+
+    /**
+     * Helper method for constructing the reusable {@link StorableView} to use
+     * for an iteration, if callback wants to use views.
+     *
+     * @return View to reuse for all entries, if callback wants views;
+     *   null if not
+     */
+    protected StorableView _viewFor(StorableIterationCallback cb) {
+        return cb.wantsViews() ? new StorableView(_storableConverter) : null;
+    }
 }
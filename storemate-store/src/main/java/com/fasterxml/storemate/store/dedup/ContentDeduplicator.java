@@ -0,0 +1,549 @@
+package com.fasterxml.storemate.store.dedup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StoreConfig;
+import com.fasterxml.storemate.store.file.FileManager;
+import com.fasterxml.storemate.store.file.FileReference;
+import com.fasterxml.storemate.store.state.NodeStateStore;
+
+/**
+ * Helper class that keeps track of external files shared by entries with
+ * identical content: index from {@link ContentKey} to {@link SharedFile}
+ * (with reference count) is persisted in a {@link NodeStateStore}.
+ *<p>
+ * When an external file is written, store calls {@link #register}, and if
+ * a file with identical content already exists, uses it instead of the new
+ * one; otherwise new file is moved under shared file directory (see
+ * {@link FileManager#createSharedFile}), so that it is not removed by
+ * time-based clean up of data directories while other entries may still
+ * refer to it. Conversely, when an entry with external data is deleted,
+ * store calls {@link #release}, and only deletes the file once no entries
+ * refer to it.
+ * Entries without 128-bit content hash, as well as files not found in the
+ * index, are not shared and are handled as usual.
+ *<p>
+ * Since reference counts are kept separate from entries, they may get out
+ * of sync (for example, if process is killed between updates); if so,
+ * they can be fixed by reconciliation (see {@link #startReconciliation}).
+ */
+public class ContentDeduplicator
+{
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    protected final NodeStateStore<ContentKey,SharedFile> _store;
+
+    protected final FileManager _fileManager;
+
+    /**
+     * Whether new files are to be registered; if not, index is only used
+     * for releasing files registered earlier.
+     */
+    protected final boolean _enabled;
+
+    /**
+     * Lock used for all index updates, to keep reference counts consistent.
+     */
+    protected final Object _lock = new Object();
+
+    /**
+     * Number of references added (by {@link #register} or {@link #addReference})
+     * for which entries have not yet been written, by content key;
+     * guarded by {@link #_lock}.
+     */
+    protected final Map<ContentKey,Integer> _inFlight = new HashMap<ContentKey,Integer>();
+
+    /**
+     * Keys of content referenced or released since the current reconciliation
+     * was started, if one is in progress; null if not. Guarded by {@link #_lock}.
+     */
+    protected Set<ContentKey> _touched;
+
+    /**
+     * Reference counts found to be too high by the last reconciliation, but
+     * not yet fixed, by content key; entries are removed when references
+     * change. Guarded by {@link #_lock}.
+     */
+    protected final Map<ContentKey,Mismatch> _suspects = new HashMap<ContentKey,Mismatch>();
+
+    public ContentDeduplicator(NodeStateStore<ContentKey,SharedFile> store,
+            FileManager fileManager, boolean enabled)
+    {
+        if (store == null) {
+            throw new IllegalArgumentException("Missing 'store'");
+        }
+        _store = store;
+        _fileManager = fileManager;
+        _enabled = enabled;
+    }
+
+    /**
+     * Factory method for constructing deduplicator as per configuration, if
+     * content index store is available.
+     *
+     * @param store Store used for persisting content index, if any
+     *
+     * @return Deduplicator to use, if store given; null if not
+     *
+     * @throws IllegalArgumentException If deduplication is enabled,
+     *   but no store is given
+     */
+    public static ContentDeduplicator construct(StoreConfig config,
+            NodeStateStore<ContentKey,SharedFile> store, FileManager fileManager)
+    {
+        if (store == null) {
+            if (config.deduplicateExternalContent) {
+                throw new IllegalArgumentException("Deduplication of external content enabled, but no store for content index given");
+            }
+            return null;
+        }
+        return new ContentDeduplicator(store, fileManager, config.deduplicateExternalContent);
+    }
+
+    public boolean isEnabled() { return _enabled; }
+
+    /*
+    /**********************************************************************
+    /* Public API, reference counting
+    /**********************************************************************
+     */
+
+    /**
+     * Method that may be called before content is written, if its key is
+     * already known, to find an existing file with identical content (and
+     * add a reference to it). If one is found, caller must call
+     * {@link #registrationDone} once entry has been written (or writing failed).
+     *
+     * @return Existing file to use, if one found; null if none
+     */
+    public SharedFile addReference(ContentKey key) throws IOException
+    {
+        synchronized (_lock) {
+            return _addReference(key);
+        }
+    }
+
+    /**
+     * Method called after content has been written in a new external file,
+     * to either find an existing file with identical content (and add a
+     * reference to it), or register the new file; in latter case file (and its
+     * chunk index, if any) is moved under shared file directory.
+     * Either way, caller must call {@link #registrationDone} once entry has been
+     * written (or writing failed).
+     *
+     * @param key Key for content written
+     * @param newFile File content was written to
+     * @param storageSize Length of the file
+     * @param compressedHash Hash of the file contents, if content is compressed
+     *
+     * @return Shared file to use for the entry: either an existing one (with
+     *    reference count of 2 or above; in which case caller is to delete the
+     *    new file), or the new file after moving (with reference count of 1)
+     */
+    public SharedFile register(ContentKey key, FileReference newFile,
+            long storageSize, int compressedHash) throws IOException
+    {
+        synchronized (_lock) {
+            SharedFile shared = _addReference(key);
+            if (shared != null) {
+                return shared;
+            }
+            final FileReference target = _fileManager.createSharedFile(_contentId(key), key.getCompression());
+            final File origFile = newFile.getFile();
+            if (!origFile.renameTo(target.getFile())) {
+                throw new IOException("Failed to move file '"+origFile.getAbsolutePath()
+                        +"' to shared file directory, as '"+target.getFile().getAbsolutePath()+"'");
+            }
+            final File origIndex = _fileManager.chunkIndexFileFor(origFile);
+            if (origIndex.exists()) {
+                origIndex.renameTo(_fileManager.chunkIndexFileFor(target.getFile()));
+            }
+            shared = new SharedFile(key, target.getReference(), 1, storageSize, compressedHash);
+            try {
+                _store.upsertEntry(key, shared);
+            } catch (IOException e) {
+                // move back, so that caller can clean up as usual
+                if (!target.getFile().renameTo(origFile)) {
+                    target.getFile().delete();
+                }
+                _fileManager.chunkIndexFileFor(target.getFile()).delete();
+                throw e;
+            }
+            _referenced(key);
+            return shared;
+        }
+    }
+
+    /**
+     * Method to call after entry that refers to a shared file returned by
+     * {@link #register} or {@link #addReference} has been written, or writing
+     * has failed (in which case {@link #release} should also be called).
+     */
+    public void registrationDone(ContentKey key)
+    {
+        synchronized (_lock) {
+            Integer count = _inFlight.remove(key);
+            if (count != null && count > 1) {
+                _inFlight.put(key, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Method called when an entry with external data is being deleted,
+     * to remove its reference to the external file.
+     *
+     * @return True if the file is no longer referenced (or was not shared to
+     *    begin with), and should be deleted; false if other entries still
+     *    refer to it
+     */
+    public boolean release(Storable entry) throws IOException
+    {
+        ContentKey key = ContentKey.forEntry(entry);
+        if (key == null) {
+            return true;
+        }
+        return release(key, entry.getExternalFilePath());
+    }
+
+    /**
+     * Method for removing a reference to external file with given content key
+     * and path; used directly if entry could not be written after adding
+     * reference.
+     *
+     * @return True if the file is no longer referenced (or was not shared to
+     *    begin with), and should be deleted; false if other entries still
+     *    refer to it
+     */
+    public boolean release(ContentKey key, String path) throws IOException
+    {
+        synchronized (_lock) {
+            SharedFile shared = _store.findEntry(key);
+            // if index refers to some other file, entry's file was not shared
+            if (shared == null || !shared.getPath().equals(path)) {
+                return true;
+            }
+            _touch(key);
+            if (shared.getRefCount() <= 1) {
+                _store.deleteEntry(key);
+                return true;
+            }
+            _store.upsertEntry(key, shared.withRefCount(shared.getRefCount() - 1));
+            return false;
+        }
+    }
+
+    /**
+     * Method for checking whether external file of given entry is currently
+     * referenced by other entries as well.
+     */
+    public boolean isShared(Storable entry) throws IOException
+    {
+        ContentKey key = ContentKey.forEntry(entry);
+        if (key == null) {
+            return false;
+        }
+        SharedFile shared = _store.findEntry(key);
+        return (shared != null) && (shared.getRefCount() > 1)
+                && shared.getPath().equals(entry.getExternalFilePath());
+    }
+
+    /**
+     * Accessor for finding information on the shared file with given content,
+     * if any.
+     */
+    public SharedFile findSharedFile(ContentKey key) throws IOException {
+        return _store.findEntry(key);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, reconciliation
+    /**********************************************************************
+     */
+
+    /**
+     * Method for starting reconciliation of reference counts with entries
+     * that actually refer to shared files: caller is to pass all entries of
+     * the store to {@link Reconciliation#addEntry}, and then call
+     * {@link Reconciliation#finish} to fix reference counts as necessary.
+     *<p>
+     * Content that is referenced or released while reconciliation is in
+     * progress (or that has references being added) is skipped. Reference
+     * counts that are too low (which could lead to premature deletion of files)
+     * are fixed right away; but since an entry may have been deleted
+     * just before its reference is released, counts that are too high
+     * are only fixed if the same mismatch is found by two consecutive
+     * reconciliations, with no references added or released in-between.
+     * Files in shared file directory that are neither indexed nor referred
+     * to by entries are deleted.
+     *
+     * @throws IllegalStateException If another reconciliation is in progress
+     */
+    public Reconciliation startReconciliation()
+    {
+        synchronized (_lock) {
+            if (_touched != null) {
+                throw new IllegalStateException("Reconciliation of shared files already in progress");
+            }
+            _touched = new HashSet<ContentKey>(_inFlight.keySet());
+        }
+        return new Reconciliation();
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    // Note: must be called while holding _lock
+    protected SharedFile _addReference(ContentKey key) throws IOException
+    {
+        SharedFile shared = _store.findEntry(key);
+        if (shared == null) {
+            return null;
+        }
+        // sanity check, in case file has been removed or truncated behind our back
+        File f = _fileManager.derefenceFile(shared.getPath());
+        if (f.length() != shared.getStorageSize()) {
+            return null;
+        }
+        shared = shared.withRefCount(shared.getRefCount() + 1);
+        _store.upsertEntry(key, shared);
+        _referenced(key);
+        return shared;
+    }
+
+    // Note: must be called while holding _lock
+    protected void _referenced(ContentKey key)
+    {
+        Integer count = _inFlight.get(key);
+        _inFlight.put(key, (count == null) ? 1 : (count + 1));
+        _touch(key);
+    }
+
+    // Note: must be called while holding _lock
+    protected void _touch(ContentKey key)
+    {
+        if (_touched != null) {
+            _touched.add(key);
+        }
+        _suspects.remove(key);
+    }
+
+    protected void _deleteFile(String path)
+    {
+        File f = _fileManager.derefenceFile(path);
+        _fileManager.chunkIndexFileFor(f).delete();
+        if (!f.delete() && f.exists()) {
+            LOG.warn("Failed to delete unreferenced shared file {}", f.getAbsolutePath());
+        }
+    }
+
+    protected static String _contentId(ContentKey key)
+    {
+        final byte[] hash = key.getHash();
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Object used for collecting actual references to shared files, and then
+     * fixing index to match; see {@link ContentDeduplicator#startReconciliation}.
+     */
+    public class Reconciliation
+    {
+        /**
+         * Number of entries referring to shared files, by path of the file.
+         */
+        protected final Map<String,References> _references = new HashMap<String,References>();
+
+        protected boolean _done;
+
+        protected Reconciliation() { }
+
+        /**
+         * Method to call for every entry of the store (including soft-deleted ones).
+         */
+        public void addEntry(Storable entry)
+        {
+            final String path = entry.getExternalFilePath();
+            if (!_fileManager.isSharedFile(path)) {
+                return;
+            }
+            ContentKey key = ContentKey.forEntry(entry);
+            if (key == null) {
+                return;
+            }
+            References refs = _references.get(path);
+            if (refs == null) {
+                _references.put(path, new References(key, entry));
+            } else {
+                ++refs.count;
+            }
+        }
+
+        /**
+         * Method to call once all entries have been passed via {@link #addEntry},
+         * to fix the index (and delete unreferenced files).
+         *
+         * @return Number of fixes made: index entries updated, added or removed,
+         *    and unreferenced files deleted
+         */
+        public int finish() throws IOException
+        {
+            int fixes = 0;
+            synchronized (_lock) {
+                _checkNotDone();
+                try {
+                    final Set<ContentKey> touched = _touched;
+                    final Set<String> indexed = new HashSet<String>();
+                    final Set<ContentKey> seen = new HashSet<ContentKey>();
+                    for (SharedFile shared : _store.readAll()) {
+                        final ContentKey key = shared.getContentKey();
+                        indexed.add(shared.getPath());
+                        if (key == null) { // written by older version, can not reconcile
+                            continue;
+                        }
+                        seen.add(key);
+                        if (touched.contains(key)) {
+                            continue;
+                        }
+                        References refs = _references.get(shared.getPath());
+                        final int actual = (refs == null) ? 0 : refs.count;
+                        final int expected = shared.getRefCount();
+                        if (actual == expected) {
+                            _suspects.remove(key);
+                            continue;
+                        }
+                        if (actual > expected) {
+                            LOG.warn("Reference count of shared file '{}' too low ({}, should be {}): fixing",
+                                    shared.getPath(), expected, actual);
+                            _store.upsertEntry(key, shared.withRefCount(actual));
+                            _suspects.remove(key);
+                            ++fixes;
+                            continue;
+                        }
+                        Mismatch prev = _suspects.get(key);
+                        if (prev == null || prev.expected != expected || prev.actual != actual) {
+                            // need to see same mismatch again before fixing
+                            _suspects.put(key, new Mismatch(expected, actual));
+                            continue;
+                        }
+                        _suspects.remove(key);
+                        LOG.warn("Reference count of shared file '{}' too high ({}, should be {}): fixing",
+                                shared.getPath(), expected, actual);
+                        if (actual == 0) {
+                            _store.deleteEntry(key);
+                            _deleteFile(shared.getPath());
+                        } else {
+                            _store.upsertEntry(key, shared.withRefCount(actual));
+                        }
+                        ++fixes;
+                    }
+                    // Then files referenced by entries but not indexed
+                    for (Map.Entry<String,References> en : _references.entrySet()) {
+                        final String path = en.getKey();
+                        final References refs = en.getValue();
+                        if (indexed.contains(path) || touched.contains(refs.key)) {
+                            continue;
+                        }
+                        File f = _fileManager.derefenceFile(path);
+                        if (!f.exists() || seen.contains(refs.key)) {
+                            // missing file can not be helped; nor can key be indexed for 2 files
+                            continue;
+                        }
+                        LOG.warn("Shared file '{}' not indexed, but referenced by {} entries: fixing",
+                                path, refs.count);
+                        _store.upsertEntry(refs.key, new SharedFile(refs.key, path, refs.count,
+                                refs.storageSize, refs.compressedHash));
+                        indexed.add(path);
+                        seen.add(refs.key);
+                        ++fixes;
+                    }
+                    // and finally files not referenced at all
+                    for (String path : _fileManager.listSharedFiles()) {
+                        if (!indexed.contains(path) && !_references.containsKey(path)) {
+                            LOG.warn("Shared file '{}' not indexed or referenced: deleting", path);
+                            _deleteFile(path);
+                            ++fixes;
+                        }
+                    }
+                } finally {
+                    _touched = null;
+                    _done = true;
+                }
+            }
+            return fixes;
+        }
+
+        /**
+         * Method to call if reconciliation can not be completed (for example,
+         * if reading entries fails), to allow starting a new one.
+         */
+        public void abort()
+        {
+            synchronized (_lock) {
+                if (!_done) {
+                    _touched = null;
+                    _done = true;
+                }
+            }
+        }
+
+        protected void _checkNotDone() {
+            if (_done) {
+                throw new IllegalStateException("Reconciliation already finished");
+            }
+        }
+    }
+
+    /**
+     * Number of entries found to refer to a shared file, along with
+     * details needed for indexing the file if necessary.
+     */
+    protected static class References
+    {
+        public final ContentKey key;
+        public final long storageSize;
+        public final int compressedHash;
+        public int count = 1;
+
+        public References(ContentKey key, Storable entry) {
+            this.key = key;
+            storageSize = entry.getStorageLength();
+            compressedHash = entry.getCompressedHash();
+        }
+    }
+
+    /**
+     * Mismatch between reference count and actual references found by
+     * reconciliation.
+     */
+    protected static class Mismatch
+    {
+        public final int expected, actual;
+
+        public Mismatch(int expected, int actual) {
+            this.expected = expected;
+            this.actual = actual;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.fasterxml.storemate.store.dedup;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.util.RawEntryConverter;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.util.BytesToStuff;
+import com.fasterxml.storemate.store.util.StuffToBytes;
+
+/**
+ * Key used for finding external files by their content: consists of
+ * 128-bit hash and length of uncompressed content, as well as compression
+ * used for storing it (since files with different compression are not
+ * interchangeable).
+ */
+public class ContentKey
+{
+    /**
+     * Length of content hash: 128 bits.
+     */
+    public final static int HASH_LENGTH = 16;
+
+    protected final static int KEY_LENGTH = HASH_LENGTH + 8 + 1;
+
+    protected final byte[] _hash;
+
+    protected final long _length;
+
+    protected final Compression _compression;
+
+    public ContentKey(byte[] hash, long length, Compression comp)
+    {
+        if (hash == null || hash.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("Invalid content hash: must have exactly "+HASH_LENGTH+" bytes");
+        }
+        _hash = hash;
+        _length = length;
+        _compression = (comp == null) ? Compression.NONE : comp;
+    }
+
+    /**
+     * Factory method for constructing key for content of given external
+     * entry, if it has 128-bit extended content hash.
+     *
+     * @return Key for content of the entry, if entry has external data and
+     *    128-bit content hash; null otherwise
+     */
+    public static ContentKey forEntry(Storable entry)
+    {
+        if (!entry.hasExternalData()) {
+            return null;
+        }
+        ByteContainer hash = entry.getExtendedContentHash();
+        if (hash.byteLength() != HASH_LENGTH) {
+            return null;
+        }
+        return new ContentKey(hash.asBytes(), entry.getActualUncompressedLength(), entry.getCompression());
+    }
+
+    public byte[] getHash() { return _hash; }
+
+    public long getLength() { return _length; }
+
+    public Compression getCompression() { return _compression; }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this) return true;
+        if (o == null || o.getClass() != getClass()) return false;
+        ContentKey other = (ContentKey) o;
+        return (_length == other._length) && (_compression == other._compression)
+                && Arrays.equals(_hash, other._hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_hash) ^ (int) _length;
+    }
+
+    @Override
+    public String toString() {
+        return "[ContentKey: "+_length+" bytes, compression "+_compression+"]";
+    }
+
+    /*
+    /**********************************************************************
+    /* Converter
+    /**********************************************************************
+     */
+
+    /**
+     * Converter for keys: stored as 16 bytes of hash, followed by length as
+     * 8-byte big-endian long, and index of compression as a single byte.
+     */
+    public static class Converter extends RawEntryConverter<ContentKey>
+    {
+        public final static Converter instance = new Converter();
+
+        @Override
+        public ContentKey fromRaw(byte[] raw, int offset, int length) throws IOException
+        {
+            if (length != KEY_LENGTH) {
+                throw new IOException("Invalid content key: expected "+KEY_LENGTH+" bytes, got "+length);
+            }
+            BytesToStuff reader = new BytesToStuff(raw, offset, length);
+            final byte[] hash = reader.nextBytes(HASH_LENGTH);
+            final long contentLength = reader.nextLong();
+            final Compression comp = Compression.forIndex(reader.nextByte(), false);
+            if (comp == null) {
+                throw new IOException("Invalid content key: unrecognized compression index "
+                        +raw[offset+KEY_LENGTH-1]);
+            }
+            return new ContentKey(hash, contentLength, comp);
+        }
+
+        @Override
+        public byte[] toRaw(ContentKey key)
+        {
+            StuffToBytes writer = StuffToBytes.exactWriter(KEY_LENGTH);
+            writer.appendBytes(key.getHash())
+                .appendLong(key.getLength())
+                .appendByte((byte) key.getCompression().asIndex());
+            return writer.bufferedBytes().asBytes();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.fasterxml.storemate.store.dedup;
+
+import java.io.IOException;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.util.RawEntryConverter;
+import com.fasterxml.storemate.shared.util.UTF8Encoder;
+import com.fasterxml.storemate.store.util.BytesToStuff;
+import com.fasterxml.storemate.store.util.StuffToBytes;
+
+/**
+ * Value class for information on an external file shared by entries with
+ * identical content, persisted in a
+ * {@link com.fasterxml.storemate.store.state.NodeStateStore} keyed by
+ * {@link ContentKey}.
+ */
+public class SharedFile
+{
+    protected final static byte FORMAT_VERSION = 2;
+
+    /**
+     * Earlier format version, without content key.
+     */
+    protected final static byte FORMAT_VERSION_1 = 1;
+
+    /**
+     * Key of the content; included so that index can be reconciled by
+     * reading all entries. May be null for entries written using
+     * format version 1.
+     */
+    protected final ContentKey _key;
+
+    /**
+     * Relative path of the file, as stored in entries.
+     */
+    protected final String _path;
+
+    /**
+     * Number of entries that refer to the file.
+     */
+    protected final int _refCount;
+
+    protected final long _storageSize;
+
+    protected final int _compressedHash;
+
+    public SharedFile(ContentKey key, String path, int refCount, long storageSize, int compressedHash)
+    {
+        _key = key;
+        _path = path;
+        _refCount = refCount;
+        _storageSize = storageSize;
+        _compressedHash = compressedHash;
+    }
+
+    public SharedFile withRefCount(int refCount) {
+        return new SharedFile(_key, _path, refCount, _storageSize, _compressedHash);
+    }
+
+    public ContentKey getContentKey() { return _key; }
+
+    public String getPath() { return _path; }
+
+    public int getRefCount() { return _refCount; }
+
+    public long getStorageSize() { return _storageSize; }
+
+    public int getCompressedHash() { return _compressedHash; }
+
+    @Override
+    public String toString() {
+        return "[SharedFile: '"+_path+"', "+_refCount+" references, "+_storageSize+" bytes]";
+    }
+
+    /*
+    /**********************************************************************
+    /* Converter
+    /**********************************************************************
+     */
+
+    /**
+     * Converter for stored values: starts with format version, reference
+     * count, storage size and compressed hash, followed by relative path
+     * of the file (length-prefixed UTF-8) and content key (length-prefixed).
+     * Values written using version 1 (without content key) can also be read.
+     */
+    public static class Converter extends RawEntryConverter<SharedFile>
+    {
+        public final static Converter instance = new Converter();
+
+        @Override
+        public SharedFile fromRaw(byte[] raw, int offset, int length) throws IOException
+        {
+            BytesToStuff reader = new BytesToStuff(raw, offset, length);
+            try {
+                final byte version = reader.nextByte();
+                if (version != FORMAT_VERSION && version != FORMAT_VERSION_1) {
+                    throw new IOException("Unsupported shared file format version "+version);
+                }
+                final int refCount = reader.nextVInt();
+                final long storageSize = reader.nextVLong();
+                final int compressedHash = reader.nextInt();
+                final byte[] path = reader.nextBytes(reader.nextVInt());
+                ContentKey key = null;
+                if (version != FORMAT_VERSION_1) {
+                    final byte[] rawKey = reader.nextBytes(reader.nextVInt());
+                    key = ContentKey.Converter.instance.fromRaw(rawKey, 0, rawKey.length);
+                }
+                return new SharedFile(key, UTF8Encoder.decodeFromUTF8(path), refCount, storageSize, compressedHash);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid shared file entry ("+length+" bytes): "+e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public byte[] toRaw(SharedFile value)
+        {
+            final byte[] path = UTF8Encoder.encodeAsUTF8(value.getPath());
+            final ContentKey key = value.getContentKey();
+            final byte[] rawKey = (key == null) ? new byte[0] : ContentKey.Converter.instance.toRaw(key);
+            // no key, no version 2
+            final byte version = (key == null) ? FORMAT_VERSION_1 : FORMAT_VERSION;
+            StuffToBytes writer = StuffToBytes.exactWriter(1
+                    + StuffToBytes.vIntLength(value.getRefCount())
+                    + StuffToBytes.vLongLength(value.getStorageSize())
+                    + 4
+                    + StuffToBytes.vIntLength(path.length) + path.length
+                    + ((key == null) ? 0 : (StuffToBytes.vIntLength(rawKey.length) + rawKey.length)));
+            writer.appendByte(version)
+                .appendVInt(value.getRefCount())
+                .appendVLong(value.getStorageSize())
+                .appendInt(value.getCompressedHash())
+                .appendLengthAndBytes(ByteContainer.simple(path));
+            if (key != null) {
+                writer.appendLengthAndBytes(ByteContainer.simple(rawKey));
+            }
+            return writer.bufferedBytes().asBytes();
+        }
+    }
+}
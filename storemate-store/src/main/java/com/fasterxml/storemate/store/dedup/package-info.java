@@ -0,0 +1,7 @@
+/**
+ * Package that contains support for sharing external files between
+ * entries with identical content, using a reference-counted index of
+ * files by content hash and length, persisted using a
+ * {@link com.fasterxml.storemate.store.state.NodeStateStore}.
+ */
+package com.fasterxml.storemate.store.dedup;
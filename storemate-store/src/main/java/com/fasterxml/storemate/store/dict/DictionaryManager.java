@@ -0,0 +1,498 @@
+package com.fasterxml.storemate.store.dict;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.KeyPrefixDictionary;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.TimeMaster;
+import com.fasterxml.storemate.shared.compress.CompressionDictionary;
+import com.fasterxml.storemate.shared.compress.DeflateCodec;
+import com.fasterxml.storemate.shared.compress.DictionaryTrainer;
+import com.fasterxml.storemate.shared.util.UTF8Encoder;
+import com.fasterxml.storemate.store.StoreConfig;
+import com.fasterxml.storemate.store.state.NodeStateStore;
+
+/**
+ * Helper class that manages preset dictionaries used for compressing small
+ * entries: trains dictionaries from sampled entries of each key namespace
+ * (key prefixes configured with {@link StoreConfig#commonKeyPrefixes}, plus
+ * one for all other keys), persists them in a {@link NodeStateStore}, and
+ * keeps all versions ever created available by id, so that entries
+ * compressed using older versions remain readable.
+ *<p>
+ * Training is started when the last needed sample is added, but done
+ * asynchronously using a background executor, so that thread adding the
+ * sample (usually one handling a PUT) is not blocked; until training
+ * completes, the current dictionary (if any) remains in use. And
+ * new dictionary is only taken into use if it compresses held-out samples
+ * noticeably better than the current one (or no dictionary, for the first
+ * one); and only after it has been successfully persisted.
+ * Once a namespace has a dictionary, entries are only sampled occasionally,
+ * to allow adapting to changes in content.
+ */
+public class DictionaryManager
+{
+    /**
+     * Once a dictionary has been trained for a namespace, one out of this
+     * many entries is sampled for retraining.
+     */
+    protected final static int RESAMPLE_INTERVAL = 64;
+
+    /**
+     * One out of this many samples is held out of training, to be used for
+     * evaluating the trained dictionary.
+     */
+    protected final static int EVALUATION_INTERVAL = 4;
+
+    /**
+     * Minimum relative reduction of compressed size of held-out samples
+     * needed for newly trained dictionary to be taken into use.
+     */
+    protected final static double MIN_IMPROVEMENT = 0.05;
+
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    protected final NodeStateStore<Integer,StoredDictionary> _store;
+
+    protected final TimeMaster _timeMaster;
+
+    protected final KeyPrefixDictionary _prefixes;
+
+    /**
+     * Trainer to use for new dictionaries; null if dictionaries are only
+     * to be used for reading existing entries.
+     */
+    protected final DictionaryTrainer _trainer;
+
+    protected final int _samplesToTrain;
+
+    protected final DeflateCodec _codec = DeflateCodec.instance;
+
+    /**
+     * Executor used for training new dictionaries
+     */
+    protected final Executor _trainingExecutor;
+
+    /**
+     * Executor created by this manager (same as {@link #_trainingExecutor}),
+     * if one was not passed; needs to be shut down when stopping.
+     */
+    protected final ExecutorService _ownExecutor;
+
+    /**
+     * Lock used for tracking (and waiting for) training in progress.
+     */
+    protected final Object _trainingLock = new Object();
+
+    /**
+     * Number of training tasks submitted but not yet completed; guarded by
+     * {@link #_trainingLock}.
+     */
+    protected int _pendingTraining;
+
+    /**
+     * State of namespaces for key prefixes from {@link #_prefixes}, in
+     * same order, followed by state for all other keys.
+     */
+    protected final Namespace[] _namespaces;
+
+    /**
+     * All known dictionaries, including older versions, by id.
+     */
+    protected final Map<Integer,CompressionDictionary> _dictionaries
+        = new ConcurrentHashMap<Integer,CompressionDictionary>();
+
+    /**
+     * Lock used for loading dictionaries, as well as for training new
+     * ones (to serialize allocation of ids).
+     */
+    protected final Object _lock = new Object();
+
+    protected volatile boolean _loaded;
+
+    /**
+     * Highest dictionary id in use; guarded by {@link #_lock}.
+     */
+    protected int _lastId;
+
+    public DictionaryManager(NodeStateStore<Integer,StoredDictionary> store, TimeMaster timeMaster,
+            KeyPrefixDictionary prefixes, DictionaryTrainer trainer, int samplesToTrain)
+    {
+        this(store, timeMaster, prefixes, trainer, samplesToTrain, null);
+    }
+
+    /**
+     * @param trainingExecutor Executor to use for training new dictionaries;
+     *   if null, a single background (daemon) thread is created when needed
+     */
+    public DictionaryManager(NodeStateStore<Integer,StoredDictionary> store, TimeMaster timeMaster,
+            KeyPrefixDictionary prefixes, DictionaryTrainer trainer, int samplesToTrain,
+            Executor trainingExecutor)
+    {
+        if (store == null) {
+            throw new IllegalArgumentException("Missing 'store'");
+        }
+        if (trainer != null && samplesToTrain < EVALUATION_INTERVAL) {
+            throw new IllegalArgumentException("Invalid samplesToTrain ("+samplesToTrain
+                    +"): must be at least "+EVALUATION_INTERVAL);
+        }
+        _store = store;
+        _timeMaster = timeMaster;
+        _prefixes = prefixes;
+        _trainer = trainer;
+        _samplesToTrain = samplesToTrain;
+        if (trainingExecutor == null && trainer != null) {
+            _ownExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "StoreMate-DictionaryTrainer");
+                t.setDaemon(true);
+                return t;
+            });
+            trainingExecutor = _ownExecutor;
+        } else {
+            _ownExecutor = null;
+        }
+        _trainingExecutor = trainingExecutor;
+        final int prefixCount = (prefixes == null) ? 0 : prefixes.size();
+        _namespaces = new Namespace[prefixCount + 1];
+        for (int i = 0; i < prefixCount; ++i) {
+            _namespaces[i] = new Namespace(UTF8Encoder.decodeFromUTF8(prefixes.getPrefix(i).asBytes()));
+        }
+        _namespaces[prefixCount] = new Namespace("");
+    }
+
+    /**
+     * Factory method for constructing manager as per configuration, if
+     * dictionary store is available.
+     *
+     * @param store Store used for persisting dictionaries, if any
+     *
+     * @return Manager to use, if store given; null if not
+     *
+     * @throws IllegalArgumentException If dictionary compression is enabled,
+     *   but no store is given
+     */
+    public static DictionaryManager construct(StoreConfig config,
+            NodeStateStore<Integer,StoredDictionary> store, TimeMaster timeMaster,
+            KeyPrefixDictionary prefixes)
+    {
+        final boolean enabled = config.compressionEnabled && config.dictionaryCompression;
+        if (store == null) {
+            if (enabled) {
+                throw new IllegalArgumentException("Dictionary compression enabled, but no store for dictionaries given");
+            }
+            return null;
+        }
+        DictionaryTrainer trainer = enabled ? new DictionaryTrainer(config.dictionarySize,
+                DictionaryTrainer.DEFAULT_SEGMENT_LENGTH) : null;
+        return new DictionaryManager(store, timeMaster, prefixes, trainer,
+                config.dictionaryTrainingSamples);
+    }
+
+    /**
+     * Method for loading all persisted dictionaries; called when store is
+     * started, but if not, will be called lazily on first access.
+     */
+    public void start() throws IOException
+    {
+        synchronized (_lock) {
+            if (_loaded) {
+                return;
+            }
+            Map<String,Namespace> byName = new HashMap<String,Namespace>();
+            for (Namespace ns : _namespaces) {
+                byName.put(ns.name, ns);
+            }
+            for (StoredDictionary stored : _store.readAll()) {
+                final CompressionDictionary dict = stored.getDictionary();
+                final int id = dict.getId();
+                _dictionaries.put(id, dict);
+                _lastId = Math.max(_lastId, id);
+                // latest version for a namespace is the one in use (if namespace still exists)
+                Namespace ns = byName.get(stored.getNamespace());
+                if (ns != null && (ns.current == null || ns.current.getId() < id)) {
+                    ns.current = dict;
+                }
+            }
+            _loaded = true;
+        }
+    }
+
+    /**
+     * Method called when store is stopped: will stop background training
+     * thread, if one was created by this manager; training in progress
+     * (if any) is abandoned.
+     */
+    public void stop()
+    {
+        if (_ownExecutor != null) {
+            _ownExecutor.shutdownNow();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Accessor for finding dictionary with given id, to use for uncompressing
+     * content compressed using it.
+     *
+     * @return Dictionary with given id, if one exists; null if not
+     */
+    public CompressionDictionary findDictionary(int id)
+    {
+        _ensureLoaded();
+        return _dictionaries.get(id);
+    }
+
+    /**
+     * Method called for a small entry that is to be compressed: entry is
+     * used as a training sample if necessary (possibly starting background
+     * training of a new dictionary), and the dictionary currently in use for
+     * namespace of the entry returned.
+     *
+     * @return Dictionary to use for compressing the entry, if any; null if none
+     *   (yet) available for namespace, or if compression using dictionaries
+     *   is not enabled
+     */
+    public CompressionDictionary dictionaryFor(StorableKey key, ByteContainer data)
+    {
+        if (_trainer == null) {
+            return null;
+        }
+        _ensureLoaded();
+        final Namespace ns = _namespaceFor(key);
+        final List<byte[]> samples = ns.addSample(data, _samplesToTrain);
+        if (samples != null) {
+            _startTraining(ns, samples);
+        }
+        return ns.current;
+    }
+
+    /**
+     * Method that may be called to wait until all training started so far
+     * has completed; mostly useful for testing.
+     *
+     * @return True if no training is in progress; false if wait timed out
+     */
+    public boolean waitForTraining(long maxWaitMsecs) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + maxWaitMsecs;
+        synchronized (_trainingLock) {
+            while (_pendingTraining > 0) {
+                final long left = end - System.currentTimeMillis();
+                if (left <= 0L) {
+                    return false;
+                }
+                _trainingLock.wait(left);
+            }
+        }
+        return true;
+    }
+
+    public byte[] compress(ByteContainer data, CompressionDictionary dict) {
+        return _codec.compress(data, dict);
+    }
+
+    public byte[] uncompress(byte[] data, int offset, int len, CompressionDictionary dict,
+            int expSize) throws IOException {
+        return _codec.uncompress(data, offset, len, dict, expSize);
+    }
+
+    /**
+     * Accessor for dictionary currently used for compressing entries with
+     * given key, if any.
+     */
+    public CompressionDictionary currentDictionary(StorableKey key) {
+        _ensureLoaded();
+        return _namespaceFor(key).current;
+    }
+
+    public int getDictionaryCount() {
+        _ensureLoaded();
+        return _dictionaries.size();
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _ensureLoaded()
+    {
+        if (!_loaded) {
+            try {
+                start();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to load compression dictionaries: "+e.getMessage(), e);
+            }
+        }
+    }
+
+    protected Namespace _namespaceFor(StorableKey key)
+    {
+        if (_prefixes != null) {
+            int index = _prefixes.findPrefix(key);
+            if (index >= 0) {
+                return _namespaces[index];
+            }
+        }
+        return _namespaces[_namespaces.length-1];
+    }
+
+    protected void _startTraining(final Namespace ns, final List<byte[]> samples)
+    {
+        synchronized (_trainingLock) {
+            ++_pendingTraining;
+        }
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    _train(ns, samples);
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to train compression dictionary for namespace '{}': {}",
+                            ns.name, e.getMessage(), e);
+                } finally {
+                    _trainingDone(ns);
+                }
+            }
+        };
+        try {
+            _trainingExecutor.execute(task);
+        } catch (RejectedExecutionException e) { // most likely since stopping
+            LOG.warn("Could not start training of compression dictionary for namespace '{}': {}",
+                    ns.name, e.getMessage());
+            _trainingDone(ns);
+        }
+    }
+
+    protected void _trainingDone(Namespace ns)
+    {
+        ns.trainingDone();
+        synchronized (_trainingLock) {
+            --_pendingTraining;
+            _trainingLock.notifyAll();
+        }
+    }
+
+    protected void _train(Namespace ns, List<byte[]> samples)
+    {
+        List<byte[]> training = new ArrayList<byte[]>(samples.size());
+        List<byte[]> evaluation = new ArrayList<byte[]>(samples.size() / EVALUATION_INTERVAL);
+        for (int i = 0, end = samples.size(); i < end; ++i) {
+            if ((i % EVALUATION_INTERVAL) == (EVALUATION_INTERVAL-1)) {
+                evaluation.add(samples.get(i));
+            } else {
+                training.add(samples.get(i));
+            }
+        }
+        synchronized (_lock) {
+            final int id = _lastId + 1;
+            if (id > CompressionDictionary.MAX_ID) {
+                LOG.warn("Can not train new compression dictionary for namespace '{}': all {} ids used",
+                        ns.name, CompressionDictionary.MAX_ID);
+                return;
+            }
+            final CompressionDictionary dict = _trainer.train(id, training);
+            if (dict == null) {
+                LOG.info("Could not train compression dictionary for namespace '{}': not enough repeating content in {} samples",
+                        ns.name, training.size());
+                return;
+            }
+            final CompressionDictionary current = ns.current;
+            final long oldSize = _compressedSize(evaluation, current);
+            final long newSize = _compressedSize(evaluation, dict);
+            if (newSize > oldSize * (1.0 - MIN_IMPROVEMENT)) {
+                LOG.info("Not using new compression dictionary for namespace '{}': held-out samples compress to {} bytes, vs {} with {}",
+                        ns.name, newSize, oldSize, (current == null) ? "no dictionary" : ("dictionary "+current.getId()));
+                return;
+            }
+            // must be persisted before use, or entries would be unreadable after restart
+            try {
+                _store.upsertEntry(id, new StoredDictionary(ns.name, _timeMaster.currentTimeMillis(), dict));
+            } catch (IOException e) {
+                LOG.error("Failed to store compression dictionary {} for namespace '{}', will not use it: {}",
+                        id, ns.name, e.getMessage());
+                return;
+            }
+            _lastId = id;
+            _dictionaries.put(id, dict);
+            ns.current = dict;
+            LOG.info("Trained compression dictionary {} ({} bytes) for namespace '{}': held-out samples compress to {} bytes, vs {}",
+                    id, dict.getLength(), ns.name, newSize, oldSize);
+        }
+    }
+
+    protected long _compressedSize(List<byte[]> samples, CompressionDictionary dict)
+    {
+        long total = 0L;
+        for (byte[] sample : samples) {
+            total += _codec.compress(sample, 0, sample.length, dict).length;
+        }
+        return total;
+    }
+
+    /**
+     * Dictionary and sampling state for a single key namespace.
+     */
+    protected final static class Namespace
+    {
+        public final String name;
+
+        /**
+         * Dictionary currently used for compressing entries, if any
+         */
+        public volatile CompressionDictionary current;
+
+        private List<byte[]> _samples = new ArrayList<byte[]>();
+
+        private int _seen;
+
+        private boolean _training;
+
+        public Namespace(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return Samples to train with, if enough collected (and no training
+         *    in progress); null if not
+         */
+        public synchronized List<byte[]> addSample(ByteContainer data, int samplesToTrain)
+        {
+            if (_training) {
+                return null;
+            }
+            // once we have a dictionary, need just occasional samples for retraining
+            if (current != null && (++_seen % RESAMPLE_INTERVAL) != 0) {
+                return null;
+            }
+            _samples.add(data.asBytes());
+            if (_samples.size() < samplesToTrain) {
+                return null;
+            }
+            List<byte[]> result = _samples;
+            _samples = new ArrayList<byte[]>();
+            _training = true;
+            return result;
+        }
+
+        public synchronized void trainingDone() {
+            _training = false;
+        }
+    }
+}
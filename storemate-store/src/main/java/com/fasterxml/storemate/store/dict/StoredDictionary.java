@@ -0,0 +1,130 @@
+package com.fasterxml.storemate.store.dict;
+
+import java.io.IOException;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.compress.CompressionDictionary;
+import com.fasterxml.storemate.shared.util.RawEntryConverter;
+import com.fasterxml.storemate.shared.util.UTF8Encoder;
+import com.fasterxml.storemate.store.util.BytesToStuff;
+import com.fasterxml.storemate.store.util.StuffToBytes;
+
+/**
+ * Value class for {@link CompressionDictionary} persisted in a
+ * {@link com.fasterxml.storemate.store.state.NodeStateStore}, along
+ * with information on key namespace it was trained for.
+ * Stored entries are keyed by dictionary id (see {@link IdConverter}).
+ */
+public class StoredDictionary
+{
+    protected final static byte FORMAT_VERSION = 1;
+
+    protected final String _namespace;
+
+    protected final long _created;
+
+    protected final CompressionDictionary _dictionary;
+
+    /**
+     * @param namespace Key prefix of entries dictionary was trained for;
+     *   empty String for entries that do not have any of configured prefixes
+     * @param created Timestamp of creation of the dictionary
+     */
+    public StoredDictionary(String namespace, long created, CompressionDictionary dict)
+    {
+        _namespace = (namespace == null) ? "" : namespace;
+        _created = created;
+        _dictionary = dict;
+    }
+
+    public String getNamespace() { return _namespace; }
+
+    public long getCreated() { return _created; }
+
+    public CompressionDictionary getDictionary() { return _dictionary; }
+
+    public int getId() { return _dictionary.getId(); }
+
+    @Override
+    public String toString() {
+        return "[StoredDictionary: namespace '"+_namespace+"', created "+_created+", "+_dictionary+"]";
+    }
+
+    /*
+    /**********************************************************************
+    /* Converters
+    /**********************************************************************
+     */
+
+    /**
+     * Converter for stored values: starts with format version, dictionary id,
+     * creation timestamp and namespace (length-prefixed UTF-8), followed by
+     * contents of the dictionary.
+     */
+    public static class Converter extends RawEntryConverter<StoredDictionary>
+    {
+        public final static Converter instance = new Converter();
+
+        @Override
+        public StoredDictionary fromRaw(byte[] raw, int offset, int length) throws IOException
+        {
+            BytesToStuff reader = new BytesToStuff(raw, offset, length);
+            try {
+                final byte version = reader.nextByte();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported stored dictionary format version "+version);
+                }
+                final int id = reader.nextInt();
+                final long created = reader.nextLong();
+                final byte[] namespace = reader.nextBytes(reader.nextVInt());
+                final byte[] contents = reader.nextBytes(reader.left());
+                return new StoredDictionary(UTF8Encoder.decodeFromUTF8(namespace), created,
+                        new CompressionDictionary(id, contents));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid stored dictionary ("+length+" bytes): "+e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public byte[] toRaw(StoredDictionary value)
+        {
+            final byte[] namespace = UTF8Encoder.encodeAsUTF8(value.getNamespace());
+            final byte[] contents = value.getDictionary().getContents();
+            StuffToBytes writer = StuffToBytes.exactWriter(1 + 4 + 8
+                    + StuffToBytes.vIntLength(namespace.length) + namespace.length
+                    + contents.length);
+            writer.appendByte(FORMAT_VERSION)
+                .appendInt(value.getId())
+                .appendLong(value.getCreated())
+                .appendLengthAndBytes(ByteContainer.simple(namespace))
+                .appendBytes(contents);
+            return writer.bufferedBytes().asBytes();
+        }
+    }
+
+    /**
+     * Converter for keys (dictionary ids), stored as 4-byte big-endian
+     * integers.
+     */
+    public static class IdConverter extends RawEntryConverter<Integer>
+    {
+        public final static IdConverter instance = new IdConverter();
+
+        @Override
+        public Integer fromRaw(byte[] raw, int offset, int length) throws IOException
+        {
+            if (length != 4) {
+                throw new IOException("Invalid dictionary id: expected 4 bytes, got "+length);
+            }
+            return ((raw[offset] & 0xFF) << 24) | ((raw[offset+1] & 0xFF) << 16)
+                    | ((raw[offset+2] & 0xFF) << 8) | (raw[offset+3] & 0xFF);
+        }
+
+        @Override
+        public byte[] toRaw(Integer value)
+        {
+            final int id = value.intValue();
+            return new byte[] { (byte) (id >> 24), (byte) (id >> 16), (byte) (id >> 8), (byte) id };
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Package that contains support for compressing small entries using
+ * preset compression dictionaries, trained from samples of entries
+ * and persisted (with all older versions) using a
+ * {@link com.fasterxml.storemate.store.state.NodeStateStore}.
+ */
+package com.fasterxml.storemate.store.dict;
@@ -1,6 +1,10 @@
 package com.fasterxml.storemate.store.file;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.util.ByteUtil;
 import com.fasterxml.storemate.shared.util.WithBytesCallback;
 
 /**
@@ -8,6 +12,10 @@ import com.fasterxml.storemate.shared.util.WithBytesCallback;
  * take each byte, and replace all non-ASCII characters (as well as
  * a small set of "unsafe" characters like slashes) with a character
  * specified as "safe character" (by default, underscore).
+ *<p>
+ * Since keys are usually all safe ASCII, default safety rules are checked
+ * 8 bytes at a time, and names are built in bulk instead of byte by byte;
+ * this is only done if {@link #isSafe} is not overridden by a sub-class.
  */
 public class DefaultFilenameConverter extends FilenameConverter
 {
@@ -31,12 +39,19 @@ public class DefaultFilenameConverter extends FilenameConverter
 
     protected final char _safeChar;
 
+    /**
+     * Flag that indicates whether default safety rules (as per
+     * {@link #DEFAULTS}) are used, allowing use of block checks.
+     */
+    protected final boolean _defaultSafety;
+
     public DefaultFilenameConverter() {
         this(DEFAULT_SAFE_CHAR);
     }
         
     public DefaultFilenameConverter(char safeChar) {
         _safeChar = safeChar;
+        _defaultSafety = !_overridesIsSafe(getClass());
     }
         
     protected boolean isSafe(byte b) {
@@ -45,6 +60,17 @@ public class DefaultFilenameConverter extends FilenameConverter
 
     @Override
     public String createFilename(StorableKey rawKey) {
+        if (_defaultSafety) {
+            String name = rawKey.with(new WithBytesCallback<String>() {
+                @Override
+                public String withBytes(byte[] buffer, int offset, int length) {
+                    return _convertDefault(buffer, offset, length);
+                }
+            });
+            if (name != null) {
+                return name;
+            }
+        }
         int expLen = Math.max(8, rawKey.length());
         return appendFilename(rawKey, new StringBuilder(expLen)).toString();
     }
@@ -55,6 +81,13 @@ public class DefaultFilenameConverter extends FilenameConverter
         rawKey.with(new WithBytesCallback<Void>() {
             @Override
             public Void withBytes(byte[] buffer, int offset, int length) {
+                if (_defaultSafety) {
+                    String name = _convertDefault(buffer, offset, length);
+                    if (name != null) {
+                        sb.append(name);
+                        return null;
+                    }
+                }
                 final int end = offset+length;
                 while (offset < end) {
                     byte b = buffer[offset++];
@@ -65,4 +98,70 @@ public class DefaultFilenameConverter extends FilenameConverter
         });
         return sb;
     }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * Method for converting given key bytes using default safety rules:
+     * safe runs are found using block checks, and unsafe bytes replaced
+     * in a copy of the key, so that result String can be created in bulk.
+     *
+     * @return Converted name, if conversion could be done; null if not
+     *   (safe character not representable as a single byte)
+     */
+    protected String _convertDefault(byte[] buffer, int offset, int length)
+    {
+        int i = _safeRunLength(buffer, offset, length);
+        if (i == length) { // common case; nothing to replace
+            return new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        if (_safeChar > 0xFF) {
+            return null;
+        }
+        byte[] result = Arrays.copyOfRange(buffer, offset, offset+length);
+        while (i < length) { // byte at i is unsafe
+            result[i++] = (byte) _safeChar;
+            i += _safeRunLength(result, i, length-i);
+        }
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Method for finding length of the leading run of bytes that are safe
+     * according to default rules: checks 8 bytes at a time, dropping to
+     * per-byte checks for the first block with an unsafe byte.
+     */
+    protected static int _safeRunLength(byte[] buffer, int offset, int length)
+    {
+        int i = 0;
+        for (final int last = length - 8; i <= last; i += 8) {
+            long word = ByteUtil.getLongLE(buffer, offset+i);
+            if (ByteUtil.hasByteLessThan(word, 33) || ByteUtil.hasByteGreaterThan(word, 0x7E)
+                    || ByteUtil.hasByte(word, '/') || ByteUtil.hasByte(word, '"')
+                    || ByteUtil.hasByte(word, '\\')) {
+                break;
+            }
+        }
+        for (; i < length; ++i) {
+            if (DEFAULTS[buffer[offset+i] & 0xFF] == 0) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean _overridesIsSafe(Class<?> cls)
+    {
+        for (; cls != DefaultFilenameConverter.class; cls = cls.getSuperclass()) {
+            try {
+                cls.getDeclaredMethod("isSafe", Byte.TYPE);
+                return true;
+            } catch (NoSuchMethodException e) { }
+        }
+        return false;
+    }
 }
\ No newline at end of file
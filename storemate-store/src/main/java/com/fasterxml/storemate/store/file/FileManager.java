@@ -49,6 +49,20 @@ public class FileManager
      * number of such directories from growing beyond 1000 per day.
      */
     private final static int MINUTE_MODULO = 5;
+
+    /**
+     * Suffix appended to names of storage files, to get name of the
+     * "sidecar" file that contains chunk index of a compressed file.
+     */
+    public final static String CHUNK_INDEX_SUFFIX = ".idx";
+
+    /**
+     * Name of the directory (directly under data root) under which files
+     * shared by multiple entries are stored. Since name does not match
+     * pattern of date-based directories, it is not subject to time-based
+     * clean up (see {@link #listMainDataDirs}).
+     */
+    public final static String SHARED_DIR_NAME = "shared";
     
     /*
     /**********************************************************************
@@ -217,6 +231,77 @@ public class FileManager
                 _relativeActivePath + cleanName);
     }
 
+    /**
+     * Method for finding "sidecar" file used for storing chunk index (see
+     * {@link com.fasterxml.storemate.shared.compress.LZFChunkIndex}) of
+     * given storage file. Such file only exists for some compressed files.
+     */
+    public File chunkIndexFileFor(File storageFile) {
+        return new File(storageFile.getParentFile(), storageFile.getName() + CHUNK_INDEX_SUFFIX);
+    }
+
+    /**
+     * Method used for finding file to store content shared by multiple
+     * entries in (see {@link com.fasterxml.storemate.store.dedup.ContentDeduplicator}).
+     * Such files are stored under {@link #SHARED_DIR_NAME}, in sub-directories
+     * named by first 2 characters of the content id, and named by
+     * content id, followed by sequence number (to avoid collisions with
+     * files being deleted) and compression type.
+     *
+     * @param contentId Identifier of content; usually hex-encoded hash,
+     *    at least 2 characters long
+     */
+    public synchronized FileReference createSharedFile(String contentId, Compression comp)
+    {
+        if (comp == null) {
+            comp = Compression.NONE;
+        }
+        final String dirPath = SHARED_DIR_NAME + "/" + contentId.substring(0, 2) + "/";
+        final File dir = new File(_dataRoot, dirPath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        for (int i = 0; ; ++i) {
+            String name = contentId + "-" + i + "." + comp.asChar();
+            File f = new File(dir, name);
+            if (!f.exists()) {
+                return new FileReference(f, dirPath + name);
+            }
+        }
+    }
+
+    /**
+     * Method for checking whether given relative path refers to a file
+     * under shared file directory (see {@link #createSharedFile}).
+     */
+    public boolean isSharedFile(String relativePath) {
+        return (relativePath != null) && relativePath.startsWith(SHARED_DIR_NAME + "/");
+    }
+
+    /**
+     * Method for listing relative paths of all files under shared file
+     * directory (excluding chunk index files).
+     */
+    public List<String> listSharedFiles()
+    {
+        List<String> result = new ArrayList<String>();
+        File[] dirs = new File(_dataRoot, SHARED_DIR_NAME).listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] files = dir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File f : files) {
+                    if (f.isFile() && !f.getName().endsWith(CHUNK_INDEX_SUFFIX)) {
+                        result.add(SHARED_DIR_NAME + "/" + dir.getName() + "/" + f.getName());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     public File derefenceFile(String relativePath)
     {
         if (relativePath == null) { // inlined data?
@@ -0,0 +1,317 @@
+package com.fasterxml.storemate.store.impl;
+
+import java.io.IOException;
+import java.util.*;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.KeyPrefixDictionary;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compressibility;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.CompressionCodec;
+import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.shared.util.WithBytesCallback;
+import com.fasterxml.storemate.store.StoreConfig;
+
+/**
+ * Helper class used for adaptive selection of compression method for entries
+ * to store. Selection is based on a leading sample of content: entropy
+ * estimate is used to quickly rule out content that is not compressible;
+ * and otherwise running statistics on compression ratio and speed of candidate
+ * codecs (kept separately for each common key prefix, if any are configured)
+ * are used for choosing the codec that gives the best trade-off between
+ * CPU usage and storage space.
+ *<p>
+ * Trade-off is expressed as the amount of CPU time (in nanoseconds) that
+ * is worth spending to save one byte of storage: for each candidate,
+ * value per input byte is calculated as
+ *<pre>
+ *   (1.0 - ratio) * nanosPerSavedByte - nanosPerByte
+ *</pre>
+ * and the candidate with highest positive value is chosen; if none has
+ * positive value, content is stored as is.
+ * Statistics are collected by trial compressions of samples (done for
+ * first entries of each prefix, and periodically after that), as well as
+ * from actual compression results.
+ */
+public class CompressionSelector
+{
+    /**
+     * Weight of new observations for exponentially weighted moving averages
+     */
+    protected final static double NEW_WEIGHT = 0.25;
+
+    /**
+     * Number of entries (per prefix) for which trial compression is done
+     * with all candidates, before relying on statistics.
+     */
+    protected final static int INITIAL_TRIALS = 4;
+
+    /**
+     * After initial trials, one out of this many entries (per prefix) is
+     * used for trial compression, to keep statistics up to date.
+     */
+    protected final static int TRIAL_INTERVAL = 32;
+
+    protected final CompressionCodec[] _candidates;
+
+    /**
+     * Optional dictionary of common key prefixes, used for keeping separate
+     * statistics for entries with different prefixes.
+     */
+    protected final KeyPrefixDictionary _prefixes;
+
+    protected final double _nanosPerSavedByte;
+
+    protected final int _sampleLength;
+
+    /**
+     * Statistics for entries with prefixes from {@link #_prefixes}, in
+     * same order, followed by statistics for all other entries.
+     */
+    protected final Stats[] _stats;
+
+    public CompressionSelector(Collection<CompressionCodec> candidates,
+            KeyPrefixDictionary prefixes, double nanosPerSavedByte, int sampleLength)
+    {
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one candidate codec");
+        }
+        if (!(nanosPerSavedByte >= 0.0)) {
+            throw new IllegalArgumentException("Invalid nanosPerSavedByte ("+nanosPerSavedByte+"): can not be negative");
+        }
+        _candidates = candidates.toArray(new CompressionCodec[candidates.size()]);
+        _prefixes = prefixes;
+        _nanosPerSavedByte = nanosPerSavedByte;
+        _sampleLength = Math.max(1, sampleLength);
+        _stats = new Stats[((prefixes == null) ? 0 : prefixes.size()) + 1];
+        for (int i = 0; i < _stats.length; ++i) {
+            _stats[i] = new Stats(_candidates.length);
+        }
+    }
+
+    /**
+     * Factory method for constructing selector as per configuration, if
+     * adaptive compression is enabled.
+     *
+     * @return Selector to use, if adaptive compression enabled; null if not
+     */
+    public static CompressionSelector construct(StoreConfig config, KeyPrefixDictionary prefixes)
+    {
+        if (!config.compressionEnabled || !config.adaptiveCompression) {
+            return null;
+        }
+        List<CompressionCodec> codecs;
+        final String[] names = config.adaptiveCompressionCodecs;
+        if (names == null) {
+            codecs = Compressors.registeredCodecs();
+        } else {
+            codecs = new ArrayList<CompressionCodec>(names.length);
+            for (String name : names) {
+                Compression comp = Compression.forContentEncoding(name);
+                if (comp == null || comp == Compression.NONE) {
+                    throw new IllegalArgumentException("Unrecognized compression type '"+name
+                            +"' for adaptive compression");
+                }
+                codecs.add(Compressors.codecFor(comp));
+            }
+        }
+        return new CompressionSelector(codecs, prefixes,
+                config.compressionNanosPerSavedByte, Compressibility.DEFAULT_SAMPLE_LENGTH);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for choosing compression method to use for entry with given key,
+     * and content that starts with given bytes (which may be a leading
+     * part of full content, or all of it).
+     *
+     * @return Compression method to use; {@link Compression#NONE} if content
+     *    should be stored as is
+     */
+    public Compression select(StorableKey key, byte[] data, int offset, int len)
+    {
+        len = Math.min(len, _sampleLength);
+        if (Compressibility.looksIncompressible(data, offset, len)) {
+            return Compression.NONE;
+        }
+        final Stats stats = _statsFor(key);
+        if (stats.shouldTrial()) {
+            _trial(stats, data, offset, len);
+        }
+        int index = stats.best(_nanosPerSavedByte);
+        return (index < 0) ? Compression.NONE : _candidates[index].getCompression();
+    }
+
+    public Compression select(final StorableKey key, ByteContainer data)
+    {
+        return data.withBytes(new WithBytesCallback<Compression>() {
+            @Override
+            public Compression withBytes(byte[] buffer, int offset, int length) {
+                return select(key, buffer, offset, length);
+            }
+        }, 0, Math.min(data.byteLength(), _sampleLength));
+    }
+
+    /**
+     * Method called to update statistics with results of actual compression
+     * of an entry.
+     *
+     * @param nanos Time taken by compression, if known; negative if not
+     */
+    public void observe(StorableKey key, Compression comp, long origLength, long compLength,
+            long nanos)
+    {
+        int index = _indexOf(comp);
+        if (index >= 0 && origLength > 0L) {
+            _statsFor(key).update(index, (double) compLength / origLength,
+                    (nanos < 0L) ? -1.0 : (double) nanos / origLength);
+        }
+    }
+
+    /**
+     * Accessor for current expected compression ratio (compressed length
+     * divided by original length) for given compression and key.
+     *
+     * @return Expected ratio, if known; -1.0 if not
+     */
+    public double expectedRatio(StorableKey key, Compression comp)
+    {
+        int index = _indexOf(comp);
+        return (index < 0) ? -1.0 : _statsFor(key).ratio(index);
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected Stats _statsFor(StorableKey key)
+    {
+        if (_prefixes != null) {
+            int index = _prefixes.findPrefix(key);
+            if (index >= 0) {
+                return _stats[index];
+            }
+        }
+        return _stats[_stats.length-1];
+    }
+
+    protected int _indexOf(Compression comp)
+    {
+        for (int i = 0; i < _candidates.length; ++i) {
+            if (_candidates[i].getCompression() == comp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected void _trial(Stats stats, byte[] data, int offset, int len)
+    {
+        for (int i = 0; i < _candidates.length; ++i) {
+            final long start = System.nanoTime();
+            int compLength;
+            try {
+                compLength = _candidates[i].compress(data, offset, len).length;
+            } catch (IOException e) { // should not occur, but if it does, codec is of no use
+                compLength = len;
+            }
+            final long nanos = System.nanoTime() - start;
+            stats.update(i, (double) compLength / len, (double) nanos / len);
+        }
+    }
+
+    /**
+     * Running statistics for a single key prefix.
+     */
+    protected final static class Stats
+    {
+        /**
+         * Moving averages of compression ratios, per candidate; negative
+         * if not yet known
+         */
+        protected final double[] _ratios;
+
+        /**
+         * Moving averages of compression time in nanoseconds per input byte,
+         * per candidate; negative if not yet known
+         */
+        protected final double[] _nanosPerByte;
+
+        /**
+         * Number of entries seen so far; needs to be a long so that the
+         * trial schedule keeps working on long-running nodes (an int would
+         * overflow after 2^31 writes, after which every write would be trialed).
+         */
+        protected long _entries;
+
+        public Stats(int candidates) {
+            _ratios = new double[candidates];
+            _nanosPerByte = new double[candidates];
+            Arrays.fill(_ratios, -1.0);
+            Arrays.fill(_nanosPerByte, -1.0);
+        }
+
+        public synchronized boolean shouldTrial()
+        {
+            final long count = _entries++;
+            if (count < INITIAL_TRIALS || (count % TRIAL_INTERVAL) == 0) {
+                return true;
+            }
+            // also need trial if we know nothing about some of candidates
+            for (int i = 0; i < _ratios.length; ++i) {
+                if (_ratios[i] < 0.0 || _nanosPerByte[i] < 0.0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public synchronized void update(int index, double ratio, double nanosPerByte)
+        {
+            _ratios[index] = _average(_ratios[index], ratio);
+            if (nanosPerByte >= 0.0) {
+                _nanosPerByte[index] = _average(_nanosPerByte[index], nanosPerByte);
+            }
+        }
+
+        public synchronized double ratio(int index) {
+            return _ratios[index];
+        }
+
+        /**
+         * @return Index of the best candidate, if any has positive value;
+         *   -1 if none
+         */
+        public synchronized int best(double nanosPerSavedByte)
+        {
+            int bestIndex = -1;
+            double bestValue = 0.0;
+            for (int i = 0; i < _ratios.length; ++i) {
+                if (_ratios[i] < 0.0 || _nanosPerByte[i] < 0.0) {
+                    continue;
+                }
+                double value = (1.0 - _ratios[i]) * nanosPerSavedByte - _nanosPerByte[i];
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestIndex = i;
+                }
+            }
+            return bestIndex;
+        }
+
+        private final static double _average(double old, double value) {
+            if (old < 0.0) {
+                return value;
+            }
+            return old + NEW_WEIGHT * (value - old);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package com.fasterxml.storemate.store.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+
+/**
+ * Bounded cache of decompressed content of hot inlined entries, used to
+ * avoid decompressing the same content on every read. Cached copies are
+ * stored off-heap, and are keyed by entry key, last-modified timestamp
+ * and content hash, so that an updated entry never matches a stale copy
+ * (which is replaced instead).
+ *<p>
+ * Cache is split into segments by key hash, each with a lock of its own,
+ * so that concurrent readers of different entries need not contend.
+ * Within a segment, total size of cached content is bounded in bytes;
+ * eviction is done in least-recently-used order, but new content is only
+ * admitted if it has been requested more frequently than content it would
+ * evict (a "TinyLFU" style admission policy). Access frequencies are tracked
+ * approximately with a small count-min sketch per segment, halved
+ * periodically so that old popularity fades away.
+ *<p>
+ * Each segment allocates a single direct buffer ("slab") up front, and
+ * cached copies are stored in chains of fixed-size blocks of it; blocks of
+ * evicted copies are reused right away. Since memory is reused, content is
+ * copied to a heap buffer on hit, so that containers returned remain valid
+ * even if copy is evicted.
+ */
+public class DecompressedContentCache
+{
+    /**
+     * Maximum value of frequency counters; small, since we only need
+     * to tell hot entries from cold ones.
+     */
+    protected final static int MAX_FREQUENCY = 15;
+
+    /**
+     * Number of counters (hash functions) per key in frequency sketch.
+     */
+    protected final static int SKETCH_DEPTH = 4;
+
+    /**
+     * Size of blocks slab memory is allocated in, as shift (64 bytes)
+     */
+    protected final static int BLOCK_SHIFT = 6;
+
+    protected final static int BLOCK_SIZE = (1 << BLOCK_SHIFT);
+
+    protected final static int MAX_SEGMENTS = 16;
+
+    /**
+     * Cache is only split into more segments as long as each segment can
+     * still hold at least this many entries of maximum size.
+     */
+    protected final static int MIN_ENTRIES_PER_SEGMENT = 8;
+
+    /**
+     * Maximum size of a single segment (and its slab).
+     */
+    protected final static long MAX_SEGMENT_BYTES = (1L << 30);
+
+    /**
+     * Marker for "no block" in block chains.
+     */
+    private final static int NO_BLOCK = -1;
+
+    protected final long _maxBytes;
+
+    protected final int _maxEntryBytes;
+
+    private final Segment[] _segments;
+
+    private final int _segmentMask;
+
+    /*
+    /**********************************************************************
+    /* Statistics
+    /**********************************************************************
+     */
+
+    protected final LongAdder _cachedBytes = new LongAdder();
+
+    protected final LongAdder _entryCount = new LongAdder();
+
+    protected final LongAdder _hits = new LongAdder();
+
+    protected final LongAdder _misses = new LongAdder();
+
+    protected final LongAdder _rejected = new LongAdder();
+
+    protected final LongAdder _evicted = new LongAdder();
+
+    /*
+    /**********************************************************************
+    /* Construction
+    /**********************************************************************
+     */
+
+    /**
+     * @param maxBytes Maximum total size of cached content
+     * @param maxEntryBytes Maximum size of a single cached entry
+     */
+    public DecompressedContentCache(long maxBytes, int maxEntryBytes)
+    {
+        if (maxBytes <= 0L) {
+            throw new IllegalArgumentException("Invalid maxBytes ("+maxBytes+"): must be positive");
+        }
+        if (maxEntryBytes <= 0 || maxEntryBytes > maxBytes || maxEntryBytes > MAX_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Invalid maxEntryBytes ("+maxEntryBytes
+                    +"): must be positive, and no more than maxBytes ("+maxBytes+") or "
+                    +MAX_SEGMENT_BYTES);
+        }
+        _maxBytes = maxBytes;
+        _maxEntryBytes = maxEntryBytes;
+        int count = 1;
+        while (count < MAX_SEGMENTS
+                && (maxBytes / (count << 1)) >= (long) maxEntryBytes * MIN_ENTRIES_PER_SEGMENT) {
+            count <<= 1;
+        }
+        // and regardless, slabs can not be arbitrarily big
+        while ((maxBytes / count) > MAX_SEGMENT_BYTES) {
+            count <<= 1;
+        }
+        final long segmentBytes = maxBytes / count;
+        _segments = new Segment[count];
+        for (int i = 0; i < count; ++i) {
+            _segments[i] = new Segment(segmentBytes);
+        }
+        _segmentMask = count - 1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for finding cached decompressed content for specified version
+     * of an entry, if any. Each call also counts as an access, for purposes
+     * of admission.
+     *
+     * @return Decompressed content, if cached; null if not
+     */
+    public ByteContainer find(StorableKey key, long lastModified, int contentHash)
+    {
+        byte[] contents = _segmentFor(key).find(key, lastModified, contentHash);
+        if (contents == null) {
+            _misses.increment();
+            return null;
+        }
+        _hits.increment();
+        return ByteContainer.simple(contents);
+    }
+
+    /**
+     * Method for trying to add decompressed content of specified version of
+     * an entry; content is only added if it is not too big, and has been
+     * accessed more frequently than content that would need to be evicted
+     * to make room for it.
+     *
+     * @return True if content was cached; false if not
+     */
+    public boolean add(StorableKey key, long lastModified, int contentHash, ByteContainer contents)
+    {
+        if (contents.byteLength() > _maxEntryBytes) {
+            return false;
+        }
+        return _segmentFor(key).add(key, lastModified, contentHash, contents);
+    }
+
+    /**
+     * Method for removing cached copy of given entry, if any.
+     */
+    public void remove(StorableKey key) {
+        _segmentFor(key).remove(key);
+    }
+
+    public void clear() {
+        for (Segment segment : _segments) {
+            segment.clear();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, statistics
+    /**********************************************************************
+     */
+
+    public long getMaxBytes() { return _maxBytes; }
+
+    public long getCachedBytes() { return _cachedBytes.sum(); }
+
+    public int getEntryCount() { return (int) _entryCount.sum(); }
+
+    public long getHitCount() { return _hits.sum(); }
+
+    public long getMissCount() { return _misses.sum(); }
+
+    /**
+     * Accessor for number of times content was not admitted, due to
+     * content to evict being accessed more frequently.
+     */
+    public long getRejectedCount() { return _rejected.sum(); }
+
+    public long getEvictedCount() { return _evicted.sum(); }
+
+    /**
+     * Accessor for number of segments cache is split into.
+     */
+    public int getSegmentCount() { return _segments.length; }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    private Segment _segmentFor(StorableKey key)
+    {
+        // use different bits than frequency sketch (which uses low bits)
+        int hash = key.hashCode() * 0x85EBCA6B;
+        return _segments[(hash >>> 16) & _segmentMask];
+    }
+
+    private final static int _blocksFor(int length) {
+        return (length + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+    }
+
+    private final static int _rehash(int hash)
+    {
+        hash *= 0x9E3779B1;
+        // must be odd, to reach all counters
+        return (hash ^ (hash >>> 15)) | 1;
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Independently locked part of the cache; all state guarded by
+     * the segment instance itself.
+     */
+    private final class Segment
+    {
+        /**
+         * Cached copies, in access order (least recently used first).
+         */
+        private final LinkedHashMap<StorableKey,Cached> _entries
+            = new LinkedHashMap<StorableKey,Cached>(64, 0.75f, true);
+
+        private final ByteBuffer _slab;
+
+        /**
+         * Links between blocks, for both chains of cached copies and
+         * chain of free blocks.
+         */
+        private final int[] _nextBlock;
+
+        private int _freeHead;
+
+        private int _freeCount;
+
+        private long _bytes;
+
+        private final byte[] _frequencies;
+
+        private final int _sketchMask;
+
+        /**
+         * Number of frequency increments after which counters are halved.
+         */
+        private final int _resetInterval;
+
+        private int _incrementsSinceReset;
+
+        public Segment(long maxBytes)
+        {
+            final int blocks = (int) ((maxBytes + BLOCK_SIZE - 1) >> BLOCK_SHIFT);
+            _slab = ByteBuffer.allocateDirect(blocks << BLOCK_SHIFT);
+            _nextBlock = new int[blocks];
+            _resetFreeBlocks();
+            // size sketch by expected number of small entries cached (at ~256 bytes each)
+            long expEntries = Math.max(256L, Math.min(maxBytes >> 8, 1L << 24));
+            int width = Integer.highestOneBit((int) expEntries) << 2;
+            _frequencies = new byte[width];
+            _sketchMask = width - 1;
+            _resetInterval = width * 2;
+        }
+
+        public synchronized byte[] find(StorableKey key, long lastModified, int contentHash)
+        {
+            _recordAccess(key);
+            Cached cached = _entries.get(key);
+            if (cached != null) {
+                if (cached.matches(lastModified, contentHash)) {
+                    return _copyOut(cached);
+                }
+                // stale (older or newer version), no longer useful
+                _entries.remove(key);
+                _release(cached);
+            }
+            return null;
+        }
+
+        public synchronized boolean add(StorableKey key, long lastModified, int contentHash,
+                ByteContainer contents)
+        {
+            final Cached old = _entries.get(key);
+            if (old != null) {
+                // let's not replace newer version with older one
+                if (old.lastModified > lastModified || old.matches(lastModified, contentHash)) {
+                    return false;
+                }
+                _entries.remove(key);
+                _release(old);
+            }
+            final int length = contents.byteLength();
+            final int blocks = _blocksFor(length);
+            if (!_makeRoom(key, blocks)) {
+                _rejected.increment();
+                return false;
+            }
+            final int first = _allocate(blocks);
+            _copyIn(first, contents.asByteBuffer());
+            _entries.put(key, new Cached(lastModified, contentHash, first, length));
+            _bytes += length;
+            _cachedBytes.add(length);
+            _entryCount.increment();
+            return true;
+        }
+
+        public synchronized void remove(StorableKey key)
+        {
+            Cached cached = _entries.remove(key);
+            if (cached != null) {
+                _release(cached);
+            }
+        }
+
+        public synchronized void clear()
+        {
+            _cachedBytes.add(-_bytes);
+            _entryCount.add(-_entries.size());
+            _entries.clear();
+            _bytes = 0L;
+            _resetFreeBlocks();
+        }
+
+        /**
+         * Method for evicting least recently used entries, as long as they are
+         * less frequently accessed than given key, until there are enough
+         * free blocks for content of given size.
+         *
+         * @return True if there now is room; false if not (in which case
+         *   nothing was evicted)
+         */
+        private boolean _makeRoom(StorableKey key, int blocks)
+        {
+            int toFree = blocks - _freeCount;
+            if (toFree <= 0) {
+                return true;
+            }
+            final int freq = _frequency(key);
+            // first verify that enough can be evicted...
+            int victims = 0;
+            for (Map.Entry<StorableKey,Cached> entry : _entries.entrySet()) {
+                if (toFree <= 0) {
+                    break;
+                }
+                if (_frequency(entry.getKey()) >= freq) {
+                    return false;
+                }
+                ++victims;
+                toFree -= _blocksFor(entry.getValue().length);
+            }
+            if (toFree > 0) { // can only occur if content is bigger than segment
+                return false;
+            }
+            // and if so, evict
+            Iterator<Cached> it = _entries.values().iterator();
+            while (--victims >= 0) {
+                Cached victim = it.next();
+                it.remove();
+                _release(victim);
+                _evicted.increment();
+            }
+            return true;
+        }
+
+        private void _release(Cached cached)
+        {
+            _bytes -= cached.length;
+            _cachedBytes.add(-cached.length);
+            _entryCount.decrement();
+            final int first = cached.firstBlock;
+            if (first != NO_BLOCK) {
+                int last = first;
+                while (_nextBlock[last] != NO_BLOCK) {
+                    last = _nextBlock[last];
+                }
+                _nextBlock[last] = _freeHead;
+                _freeHead = first;
+                _freeCount += _blocksFor(cached.length);
+            }
+        }
+
+        private int _allocate(int blocks)
+        {
+            if (blocks == 0) {
+                return NO_BLOCK;
+            }
+            final int first = _freeHead;
+            int last = first;
+            for (int i = 1; i < blocks; ++i) {
+                last = _nextBlock[last];
+            }
+            _freeHead = _nextBlock[last];
+            _nextBlock[last] = NO_BLOCK;
+            _freeCount -= blocks;
+            return first;
+        }
+
+        private void _resetFreeBlocks()
+        {
+            final int last = _nextBlock.length - 1;
+            for (int i = 0; i < last; ++i) {
+                _nextBlock[i] = i+1;
+            }
+            _nextBlock[last] = NO_BLOCK;
+            _freeHead = 0;
+            _freeCount = _nextBlock.length;
+        }
+
+        private void _copyIn(int block, ByteBuffer src)
+        {
+            final int end = src.limit();
+            for (; src.position() < end; block = _nextBlock[block]) {
+                src.limit(Math.min(end, src.position() + BLOCK_SIZE));
+                _slab.position(block << BLOCK_SHIFT);
+                _slab.put(src);
+            }
+        }
+
+        private byte[] _copyOut(Cached cached)
+        {
+            final byte[] result = new byte[cached.length];
+            int block = cached.firstBlock;
+            for (int offset = 0; offset < result.length; offset += BLOCK_SIZE) {
+                _slab.position(block << BLOCK_SHIFT);
+                _slab.get(result, offset, Math.min(BLOCK_SIZE, result.length - offset));
+                block = _nextBlock[block];
+            }
+            return result;
+        }
+
+        private void _recordAccess(StorableKey key)
+        {
+            final int hash = key.hashCode();
+            final int hash2 = _rehash(hash);
+            for (int i = 0; i < SKETCH_DEPTH; ++i) {
+                int ix = (hash + i * hash2) & _sketchMask;
+                if (_frequencies[ix] < MAX_FREQUENCY) {
+                    ++_frequencies[ix];
+                }
+            }
+            if (++_incrementsSinceReset >= _resetInterval) {
+                _incrementsSinceReset = 0;
+                for (int i = 0; i < _frequencies.length; ++i) {
+                    _frequencies[i] >>= 1;
+                }
+            }
+        }
+
+        private int _frequency(StorableKey key)
+        {
+            final int hash = key.hashCode();
+            final int hash2 = _rehash(hash);
+            int min = MAX_FREQUENCY;
+            for (int i = 0; i < SKETCH_DEPTH; ++i) {
+                min = Math.min(min, _frequencies[(hash + i * hash2) & _sketchMask]);
+            }
+            return min;
+        }
+    }
+
+    private final static class Cached
+    {
+        public final long lastModified;
+
+        public final int contentHash;
+
+        /**
+         * First block of the chain content is stored in; NO_BLOCK
+         * for empty content.
+         */
+        public final int firstBlock;
+
+        public final int length;
+
+        public Cached(long lastModified, int contentHash, int firstBlock, int length) {
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.firstBlock = firstBlock;
+            this.length = length;
+        }
+
+        public boolean matches(long lastMod, int hash) {
+            return (lastMod == lastModified) && (hash == contentHash);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.fasterxml.storemate.store.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.StorableKeyList;
+import com.fasterxml.storemate.store.AdminStorableStore;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StorableView;
+import com.fasterxml.storemate.store.StoreException;
+import com.fasterxml.storemate.store.StoreOperationSource;
+import com.fasterxml.storemate.store.backend.IterationAction;
+import com.fasterxml.storemate.store.backend.IterationResult;
+import com.fasterxml.storemate.store.backend.StorableIterationCallback;
+import com.fasterxml.storemate.store.backend.StoreBackend;
+
+/**
+ * Helper class for sweeping over all entries of a store (in key order),
+ * and rewriting ones stored using an older entry format version
+ * using the current version.
+ *<p>
+ * To limit impact on regular operations, work is done in batches: each
+ * batch checks at most a fixed number of entries (without locking),
+ * and then rewrites ones that need migration, one by one, under entry
+ * locks. When run as a background task (see {@link #run}), migrator
+ * pauses between batches; sweep position is retained so that it can
+ * also be driven by calling {@link #runBatch} explicitly.
+ *<p>
+ * Note that migration only does something if store has been configured
+ * to write a newer version than entries use (see
+ * {@link com.fasterxml.storemate.store.StoreConfig#entryFormatVersion},
+ * which defaults to version 1); and that it is never started
+ * automatically: caller has to explicitly construct and run it.
+ */
+public class EntryFormatMigrator implements Runnable
+{
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    protected final AdminStorableStore _store;
+
+    protected final StoreBackend _backend;
+
+    protected final StorableConverter _converter;
+
+    /**
+     * Maximum number of entries to check during a single batch.
+     */
+    protected final int _maxToCheck;
+
+    /**
+     * Maximum number of entries to migrate during a single batch.
+     */
+    protected final int _maxToMigrate;
+
+    /**
+     * Length of pause between batches, when running as background task.
+     */
+    protected final long _pauseMsecs;
+
+    protected final AtomicBoolean _stopped = new AtomicBoolean(false);
+
+    /*
+    /**********************************************************************
+    /* State
+    /**********************************************************************
+     */
+
+    /**
+     * Key of the last entry checked, if any; next batch continues after it.
+     */
+    protected StorableKey _lastKey;
+
+    protected boolean _completed;
+
+    protected long _checked, _migrated;
+
+    /*
+    /**********************************************************************
+    /* Construction
+    /**********************************************************************
+     */
+
+    public EntryFormatMigrator(AdminStorableStore store,
+            int maxToCheckPerBatch, int maxToMigratePerBatch, long pauseBetweenBatchesMsecs)
+    {
+        _store = store;
+        _backend = store.getBackend();
+        _converter = _backend.getStorableConverter();
+        _maxToCheck = maxToCheckPerBatch;
+        _maxToMigrate = maxToMigratePerBatch;
+        _pauseMsecs = pauseBetweenBatchesMsecs;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for running the sweep to completion (or until {@link #stop}
+     * is called), pausing between batches.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            while (!_stopped.get() && runBatch()) {
+                if (_pauseMsecs > 0L) {
+                    Thread.sleep(_pauseMsecs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.error("Entry format migration failed after checking {} entries (migrated {}): {}",
+                    _checked, _migrated, e.getMessage());
+        }
+    }
+
+    /**
+     * Method for running a single batch of migration.
+     *
+     * @return True if there are more entries to check; false if sweep
+     *   has completed
+     */
+    public boolean runBatch() throws IOException, StoreException
+    {
+        if (_completed) {
+            return false;
+        }
+        Collector collector = new Collector();
+        IterationResult result = (_lastKey == null)
+                ? _backend.iterateEntriesByKey(collector)
+                : _backend.iterateEntriesAfterKey(collector, _lastKey);
+        _checked += collector.checked;
+        // Rewrite after iteration, so as not to hold iterator over writes
+        for (StorableKey key : collector.toMigrate) {
+            if (_store.migrateEntry(StoreOperationSource.CLEANUP, key) != null) {
+                ++_migrated;
+            }
+        }
+        if (result == IterationResult.FULLY_ITERATED) {
+            _completed = true;
+            return false;
+        }
+        _lastKey = collector.lastKey;
+        return true;
+    }
+
+    public void stop() {
+        _stopped.set(true);
+    }
+
+    public boolean isCompleted() { return _completed; }
+
+    public long getCheckedCount() { return _checked; }
+
+    public long getMigratedCount() { return _migrated; }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    private final class Collector extends StorableIterationCallback
+    {
+        public final List<StorableKey> toMigrate = new StorableKeyList();
+
+        public StorableKey lastKey;
+
+        public int checked;
+
+        @Override
+        public IterationAction verifyKey(StorableKey key) {
+            return IterationAction.PROCESS_ENTRY;
+        }
+
+        @Override
+        public IterationAction processEntry(Storable entry) {
+            if (_converter.needsUpgrade(entry.getFormatVersion())) {
+                toMigrate.add(entry.getKey());
+            }
+            if (_batchFull()) {
+                lastKey = entry.getKey();
+                return IterationAction.TERMINATE_ITERATION;
+            }
+            return IterationAction.PROCESS_ENTRY;
+        }
+
+        // Only need to check version marker, so views are perfect fit
+        @Override
+        public boolean wantsViews() {
+            return true;
+        }
+
+        @Override
+        public IterationAction processView(StorableView entry) {
+            if (_converter.needsUpgrade(entry.getFormatVersion())) {
+                toMigrate.add(entry.getKey());
+            }
+            if (_batchFull()) {
+                lastKey = entry.getKey();
+                return IterationAction.TERMINATE_ITERATION;
+            }
+            return IterationAction.PROCESS_ENTRY;
+        }
+
+        private boolean _batchFull() {
+            return (++checked >= _maxToCheck) || (toMigrate.size() >= _maxToMigrate);
+        }
+    }
+}
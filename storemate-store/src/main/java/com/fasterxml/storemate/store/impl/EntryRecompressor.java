@@ -0,0 +1,367 @@
+package com.fasterxml.storemate.store.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.TimeMaster;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.AdminStorableStore;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StorableCreationResult;
+import com.fasterxml.storemate.store.StorableView;
+import com.fasterxml.storemate.store.StoreException;
+import com.fasterxml.storemate.store.StoreOperationSource;
+import com.fasterxml.storemate.store.backend.IterationAction;
+import com.fasterxml.storemate.store.backend.IterationResult;
+import com.fasterxml.storemate.store.backend.StorableLastModIterationCallback;
+import com.fasterxml.storemate.store.backend.StoreBackend;
+import com.fasterxml.storemate.store.lastaccess.LastAccessStore;
+import com.fasterxml.storemate.store.lastaccess.LastAccessUpdateMethod;
+
+/**
+ * Helper class for sweeping over "cold" entries of a store (in last-modified
+ * order, from oldest to newest), and recompressing ones compressed using
+ * some other (usually faster, like LZF) compression method using a
+ * higher-ratio method (like GZIP). Entries are cold if they were last
+ * modified (and optionally, last accessed, see {@link LastAccessChecker})
+ * at least specified amount of time ago.
+ *<p>
+ * Work is done in batches, similar to {@link EntryFormatMigrator}: each
+ * batch checks at most a fixed number of entries (without locking), and
+ * then recompresses candidates one by one using
+ * {@link AdminStorableStore#recompressEntry}, which only swaps entries
+ * that were not modified concurrently. Entries that were not compressed,
+ * or were compressed using a preset dictionary, are left as is.
+ * When run as a background task (see {@link #run}), recompressor pauses
+ * between batches.
+ */
+public class EntryRecompressor implements Runnable
+{
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    protected final AdminStorableStore _store;
+
+    protected final StoreBackend _backend;
+
+    protected final TimeMaster _timeMaster;
+
+    /**
+     * Compression method to use for cold entries.
+     */
+    protected final Compression _compression;
+
+    /**
+     * Minimum time since last modification (and last access, if known)
+     * for entry to be considered cold.
+     */
+    protected final long _minAgeMsecs;
+
+    /**
+     * Optional checker for last-access time of entries.
+     */
+    protected final LastAccessChecker<?,?> _accessChecker;
+
+    /**
+     * Maximum number of entries to check during a single batch.
+     */
+    protected final int _maxToCheck;
+
+    /**
+     * Maximum number of entries to recompress during a single batch.
+     */
+    protected final int _maxToRecompress;
+
+    /**
+     * Length of pause between batches, when running as background task.
+     */
+    protected final long _pauseMsecs;
+
+    protected final AtomicBoolean _stopped = new AtomicBoolean(false);
+
+    /*
+    /**********************************************************************
+    /* State
+    /**********************************************************************
+     */
+
+    /**
+     * Last-modified timestamp of the last entry checked; next batch
+     * continues from it.
+     */
+    protected long _nextTimestamp;
+
+    /**
+     * Number of entries with {@link #_nextTimestamp} already checked,
+     * to skip on next batch.
+     */
+    protected int _skipAtTimestamp;
+
+    protected boolean _completed;
+
+    protected long _checked, _recompressed, _conflicts, _failed;
+
+    /**
+     * Total reduction of storage size of recompressed entries.
+     */
+    protected long _reclaimedBytes;
+
+    /*
+    /**********************************************************************
+    /* Construction
+    /**********************************************************************
+     */
+
+    public EntryRecompressor(AdminStorableStore store, Compression compression, long minAgeMsecs,
+            int maxToCheckPerBatch, int maxToRecompressPerBatch, long pauseBetweenBatchesMsecs)
+    {
+        this(store, compression, minAgeMsecs, null,
+                maxToCheckPerBatch, maxToRecompressPerBatch, pauseBetweenBatchesMsecs);
+    }
+
+    /**
+     * @param accessChecker (optional) Checker for finding last-access time of
+     *   entries; if given, entries also need to have been last accessed at
+     *   least <code>minAgeMsecs</code> ago to be recompressed
+     */
+    public EntryRecompressor(AdminStorableStore store, Compression compression, long minAgeMsecs,
+            LastAccessChecker<?,?> accessChecker,
+            int maxToCheckPerBatch, int maxToRecompressPerBatch, long pauseBetweenBatchesMsecs)
+    {
+        if (compression == null || compression == Compression.NONE) {
+            throw new IllegalArgumentException("Invalid compression for recompression: "+compression);
+        }
+        _store = store;
+        _backend = store.getBackend();
+        _timeMaster = store.getTimeMaster();
+        _compression = compression;
+        _minAgeMsecs = minAgeMsecs;
+        _accessChecker = accessChecker;
+        _maxToCheck = maxToCheckPerBatch;
+        _maxToRecompress = maxToRecompressPerBatch;
+        _pauseMsecs = pauseBetweenBatchesMsecs;
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method for running the sweep to completion (or until {@link #stop}
+     * is called), pausing between batches.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            while (!_stopped.get() && runBatch()) {
+                if (_pauseMsecs > 0L) {
+                    Thread.sleep(_pauseMsecs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.error("Recompression failed after checking {} entries (recompressed {}): {}",
+                    _checked, _recompressed, e.getMessage());
+        }
+    }
+
+    /**
+     * Method for running a single batch of recompression.
+     *
+     * @return True if there are more entries to check; false if sweep
+     *   has completed
+     */
+    public boolean runBatch() throws IOException, StoreException
+    {
+        if (_completed) {
+            return false;
+        }
+        final long now = _timeMaster.currentTimeMillis();
+        final long cutoff = now - _minAgeMsecs;
+        Collector collector = new Collector(cutoff);
+        IterationResult result = _backend.iterateEntriesByModifiedTime(collector, _nextTimestamp);
+        _checked += collector.checked;
+        // Recompress after iteration, so as not to hold iterator over writes
+        for (Storable entry : collector.candidates) {
+            if (_accessChecker != null && _accessChecker.findLastAccessTime(entry) > cutoff) {
+                continue;
+            }
+            final StorableKey key = entry.getKey();
+            try {
+                StorableCreationResult recomp = _store.recompressEntry(StoreOperationSource.CLEANUP,
+                        key, _compression);
+                if (recomp == null) {
+                    continue;
+                }
+                if (recomp.succeeded()) {
+                    ++_recompressed;
+                    _reclaimedBytes += recomp.getPreviousEntry().getStorageLength()
+                            - recomp.getNewEntry().getStorageLength();
+                } else {
+                    ++_conflicts;
+                }
+            } catch (StoreException e) { // should not prevent recompression of others
+                ++_failed;
+                LOG.warn("Failed to recompress entry {}: {}", key, e.getMessage());
+            }
+        }
+        if (result != IterationResult.TERMINATED_FOR_ENTRY) { // all cold entries checked
+            _completed = true;
+            return false;
+        }
+        _nextTimestamp = collector.lastTimestamp;
+        _skipAtTimestamp = collector.countAtTimestamp;
+        return true;
+    }
+
+    public void stop() {
+        _stopped.set(true);
+    }
+
+    public boolean isCompleted() { return _completed; }
+
+    public long getCheckedCount() { return _checked; }
+
+    public long getRecompressedCount() { return _recompressed; }
+
+    /**
+     * Accessor for number of entries that were modified concurrently
+     * during recompression, and thereby not rewritten.
+     */
+    public long getConflictCount() { return _conflicts; }
+
+    public long getFailedCount() { return _failed; }
+
+    /**
+     * Accessor for total reduction in storage size of entries recompressed
+     * so far.
+     */
+    public long getReclaimedBytes() { return _reclaimedBytes; }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Helper class used for checking when an entry was last accessed, based
+     * on information in a {@link LastAccessStore}; sub-classes need to map
+     * entries to keys and access methods used by the store.
+     */
+    public abstract static class LastAccessChecker<K, ACC extends LastAccessUpdateMethod>
+    {
+        protected final LastAccessStore<K,?,ACC> _lastAccessStore;
+
+        protected LastAccessChecker(LastAccessStore<K,?,ACC> lastAccessStore) {
+            _lastAccessStore = lastAccessStore;
+        }
+
+        /**
+         * @return Timestamp of last access of given entry, if known; 0L if not
+         */
+        public long findLastAccessTime(Storable entry)
+        {
+            ACC method = lastAccessMethod(entry);
+            if (method == null) {
+                return 0L;
+            }
+            return _lastAccessStore.findLastAccessTime(lastAccessKey(entry), method);
+        }
+
+        protected abstract K lastAccessKey(Storable entry);
+
+        /**
+         * @return Method used for tracking last access of given entry; null if
+         *    entry does not track last access
+         */
+        protected abstract ACC lastAccessMethod(Storable entry);
+    }
+
+    private final class Collector extends StorableLastModIterationCallback
+    {
+        public final List<Storable> candidates = new ArrayList<Storable>();
+
+        private final long _cutoff;
+
+        private final long _firstTimestamp;
+
+        private int _toSkip;
+
+        public long lastTimestamp;
+
+        public int countAtTimestamp;
+
+        public int checked;
+
+        public Collector(long cutoff) {
+            _cutoff = cutoff;
+            _firstTimestamp = _nextTimestamp;
+            _toSkip = _skipAtTimestamp;
+        }
+
+        @Override
+        public IterationAction verifyTimestamp(long timestamp) {
+            if (timestamp > _cutoff) {
+                return IterationAction.TERMINATE_ITERATION;
+            }
+            if (timestamp == lastTimestamp) {
+                ++countAtTimestamp;
+            } else {
+                lastTimestamp = timestamp;
+                countAtTimestamp = 1;
+            }
+            // skip entries checked by the previous batch
+            if (_toSkip > 0 && timestamp == _firstTimestamp) {
+                --_toSkip;
+                return IterationAction.SKIP_ENTRY;
+            }
+            return IterationAction.PROCESS_ENTRY;
+        }
+
+        @Override
+        public IterationAction verifyKey(StorableKey key) {
+            return IterationAction.PROCESS_ENTRY;
+        }
+
+        @Override
+        public IterationAction processEntry(Storable entry) {
+            if (_isCandidate(entry.isDeleted(), entry.getCompression(), entry.getDictionaryId())) {
+                candidates.add(entry);
+            }
+            return _batchFull() ? IterationAction.TERMINATE_ITERATION : IterationAction.PROCESS_ENTRY;
+        }
+
+        // Can mostly check fixed-width fields, so views are a good fit
+        @Override
+        public boolean wantsViews() {
+            return true;
+        }
+
+        @Override
+        public IterationAction processView(StorableView entry) {
+            if (_isCandidate(entry.isDeleted(), entry.getCompression(), entry.getDictionaryId())) {
+                candidates.add(entry.toStorable());
+            }
+            return _batchFull() ? IterationAction.TERMINATE_ITERATION : IterationAction.PROCESS_ENTRY;
+        }
+
+        private boolean _isCandidate(boolean deleted, Compression comp, int dictionaryId) {
+            return !deleted && (comp != Compression.NONE) && (comp != _compression)
+                    && (dictionaryId == 0);
+        }
+
+        private boolean _batchFull() {
+            return (++checked >= _maxToCheck) || (candidates.size() >= _maxToRecompress);
+        }
+    }
+}
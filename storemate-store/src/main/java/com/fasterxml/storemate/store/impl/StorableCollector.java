@@ -2,7 +2,9 @@ package com.fasterxml.storemate.store.impl;
 
 import java.util.*;
 
+import com.fasterxml.storemate.shared.KeyPrefixDictionary;
 import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.StorableKeyList;
 
 import com.fasterxml.storemate.store.Storable;
 import com.fasterxml.storemate.store.backend.IterationAction;
@@ -10,15 +12,33 @@ import com.fasterxml.storemate.store.backend.StorableIterationCallback;
 
 public abstract class StorableCollector extends StorableIterationCallback 
 {
+    /**
+     * Upper limit for initial capacity of key list, to avoid
+     * over-allocation for big maximums
+     */
+    private final static int MAX_INITIAL_CAPACITY = 1000;
+
     protected final int maxKeys;
 
     public int total = 0;
 
-    protected final ArrayList<StorableKey> keys;
+    /**
+     * Collected keys are stored in compact form, as the number of keys
+     * collected may be big.
+     */
+    protected final StorableKeyList keys;
     
     public StorableCollector(int maxToCollect) {
+        this(maxToCollect, null);
+    }
+
+    /**
+     * @param prefixes Optional dictionary of common key prefixes, used for
+     *   reducing memory usage of collected keys
+     */
+    public StorableCollector(int maxToCollect, KeyPrefixDictionary prefixes) {
         maxKeys = maxToCollect;
-        keys = new ArrayList<StorableKey>(maxToCollect);
+        keys = new StorableKeyList(Math.min(maxToCollect, MAX_INITIAL_CAPACITY), prefixes);
     }
 
     public List<StorableKey> getCollected() { return keys; }
@@ -1,11 +1,11 @@
 package com.fasterxml.storemate.store.impl;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import com.fasterxml.storemate.shared.ByteContainer;
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.shared.compress.Compression;
-import com.fasterxml.storemate.shared.util.IOUtil;
 import com.fasterxml.storemate.shared.util.WithBytesAsArray;
 import com.fasterxml.storemate.shared.util.WithBytesCallback;
 import com.fasterxml.storemate.store.Storable;
@@ -35,6 +35,26 @@ public class StorableConverter
     public final static int OFFSET_EXT_PATH_LENGTH = 11; // 
 
     public final static int OFFSET_CONTENT_HASH = 12;
+
+    // Rest of offsets only apply to VERSION_2 (for VERSION_1, rest of
+    // header is variable-length)
+
+    public final static int OFFSET_V2_COMPRESSED_HASH = 16;
+    public final static int OFFSET_V2_EXT_HASH_LENGTH = 20; // 0, 8 or 16
+    public final static int OFFSET_V2_FLAGS = 21; // reserved, currently 0
+    public final static int OFFSET_V2_DICTIONARY_ID = 22; // 2 bytes; 0 for "none"
+    public final static int OFFSET_V2_TTL = 24; // seconds; 0 for "none"
+    public final static int OFFSET_V2_METADATA_LENGTH = 28;
+    public final static int OFFSET_V2_ORIGINAL_LENGTH = 32; // -1 if not compressed
+    public final static int OFFSET_V2_STORAGE_LENGTH = 40;
+
+    /**
+     * Optional extended (64- or 128-bit) content hash, if any, starts right
+     * after fixed header; followed by metadata, then payload.
+     */
+    public final static int OFFSET_V2_EXT_HASH = 48;
+
+    public final static int V2_HEADER_LENGTH = OFFSET_V2_EXT_HASH;
     
     /*
     /**********************************************************************
@@ -43,17 +63,73 @@ public class StorableConverter
      */
     
     /**
-     * Currently we only support the initial version
+     * Initial version, in which only the first 16 bytes of header have
+     * fixed offsets, followed by variable-length fields.
      */
     public final static byte VERSION_1 = 0x11;
 
+    /**
+     * Second version, with fixed-width header, room for extended content
+     * hash and time-to-live; all field offsets are directly addressable.
+     */
+    public final static byte VERSION_2 = 0x12;
+
+    /**
+     * Version used for encoding new entries, unless otherwise configured.
+     * Kept at {@link #VERSION_1} for now, so that nodes can be rolled back
+     * to versions that can not read {@link #VERSION_2} entries.
+     */
+    public final static byte DEFAULT_VERSION = VERSION_1;
+
     /*
     /**********************************************************************
     /* Construction
     /**********************************************************************
      */
 
-    public StorableConverter() { }
+    /**
+     * Format version to use for encoding entries; decoding supports all
+     * known versions.
+     */
+    protected final byte _outputVersion;
+
+    public StorableConverter() {
+        this(DEFAULT_VERSION);
+    }
+
+    public StorableConverter(byte outputVersion) {
+        if (outputVersion != VERSION_1 && outputVersion != VERSION_2) {
+            throw new IllegalArgumentException("Unsupported version number: 0x"
+                    +Integer.toHexString(outputVersion));
+        }
+        _outputVersion = outputVersion;
+    }
+
+    /**
+     * Helper method for mapping external ("1", "2") version number into
+     * internal version marker.
+     */
+    public static byte versionFor(int externalVersion) {
+        switch (externalVersion) {
+        case 1:
+            return VERSION_1;
+        case 2:
+            return VERSION_2;
+        }
+        throw new IllegalArgumentException("Unsupported entry format version: "+externalVersion);
+    }
+
+    public byte getOutputVersion() {
+        return _outputVersion;
+    }
+
+    /**
+     * Method for checking whether entry with given format version should
+     * be rewritten using the current output version.
+     */
+    public boolean needsUpgrade(byte version) {
+        return (version != _outputVersion) && (version == VERSION_1);
+    }
     
     /*
     /**********************************************************************
@@ -65,10 +141,41 @@ public class StorableConverter
         return decode(key, raw, 0, raw.length);
     }
 
+    /**
+     * Alternate decode method that accepts any {@link ByteContainer},
+     * including ones backed by direct or memory-mapped
+     * {@link java.nio.ByteBuffer}s: for {@link #VERSION_2} entries
+     * contents are not copied, and resulting {@link Storable} refers to
+     * given container. Entries of older versions need to be copied in heap
+     * if container is not array-backed.
+     */
+    public Storable decode(final StorableKey key, ByteContainer raw)
+    {
+        final int length = raw.byteLength();
+        if (length > OFFSET_VERSION && raw.get(OFFSET_VERSION) == VERSION_2) {
+            return _decodeV2(key, raw.asByteBuffer(), raw);
+        }
+        return raw.withBytes(new WithBytesCallback<Storable>() {
+            @Override
+            public Storable withBytes(byte[] buffer, int offset, int len) {
+                return _decodeV1(key, buffer, offset, len);
+            }
+        });
+    }
+
     public Storable decode(StorableKey key,
     		final byte[] raw, final int offset, final int length)
     {
-        // as per Javadocs, offset always 0, size same as arrays:
+        if (length > OFFSET_VERSION && raw[offset+OFFSET_VERSION] == VERSION_2) {
+            return _decodeV2(key, ByteBuffer.wrap(raw, offset, length).slice(),
+                    ByteContainer.simple(raw, offset, length));
+        }
+        return _decodeV1(key, raw, offset, length);
+    }
+
+    protected Storable _decodeV1(StorableKey key,
+            final byte[] raw, final int offset, final int length)
+    {
         BytesToStuff reader = new BytesToStuff(raw, offset, length);
         
         /*
@@ -103,12 +210,13 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             originalLength = -1;
         }
         final int metadataLength = reader.nextVInt();
-        final int metadataOffset = reader.offset();
+        // note: offsets are relative to start of the entry
+        final int metadataOffset = reader.offset() - offset;
 
         reader.skip(metadataLength);
         
         final long storageLength = reader.nextVLong();
-        final int payloadOffset = reader.offset();
+        final int payloadOffset = reader.offset() - offset;
 
         // and one more branch: inlined or external storage?
         if (externalPathLength > 0) { // external; should only have ext path in there
@@ -130,6 +238,43 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             );
     }
 
+    /**
+     * @param raw Buffer with entry contents, position 0 and limit at end of entry
+     * @param rawContainer Container over the same contents
+     */
+    protected Storable _decodeV2(StorableKey key, final ByteBuffer raw, ByteContainer rawContainer)
+    {
+        final int length = raw.limit();
+        if (length < V2_HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid entry: only "+length
+                    +" bytes, less than minimum of "+V2_HEADER_LENGTH);
+        }
+        final int statusFlags = raw.get(OFFSET_STATUS);
+        final Compression compression = _decodeCompression(raw.get(OFFSET_COMPRESSION));
+        final int externalPathLength = raw.get(OFFSET_EXT_PATH_LENGTH) & 0xFF;
+        final int extHashLength = _verifyExtHashLength(raw.get(OFFSET_V2_EXT_HASH_LENGTH));
+        final int metadataLength = raw.getInt(OFFSET_V2_METADATA_LENGTH);
+        final long storageLength = raw.getLong(OFFSET_V2_STORAGE_LENGTH);
+
+        final int metadataOffset = OFFSET_V2_EXT_HASH + extHashLength;
+        final int payloadOffset = metadataOffset + metadataLength;
+        final long payloadLength = (externalPathLength > 0) ? externalPathLength : storageLength;
+        if (metadataLength < 0 || storageLength < 0L
+                || (payloadOffset + payloadLength) != length) {
+            throw new IllegalArgumentException("Invalid entry: header lengths (ext hash "+extHashLength
+                    +", metadata "+metadataLength+", payload "+payloadLength
+                    +") do not add up to entry length ("+length+")");
+        }
+        return new Storable(key, rawContainer,
+                raw.getLong(OFFSET_LASTMOD), statusFlags, compression, externalPathLength,
+                raw.getInt(OFFSET_CONTENT_HASH), raw.getInt(OFFSET_V2_COMPRESSED_HASH),
+                raw.getLong(OFFSET_V2_ORIGINAL_LENGTH),
+                metadataOffset, metadataLength,
+                payloadOffset, storageLength,
+                OFFSET_V2_EXT_HASH, extHashLength,
+                raw.getInt(OFFSET_V2_TTL), raw.getShort(OFFSET_V2_DICTIONARY_ID) & 0xFFFF);
+    }
+
     /*
     /**********************************************************************
     /* Public API, converting from storable pieces into DB entry
@@ -140,15 +285,24 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
             ByteContainer inlineData)
     {
-        StuffToBytes estimator = StuffToBytes.estimator();
-        _encodeInlined(key, estimator, false,
-                modtime, stdMetadata, customMetadata, inlineData);
-        StuffToBytes writer = StuffToBytes.writer(estimator.offset());
-        return _encodeInlined(key, writer, true,
+        if (_outputVersion == VERSION_2) {
+            return _encodeV2(key, modtime, stdMetadata, customMetadata, inlineData, null);
+        }
+        if (stdMetadata.dictionaryId != 0) {
+            throw new IllegalStateException("Can not encode entry compressed using dictionary "
+                    +stdMetadata.dictionaryId+" with format version 0x"+Integer.toHexString(_outputVersion));
+        }
+        // Exact length is easy enough to calculate from pieces, so that we can
+        // avoid separate estimation pass, as well as over-allocation
+        final int dataLength = (inlineData == null) ? 0 : inlineData.byteLength();
+        int len = _fixedAndMetadataLength(stdMetadata, _inlinedUncompressedLength(stdMetadata),
+                customMetadata);
+        len += StuffToBytes.vIntLength(dataLength) + dataLength;
+        return _encodeInlined(key, StuffToBytes.exactWriter(len),
                 modtime, stdMetadata, customMetadata, inlineData);
     }
     
-    private Storable _encodeInlined(StorableKey key, StuffToBytes writer, boolean createStorable,
+    private Storable _encodeInlined(StorableKey key, StuffToBytes writer,
             long modtime,
             StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
             ByteContainer inlineData)
@@ -162,15 +316,10 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             ;
 
         if (stdMetadata.usesCompression()) {
-            long uncompLen = stdMetadata.uncompressedSize;
-            if (uncompLen == -1L) { // VInts/VLongs not used for negative here, mask
-                uncompLen = 0;
-            }
             writer.appendInt(stdMetadata.compressedContentHash) // comp hash
-                .appendVLong(uncompLen); // orig length
+                .appendVLong(_inlinedUncompressedLength(stdMetadata)); // orig length
         }
         
-        final int metadataOffset = writer.offset();
         final int metadataLength;
         
         // metadata section
@@ -181,6 +330,8 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             writer.appendLengthAndBytes(customMetadata);
             metadataLength = customMetadata.byteLength();
         }
+        // offset points to metadata itself, not the length prefix
+        final int metadataOffset = writer.offset() - metadataLength;
 
         final int payloadOffset;
         if (inlineData == null) {
@@ -191,9 +342,6 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             payloadOffset = writer.offset();
             writer.appendBytes(inlineData);
         }
-        if (!createStorable) {
-            return null;
-        }
         return new Storable(key, writer.bufferedBytes(), modtime,
                 stdMetadata.statusAsByte(), stdMetadata.compression, 0,
                 stdMetadata.contentHash, stdMetadata.compressedContentHash, stdMetadata.uncompressedSize,
@@ -206,28 +354,33 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
             FileReference externalData)
     {
-        StuffToBytes estimator = StuffToBytes.estimator();
-        _encodeOfflined(key, estimator, false,
-                modtime, stdMetadata, customMetadata, externalData);
-        StuffToBytes writer = StuffToBytes.writer(estimator.offset());
-        return _encodeOfflined(key, writer, true,
-                modtime, stdMetadata, customMetadata, externalData);
+        // External references are ASCII, so String length equals byte length
+        final String ref = externalData.getReference();
+        final int refLength = ref.length();
+        if (refLength > 255) { // sanity check
+            throw new IllegalStateException("Length of external reference ("+refLength+") exceeds 255");
+        }
+        if (_outputVersion == VERSION_2) {
+            return _encodeV2(key, modtime, stdMetadata, customMetadata, null, ref);
+        }
+        int len = _fixedAndMetadataLength(stdMetadata, stdMetadata.uncompressedSize,
+                customMetadata);
+        len += StuffToBytes.vLongLength(stdMetadata.storageSize) + refLength;
+        return _encodeOfflined(key, StuffToBytes.exactWriter(len),
+                modtime, stdMetadata, customMetadata, ref);
     }
 
-    private Storable _encodeOfflined(StorableKey key, StuffToBytes writer, boolean createStorable,
+    private Storable _encodeOfflined(StorableKey key, StuffToBytes writer,
             long modtime,
             StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
-            FileReference externalData)
+            String ref)
     {
-        byte[] rawRef = IOUtil.getAsciiBytes(externalData.getReference());
-        if (rawRef.length > 255) { // sanity check
-            throw new IllegalStateException("Length of external reference ("+rawRef.length+") exceeds 255");
-        }
+        final int refLength = ref.length();
         writer.appendLong(modtime)
             .appendByte(VERSION_1) // version
             .appendByte(stdMetadata.statusAsByte()) // status
             .appendByte(stdMetadata.compressionAsByte()) // compression
-            .appendByte((byte) rawRef.length) // external path length (none for inlined)
+            .appendByte((byte) refLength) // external path length
             .appendInt(stdMetadata.contentHash)
         ;
 
@@ -236,7 +389,6 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
                 .appendVLong(stdMetadata.uncompressedSize); // orig length
         }
         
-        final int metadataOffset = writer.offset();
         final int metadataLength;
         
         // metadata section
@@ -247,22 +399,160 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
             writer.appendLengthAndBytes(customMetadata);
             metadataLength = customMetadata.byteLength();
         }
+        // offset points to metadata itself, not the length prefix
+        final int metadataOffset = writer.offset() - metadataLength;
         writer.appendVLong(stdMetadata.storageSize);
         // NOTE: although storageSize is technically part of payload section, 'payloadOffset'
         // is to point to actual payload data
         final int payloadOffset = writer.offset();
-        writer.appendBytes(rawRef);
+        writer.appendAsciiBytes(ref);
 
-        if (!createStorable) {
-            return null;
-        }
         return new Storable(key, writer.bufferedBytes(), modtime,
-                stdMetadata.statusAsByte(), stdMetadata.compression, rawRef.length,
+                stdMetadata.statusAsByte(), stdMetadata.compression, refLength,
                 stdMetadata.contentHash, stdMetadata.compressedContentHash, stdMetadata.uncompressedSize,
                 metadataOffset, metadataLength,
                 payloadOffset, stdMetadata.storageSize);
     }
 
+    /**
+     * Encoding method for {@link #VERSION_2}: since all lengths are of
+     * fixed size, exact length is trivial to calculate.
+     */
+    protected Storable _encodeV2(StorableKey key, long modtime,
+            StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
+            ByteContainer inlineData, String extRef)
+    {
+        final byte[] extHash = stdMetadata.extendedContentHash;
+        final int extHashLength = (extHash == null) ? 0 : _verifyExtHashLength(extHash.length);
+        final int metadataLength = (customMetadata == null) ? 0 : customMetadata.byteLength();
+        final int extRefLength = (extRef == null) ? 0 : extRef.length();
+        final long storageLength;
+        final int payloadLength;
+
+        if (extRef == null) {
+            payloadLength = (inlineData == null) ? 0 : inlineData.byteLength();
+            storageLength = payloadLength;
+        } else {
+            payloadLength = extRefLength;
+            storageLength = stdMetadata.storageSize;
+        }
+        final boolean compressed = stdMetadata.usesCompression();
+        final int compressedHash = compressed ? stdMetadata.compressedContentHash : 0;
+        final long originalLength = compressed ? stdMetadata.uncompressedSize : -1L;
+        final int dictionaryId = compressed ? stdMetadata.dictionaryId : 0;
+        final int metadataOffset = OFFSET_V2_EXT_HASH + extHashLength;
+        final int payloadOffset = metadataOffset + metadataLength;
+
+        StuffToBytes writer = StuffToBytes.exactWriter(payloadOffset + payloadLength);
+        writer.appendLong(modtime)
+            .appendByte(VERSION_2)
+            .appendByte(stdMetadata.statusAsByte())
+            .appendByte(stdMetadata.compressionAsByte())
+            .appendByte((byte) extRefLength)
+            .appendInt(stdMetadata.contentHash)
+            .appendInt(compressedHash)
+            .appendByte((byte) extHashLength)
+            .appendByte((byte) 0) // flags
+            .appendByte((byte) (dictionaryId >> 8)).appendByte((byte) dictionaryId)
+            .appendInt(stdMetadata.timeToLiveSecs)
+            .appendInt(metadataLength)
+            .appendLong(originalLength)
+            .appendLong(storageLength);
+        if (extHash != null) {
+            writer.appendBytes(extHash);
+        }
+        if (customMetadata != null) {
+            writer.appendBytes(customMetadata);
+        }
+        if (extRef != null) {
+            writer.appendAsciiBytes(extRef);
+        } else if (inlineData != null) {
+            writer.appendBytes(inlineData);
+        }
+        return new Storable(key, writer.bufferedBytes(), modtime,
+                stdMetadata.statusAsByte(), stdMetadata.compression, extRefLength,
+                stdMetadata.contentHash, compressedHash, originalLength,
+                metadataOffset, metadataLength,
+                payloadOffset, storageLength,
+                OFFSET_V2_EXT_HASH, extHashLength, stdMetadata.timeToLiveSecs, dictionaryId);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API, format migration
+    /**********************************************************************
+     */
+
+    /**
+     * Method for re-encoding given entry using current output format version,
+     * if (and only if) it uses an older version; all fields, including
+     * last-modified timestamp, are retained as is.
+     *
+     * @return Re-encoded entry, if upgrade was needed; null if not
+     */
+    public Storable upgrade(StorableKey key, Storable orig)
+    {
+        if (!needsUpgrade(orig.getFormatVersion())) {
+            return null;
+        }
+        StorableCreationMetadata stdMetadata = _metadataFor(orig);
+        ByteContainer customMetadata = (orig.getMetadataLength() > 0) ? orig.getMetadata() : null;
+        final long modtime = orig.getLastModified();
+        String extPath = orig.getExternalFilePath();
+        if (extPath != null) {
+            return encodeOfflined(key, modtime, stdMetadata, customMetadata,
+                    new FileReference(null, extPath));
+        }
+        return encodeInlined(key, modtime, stdMetadata, customMetadata, orig.getInlinedData());
+    }
+
+    /**
+     * Method for constructing a copy of given entry, with content compressed
+     * using different compression method: either inlined (if
+     * <code>inlinedData</code> is not null) or in external file. All other
+     * information, including last-modified timestamp, is retained as is.
+     * Copy is encoded using the current output format version.
+     *
+     * @param comp Compression method used for content
+     * @param compressedHash Hash of compressed content
+     * @param storageSize Length of compressed content
+     */
+    public Storable recompressedCopy(StorableKey key, Storable orig,
+            Compression comp, int compressedHash, long storageSize,
+            ByteContainer inlinedData, FileReference externalData)
+    {
+        StorableCreationMetadata stdMetadata = _metadataFor(orig);
+        stdMetadata.compression = comp;
+        stdMetadata.compressedContentHash = compressedHash;
+        stdMetadata.uncompressedSize = orig.getActualUncompressedLength();
+        stdMetadata.storageSize = storageSize;
+        // dictionaries only used for compressing small entries on insert
+        stdMetadata.dictionaryId = 0;
+        ByteContainer customMetadata = (orig.getMetadataLength() > 0) ? orig.getMetadata() : null;
+        final long modtime = orig.getLastModified();
+        if (inlinedData != null) {
+            return encodeInlined(key, modtime, stdMetadata, customMetadata, inlinedData);
+        }
+        return encodeOfflined(key, modtime, stdMetadata, customMetadata, externalData);
+    }
+
+    protected StorableCreationMetadata _metadataFor(Storable orig)
+    {
+        StorableCreationMetadata stdMetadata = new StorableCreationMetadata(orig.getCompression(),
+                orig.getContentHash(), orig.getCompressedHash());
+        stdMetadata.uncompressedSize = orig.getOriginalLength();
+        stdMetadata.storageSize = orig.getStorageLength();
+        stdMetadata.deleted = orig.isDeleted();
+        stdMetadata.replicated = orig.isReplicated();
+        stdMetadata.timeToLiveSecs = orig.getTimeToLiveSecs();
+        stdMetadata.dictionaryId = orig.getDictionaryId();
+        ByteContainer extHash = orig.getExtendedContentHash();
+        if (extHash.byteLength() > 0) {
+            stdMetadata.extendedContentHash = extHash.asBytes();
+        }
+        return stdMetadata;
+    }
+
     /*
     /**********************************************************************
     /* Public API, modifying instances
@@ -287,11 +577,20 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
         /* otherwise we can still make use of first part of data, up to and
          * including optional metadata, and no minor in-place mod on copy
          */
+        if (orig.getFormatVersion() == VERSION_2) {
+            // with fixed-width header, just need to clear storage length
+            byte[] base = orig.withRawWithoutPayload(WithBytesAsArray.instance);
+            base[OFFSET_STATUS] |= StorableFlags.F_STATUS_SOFT_DELETED;
+            base[OFFSET_EXT_PATH_LENGTH] = 0;
+            Arrays.fill(base, OFFSET_V2_STORAGE_LENGTH, OFFSET_V2_STORAGE_LENGTH+8, (byte) 0);
+            _ovewriteTimestamp(base, 0, deletionTime);
+            return orig.softDeletedCopy(ByteContainer.simple(base), true, deletionTime);
+        }
         byte[] base = orig.withRawWithoutPayload(new WithBytesCallback<byte[]>() {
             @Override
             public byte[] withBytes(byte[] buffer, int offset, int length) {
                 // minor kink: we need room for one more null byte:
-                byte[] result = Arrays.copyOfRange(buffer, offset, length+1);
+                byte[] result = Arrays.copyOfRange(buffer, offset, offset+length+1);
                 result[OFFSET_STATUS] |= StorableFlags.F_STATUS_SOFT_DELETED;
                 // Length is a VLong, so:
                 result[length] = StuffToBytes.ZERO_LENGTH_AS_BYTE;
@@ -314,13 +613,47 @@ for (int i = 0, end = Math.min(length, 24); i < end; ++i) {
     /**********************************************************************
      */
 
+    /**
+     * Helper method for calculating length of fixed header, optional
+     * compression section and metadata section of an entry.
+     */
+    private int _fixedAndMetadataLength(StorableCreationMetadata stdMetadata,
+            long uncompLen, ByteContainer customMetadata)
+    {
+        int len = OFFSET_CONTENT_HASH + 4;
+        if (stdMetadata.usesCompression()) {
+            len += 4 + StuffToBytes.vLongLength(uncompLen);
+        }
+        final int metadataLength = (customMetadata == null) ? 0 : customMetadata.byteLength();
+        return len + StuffToBytes.vIntLength(metadataLength) + metadataLength;
+    }
+
+    private long _inlinedUncompressedLength(StorableCreationMetadata stdMetadata)
+    {
+        long uncompLen = stdMetadata.uncompressedSize;
+        if (uncompLen == -1L) { // VInts/VLongs not used for negative here, mask
+            uncompLen = 0;
+        }
+        return uncompLen;
+    }
+
     protected void _verifyVersion(byte b) throws IllegalArgumentException
     {
         int v = (int) b;
-        if (v != VERSION_1) {
+        if (v != VERSION_1 && v != VERSION_2) {
             throw new IllegalArgumentException("Unsupported version number: 0x"+Integer.toHexString(v)
-                    +" (currently only supporting 0x"+Integer.toHexString(VERSION_1));
+                    +" (currently only supporting 0x"+Integer.toHexString(VERSION_1)
+                    +" and 0x"+Integer.toHexString(VERSION_2)+")");
+        }
+    }
+
+    protected int _verifyExtHashLength(int len) throws IllegalArgumentException
+    {
+        if (len != 0 && len != 8 && len != 16) {
+            throw new IllegalArgumentException("Invalid extended content hash length ("+len
+                    +"): only 0, 8 and 16 supported");
         }
+        return len;
     }
     
     protected boolean _decodeStatusDeleted(byte b) throws IllegalArgumentException {
@@ -3,6 +3,7 @@ package com.fasterxml.storemate.store.impl;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -12,9 +13,11 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.storemate.shared.*;
 import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.CompressionDictionary;
 import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.shared.compress.LZFChunkIndex;
 import com.fasterxml.storemate.shared.hash.*;
-import com.fasterxml.storemate.shared.util.BufferRecycler;
+import com.fasterxml.storemate.shared.util.BufferPool;
 import com.fasterxml.storemate.shared.util.IOUtil;
 import com.fasterxml.storemate.store.*;
 import com.fasterxml.storemate.store.backend.IterationAction;
@@ -22,8 +25,18 @@ import com.fasterxml.storemate.store.backend.IterationResult;
 import com.fasterxml.storemate.store.backend.StorableIterationCallback;
 import com.fasterxml.storemate.store.backend.StorableLastModIterationCallback;
 import com.fasterxml.storemate.store.backend.StoreBackend;
+import com.fasterxml.storemate.store.dedup.ContentDeduplicator;
+import com.fasterxml.storemate.store.dedup.ContentKey;
+import com.fasterxml.storemate.store.dedup.SharedFile;
+import com.fasterxml.storemate.store.dict.DictionaryManager;
+import com.fasterxml.storemate.store.dict.StoredDictionary;
 import com.fasterxml.storemate.store.file.FileManager;
 import com.fasterxml.storemate.store.file.FileReference;
+import com.fasterxml.storemate.store.jfr.BackendCallEvent;
+import com.fasterxml.storemate.store.jfr.FileIOEvent;
+import com.fasterxml.storemate.store.jfr.FileReadInputStream;
+import com.fasterxml.storemate.store.jfr.StoreOperationEvent;
+import com.fasterxml.storemate.store.state.NodeStateStore;
 import com.fasterxml.storemate.store.util.*;
 import com.fasterxml.util.membuf.MemBuffersForBytes;
 import com.fasterxml.util.membuf.StreamyBytesMemBuffer;
@@ -61,10 +74,54 @@ public class StorableStoreImpl extends AdminStorableStore
     protected final int _minCompressibleSize;
     protected final int _maxGZIPCompressibleSize;
 
+    /**
+     * Selector for compression method to use, if adaptive compression
+     * is enabled; null if not.
+     */
+    protected final CompressionSelector _compressionSelector;
+
+    /**
+     * Manager for preset dictionaries used for compressing small entries,
+     * if a store for dictionaries was given; null if not.
+     */
+    protected final DictionaryManager _dictionaries;
+
+    protected final int _minDictionaryCompressibleSize;
+
+    /**
+     * Cache for decompressed content of hot compressed inlined entries,
+     * if enabled; null if not.
+     */
+    protected final DecompressedContentCache _decompressedCache;
+
+    /**
+     * Index of external files shared by entries with identical content,
+     * if a store for the index was given; null if not.
+     */
+    protected final ContentDeduplicator _deduplicator;
+
     protected final int _minBytesToStream;
 
     protected final boolean _requireChecksumForPreCompressed;
 
+    /**
+     * Whether chunk indexes are to be written for LZF-compressed
+     * external files.
+     */
+    protected final boolean _lzfChunkIndex;
+
+    /**
+     * Whether entries using older format version are to be rewritten
+     * when read.
+     */
+    protected final boolean _migrateEntriesOnRead;
+
+    /**
+     * Optional dictionary of common key prefixes, used for compacting
+     * keys collected in memory.
+     */
+    protected final KeyPrefixDictionary _keyPrefixes;
+
     /*
     /**********************************************************************
     /* External helper objects
@@ -107,6 +164,12 @@ public class StorableStoreImpl extends AdminStorableStore
      */
     protected final StoreOperationThrottler _throttler;
 
+    /**
+     * Optional tracer used for keeping track of slowest operations,
+     * if slow-operation tracing is enabled.
+     */
+    protected final SlowOperationTracer _slowOperationTracer;
+
     /*
     /**********************************************************************
     /* Helper objects for buffering
@@ -120,7 +183,7 @@ public class StorableStoreImpl extends AdminStorableStore
      * possible compression).
      * Currently we'll use 64k as the cut-off point.
      */
-    protected final static BufferRecycler _readBuffers = new BufferRecycler(StoreConfig.DEFAULT_MIN_PAYLOAD_FOR_STREAMING);
+    protected final static BufferPool _readBuffers = BufferPool.instance;
 
     /**
      * Beyond simple read/write buffer, let's also use bigger off-heap buffers for
@@ -150,6 +213,32 @@ public class StorableStoreImpl extends AdminStorableStore
     public StorableStoreImpl(StoreConfig config, StoreBackend physicalStore,
             TimeMaster timeMaster, FileManager fileManager,
             StoreOperationThrottler throttler, PartitionedWriteMutex writeMutex)
+    {
+        this(config, physicalStore, timeMaster, fileManager, throttler, writeMutex, null);
+    }
+
+    public StorableStoreImpl(StoreConfig config, StoreBackend physicalStore,
+            TimeMaster timeMaster, FileManager fileManager,
+            StoreOperationThrottler throttler, PartitionedWriteMutex writeMutex,
+            NodeStateStore<Integer,StoredDictionary> dictionaryStore)
+    {
+        this(config, physicalStore, timeMaster, fileManager, throttler, writeMutex,
+                dictionaryStore, null);
+    }
+
+    /**
+     * @param dictionaryStore Store used for persisting compression dictionaries,
+     *   if any; needed if dictionary compression is enabled, as well as for
+     *   reading entries that were compressed using dictionaries.
+     * @param contentIndexStore Store used for persisting index of shared external
+     *   files, if any; needed if deduplication of external content is enabled,
+     *   as well as for deleting entries that were stored with it enabled.
+     */
+    public StorableStoreImpl(StoreConfig config, StoreBackend physicalStore,
+            TimeMaster timeMaster, FileManager fileManager,
+            StoreOperationThrottler throttler, PartitionedWriteMutex writeMutex,
+            NodeStateStore<Integer,StoredDictionary> dictionaryStore,
+            NodeStateStore<ContentKey,SharedFile> contentIndexStore)
     {
         _compressionEnabled = config.compressionEnabled;
         _minCompressibleSize = config.minUncompressedSizeForCompression;
@@ -158,11 +247,35 @@ public class StorableStoreImpl extends AdminStorableStore
         _minBytesToStream = config.minPayloadForStreaming;
         
         _requireChecksumForPreCompressed = config.requireChecksumForPreCompressed;
+        _lzfChunkIndex = config.lzfChunkIndex;
+        _migrateEntriesOnRead = config.migrateEntriesOnRead;
+        String[] prefixes = config.commonKeyPrefixes;
+        _keyPrefixes = (prefixes == null || prefixes.length == 0) ? null
+                : KeyPrefixDictionary.forPrefixes(prefixes);
+        _compressionSelector = CompressionSelector.construct(config, _keyPrefixes);
+        _dictionaries = DictionaryManager.construct(config, dictionaryStore, timeMaster, _keyPrefixes);
+        _minDictionaryCompressibleSize = config.minUncompressedSizeForDictionary;
+        if (config.decompressedCacheSize != null
+                && config.decompressedCacheSize.getNumberOfBytes() > 0L) {
+            _decompressedCache = new DecompressedContentCache(config.decompressedCacheSize.getNumberOfBytes(),
+                    config.decompressedCacheMaxEntrySize);
+        } else {
+            _decompressedCache = null;
+        }
 
         _backend = physicalStore;
         _fileManager = fileManager;
         _timeMaster = timeMaster;
         _storableConverter = physicalStore.getStorableConverter();
+        if (config.compressionEnabled && config.dictionaryCompression
+                && _storableConverter.getOutputVersion() < StorableConverter.VERSION_2) {
+            throw new IllegalArgumentException("Dictionary compression requires entry format version 2 or above");
+        }
+        if (config.deduplicateExternalContent
+                && _storableConverter.getOutputVersion() < StorableConverter.VERSION_2) {
+            throw new IllegalArgumentException("Deduplication of external content requires entry format version 2 or above");
+        }
+        _deduplicator = ContentDeduplicator.construct(config, contentIndexStore, fileManager);
 
         if (throttler == null) {
             throttler = new StoreOperationThrottler.Base();
@@ -172,6 +285,13 @@ public class StorableStoreImpl extends AdminStorableStore
             writeMutex = buildDefaultWriteMutex(config);
         }
         _writeMutex = writeMutex;
+        if (config.slowOperationsToTrace > 0) {
+            _slowOperationTracer = new SlowOperationTracer(config.slowOperationsToTrace,
+                    config.slowOperationWindowMsecs, config.slowOperationSampleRate,
+                    new SimpleLogThrottler(LOG, (int) Math.min(Integer.MAX_VALUE, config.slowOperationWindowMsecs)));
+        } else {
+            _slowOperationTracer = null;
+        }
 
         /* And then sizing for off-heap buffers... granularity of
          * 64kB per buffer seems reasonable, and we can derive other
@@ -203,6 +323,9 @@ public class StorableStoreImpl extends AdminStorableStore
     @Override
     public void start() throws Exception {
         _backend.start();
+        if (_dictionaries != null) {
+            _dictionaries.start();
+        }
     }
 
     @Override
@@ -214,6 +337,9 @@ public class StorableStoreImpl extends AdminStorableStore
     public void stop() throws Exception
     {
         if (!_closed.getAndSet(true)) {
+            if (_dictionaries != null) {
+                _dictionaries.stop();
+            }
             _backend.stop();
         }
     }
@@ -249,6 +375,150 @@ public class StorableStoreImpl extends AdminStorableStore
         return _throttler;
     }
 
+    /**
+     * Accessor for manager of compression dictionaries, if dictionaries
+     * are available; null if not.
+     */
+    public DictionaryManager getDictionaryManager() {
+        return _dictionaries;
+    }
+
+    @Override
+    public CompressionDictionary findCompressionDictionary(int id) {
+        return (_dictionaries == null) ? null : _dictionaries.findDictionary(id);
+    }
+
+    @Override
+    public ByteContainer getUncompressedInlinedData(Storable entry) throws StoreException
+    {
+        if (!entry.hasInlineData()) {
+            return null;
+        }
+        final Compression comp = entry.getCompression();
+        if (comp == null || comp == Compression.NONE) {
+            return entry.getInlinedData();
+        }
+        final StorableKey key = entry.getKey();
+        if (_decompressedCache != null) {
+            ByteContainer data = _decompressedCache.find(key, entry.getLastModified(), entry.getContentHash());
+            if (data != null) {
+                return data;
+            }
+        }
+        final int dictId = entry.getDictionaryId();
+        CompressionDictionary dict = null;
+        if (dictId != 0) {
+            dict = findCompressionDictionary(dictId);
+            if (dict == null) {
+                throw new StoreException.Internal(key, "Missing compression dictionary #"+dictId
+                        +", needed for uncompressing inlined content");
+            }
+        }
+        final int expSize = (int) entry.getActualUncompressedLength();
+        ByteContainer data;
+        try {
+            if (dict == null) {
+                data = Compressors.uncompress(entry.getInlinedData(), comp, expSize);
+            } else {
+                byte[] compBytes = entry.getInlinedData().asBytes();
+                data = ByteContainer.simple(_dictionaries.uncompress(compBytes, 0, compBytes.length,
+                        dict, expSize));
+            }
+        } catch (IOException e) {
+            throw new StoreException.IO(key, "Failed to uncompress inlined content ("+comp
+                    +"): "+e.getMessage(), e);
+        }
+        if (_decompressedCache != null) {
+            _decompressedCache.add(key, entry.getLastModified(), entry.getContentHash(), data);
+        }
+        return data;
+    }
+
+    @Override
+    public InputStream openUncompressedExternalData(Storable entry, ByteRange range)
+        throws StoreException
+    {
+        if (!entry.hasExternalData()) {
+            return null;
+        }
+        final StorableKey key = entry.getKey();
+        final File file = entry.getExternalFile(_fileManager);
+        final long totalLength = entry.getActualUncompressedLength();
+        long start = 0L;
+        long length = totalLength;
+        if (range != null) {
+            range = range.resolveWithTotalLength(totalLength);
+            start = range.getStart();
+            if (start > totalLength) {
+                throw new IllegalArgumentException("Invalid range "+range+" for entry '"+key
+                        +"': start beyond end of content ("+totalLength+" bytes)");
+            }
+            length = Math.min(range.calculateLength(), totalLength - start);
+        }
+        final Compression comp = entry.getCompression();
+        final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_READ, null, key);
+        InputStream in = null;
+        try {
+            FileInputStream fileIn = new FileInputStream(file);
+            in = new FileReadInputStream(fileEvent, fileIn, file, comp);
+            if (comp == null || comp == Compression.NONE) {
+                fileIn.getChannel().position(start);
+            } else {
+                LZFChunkIndex index = (comp == Compression.LZF) ? _readChunkIndex(entry, file) : null;
+                if (index != null) {
+                    in = index.openAt(fileIn.getChannel(), in, file, start);
+                } else {
+                    in = Compressors.uncompressingStream(in, comp);
+                    _skipFully(in, start);
+                }
+            }
+        } catch (IOException e) {
+            if (in != null) {
+                try { in.close(); } catch (IOException e2) { }
+            }
+            throw new StoreException.IO(key, "Failed to open file '"+file.getAbsolutePath()
+                    +"' for reading (from offset "+start+"): "+e.getMessage(), e);
+        }
+        return new BoundedInputStream(in, length, true);
+    }
+
+    @Override
+    public StorableContent readContent(Storable entry, String acceptableEncodings)
+        throws StoreException
+    {
+        Compression comp = entry.getCompression();
+        if (comp == null) {
+            comp = Compression.NONE;
+        }
+        // Content compressed with a preset dictionary can not be decoded by clients
+        final boolean raw = (comp == Compression.NONE)
+                || ((entry.getDictionaryId() == 0) && comp.isAcceptable(acceptableEncodings));
+        if (entry.hasExternalData()) {
+            File file = entry.getExternalFile(_fileManager);
+            return raw ? StorableContent.forRawFile(entry, file)
+                    : StorableContent.forDecodedFile(entry, file);
+        }
+        if (!entry.hasInlineData()) { // empty content
+            return StorableContent.forInlined(entry, Compression.NONE, true, entry.getContentHash(),
+                    ByteContainer.emptyContainer());
+        }
+        if (raw) {
+            return StorableContent.forInlined(entry, comp, true,
+                    (comp == Compression.NONE) ? entry.getContentHash() : entry.getCompressedHash(),
+                    entry.getInlinedData());
+        }
+        return StorableContent.forInlined(entry, Compression.NONE, false, entry.getContentHash(),
+                getUncompressedInlinedData(entry));
+    }
+
+    /**
+     * Accessor for cache used for decompressed inlined content, if
+     * enabled (see {@link StoreConfig#decompressedCacheSize}); null if not.
+     */
+    public DecompressedContentCache getDecompressedContentCache() {
+        return _decompressedCache;
+    }
+
     @Override
     public <T> T leaseOffHeapBuffer(ByteBufferCallback<T> cb)
     {
@@ -304,22 +574,30 @@ public class StorableStoreImpl extends AdminStorableStore
      */
 
     @Override
-    public boolean hasEntry(final StoreOperationSource source, final OperationDiagnostics diag,
+    public boolean hasEntry(final StoreOperationSource source, OperationDiagnostics diag0,
             StorableKey key0)
         throws StoreException
     {
         _checkClosed();
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         long operationTime0 = _timeMaster.currentTimeMillis();
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_HAS, source, key0);
         try {
             return _throttler.performHas(source, operationTime0, key0, new StoreOperationCallback<Boolean>() {
                 @Override
                 public Boolean perform(long operationTime, StorableKey key, Storable value)
                         throws StoreException {
                     final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                    if (diag != null) {
+                        diag.addThrottleWait(nanoStart, dbStart);
+                    }
+                    final BackendCallEvent dbEvent = BackendCallEvent.start("hasEntry", key);
                     try {
                         return _backend.hasEntry(key);
                     } finally {
+                        dbEvent.finish();
                         if (diag != null) {
                             diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                         }
@@ -329,24 +607,44 @@ public class StorableStoreImpl extends AdminStorableStore
         } catch (IOException e) {
             throw new StoreException.IO(key0,
                     "Problem when trying to access entry: "+e.getMessage(), e);
+        } finally {
+            event.finish();
+            _endTrace(traced, StoreOperationEvent.OP_HAS, source, key0, diag, nanoStart, null);
         }
     }
     
     @Override
     public Storable findEntry(final StoreOperationSource source,
-            final OperationDiagnostics diag,
+            OperationDiagnostics diag0,
             StorableKey key0) throws StoreException
     {
         _checkClosed();
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         long operationTime0 = _timeMaster.currentTimeMillis();
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_GET, source, key0);
+        Storable entry = null;
         try {
-            return _throttler.performGet(source, operationTime0, key0, new StoreOperationCallback<Storable>() {
+            entry = _throttler.performGet(source, operationTime0, key0, new StoreOperationCallback<Storable>() {
                 @Override
                 public Storable perform(long operationTime, StorableKey key, Storable value)
                         throws IOException, StoreException {
                     final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-                    Storable result = _backend.findEntry(key);
+                    if (diag != null) {
+                        diag.addThrottleWait(nanoStart, dbStart);
+                    }
+                    final BackendCallEvent dbEvent = BackendCallEvent.start("findEntry", key);
+                    Storable result;
+                    try {
+                        result = _backend.findEntry(key);
+                    } finally {
+                        dbEvent.finish();
+                    }
+                    if (_migrateEntriesOnRead && (result != null)
+                            && _storableConverter.needsUpgrade(result.getFormatVersion())) {
+                        result = _migrateOnRead(key, result);
+                    }
                     if (diag != null) {
                         diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                         diag.setEntry(result);
@@ -354,12 +652,262 @@ public class StorableStoreImpl extends AdminStorableStore
                     return result;
                 }
             });
+            return entry;
         } catch (IOException e) {
             throw new StoreException.IO(key0,
                     "Problem when trying to access entry: "+e.getMessage(), e);
+        } finally {
+            if (entry == null) {
+                event.finish();
+            } else {
+                event.finish(entry.getStorageLength(), entry.getCompression());
+            }
+            _endTrace(traced, StoreOperationEvent.OP_GET, source, key0, diag, nanoStart, entry);
         }
     }
     
+    /*
+    /**********************************************************************
+    /* API, entry format migration
+    /**********************************************************************
+     */
+
+    @Override
+    public Storable migrateEntry(StoreOperationSource source, StorableKey key0)
+        throws IOException, StoreException
+    {
+        _checkClosed();
+        return _writeMutex.partitionedWrite(_timeMaster.currentTimeMillis(), key0,
+                new PartitionedWriteMutex.Callback<Storable>() {
+            @Override
+            public Storable performWrite(StorableKey key) throws IOException, StoreException {
+                // must re-read under lock, entry may have been modified in-between
+                final Storable value = _findEntryForUpdate(key);
+                if (value == null) {
+                    return null;
+                }
+                final Storable upgraded = _storableConverter.upgrade(key, value);
+                if (upgraded == null) {
+                    return null;
+                }
+                final BackendCallEvent dbEvent = BackendCallEvent.start("ovewriteEntry", key);
+                try {
+                    _backend.ovewriteEntry(key, upgraded);
+                } finally {
+                    dbEvent.finish();
+                }
+                return upgraded;
+            }
+        });
+    }
+
+    /**
+     * Helper method called to lazily migrate an entry read using older format
+     * version; failure to migrate is not considered fatal, since entry
+     * itself could be read.
+     */
+    protected Storable _migrateOnRead(StorableKey key, Storable entry)
+    {
+        try {
+            Storable upgraded = migrateEntry(StoreOperationSource.CLEANUP, key);
+            if (upgraded != null) {
+                return upgraded;
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to migrate entry {} to current format: {}", key, e.getMessage());
+        }
+        return entry;
+    }
+
+    @Override
+    public StorableCreationResult recompressEntry(final StoreOperationSource source, StorableKey key0,
+            Compression compression)
+        throws IOException, StoreException
+    {
+        _checkClosed();
+        if (compression == null || compression == Compression.NONE) {
+            throw new IllegalArgumentException("Invalid compression for recompression: "+compression);
+        }
+        // Read and recompress without holding the lock, since it may take a while...
+        final Storable orig = _findEntryForUpdate(key0);
+        if (orig == null || orig.isDeleted() || orig.getCompression() == compression
+                || orig.getDictionaryId() != 0) {
+            return null;
+        }
+        // Files shared by multiple entries must not be recompressed per entry, as
+        // each entry would end up with a copy of its own
+        if (_deduplicator != null && orig.hasExternalData()) {
+            try {
+                if (_deduplicator.isShared(orig)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                throw new StoreException.IO(key0, "Failed to read index of shared files", e);
+            }
+        }
+        final Storable newEntry;
+        if (orig.hasInlineData()) {
+            newEntry = _recompressInlined(key0, orig, compression);
+        } else if (orig.hasExternalData()) {
+            newEntry = _recompressExternal(source, key0, orig, compression);
+        } else {
+            return null;
+        }
+        if (newEntry == null) {
+            return null;
+        }
+        // ... but swap under lock, and only if entry was not modified in-between
+        final OverwriteChecker checker = new OverwriteChecker.OkIfUnmodified(orig);
+        StorableCreationResult result = _writeMutex.partitionedWrite(_timeMaster.currentTimeMillis(), key0,
+                new PartitionedWriteMutex.Callback<StorableCreationResult>() {
+            @Override
+            public StorableCreationResult performWrite(StorableKey key) throws IOException, StoreException {
+                final Storable current = _findEntryForUpdate(key);
+                if (!checker.mayOverwrite(key, current, newEntry)) {
+                    return new StorableCreationResult(key, false, newEntry, current);
+                }
+                final BackendCallEvent dbEvent = BackendCallEvent.start("ovewriteEntry", key);
+                try {
+                    _backend.ovewriteEntry(key, newEntry);
+                } finally {
+                    dbEvent.finish();
+                }
+                return new StorableCreationResult(key, true, newEntry, current);
+            }
+        });
+        // and either old or new backing file is no longer needed
+        if (result.succeeded()) {
+            _deleteBackingFile(key0, orig);
+        } else {
+            _deleteBackingFile(key0, newEntry);
+        }
+        return result;
+    }
+
+    /**
+     * Helper method for recompressing inlined content of given entry.
+     *
+     * @return Recompressed copy of the entry, if content got smaller; null if not
+     */
+    protected Storable _recompressInlined(StorableKey key, Storable orig, Compression compression)
+        throws StoreException
+    {
+        final Compression origComp = orig.getCompression();
+        ByteContainer data;
+        try {
+            data = Compressors.uncompress(orig.getInlinedData(), origComp,
+                    (int) orig.getActualUncompressedLength());
+        } catch (IOException e) {
+            throw new StoreException.IO(key, "Failed to uncompress inlined content ("+origComp
+                    +") to recompress: "+e.getMessage(), e);
+        }
+        _verifyRecompressedHash(key, orig, data.byteLength(), _calcChecksum(data));
+        byte[] compBytes;
+        try {
+            compBytes = Compressors.compress(data, compression);
+        } catch (IOException e) {
+            throw new StoreException.IO(key, "Failed to recompress inlined content ("+origComp
+                    +" -> "+compression+"): "+e.getMessage(), e);
+        }
+        if (compBytes.length >= orig.getStorageLength()) {
+            return null;
+        }
+        data = ByteContainer.simple(compBytes);
+        return _storableConverter.recompressedCopy(key, orig, compression, _calcChecksum(data),
+                compBytes.length, data, null);
+    }
+
+    /**
+     * Helper method for recompressing content of an external file of given entry
+     * into a new file.
+     *
+     * @return Recompressed copy of the entry, if content got smaller; null if not
+     */
+    @SuppressWarnings("resource")
+    protected Storable _recompressExternal(final StoreOperationSource source, StorableKey key0,
+            final Storable orig, final Compression compression)
+        throws IOException, StoreException
+    {
+        final File origFile = orig.getExternalFile(_fileManager);
+        final Compression origComp = orig.getCompression();
+        final long fileCreationTime = _timeMaster.currentTimeMillis();
+        final FileReference fileRef = _fileManager.createStorageFile(key0, compression, fileCreationTime);
+        final CountingOutputStream compressedOut = new CountingOutputStream(
+                new FileOutputStream(fileRef.getFile()), new IncrementalMurmur3Hasher());
+        final IncrementalMurmur3Hasher hasher = new IncrementalMurmur3Hasher(HASH_SEED);
+        long copiedBytes;
+        try {
+            copiedBytes = _throttler.performFileWrite(source, fileCreationTime, key0, fileRef.getFile(),
+                    new FileOperationCallback<Long>() {
+                @Override
+                public Long perform(long operationTime, StorableKey key, Storable value, File externalFile)
+                        throws IOException, StoreException {
+                    final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_WRITE, source, key);
+                    final byte[] buffer = _readBuffers.borrow(_minBytesToStream);
+                    long total = 0L;
+                    InputStream in = null;
+                    OutputStream out = compressedOut;
+                    try {
+                        in = Compressors.uncompressingStream(new FileReadInputStream(
+                                FileIOEvent.start(FileIOEvent.OP_READ, source, key),
+                                new FileInputStream(origFile), origFile, origComp), origComp);
+                        out = Compressors.compressingStream(compressedOut, compression);
+                        int count;
+                        while ((count = in.read(buffer)) > 0) {
+                            out.write(buffer, 0, count);
+                            hasher.update(buffer, 0, count);
+                            total += count;
+                        }
+                    } finally {
+                        _readBuffers.release(buffer);
+                        if (in != null) {
+                            try { in.close(); } catch (IOException e) { }
+                        }
+                        out.close();
+                        fileEvent.finish(externalFile, compressedOut.count(), compression);
+                    }
+                    return total;
+                }
+            });
+            _verifyRecompressedHash(key0, orig, copiedBytes, _cleanChecksum(hasher.calculateHash()));
+        } catch (StoreException e) {
+            fileRef.getFile().delete();
+            throw e;
+        } catch (IOException e) {
+            fileRef.getFile().delete();
+            throw new StoreException.IO(key0, "Failed to recompress file '"+origFile.getAbsolutePath()
+                    +"' ("+origComp+" -> "+compression+"): "+e.getMessage(), e);
+        }
+        final long storageSize = compressedOut.count();
+        if (storageSize >= orig.getStorageLength()) {
+            fileRef.getFile().delete();
+            return null;
+        }
+        return _storableConverter.recompressedCopy(key0, orig, compression,
+                _cleanChecksum(compressedOut.calculateHash()), storageSize, null, fileRef);
+    }
+
+    /**
+     * Helper method for verifying that content read for recompression matches
+     * length and hash of the entry, to avoid rewriting corrupt content
+     * (with a valid checksum).
+     */
+    protected void _verifyRecompressedHash(StorableKey key, Storable orig, long length, int contentHash)
+        throws StoreException
+    {
+        final long expLength = orig.getActualUncompressedLength();
+        if (expLength != length) {
+            throw new StoreException.Internal(key,
+                    "Incorrect length for content to recompress: expected "+expLength+", got "+length);
+        }
+        final int expHash = orig.getContentHash();
+        if (expHash != HashConstants.NO_CHECKSUM && expHash != contentHash) {
+            throw new StoreException.Internal(key,
+                    "Incorrect checksum for content to recompress: expected 0x"+Integer.toHexString(expHash)
+                    +", calculated to be 0x"+Integer.toHexString(contentHash));
+        }
+    }
+
     /*
     /**********************************************************************
     /* API, entry creation
@@ -398,7 +946,7 @@ public class StorableStoreImpl extends AdminStorableStore
         if (removeOldDataFile) {
             Storable old = result.getPreviousEntry();
             if (old != null) {
-                _deleteBackingFile(key, old.getExternalFile(_fileManager));
+                _deleteBackingFile(key, old);
             }
         }
         return result;
@@ -416,7 +964,7 @@ public class StorableStoreImpl extends AdminStorableStore
         if (removeOldDataFile) {
             Storable old = result.getPreviousEntry();
             if (old != null) {
-                _deleteBackingFile(key, old.getExternalFile(_fileManager));
+                _deleteBackingFile(key, old);
             }
         }
         return result;
@@ -434,7 +982,7 @@ public class StorableStoreImpl extends AdminStorableStore
         if (removeOldDataFile && result.succeeded()) {
             Storable old = result.getPreviousEntry();
             if (old != null) {
-                _deleteBackingFile(key, old.getExternalFile(_fileManager));
+                _deleteBackingFile(key, old);
             }
         }
         return result;
@@ -452,7 +1000,7 @@ public class StorableStoreImpl extends AdminStorableStore
         if (removeOldDataFile && result.succeeded()) {
             Storable old = result.getPreviousEntry();
             if (old != null) {
-                _deleteBackingFile(key, old.getExternalFile(_fileManager));
+                _deleteBackingFile(key, old);
             }
         }
         return result;
@@ -473,18 +1021,22 @@ public class StorableStoreImpl extends AdminStorableStore
      * @param input Input stream used for reading the content. NOTE: method never
      *   closes this stream
      */
-    protected StorableCreationResult _putEntry(StoreOperationSource source, OperationDiagnostics diag,
+    protected StorableCreationResult _putEntry(StoreOperationSource source, OperationDiagnostics diag0,
             StorableKey key, InputStream input,
             StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
             OverwriteChecker allowOverwrites)
         throws IOException, StoreException
     {
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
+        final long traceStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        StorableCreationResult result = null;
         /* NOTE: we do NOT want to clone passed-in metadata, because we want
          * to fill in some of optional values, and override others (compression)
          */
-        BufferRecycler.Holder bufferHolder = _readBuffers.getHolder();        
-        final byte[] readBuffer = bufferHolder.borrowBuffer(_minBytesToStream);
+        final byte[] readBuffer = _readBuffers.borrow(_minBytesToStream);
         int len = 0;
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_PUT, source, key);
         
         try {
             // !!! TODO: only partial read... should include other parts too
@@ -506,39 +1058,58 @@ public class StorableStoreImpl extends AdminStorableStore
             }
             if (len < readBuffer.length) { // read it all: we are done with input stream
                 if (origComp == null) { // client did not compress, we may try to
-                    return _compressAndPutSmallEntry(source, diag, key, stdMetadata, customMetadata,
+                    result = _compressAndPutSmallEntry(source, diag, key, stdMetadata, customMetadata,
+                            allowOverwrites, ByteContainer.simple(readBuffer, 0, len));
+                } else {
+                    result = _putSmallPreCompressedEntry(source, diag, key, stdMetadata, customMetadata,
                             allowOverwrites, ByteContainer.simple(readBuffer, 0, len));
                 }
-                return _putSmallPreCompressedEntry(source, diag, key, stdMetadata, customMetadata,
-                        allowOverwrites, ByteContainer.simple(readBuffer, 0, len));
+            } else {
+                // partial read in buffer, rest from input stream:
+                result = _putLargeEntry(source, diag, key, stdMetadata, customMetadata,
+                        allowOverwrites, readBuffer, len, input);
             }
-            // partial read in buffer, rest from input stream:
-            return _putLargeEntry(source, diag, key, stdMetadata, customMetadata,
-                    allowOverwrites, readBuffer, len, input);
+            return result;
         } finally {
-            bufferHolder.returnBuffer(readBuffer);
+            _readBuffers.release(readBuffer);
+            event.finish(stdMetadata.storageSize, stdMetadata.compression);
+            _endTrace(traced, StoreOperationEvent.OP_PUT, source, key, diag, traceStart,
+                    (result == null) ? null : result.getNewEntry());
         }
     }
 
-    protected StorableCreationResult _putEntry(StoreOperationSource source, OperationDiagnostics diag,
+    protected StorableCreationResult _putEntry(StoreOperationSource source, OperationDiagnostics diag0,
             StorableKey key, ByteContainer input,
             StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
             OverwriteChecker allowOverwrites)
         throws IOException, StoreException
     {
-        // First things first: verify that compression is what it claims to be:
-        final Compression origComp = stdMetadata.compression;
-        String error = IOUtil.verifyCompression(origComp, input);
-        if (error != null) {
-            throw new StoreException.Input(key, StoreException.InputProblem.BAD_CHECKSUM, error);
-        }
-
-        if (origComp == null) { // client did not compress, we may try to
-            return _compressAndPutSmallEntry(source, diag, key, stdMetadata, customMetadata,
-                    allowOverwrites, input);
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
+        final long traceStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_PUT, source, key);
+        StorableCreationResult result = null;
+        try {
+            // First things first: verify that compression is what it claims to be:
+            final Compression origComp = stdMetadata.compression;
+            String error = IOUtil.verifyCompression(origComp, input);
+            if (error != null) {
+                throw new StoreException.Input(key, StoreException.InputProblem.BAD_CHECKSUM, error);
+            }
+    
+            if (origComp == null) { // client did not compress, we may try to
+                result = _compressAndPutSmallEntry(source, diag, key, stdMetadata, customMetadata,
+                        allowOverwrites, input);
+            } else {
+                result = _putSmallPreCompressedEntry(source, diag, key, stdMetadata, customMetadata,
+                        allowOverwrites, input);
+            }
+            return result;
+        } finally {
+            event.finish(stdMetadata.storageSize, stdMetadata.compression);
+            _endTrace(traced, StoreOperationEvent.OP_PUT, source, key, diag, traceStart,
+                    (result == null) ? null : result.getNewEntry());
         }
-        return _putSmallPreCompressedEntry(source, diag, key, stdMetadata, customMetadata,
-                allowOverwrites, input);
     }
 
     /*
@@ -566,30 +1137,45 @@ public class StorableStoreImpl extends AdminStorableStore
                         +"), calculated to be 0x"+Integer.toHexString(actualChecksum));
             }
         }
-        if (_shouldTryToCompress(metadata, data)) {
+        final CompressionDictionary dict = _findDictionary(key, metadata, data);
+        final Compression compression;
+        if (dict != null) {
+            compression = Compression.DEFLATE;
+        } else {
+            compression = _shouldTryToCompress(metadata, data)
+                    ? _chooseCompression(key, data) : Compression.NONE;
+        }
+        if (compression != Compression.NONE) {
             byte[] compBytes;
-            Compression compression = null;
+            final boolean timed = (diag != null) || (_compressionSelector != null);
+            final long compStart = timed ? _timeMaster.nanosForDiagnostics() : 0L;
             try {
-                if (origLength <= _maxGZIPCompressibleSize) {
-                    compression = Compression.GZIP;
-                    compBytes = Compressors.gzipCompress(data);
-                } else {
-                    compression = Compression.LZF;
-                    compBytes = Compressors.lzfCompress(data);
-                }
+                compBytes = (dict == null) ? Compressors.compress(data, compression)
+                        : _dictionaries.compress(data, dict);
             } catch (IOException e) {
                 throw new StoreException.IO(key,
                         "Problem when compressing content as "+compression+": "+e.getMessage(), e);
             }
+            if (timed) {
+                final long compEnd = _timeMaster.nanosForDiagnostics();
+                if (diag != null) {
+                    diag.addCompressionTime(compStart, compEnd);
+                }
+                if (_compressionSelector != null && dict == null) {
+                    _compressionSelector.observe(key, compression, origLength, compBytes.length,
+                            compEnd - compStart);
+                }
+            }
             // if compression would not, like, compress, don't bother:
-            if (compBytes.length >= origLength) {
-                compression = null;
-            } else {
+            if (compBytes.length < origLength) {
                 data = ByteContainer.simple(compBytes);
                 metadata.compression = compression;
                 metadata.uncompressedSize = origLength;
                 metadata.storageSize = compBytes.length;
                 metadata.compressedContentHash = _calcChecksum(data);
+                if (dict != null) {
+                    metadata.dictionaryId = dict.getId();
+                }
             }
         }
         metadata.storageSize = data.byteLength();
@@ -655,6 +1241,7 @@ public class StorableStoreImpl extends AdminStorableStore
             final long fileCreationTime = _timeMaster.currentTimeMillis();
             FileReference fileRef = _fileManager.createStorageFile(key0,
                     stdMetadata.compression, fileCreationTime);
+            final Compression comp = stdMetadata.compression;
             try {
                 final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
                 _throttler.performFileWrite(source, fileCreationTime, key0, fileRef.getFile(),
@@ -663,7 +1250,12 @@ public class StorableStoreImpl extends AdminStorableStore
                     public Void perform(long operationTime, StorableKey key, Storable value, File externalFile)
                             throws IOException, StoreException {
                         final long fsStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                        if (diag != null) {
+                            diag.addThrottleWait(nanoStart, fsStart);
+                        }
+                        final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_WRITE, source, key);
                         IOUtil.writeFile(externalFile, data);
+                        fileEvent.finish(externalFile, data.byteLength(), comp);
                         if (diag != null) {
                             diag.addFileWriteAccess(nanoStart,  fsStart,  _timeMaster, data.byteLength());
                         }
@@ -696,13 +1288,13 @@ public class StorableStoreImpl extends AdminStorableStore
         if (stdMetadata.compression != null) { // pre-compressed, or blocked (explicit "none")
             skipCompression = true;
         } else {
-            if (!_compressionEnabled || Compressors.isCompressed(readBuffer, 0, readByteCount)) {
-                skipCompression = true;
-                stdMetadata.compression = Compression.NONE;
-            } else {
-                skipCompression = false;
-                stdMetadata.compression = Compression.LZF;
+            Compression comp = Compression.NONE;
+            if (_compressionEnabled && !Compressors.isCompressed(readBuffer, 0, readByteCount)) {
+                comp = (_compressionSelector == null) ? Compression.LZF
+                        : _compressionSelector.select(key, readBuffer, 0, readByteCount);
             }
+            skipCompression = (comp == Compression.NONE);
+            stdMetadata.compression = comp;
         }
 
         // First things first: safe handling of off-heap buffer...
@@ -730,6 +1322,10 @@ public class StorableStoreImpl extends AdminStorableStore
             final StreamyBytesMemBuffer offHeap)
         throws IOException, StoreException
     {
+        // for deduplication, also need 128-bit hash of content; calculated as content
+        // is buffered, to allow skipping write if identical content is already stored
+        final IncrementalMurmur3x64Hasher contentHasher = _contentHasher(stdMetadata, skipCompression);
+
         /* First: let's see if we can't just read and buffer all the content in
          * an off-heap buffer (if we got one).
          */
@@ -741,13 +1337,16 @@ public class StorableStoreImpl extends AdminStorableStore
                 if (!offHeap.tryAppend(readBuffer, 0, incomingReadByteCount)) {
                     throw new IOException("Internal problem: failed to append "+incomingReadByteCount+" in an off-heap buffer");
                 }
+                if (contentHasher != null) {
+                    contentHasher.update(readBuffer, 0, incomingReadByteCount);
+                }
             }
-            int overflow = _readInBuffer(diag, key0, input, readBuffer, offHeap);
+            int overflow = _readInBuffer(diag, key0, input, readBuffer, offHeap, contentHasher);
             if (overflow == 0) {
                 // Optimal case: managed to read all input -- offline!
                 return _putLargeEntryFullyBuffered(source, diag,
                         key0, stdMetadata, customMetadata, allowOverwrites,
-                        readBuffer, skipCompression, offHeap);
+                        readBuffer, skipCompression, offHeap, contentHasher);
             }
             leftover = Arrays.copyOf(readBuffer, overflow);
         }
@@ -763,16 +1362,22 @@ public class StorableStoreImpl extends AdminStorableStore
 
         final OutputStream out;
         final CountingOutputStream compressedOut;
+        final LZFChunkIndex.Builder chunkIndexer;
 
         if (skipCompression) {
             compressedOut = null;
-            out = new FileOutputStream(storedFile);
+            OutputStream fileOut = new FileOutputStream(storedFile);
+            chunkIndexer = _chunkIndexer(stdMetadata.compression, fileOut);
+            out = (chunkIndexer == null) ? fileOut : chunkIndexer;
         } else {
             compressedOut = new CountingOutputStream(new FileOutputStream(storedFile),
                     new IncrementalMurmur3Hasher());
-            out = Compressors.compressingStream(compressedOut, stdMetadata.compression);
+            chunkIndexer = _chunkIndexer(stdMetadata.compression, compressedOut);
+            out = Compressors.compressingStream((chunkIndexer == null) ? compressedOut : chunkIndexer,
+                    stdMetadata.compression);
         }
         final IncrementalMurmur3Hasher hasher = new IncrementalMurmur3Hasher(HASH_SEED);        
+        final Compression comp = stdMetadata.compression;
 
         // Need to mix-n-match read, write; trickier to account for each part.
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
@@ -783,10 +1388,14 @@ public class StorableStoreImpl extends AdminStorableStore
             public Long perform(long operationTime, StorableKey key, Storable value, File externalFile)
                     throws IOException, StoreException {
                 final long fsStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                if (diag != null) {
+                    diag.addThrottleWait(nanoStart, fsStart);
+                }
+                final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_WRITE, source, key);
                 long total = 0L;
 
                 try {
-                    // First: dump out anything in off-heap buffer
+                    // First: dump out anything in off-heap buffer (content hash already updated)
                     if (offHeap != null) {
                         int count;
                         while ((count = offHeap.readIfAvailable(readBuffer)) > 0) {
@@ -799,6 +1408,9 @@ public class StorableStoreImpl extends AdminStorableStore
                     if (leftover != null) {
                         out.write(leftover);
                         hasher.update(leftover, 0, leftover.length);
+                        if (contentHasher != null) {
+                            contentHasher.update(leftover, 0, leftover.length);
+                        }
                         total += leftover.length;
                     }
                     // and then need to proceed with copying the rest, compressing along the way
@@ -815,6 +1427,9 @@ public class StorableStoreImpl extends AdminStorableStore
                         total += count;
                         out.write(readBuffer, 0, count);
                         hasher.update(readBuffer, 0, count);
+                        if (contentHasher != null) {
+                            contentHasher.update(readBuffer, 0, count);
+                        }
                     }
                 } catch (IOException e) {
                     if (total == 0L) {
@@ -828,9 +1443,10 @@ public class StorableStoreImpl extends AdminStorableStore
                     } catch (IOException e) {
                         LOG.warn("Failed to close file {}: {}", externalFile, e.getMessage());
                     }
+                    // Note: due to compression, bytes written may be less than read:
+                    long writtenBytes = (compressedOut == null) ? total : compressedOut.count();
+                    fileEvent.finish(externalFile, writtenBytes, comp);
                     if (diag != null) {
-                        // Note: due to compression, bytes written may be less than read:
-                        long writtenBytes = (compressedOut == null) ? total : compressedOut.count();
                         diag.addFileWriteAccess(nanoStart,  fsStart,  _timeMaster, writtenBytes);
                     }
                 }
@@ -851,15 +1467,30 @@ public class StorableStoreImpl extends AdminStorableStore
             final int compressedHash = _cleanChecksum(compressedOut.calculateHash());
             stdMetadata.uncompressedSize = copiedBytes;
             stdMetadata.storageSize = compressedOut.count();
+            if (_compressionSelector != null) {
+                _compressionSelector.observe(key0, comp, copiedBytes, stdMetadata.storageSize, -1L);
+            }
             // must verify checksum, if one was offered...
             _verifyContentHash(key0, stdMetadata, copiedBytes, contentHash);
             _verifyCompressedHash(key0, stdMetadata, copiedBytes, compressedHash);
         }
+        // chunk index written first, so it is moved (or deleted) along with the file if shared
+        if (chunkIndexer != null) {
+            _writeChunkIndex(key0, storedFile, chunkIndexer.build());
+        }
+        // If identical content is already stored, can share that file instead
+        FileReference storedRef = fileRef;
+        ContentKey contentKey = null;
+        if (contentHasher != null) {
+            contentKey = new ContentKey(contentHasher.calculateHash128(), copiedBytes, comp);
+            storedRef = _deduplicate(key0, stdMetadata, fileRef, contentKey);
+        }
         long creationTime = _timeMaster.currentTimeMillis();
         Storable storable = _storableConverter.encodeOfflined(key0, creationTime,
-                stdMetadata, customMetadata, fileRef);
+                stdMetadata, customMetadata, storedRef);
 
-        return _putPartitionedEntry(source, diag, key0, creationTime, stdMetadata, storable, allowOverwrites);
+        return _putSharedEntry(source, diag, key0, creationTime, stdMetadata, storable, allowOverwrites,
+                contentKey);
     }
 
     /**
@@ -870,25 +1501,49 @@ public class StorableStoreImpl extends AdminStorableStore
     protected StorableCreationResult _putLargeEntryFullyBuffered(StoreOperationSource source, final OperationDiagnostics diag,
             StorableKey key0, StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
             OverwriteChecker allowOverwrites,
-            final byte[] readBuffer, final boolean skipCompression, final StreamyBytesMemBuffer offHeap)
+            final byte[] readBuffer, final boolean skipCompression, final StreamyBytesMemBuffer offHeap,
+            final IncrementalMurmur3x64Hasher contentHasher)
         throws IOException, StoreException
     {
+        // If identical content is already stored, can skip writing altogether. But only
+        // if there is no compressed checksum to verify, as we will not be compressing
+        if ((contentHasher != null)
+                && (skipCompression || (stdMetadata.compressedContentHash == HashConstants.NO_CHECKSUM))) {
+            final ContentKey contentKey = new ContentKey(contentHasher.calculateHash128(),
+                    offHeap.getTotalPayloadLength(), stdMetadata.compression);
+            SharedFile shared;
+            try {
+                shared = _deduplicator.addReference(contentKey);
+            } catch (IOException e) {
+                throw new StoreException.IO(key0, "Failed to update index of shared files", e);
+            }
+            if (shared != null) {
+                return _putLargeEntryAsShared(source, diag, key0, stdMetadata, customMetadata,
+                        allowOverwrites, readBuffer, skipCompression, offHeap, contentKey, shared);
+            }
+        }
         long fileCreationTime = _timeMaster.currentTimeMillis();
         final FileReference fileRef = _fileManager.createStorageFile(key0, stdMetadata.compression, fileCreationTime);
         File storedFile = fileRef.getFile();
 
         final OutputStream out;
         final CountingOutputStream compressedOut;
-        
+        final LZFChunkIndex.Builder chunkIndexer;
+
         if (skipCompression) {
             compressedOut = null;
-            out = new FileOutputStream(storedFile);
+            OutputStream fileOut = new FileOutputStream(storedFile);
+            chunkIndexer = _chunkIndexer(stdMetadata.compression, fileOut);
+            out = (chunkIndexer == null) ? fileOut : chunkIndexer;
         } else {
             compressedOut = new CountingOutputStream(new FileOutputStream(storedFile),
                     new IncrementalMurmur3Hasher());
-            out = Compressors.compressingStream(compressedOut, stdMetadata.compression);
+            chunkIndexer = _chunkIndexer(stdMetadata.compression, compressedOut);
+            out = Compressors.compressingStream((chunkIndexer == null) ? compressedOut : chunkIndexer,
+                    stdMetadata.compression);
         }
         final IncrementalMurmur3Hasher hasher = new IncrementalMurmur3Hasher(HASH_SEED);        
+        final Compression comp = stdMetadata.compression;
 
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
         long copiedBytes = _throttler.performFileWrite(source,
@@ -898,6 +1553,10 @@ public class StorableStoreImpl extends AdminStorableStore
             public Long perform(long operationTime, StorableKey key, Storable value, File externalFile)
                     throws IOException, StoreException {
                 final long fsStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                if (diag != null) {
+                    diag.addThrottleWait(nanoStart, fsStart);
+                }
+                final FileIOEvent fileEvent = FileIOEvent.start(FileIOEvent.OP_WRITE, source, key);
                 long total = 0L;
                 
                 try {
@@ -914,9 +1573,10 @@ public class StorableStoreImpl extends AdminStorableStore
                     }
                 } finally {
                     try { out.close(); } catch (IOException e) { }
+                    // Note: due to compression, bytes written may be less than read:
+                    long writtenBytes = (compressedOut == null) ? total : compressedOut.count();
+                    fileEvent.finish(externalFile, writtenBytes, comp);
                     if (diag != null) {
-                        // Note: due to compression, bytes written may be less than read:
-                        long writtenBytes = (compressedOut == null) ? total : compressedOut.count();
                         diag.addFileWriteAccess(nanoStart,  fsStart,  _timeMaster, writtenBytes);
                     }
                 }
@@ -937,18 +1597,110 @@ public class StorableStoreImpl extends AdminStorableStore
             final int compressedHash = _cleanChecksum(compressedOut.calculateHash());
             stdMetadata.uncompressedSize = copiedBytes;
             stdMetadata.storageSize = compressedOut.count();
+            if (_compressionSelector != null) {
+                _compressionSelector.observe(key0, comp, copiedBytes, stdMetadata.storageSize, -1L);
+            }
             // must verify checksum, if one was offered...
             _verifyContentHash(key0, stdMetadata, copiedBytes, contentHash);
             _verifyCompressedHash(key0, stdMetadata, copiedBytes, compressedHash);
         }
+        // chunk index written first, so it is moved (or deleted) along with the file if shared
+        if (chunkIndexer != null) {
+            _writeChunkIndex(key0, storedFile, chunkIndexer.build());
+        }
+        // If identical content is already stored, can share that file instead
+        FileReference storedRef = fileRef;
+        ContentKey contentKey = null;
+        if (contentHasher != null) {
+            contentKey = new ContentKey(contentHasher.calculateHash128(), copiedBytes, comp);
+            storedRef = _deduplicate(key0, stdMetadata, fileRef, contentKey);
+        }
         long creationTime = _timeMaster.currentTimeMillis();
         Storable storable = _storableConverter.encodeOfflined(key0, creationTime,
-                stdMetadata, customMetadata, fileRef);
+                stdMetadata, customMetadata, storedRef);
 
-        return _putPartitionedEntry(source, diag, key0, creationTime, stdMetadata, storable, allowOverwrites);
+        return _putSharedEntry(source, diag, key0, creationTime, stdMetadata, storable, allowOverwrites,
+                contentKey);
     }
     
-    protected void _verifyStorageSize(StorableKey key, StorableCreationMetadata stdMetadata, long bytes)
+    /**
+     * Method used when the whole input did fit in off-heap buffer, and identical
+     * content is already stored in a shared file (to which a reference has been added):
+     * if so, content only needs to be verified, and entry made to refer to the shared file.
+     */
+    protected StorableCreationResult _putLargeEntryAsShared(StoreOperationSource source, final OperationDiagnostics diag,
+            StorableKey key0, StorableCreationMetadata stdMetadata, ByteContainer customMetadata,
+            OverwriteChecker allowOverwrites,
+            final byte[] readBuffer, final boolean skipCompression, final StreamyBytesMemBuffer offHeap,
+            ContentKey contentKey, SharedFile shared)
+        throws IOException, StoreException
+    {
+        final Storable storable;
+        final long creationTime;
+        try {
+            final IncrementalMurmur3Hasher hasher = new IncrementalMurmur3Hasher(HASH_SEED);        
+            long total = 0L;
+            int count;
+            while ((count = offHeap.readIfAvailable(readBuffer)) > 0) {
+                total += count;
+                hasher.update(readBuffer, 0, count);
+            }
+            final int contentHash = _cleanChecksum(hasher.calculateHash());
+            if (skipCompression) {
+                _verifyStorageSize(key0, stdMetadata, total);
+                stdMetadata.uncompressedSize = 0L;
+            } else {
+                stdMetadata.uncompressedSize = total;
+            }
+            _verifyContentHash(key0, stdMetadata, total, contentHash);
+            // note: compressed representation may differ, so must use that of the shared file
+            stdMetadata.storageSize = shared.getStorageSize();
+            stdMetadata.compressedContentHash = shared.getCompressedHash();
+            stdMetadata.extendedContentHash = contentKey.getHash();
+            FileReference storedRef = new FileReference(_fileManager.derefenceFile(shared.getPath()),
+                    shared.getPath());
+            creationTime = _timeMaster.currentTimeMillis();
+            storable = _storableConverter.encodeOfflined(key0, creationTime,
+                    stdMetadata, customMetadata, storedRef);
+        } catch (IOException e) {
+            _releaseSharedFile(key0, contentKey, shared.getPath());
+            throw e;
+        } catch (RuntimeException e) {
+            _releaseSharedFile(key0, contentKey, shared.getPath());
+            throw e;
+        }
+        return _putSharedEntry(source, diag, key0, creationTime, stdMetadata, storable, allowOverwrites,
+                contentKey);
+    }
+
+    /**
+     * Method called to write metadata of entry that may refer to a shared
+     * file (see {@link ContentDeduplicator}), if content key is given: if so,
+     * reference added for the entry is released if writing fails.
+     */
+    protected StorableCreationResult _putSharedEntry(final StoreOperationSource source, final OperationDiagnostics diag,
+            StorableKey key0, final long operationTime,
+            final StorableCreationMetadata stdMetadata, Storable storable,
+            final OverwriteChecker allowOverwrites, ContentKey contentKey)
+        throws IOException, StoreException
+    {
+        if (contentKey == null) {
+            return _putPartitionedEntry(source, diag, key0, operationTime, stdMetadata, storable, allowOverwrites);
+        }
+        try {
+            return _putPartitionedEntry(source, diag, key0, operationTime, stdMetadata, storable, allowOverwrites);
+        } catch (IOException e) {
+            _deleteBackingFile(key0, storable);
+            throw e;
+        } catch (RuntimeException e) {
+            _deleteBackingFile(key0, storable);
+            throw e;
+        } finally {
+            _deduplicator.registrationDone(contentKey);
+        }
+    }
+
+    protected void _verifyStorageSize(StorableKey key, StorableCreationMetadata stdMetadata, long bytes)
         throws StoreException
     {
         // Storage sizes must match, first of all, if provided
@@ -996,9 +1748,12 @@ public class StorableStoreImpl extends AdminStorableStore
      * Helper method used for reading as much data from the request as
      * possible, appending it in an off-heap buffer for further
      * processing.
+     *
+     * @param contentHasher Hasher to update with content appended, if any
      */
     protected int _readInBuffer(final OperationDiagnostics diag, final StorableKey key,
-            InputStream input, byte[] readBuffer, StreamyBytesMemBuffer offHeap)
+            InputStream input, byte[] readBuffer, StreamyBytesMemBuffer offHeap,
+            IncrementalMurmur3x64Hasher contentHasher)
         throws IOException
     {
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
@@ -1019,6 +1774,9 @@ public class StorableStoreImpl extends AdminStorableStore
                     // if not, return to caller, indicating how much is left
                     return count;
                 }
+                if (contentHasher != null) {
+                    contentHasher.update(readBuffer, 0, count);
+                }
             }
         } finally {
             if (diag != null) {
@@ -1049,6 +1807,10 @@ public class StorableStoreImpl extends AdminStorableStore
             public StorableCreationResult perform(long time, StorableKey key1, final Storable newValue)
                 throws IOException, StoreException
             {
+                final long lockStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                if (diag != null) {
+                    diag.addThrottleWait(nanoStart, lockStart);
+                }
                 // blind update, insert-only are easy
                 Boolean defaultOk = allowOverwrites.mayOverwrite(key1);
                 if (defaultOk != null) { // depends on entry in question...
@@ -1058,7 +1820,16 @@ public class StorableStoreImpl extends AdminStorableStore
                             @Override
                             public StorableCreationResult performWrite(StorableKey key) throws IOException, StoreException {
                                 final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-                                Storable oldValue =  _backend.putEntry(key, newValue);
+                                if (diag != null) {
+                                    diag.addLockWait(lockStart, dbStart);
+                                }
+                                final BackendCallEvent dbEvent = BackendCallEvent.start("putEntry", key);
+                                Storable oldValue;
+                                try {
+                                    oldValue =  _backend.putEntry(key, newValue);
+                                } finally {
+                                    dbEvent.finish();
+                                }
                                 if (diag != null) {
                                     diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                                 }
@@ -1072,7 +1843,16 @@ public class StorableStoreImpl extends AdminStorableStore
                         @Override
                         public StorableCreationResult performWrite(StorableKey key) throws IOException, StoreException {
                             final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-                            Storable oldValue =  _backend.createEntry(key, newValue);
+                            if (diag != null) {
+                                diag.addLockWait(lockStart, dbStart);
+                            }
+                            final BackendCallEvent dbEvent = BackendCallEvent.start("createEntry", key);
+                            Storable oldValue;
+                            try {
+                                oldValue =  _backend.createEntry(key, newValue);
+                            } finally {
+                                dbEvent.finish();
+                            }
                             if (diag != null) {
                                 diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                             }
@@ -1080,7 +1860,7 @@ public class StorableStoreImpl extends AdminStorableStore
                                 return new StorableCreationResult(key, true, newValue, null);
                             }
                             // fail: caller may need to clean up the underlying file
-                            _deleteBackingFile(key, newValue.getExternalFile(_fileManager));
+                            _deleteBackingFile(key, newValue);
                             return new StorableCreationResult(key, false, newValue, oldValue);
                         }
                     });
@@ -1092,13 +1872,22 @@ public class StorableStoreImpl extends AdminStorableStore
                     public StorableCreationResult performWrite(StorableKey key) throws IOException, StoreException {
                         AtomicReference<Storable> oldEntryRef = new AtomicReference<Storable>();                       
                         final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-                        boolean success = _backend.upsertEntry(key, newValue, allowOverwrites, oldEntryRef);
+                        if (diag != null) {
+                            diag.addLockWait(lockStart, dbStart);
+                        }
+                        final BackendCallEvent dbEvent = BackendCallEvent.start("upsertEntry", key);
+                        boolean success;
+                        try {
+                            success = _backend.upsertEntry(key, newValue, allowOverwrites, oldEntryRef);
+                        } finally {
+                            dbEvent.finish();
+                        }
                         if (diag != null) {
                             diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                         }
                         if (!success) {
                             // fail due to existing entry
-                            _deleteBackingFile(key, newValue.getExternalFile(_fileManager));
+                            _deleteBackingFile(key, newValue);
                             return new StorableCreationResult(key, false, newValue, oldEntryRef.get());
                         }
                         return new StorableCreationResult(key, true, newValue, oldEntryRef.get());
@@ -1126,72 +1915,128 @@ public class StorableStoreImpl extends AdminStorableStore
      */
 
     @Override
-    public StorableDeletionResult softDelete(final StoreOperationSource source, final OperationDiagnostics diag,
+    public StorableDeletionResult softDelete(final StoreOperationSource source, OperationDiagnostics diag0,
             StorableKey key0,
             final boolean removeInlinedData, final boolean removeExternalData)
         throws IOException, StoreException
     {
         _checkClosed();
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-        Storable entry = _throttler.performSoftDelete(source,
-                _timeMaster.currentTimeMillis(), key0,
-        new StoreOperationCallback<Storable>() {
-            @Override
-            public Storable perform(final long operationTime, StorableKey key1, Storable value1)
-                throws IOException, StoreException
-            {
-                return _writeMutex.partitionedWrite(operationTime, key1,
-                        new PartitionedWriteMutex.Callback<Storable>() {
-                    @Override
-                    public Storable performWrite(StorableKey key) throws IOException, StoreException {
-                        final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-                        Storable value = _backend.findEntry(key);              
-                        // First things first: if no entry, nothing to do
-                        if (value == null) {
-                            return null;
-                        }
-                        return _softDelete(source, diag, nanoStart, dbStart,
-                                key, value, operationTime, removeInlinedData, removeExternalData);
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_SOFT_DELETE, source, key0);
+        Storable entry = null;
+        try {
+            entry = _throttler.performSoftDelete(source,
+                    _timeMaster.currentTimeMillis(), key0,
+            new StoreOperationCallback<Storable>() {
+                @Override
+                public Storable perform(final long operationTime, StorableKey key1, Storable value1)
+                    throws IOException, StoreException
+                {
+                    final long lockStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                    if (diag != null) {
+                        diag.addThrottleWait(nanoStart, lockStart);
                     }
-                });
-            }
-        });
+                    return _writeMutex.partitionedWrite(operationTime, key1,
+                            new PartitionedWriteMutex.Callback<Storable>() {
+                        @Override
+                        public Storable performWrite(StorableKey key) throws IOException, StoreException {
+                            final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                            if (diag != null) {
+                                diag.addLockWait(lockStart, dbStart);
+                            }
+                            Storable value = _findEntryForUpdate(key);
+                            // First things first: if no entry, nothing to do
+                            if (value == null) {
+                                return null;
+                            }
+                            return _softDelete(source, diag, nanoStart, dbStart,
+                                    key, value, operationTime, removeInlinedData, removeExternalData);
+                        }
+                    });
+                }
+            });
+        } finally {
+            _finishDeleteEvent(event, entry);
+            _endTrace(traced, StoreOperationEvent.OP_SOFT_DELETE, source, key0, diag, nanoStart, entry);
+        }
         return new StorableDeletionResult(key0, entry);
     }
     
     @Override
-    public StorableDeletionResult hardDelete(final StoreOperationSource source, final OperationDiagnostics diag,
+    public StorableDeletionResult hardDelete(final StoreOperationSource source, OperationDiagnostics diag0,
             StorableKey key0, final boolean removeExternalData)
         throws IOException, StoreException
     {
         _checkClosed();
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-        Storable entry = _throttler.performHardDelete(source,
-                _timeMaster.currentTimeMillis(), key0,
-                new StoreOperationCallback<Storable>() {
-            @Override
-            public Storable perform(final long operationTime, StorableKey key1, Storable value1)
-                throws IOException, StoreException
-            {
-                return _writeMutex.partitionedWrite(operationTime, key1,
-                        new PartitionedWriteMutex.Callback<Storable>() {
-                    @Override
-                    public Storable performWrite(StorableKey key) throws IOException, StoreException {
-                        final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
-                        Storable value = _backend.findEntry(key);              
-                        // First things first: if no entry, nothing to do
-                        if (value == null) {
-                            return null;
-                        }
-                        return _hardDelete(source, diag, nanoStart, dbStart,
-                                key, value, removeExternalData);
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_HARD_DELETE, source, key0);
+        Storable entry = null;
+        try {
+            entry = _throttler.performHardDelete(source,
+                    _timeMaster.currentTimeMillis(), key0,
+                    new StoreOperationCallback<Storable>() {
+                @Override
+                public Storable perform(final long operationTime, StorableKey key1, Storable value1)
+                    throws IOException, StoreException
+                {
+                    final long lockStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                    if (diag != null) {
+                        diag.addThrottleWait(nanoStart, lockStart);
                     }
-                });
-            }
-        });
+                    return _writeMutex.partitionedWrite(operationTime, key1,
+                            new PartitionedWriteMutex.Callback<Storable>() {
+                        @Override
+                        public Storable performWrite(StorableKey key) throws IOException, StoreException {
+                            final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                            if (diag != null) {
+                                diag.addLockWait(lockStart, dbStart);
+                            }
+                            Storable value = _findEntryForUpdate(key);
+                            // First things first: if no entry, nothing to do
+                            if (value == null) {
+                                return null;
+                            }
+                            return _hardDelete(source, diag, nanoStart, dbStart,
+                                    key, value, removeExternalData);
+                        }
+                    });
+                }
+            });
+        } finally {
+            _finishDeleteEvent(event, entry);
+            _endTrace(traced, StoreOperationEvent.OP_HARD_DELETE, source, key0, diag, nanoStart, entry);
+        }
         return new StorableDeletionResult(key0, entry);
     }
 
+    /**
+     * Helper method for reading current state of an entry that is to be
+     * modified (deleted, migrated or recompressed), bypassing caches
+     * and read-path handling.
+     */
+    protected Storable _findEntryForUpdate(StorableKey key) throws StoreException
+    {
+        final BackendCallEvent dbEvent = BackendCallEvent.start("findEntry", key);
+        try {
+            return _backend.findEntry(key);
+        } finally {
+            dbEvent.finish();
+        }
+    }
+
+    protected static void _finishDeleteEvent(StoreOperationEvent event, Storable entry)
+    {
+        if (entry == null) {
+            event.finish();
+        } else {
+            event.finish(entry.getStorageLength(), entry.getCompression());
+        }
+    }
+
     protected Storable _softDelete(StoreOperationSource source, final OperationDiagnostics diag,
             final long nanoStart, final long dbStart,
             final StorableKey key, final Storable entry, final long currentTime,
@@ -1202,15 +2047,19 @@ public class StorableStoreImpl extends AdminStorableStore
         boolean hasExternalToDelete = removeExternalData && entry.hasExternalData();
         if (!entry.isDeleted() || hasExternalToDelete
                 || (removeInlinedData && entry.hasInlineData())) {
-            File extFile = hasExternalToDelete ? entry.getExternalFile(_fileManager) : null;
             Storable modifiedEntry = _storableConverter.softDeletedCopy(key, entry, currentTime,
                     removeInlinedData, removeExternalData);
-            _backend.ovewriteEntry(key, modifiedEntry);
+            final BackendCallEvent dbEvent = BackendCallEvent.start("ovewriteEntry", key);
+            try {
+                _backend.ovewriteEntry(key, modifiedEntry);
+            } finally {
+                dbEvent.finish();
+            }
             if (diag != null) {
                 diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
             }
-            if (extFile != null) {
-                _deleteBackingFile(key, extFile);
+            if (hasExternalToDelete) {
+                _deleteBackingFile(key, entry);
             }
             return modifiedEntry;
         }
@@ -1223,13 +2072,18 @@ public class StorableStoreImpl extends AdminStorableStore
             final boolean removeExternalData)
         throws IOException, StoreException
     {
-        _backend.deleteEntry(key);
+        final BackendCallEvent dbEvent = BackendCallEvent.start("deleteEntry", key);
+        try {
+            _backend.deleteEntry(key);
+        } finally {
+            dbEvent.finish();
+        }
         if (diag != null) {
             diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
         }
         // Hard deletion is not hard at all (pun attack!)...
         if (removeExternalData && entry.hasExternalData()) {
-            _deleteBackingFile(key, entry.getExternalFile(_fileManager));
+            _deleteBackingFile(key, entry);
         }
         return entry;
     }    
@@ -1241,12 +2095,15 @@ public class StorableStoreImpl extends AdminStorableStore
      */
     
     @Override
-    public IterationResult iterateEntriesByKey(StoreOperationSource source, final OperationDiagnostics diag,
+    public IterationResult iterateEntriesByKey(StoreOperationSource source, OperationDiagnostics diag0,
             final StorableKey firstKey,
             final StorableIterationCallback cb)
         throws StoreException
     {
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_LIST, source, firstKey);
         try {
             return _throttler.performList(source, _timeMaster.currentTimeMillis(),
                     new StoreOperationCallback<IterationResult>() {
@@ -1254,9 +2111,14 @@ public class StorableStoreImpl extends AdminStorableStore
                 public IterationResult perform(long operationTime, StorableKey key, Storable value)
                         throws IOException, StoreException {
                     final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                    if (diag != null) {
+                        diag.addThrottleWait(nanoStart, dbStart);
+                    }
+                    final BackendCallEvent dbEvent = BackendCallEvent.start("iterateEntriesByKey", firstKey);
                     try {
                         return _backend.iterateEntriesByKey(cb, firstKey);
                     } finally {
+                        dbEvent.finish();
                         if (diag != null) {
                             diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                         }
@@ -1265,16 +2127,22 @@ public class StorableStoreImpl extends AdminStorableStore
             });
         } catch (IOException e) {
             throw new StoreException.IO(firstKey, "Failed to iterate entries from "+firstKey+": "+e.getMessage(), e);
+        } finally {
+            event.finish();
+            _endTrace(traced, StoreOperationEvent.OP_LIST, source, firstKey, diag, nanoStart, null);
         }
     }
 
     @Override
-    public IterationResult iterateEntriesAfterKey(StoreOperationSource source, final OperationDiagnostics diag,
+    public IterationResult iterateEntriesAfterKey(StoreOperationSource source, OperationDiagnostics diag0,
             final StorableKey lastSeen,
             final StorableIterationCallback cb)
         throws StoreException
     {
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_LIST, source, lastSeen);
         try {
             return _throttler.performList(source, _timeMaster.currentTimeMillis(),
             new StoreOperationCallback<IterationResult>() {
@@ -1282,6 +2150,10 @@ public class StorableStoreImpl extends AdminStorableStore
                 public IterationResult perform(long operationTime, StorableKey key, Storable value)
                         throws IOException, StoreException {
                     final long dbStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+                    if (diag != null) {
+                        diag.addThrottleWait(nanoStart, dbStart);
+                    }
+                    final BackendCallEvent dbEvent = BackendCallEvent.start("iterateEntriesAfterKey", lastSeen);
                     // if we didn't get "lastSeen", same as regular method
                     try {
                         if (lastSeen == null) {
@@ -1289,6 +2161,7 @@ public class StorableStoreImpl extends AdminStorableStore
                         }
                         return _backend.iterateEntriesAfterKey(cb, lastSeen);
                     } finally {
+                        dbEvent.finish();
                         if (diag != null) {
                             diag.addDbAccess(nanoStart, dbStart, _timeMaster.nanosForDiagnostics());
                         }
@@ -1297,23 +2170,31 @@ public class StorableStoreImpl extends AdminStorableStore
             });
         } catch (IOException e) {
             throw new StoreException.IO(lastSeen, "Failed to iterate entries from "+lastSeen+": "+e.getMessage(), e);
+        } finally {
+            event.finish();
+            _endTrace(traced, StoreOperationEvent.OP_LIST, source, lastSeen, diag, nanoStart, null);
         }
     }
     
     @Override
-    public IterationResult iterateEntriesByModifiedTime(StoreOperationSource source, OperationDiagnostics diag,
+    public IterationResult iterateEntriesByModifiedTime(StoreOperationSource source, OperationDiagnostics diag0,
             long firstTimestamp,
             StorableLastModIterationCallback cb)
         throws StoreException
     {
+        final boolean traced = _sampleForTrace();
+        final OperationDiagnostics diag = _startTrace(diag0, traced);
         final long nanoStart = (diag == null) ? 0L : _timeMaster.nanosForDiagnostics();
+        final StoreOperationEvent event = StoreOperationEvent.start(StoreOperationEvent.OP_LIST_BY_MODTIME, source, null);
         try {
             return _backend.iterateEntriesByModifiedTime(cb, firstTimestamp);
         } finally {
+            event.finish();
             // no throttling for these (used only internally for now?), hence:
             if (diag != null) {
                 diag.addDbAccess(nanoStart, nanoStart, _timeMaster.nanosForDiagnostics());
             }
+            _endTrace(traced, StoreOperationEvent.OP_LIST_BY_MODTIME, source, null, diag, nanoStart, null);
         }
     }
     
@@ -1327,7 +2208,47 @@ public class StorableStoreImpl extends AdminStorableStore
     public int getInFlightWritesCount() {
         return _writeMutex.getInFlightWritesCount();
     }
+
+    @Override
+    public List<SlowOperation> getSlowestOperations() {
+        if (_slowOperationTracer == null) {
+            return Collections.emptyList();
+        }
+        return _slowOperationTracer.getSlowestOperations();
+    }
     
+    @Override
+    public int reconcileSharedFiles(StoreOperationSource source)
+        throws IOException, StoreException
+    {
+        _checkClosed();
+        if (_deduplicator == null) {
+            return 0;
+        }
+        final ContentDeduplicator.Reconciliation reconciliation = _deduplicator.startReconciliation();
+        boolean ok = false;
+        try {
+            IterationResult result = _backend.scanEntries(new StorableIterationCallback() {
+                @Override public IterationAction verifyKey(StorableKey key) { return IterationAction.PROCESS_ENTRY; }
+                @Override
+                public IterationAction processEntry(Storable entry) {
+                    reconciliation.addEntry(entry);
+                    return IterationAction.PROCESS_ENTRY;
+                }
+            });
+            if (result != IterationResult.FULLY_ITERATED) {
+                throw new IllegalStateException("Failed to scan all entries for reconciliation of shared files: "+result);
+            }
+            int fixes = reconciliation.finish();
+            ok = true;
+            return fixes;
+        } finally {
+            if (!ok) {
+                reconciliation.abort();
+            }
+        }
+    }
+
     @Override
     public long getTombstoneCount(StoreOperationSource source, long maxRuntimeMsecs)
         throws StoreException
@@ -1364,6 +2285,19 @@ public class StorableStoreImpl extends AdminStorableStore
                     }
                     return IterationAction.PROCESS_ENTRY;
                 }
+                // with views, only need to decode entries to include
+                @Override
+                public boolean wantsViews() { return true; }
+                @Override
+                public IterationAction processView(StorableView entry) {
+                    if (includeDeleted || !entry.isDeleted()) {
+                        result.add(entry.toStorable());
+                        if (result.size() >= maxCount) {
+                            return IterationAction.TERMINATE_ITERATION;
+                        }
+                    }
+                    return IterationAction.PROCESS_ENTRY;
+                }
             });
         }
         return result;
@@ -1400,6 +2334,19 @@ public class StorableStoreImpl extends AdminStorableStore
                     }
                     return IterationAction.PROCESS_ENTRY;
                 }
+                // with views, only need to decode entries to include
+                @Override
+                public boolean wantsViews() { return true; }
+                @Override
+                public IterationAction processView(StorableView entry) {
+                    if (includeDeleted || !entry.isDeleted()) {
+                        result.add(entry.toStorable());
+                        if (result.size() >= maxCount) {
+                            return IterationAction.TERMINATE_ITERATION;
+                        }
+                    }
+                    return IterationAction.PROCESS_ENTRY;
+                }
             }, fromTime);
         }
         return result;
@@ -1418,12 +2365,13 @@ public class StorableStoreImpl extends AdminStorableStore
     {
         int removed = 0;
         if (maxToRemove > 0) {
-            StorableCollector collector = new StorableCollector(maxToRemove) {
+            StorableCollector collector = new StorableCollector(maxToRemove, _keyPrefixes) {
                 @Override
                 public boolean includeEntry(Storable entry) { // any and all entries
                     return true;
                 }
             };
+            _backend.scanEntries(collector);
             for (StorableKey key : collector.getCollected()) {
                 hardDelete(source, null, key, true);
                 ++removed;
@@ -1446,7 +2394,7 @@ public class StorableStoreImpl extends AdminStorableStore
     {
         int removed = 0;
         if (maxToRemove > 0) {
-            StorableCollector collector = new StorableCollector(maxToRemove) {
+            StorableCollector collector = new StorableCollector(maxToRemove, _keyPrefixes) {
                 @Override
                 public boolean includeEntry(Storable entry) {
                     return entry.isDeleted();
@@ -1464,12 +2412,100 @@ public class StorableStoreImpl extends AdminStorableStore
         return removed;
     }
     
+    /*
+    /**********************************************************************
+    /* Internal methods, slow-operation tracing
+    /**********************************************************************
+     */
+
+    /**
+     * Method called at the start of a traceable operation, to see whether
+     * it is to be traced: that is, slow-operation tracing is enabled and
+     * operation is sampled. Sampling is done regardless of whether caller
+     * passes diagnostics of its own or not.
+     */
+    protected boolean _sampleForTrace()
+    {
+        final SlowOperationTracer tracer = _slowOperationTracer;
+        return (tracer != null) && tracer.shouldSample();
+    }
+
+    /**
+     * Method called at the start of a traceable operation: if operation
+     * is traced, will create diagnostics object for collecting per-phase
+     * timings, unless caller passed one.
+     */
+    protected OperationDiagnostics _startTrace(OperationDiagnostics diag, boolean traced)
+    {
+        if (diag == null && traced) {
+            return new OperationDiagnostics(_timeMaster);
+        }
+        return diag;
+    }
+
+    protected void _endTrace(boolean traced, String operation, StoreOperationSource source, StorableKey key,
+            OperationDiagnostics diag, long nanoStart, Storable entry)
+    {
+        if (traced && diag != null) {
+            _slowOperationTracer.record(_timeMaster.currentTimeMillis(), operation, source, key,
+                    _timeMaster.nanosForDiagnostics() - nanoStart, diag, entry);
+        }
+    }
+
     /*
     /**********************************************************************
     /* Internal methods, other
     /**********************************************************************
      */
 
+    /**
+     * Method for deleting backing file of given entry, if it has one. If the
+     * file is shared with other entries (see {@link ContentDeduplicator}),
+     * only reference from the entry is removed, and file itself is only
+     * deleted once no references remain.
+     *
+     * @return True if deletion was either not needed (no backing file, or
+     *   file still referenced), or if it succeeded; false if not.
+     */
+    protected boolean _deleteBackingFile(StorableKey key, Storable entry)
+    {
+        final File extFile = entry.getExternalFile(_fileManager);
+        if (extFile == null) {
+            return true;
+        }
+        if (_deduplicator != null) {
+            try {
+                if (!_deduplicator.release(entry)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                // better leave the file around than delete one that may still be in use
+                LOG.warn("Failed to release shared backing data file of key {}, path {}: {}", key,
+                        extFile.getAbsolutePath(), e.getMessage());
+                return false;
+            }
+        }
+        return _deleteBackingFile(key, extFile);
+    }
+
+    /**
+     * Method for releasing reference to a shared file added for an entry that
+     * could not be written; file is deleted if no other references remain.
+     */
+    protected void _releaseSharedFile(StorableKey key, ContentKey contentKey, String path)
+    {
+        try {
+            if (_deduplicator.release(contentKey, path)) {
+                _deleteBackingFile(key, _fileManager.derefenceFile(path));
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to release shared backing data file of key {}, path {}: {}", key,
+                    path, e.getMessage());
+        } finally {
+            _deduplicator.registrationDone(contentKey);
+        }
+    }
+
     /**
      * @return True if deletion was either not needed (no backing file), or
      *   if it succeeded; false if the file did not exist.
@@ -1479,6 +2515,10 @@ public class StorableStoreImpl extends AdminStorableStore
         if (extFile == null) {
             return true;
         }
+        if (_lzfChunkIndex) {
+            // chunk index, if any, is not needed either (but need not exist)
+            _fileManager.chunkIndexFileFor(extFile).delete();
+        }
         try {
             boolean ok = extFile.delete();
             if (!ok) {
@@ -1507,6 +2547,143 @@ System.err.println("FAILED TO DELETE backing ("+ok+" / "+extFile.getAbsolutePath
         return false;
     }
             
+    /**
+     * Helper method for constructing hasher for calculating 128-bit hash of
+     * content of external file to write, if it may be deduplicated: that is,
+     * deduplication is enabled, and content is not pre-compressed (as the
+     * content hash could not be verified), and caller did not provide
+     * an extended hash of its own.
+     */
+    protected IncrementalMurmur3x64Hasher _contentHasher(StorableCreationMetadata stdMetadata,
+            boolean skipCompression)
+    {
+        if ((_deduplicator == null) || !_deduplicator.isEnabled()
+                || (stdMetadata.extendedContentHash != null)
+                || (skipCompression && (stdMetadata.compression != Compression.NONE))) {
+            return null;
+        }
+        return new IncrementalMurmur3x64Hasher(HASH_SEED);
+    }
+
+    /**
+     * Helper method called after content has been written in a new external
+     * file, to check whether identical content is already stored in another
+     * file: if so, the new file is deleted and the existing one shared;
+     * otherwise new file is moved to shared file directory, and registered for sharing.
+     * Either way, caller must call {@link ContentDeduplicator#registrationDone}
+     * once entry has been written (see {@link #_putSharedEntry}).
+     *
+     * @return Reference to file to use for the entry
+     */
+    protected FileReference _deduplicate(StorableKey key, StorableCreationMetadata stdMetadata,
+            FileReference fileRef, ContentKey contentKey)
+        throws StoreException
+    {
+        stdMetadata.extendedContentHash = contentKey.getHash();
+        SharedFile shared;
+        try {
+            shared = _deduplicator.register(contentKey,
+                    fileRef, stdMetadata.storageSize, stdMetadata.compressedContentHash);
+        } catch (IOException e) {
+            _deleteBackingFile(key, fileRef.getFile());
+            throw new StoreException.IO(key, "Failed to update index of shared files", e);
+        }
+        if (shared.getRefCount() == 1) { // new file, moved under shared directory
+            return new FileReference(_fileManager.derefenceFile(shared.getPath()), shared.getPath());
+        }
+        _deleteBackingFile(key, fileRef.getFile());
+        // note: compressed representation may differ, so must use that of the shared file
+        stdMetadata.storageSize = shared.getStorageSize();
+        stdMetadata.compressedContentHash = shared.getCompressedHash();
+        return new FileReference(_fileManager.derefenceFile(shared.getPath()), shared.getPath());
+    }
+
+    /**
+     * Helper method for constructing chunk indexer for external file to
+     * write using given compression, if chunk indexes are enabled and
+     * apply to compression method.
+     */
+    protected LZFChunkIndex.Builder _chunkIndexer(Compression comp, OutputStream out)
+    {
+        if (_lzfChunkIndex && (comp == Compression.LZF)) {
+            return new LZFChunkIndex.Builder(out);
+        }
+        return null;
+    }
+
+    /**
+     * Helper method for writing chunk index for given storage file, if index
+     * could be built, and is of any use (more than one chunk).
+     * Since index is optional, failures are only logged.
+     */
+    protected void _writeChunkIndex(StorableKey key, File storageFile, LZFChunkIndex index)
+    {
+        if (index == null || index.getChunkCount() < 2) {
+            return;
+        }
+        File indexFile = _fileManager.chunkIndexFileFor(storageFile);
+        try {
+            OutputStream out = new FileOutputStream(indexFile);
+            try {
+                index.writeTo(new BufferedOutputStream(out));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write chunk index file for key {}, path {}: {}", key,
+                    indexFile.getAbsolutePath(), e.getMessage());
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Helper method for reading chunk index of given storage file, if one
+     * exists and matches the entry.
+     */
+    protected LZFChunkIndex _readChunkIndex(Storable entry, File storageFile)
+    {
+        File indexFile = _fileManager.chunkIndexFileFor(storageFile);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        LZFChunkIndex index;
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(indexFile));
+            try {
+                index = LZFChunkIndex.readFrom(in, indexFile.length());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read chunk index file for key {}, path {}: {}", entry.getKey(),
+                    indexFile.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+        // sanity check, to avoid using stale index for some other content
+        if (index.getFileLength() != entry.getStorageLength()
+                || index.getUncompressedLength() != entry.getActualUncompressedLength()) {
+            LOG.warn("Invalid chunk index file for key {}, path {}: does not match entry, ignoring",
+                    entry.getKey(), indexFile.getAbsolutePath());
+            return null;
+        }
+        return index;
+    }
+
+    protected static void _skipFully(InputStream in, long toSkip) throws IOException
+    {
+        while (toSkip > 0L) {
+            long count = in.skip(toSkip);
+            if (count <= 0L) {
+                // 'skip()' may return 0 before end; need to read to know
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of content: "+toSkip+" bytes left to skip");
+                }
+                count = 1L;
+            }
+            toSkip -= count;
+        }
+    }
+
     protected static int _calcChecksum(ByteContainer data) {
         // important: mask zero value, which occurs with empty content
         return _cleanChecksum(data.hash(BlockMurmur3Hasher.instance, HASH_SEED));
@@ -1516,6 +2693,43 @@ System.err.println("FAILED TO DELETE backing ("+ok+" / "+extFile.getAbsolutePath
         return (checksum == HashConstants.NO_CHECKSUM) ? HashConstants.CHECKSUM_FOR_ZERO : checksum;
     }
     
+    /**
+     * Helper method for choosing compression method to use for small
+     * (fully buffered) entry, once it has been determined that compression
+     * is to be attempted.
+     *
+     * @return Compression method to use; {@link Compression#NONE} if none
+     */
+    protected Compression _chooseCompression(StorableKey key, ByteContainer data)
+    {
+        if (_compressionSelector != null) {
+            return _compressionSelector.select(key, data);
+        }
+        return (data.byteLength() <= _maxGZIPCompressibleSize) ? Compression.GZIP : Compression.LZF;
+    }
+
+    /**
+     * Helper method for finding preset dictionary to use for compressing
+     * given small entry, if dictionary compression is enabled; entry may
+     * also be used as a sample for training dictionaries.
+     *
+     * @return Dictionary to use, if any; null if entry is not to be compressed
+     *   using a dictionary
+     */
+    protected CompressionDictionary _findDictionary(StorableKey key,
+            StorableCreationMetadata metadata, ByteContainer data)
+    {
+        if (_dictionaries == null || !_compressionEnabled || (metadata.compression != null)) {
+            return null;
+        }
+        final int len = data.byteLength();
+        if (len < _minDictionaryCompressibleSize || len > _maxGZIPCompressibleSize
+                || Compressors.isCompressed(data)) {
+            return null;
+        }
+        return _dictionaries.dictionaryFor(key, data);
+    }
+
     /**
      * Helper method called to check whether given (partial) piece of content
      * might benefit from compression, as per currently defined rules.
@@ -3,6 +3,7 @@ package com.fasterxml.storemate.store.impl;
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.shared.TimeMaster;
 import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StorableView;
 import com.fasterxml.storemate.store.backend.IterationAction;
 import com.fasterxml.storemate.store.backend.StorableIterationCallback;
 
@@ -39,5 +40,21 @@ class TombstoneCounter extends StorableIterationCallback
         }
         return IterationAction.PROCESS_ENTRY;
     }
-    
-}
\ No newline at end of file
+
+    // Only need to look at status flags, so views work well
+    @Override
+    public boolean wantsViews() {
+        return true;
+    }
+
+    @Override
+    public IterationAction processView(StorableView entry) {
+        if (verifyKey(null) == IterationAction.TERMINATE_ITERATION) {
+            return IterationAction.TERMINATE_ITERATION;
+        }
+        if (entry.isDeleted()) {
+            ++tombstones;
+        }
+        return IterationAction.PROCESS_ENTRY;
+    }
+}
@@ -0,0 +1,43 @@
+package com.fasterxml.storemate.store.jfr;
+
+import jdk.jfr.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+
+/**
+ * JFR event emitted for calls from the store front-end to the
+ * {@link com.fasterxml.storemate.store.backend.StoreBackend}.
+ */
+@Name(BackendCallEvent.NAME)
+@Label("StoreMate Backend Call")
+@Category({ "StoreMate", "Backend" })
+@Description("Call to the physical storage backend")
+@StackTrace(false)
+public class BackendCallEvent extends Event
+{
+    public final static String NAME = "com.fasterxml.storemate.BackendCall";
+
+    @Label("Method")
+    @Description("Name of the StoreBackend method called")
+    public String method;
+
+    @Label("Key Length")
+    @DataAmount
+    public int keyLength;
+
+    public static BackendCallEvent start(String method, StorableKey key)
+    {
+        BackendCallEvent event = new BackendCallEvent();
+        event.method = method;
+        event.keyLength = (key == null) ? 0 : key.length();
+        event.begin();
+        return event;
+    }
+
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
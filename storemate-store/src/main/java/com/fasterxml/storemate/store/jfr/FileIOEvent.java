@@ -0,0 +1,69 @@
+package com.fasterxml.storemate.store.jfr;
+
+import java.io.File;
+
+import jdk.jfr.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.StoreOperationSource;
+
+/**
+ * JFR event emitted for reads and writes of external (non-inlined)
+ * entry data files.
+ */
+@Name(FileIOEvent.NAME)
+@Label("StoreMate File I/O")
+@Category({ "StoreMate", "File" })
+@Description("Read or write of an external entry data file")
+@StackTrace(false)
+public class FileIOEvent extends Event
+{
+    public final static String NAME = "com.fasterxml.storemate.FileIO";
+
+    public final static String OP_READ = "READ";
+    public final static String OP_WRITE = "WRITE";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Source")
+    public String source;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Key Length")
+    @DataAmount
+    public int keyLength;
+
+    @Label("Bytes")
+    @Description("Number of bytes physically read or written")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compression")
+    public String compression;
+
+    public static FileIOEvent start(String operation, StoreOperationSource source,
+            StorableKey key)
+    {
+        FileIOEvent event = new FileIOEvent();
+        event.operation = operation;
+        event.source = (source == null) ? null : source.name();
+        event.keyLength = (key == null) ? 0 : key.length();
+        event.begin();
+        return event;
+    }
+
+    public void finish(File file, long ioBytes, Compression comp)
+    {
+        end();
+        if (shouldCommit()) {
+            path = (file == null) ? null : file.getPath();
+            bytes = ioBytes;
+            compression = (comp == null) ? null : comp.name();
+            commit();
+        }
+    }
+}
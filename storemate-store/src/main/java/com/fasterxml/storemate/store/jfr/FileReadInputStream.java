@@ -0,0 +1,85 @@
+package com.fasterxml.storemate.store.jfr;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.compress.Compression;
+
+/**
+ * Stream wrapper used for reading external entry data files, to emit
+ * {@link FileIOEvent} (with {@link FileIOEvent#OP_READ}) that covers
+ * time from opening the file until stream is closed, along with number
+ * of bytes physically read (or skipped).
+ *<p>
+ * Wrapper is to be used directly on top of the file stream, so that any
+ * decoding (uncompressing) stream reads from it; closing the decoding
+ * stream then also closes this stream, completing the event.
+ */
+public class FileReadInputStream extends FilterInputStream
+{
+    protected final FileIOEvent _event;
+
+    protected final File _file;
+
+    protected final Compression _compression;
+
+    protected long _bytes;
+
+    protected boolean _closed;
+
+    public FileReadInputStream(FileIOEvent event, FileInputStream in, File file, Compression comp)
+    {
+        super(in);
+        _event = event;
+        _file = file;
+        _compression = comp;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = in.read();
+        if (b >= 0) {
+            ++_bytes;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException
+    {
+        int count = in.read(buffer, offset, len);
+        if (count > 0) {
+            _bytes += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long count = in.skip(n);
+        if (count > 0L) {
+            _bytes += count;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        try {
+            super.close();
+        } finally {
+            _event.finish(_file, _bytes, _compression);
+        }
+    }
+}
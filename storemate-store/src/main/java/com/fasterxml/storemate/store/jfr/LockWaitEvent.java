@@ -0,0 +1,44 @@
+package com.fasterxml.storemate.store.jfr;
+
+import jdk.jfr.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+
+/**
+ * JFR event emitted when a write operation has to wait to acquire its
+ * partition in {@link com.fasterxml.storemate.store.util.PartitionedWriteMutex}.
+ * Since uncontested acquisitions are the norm, by default only waits of
+ * at least one millisecond are recorded.
+ */
+@Name(LockWaitEvent.NAME)
+@Label("StoreMate Write Lock Wait")
+@Category({ "StoreMate", "Locking" })
+@Description("Wait for a partitioned write mutex")
+@Threshold("1 ms")
+public class LockWaitEvent extends Event
+{
+    public final static String NAME = "com.fasterxml.storemate.LockWait";
+
+    @Label("Partition")
+    public int partition;
+
+    @Label("Key Length")
+    @DataAmount
+    public int keyLength;
+
+    public static LockWaitEvent start(int partition, StorableKey key)
+    {
+        LockWaitEvent event = new LockWaitEvent();
+        event.partition = partition;
+        event.keyLength = key.length();
+        event.begin();
+        return event;
+    }
+
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
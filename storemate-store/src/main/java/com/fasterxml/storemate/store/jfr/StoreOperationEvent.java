@@ -0,0 +1,81 @@
+package com.fasterxml.storemate.store.jfr;
+
+import jdk.jfr.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.StoreOperationSource;
+
+/**
+ * JFR event emitted for each high-level store operation (read, write,
+ * delete, iteration) as seen by the store front-end; duration covers
+ * everything from throttling to the backend call.
+ */
+@Name(StoreOperationEvent.NAME)
+@Label("StoreMate Operation")
+@Category({ "StoreMate", "Store" })
+@Description("High-level store operation (put, get, delete, iterate)")
+@StackTrace(false)
+public class StoreOperationEvent extends Event
+{
+    public final static String NAME = "com.fasterxml.storemate.StoreOperation";
+
+    public final static String OP_HAS = "HAS";
+    public final static String OP_GET = "GET";
+    public final static String OP_PUT = "PUT";
+    public final static String OP_SOFT_DELETE = "SOFT_DELETE";
+    public final static String OP_HARD_DELETE = "HARD_DELETE";
+    public final static String OP_LIST = "LIST";
+    public final static String OP_LIST_BY_MODTIME = "LIST_BY_MODTIME";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Source")
+    @Description("StoreOperationSource of the operation")
+    public String source;
+
+    @Label("Key Length")
+    @DataAmount
+    public int keyLength;
+
+    @Label("Bytes")
+    @Description("Stored size of the entry, if known")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compression")
+    public String compression;
+
+    /**
+     * Factory method that will create and start an event; field values
+     * known up-front are assigned here.
+     */
+    public static StoreOperationEvent start(String operation, StoreOperationSource source,
+            StorableKey key)
+    {
+        StoreOperationEvent event = new StoreOperationEvent();
+        event.operation = operation;
+        event.source = (source == null) ? null : source.name();
+        event.keyLength = (key == null) ? 0 : key.length();
+        event.begin();
+        return event;
+    }
+
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+
+    public void finish(long storedBytes, Compression comp)
+    {
+        end();
+        if (shouldCommit()) {
+            bytes = storedBytes;
+            compression = (comp == null) ? null : comp.name();
+            commit();
+        }
+    }
+}
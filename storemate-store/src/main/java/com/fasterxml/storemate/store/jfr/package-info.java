@@ -0,0 +1,8 @@
+/**
+ * Package that contains Java Flight Recorder event types emitted by
+ * the store front-end, lock partitioner and file I/O paths.
+ * Events are meant to be always-on in production: when JFR is not
+ * recording (or an event type is disabled), creating and "committing"
+ * events is practically free, as JIT can eliminate event objects.
+ */
+package com.fasterxml.storemate.store.jfr;
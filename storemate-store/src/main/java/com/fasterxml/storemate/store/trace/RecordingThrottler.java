@@ -0,0 +1,228 @@
+package com.fasterxml.storemate.store.trace;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.backend.IterationResult;
+
+/**
+ * {@link StoreOperationThrottler} that records a trace of all operations
+ * it sees using given {@link TraceWriter}, and delegates actual throttling
+ * to another throttler. Recorded duration includes time spent by the
+ * delegate throttler.
+ *<p>
+ * Failure to write trace records does not fail operations: instead,
+ * recording is disabled after first failure (and failure logged).
+ */
+public class RecordingThrottler extends StoreOperationThrottler
+{
+    private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+    protected final StoreOperationThrottler _delegate;
+
+    protected final TraceWriter _writer;
+
+    /**
+     * Nano time that corresponds to the start time of trace
+     */
+    protected final long _nanoStart;
+
+    protected volatile boolean _recording = true;
+
+    public RecordingThrottler(StoreOperationThrottler delegate, TraceWriter writer)
+    {
+        _delegate = (delegate == null) ? new StoreOperationThrottler.Base() : delegate;
+        _writer = writer;
+        _nanoStart = System.nanoTime();
+    }
+
+    public boolean isRecording() { return _recording; }
+
+    /**
+     * Method for stopping recording, and flushing and closing the underlying
+     * trace writer. Operations will be passed to the delegate throttler
+     * as before.
+     */
+    public void stopRecording() throws IOException
+    {
+        synchronized (_writer) {
+            _recording = false;
+            _writer.close();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* API, throttle methods for database access
+    /**********************************************************************
+     */
+
+    @Override
+    public Boolean performHas(StoreOperationSource source, long operationTime,
+            StorableKey key, StoreOperationCallback<Boolean> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        try {
+            return _delegate.performHas(source, operationTime, key, cb);
+        } finally {
+            _record(TraceOperation.HAS, source, start, key, null, -1L);
+        }
+    }
+
+    @Override
+    public Storable performGet(StoreOperationSource source, long operationTime,
+            StorableKey key, StoreOperationCallback<Storable> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        Storable result = null;
+        try {
+            result = _delegate.performGet(source, operationTime, key, cb);
+            return result;
+        } finally {
+            _record(TraceOperation.GET, source, start, key, result, -1L);
+        }
+    }
+
+    @Override
+    public IterationResult performList(StoreOperationSource source, long operationTime,
+            StoreOperationCallback<IterationResult> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        try {
+            return _delegate.performList(source, operationTime, cb);
+        } finally {
+            _record(TraceOperation.LIST, source, start, null, null, -1L);
+        }
+    }
+
+    @Override
+    public StorableCreationResult performPut(StoreOperationSource source,
+            long operationTime, StorableKey key, Storable value,
+            StoreOperationCallback<StorableCreationResult> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        try {
+            return _delegate.performPut(source, operationTime, key, value, cb);
+        } finally {
+            _record(TraceOperation.PUT, source, start, key, value, -1L);
+        }
+    }
+
+    @Override
+    public Storable performSoftDelete(StoreOperationSource source,
+            long operationTime, StorableKey key, StoreOperationCallback<Storable> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        Storable result = null;
+        try {
+            result = _delegate.performSoftDelete(source, operationTime, key, cb);
+            return result;
+        } finally {
+            _record(TraceOperation.SOFT_DELETE, source, start, key, result, -1L);
+        }
+    }
+
+    @Override
+    public Storable performHardDelete(StoreOperationSource source,
+            long operationTime, StorableKey key, StoreOperationCallback<Storable> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        Storable result = null;
+        try {
+            result = _delegate.performHardDelete(source, operationTime, key, cb);
+            return result;
+        } finally {
+            _record(TraceOperation.HARD_DELETE, source, start, key, result, -1L);
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* API, throttle methods for file system access
+    /**********************************************************************
+     */
+
+    @Override
+    public <OUT> OUT performFileRead(StoreOperationSource source,
+            long operationTime, Storable value, File externalFile,
+            FileOperationCallback<OUT> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        try {
+            return _delegate.performFileRead(source, operationTime, value, externalFile, cb);
+        } finally {
+            _record(TraceOperation.FILE_READ, source, start,
+                    (value == null) ? null : value.getKey(), value, -1L);
+        }
+    }
+
+    @Override
+    public <OUT> OUT performFileWrite(StoreOperationSource source,
+            long operationTime, StorableKey key, File externalFile,
+            FileOperationCallback<OUT> cb)
+        throws IOException, StoreException
+    {
+        final long start = System.nanoTime();
+        try {
+            return _delegate.performFileWrite(source, operationTime, key, externalFile, cb);
+        } finally {
+            _record(TraceOperation.FILE_WRITE, source, start, key, null,
+                    (externalFile == null) ? -1L : externalFile.length());
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * @param entry Entry related to operation, if any; used for size and
+     *    compression information
+     * @param storageLength Storage length to use if no entry is available
+     */
+    protected void _record(TraceOperation op, StoreOperationSource source, long nanoStart,
+            StorableKey key, Storable entry, long storageLength)
+    {
+        if (!_recording) {
+            return;
+        }
+        final long nanoEnd = System.nanoTime();
+        long originalLength = -1L;
+        Compression comp = null;
+        if (entry != null) {
+            storageLength = entry.getStorageLength();
+            originalLength = entry.getOriginalLength();
+            comp = entry.getCompression();
+        }
+        TraceRecord record = new TraceRecord(op, source,
+                (nanoStart - _nanoStart) / 1000L, (nanoEnd - nanoStart) / 1000L,
+                (key == null) ? 0 : key.hashCode(), (key == null) ? 0 : key.length(),
+                storageLength, originalLength, comp);
+        synchronized (_writer) {
+            if (!_recording) {
+                return;
+            }
+            try {
+                _writer.write(record);
+            } catch (IOException e) {
+                _recording = false;
+                LOG.error("Failed to write trace record, will stop recording: {}", e.getMessage());
+            }
+        }
+    }
+}
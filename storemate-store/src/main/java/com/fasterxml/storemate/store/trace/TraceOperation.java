@@ -0,0 +1,36 @@
+package com.fasterxml.storemate.store.trace;
+
+/**
+ * Enumeration of operation types recorded in traces; one per
+ * method of {@link com.fasterxml.storemate.store.StoreOperationThrottler}.
+ */
+public enum TraceOperation
+{
+    HAS(1),
+    GET(2),
+    LIST(3),
+    PUT(4),
+    SOFT_DELETE(5),
+    HARD_DELETE(6),
+    FILE_READ(7),
+    FILE_WRITE(8)
+    ;
+
+    private final byte _code;
+
+    private TraceOperation(int code) {
+        _code = (byte) code;
+    }
+
+    public byte asByte() { return _code; }
+
+    public static TraceOperation valueOf(byte b)
+    {
+        for (TraceOperation op : values()) {
+            if (op._code == b) {
+                return op;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,99 @@
+package com.fasterxml.storemate.store.trace;
+
+import java.io.*;
+import java.util.Arrays;
+
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.StoreOperationSource;
+
+/**
+ * Class for reading traces written by {@link TraceWriter}.
+ */
+public class TraceReader implements Closeable
+{
+    protected final DataInputStream _in;
+
+    protected final long _startTime;
+
+    public TraceReader(InputStream in) throws IOException
+    {
+        _in = new DataInputStream(new BufferedInputStream(in, 16000));
+        byte[] sig = new byte[TraceWriter.SIGNATURE.length];
+        try {
+            _in.readFully(sig);
+        } catch (EOFException e) {
+            throw new IOException("Invalid trace: missing header");
+        }
+        if (!Arrays.equals(sig, TraceWriter.SIGNATURE)) {
+            throw new IOException("Invalid trace: signature does not match");
+        }
+        int version = _in.readUnsignedByte();
+        if (version != TraceWriter.VERSION) {
+            throw new IOException("Unsupported trace version "+version+" (only version "
+                    +TraceWriter.VERSION+" supported)");
+        }
+        _startTime = _in.readLong();
+    }
+
+    public static TraceReader open(File f) throws IOException {
+        return new TraceReader(new FileInputStream(f));
+    }
+
+    /**
+     * @return Wall-clock time (in milliseconds) when trace recording started
+     */
+    public long getStartTime() { return _startTime; }
+
+    /**
+     * @return Next record, if any; null if end of trace reached
+     */
+    public TraceRecord next() throws IOException
+    {
+        int b = _in.read();
+        if (b < 0) {
+            return null;
+        }
+        TraceOperation op = TraceOperation.valueOf((byte) b);
+        if (op == null) {
+            throw new IOException("Invalid trace: unrecognized operation type 0x"+Integer.toHexString(b));
+        }
+        try {
+            int sourceIndex = _in.readUnsignedByte();
+            StoreOperationSource[] sources = StoreOperationSource.values();
+            if (sourceIndex >= sources.length) {
+                throw new IOException("Invalid trace: unrecognized source "+sourceIndex);
+            }
+            int compIndex = _in.readByte();
+            Compression comp = (compIndex == TraceWriter.NO_COMPRESSION_INFO) ? null
+                    : Compression.forIndex(compIndex, false);
+            int keyLength = (int) _readVLong();
+            int keyHash = (keyLength > 0) ? _in.readInt() : 0;
+            long offset = _readVLong();
+            long duration = _readVLong();
+            long storageLength = _readVLong() - 1L;
+            long originalLength = _readVLong() - 1L;
+            return new TraceRecord(op, sources[sourceIndex], offset, duration,
+                    keyHash, keyLength, storageLength, originalLength, comp);
+        } catch (EOFException e) {
+            throw new IOException("Invalid trace: truncated record");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    private long _readVLong() throws IOException
+    {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = _in.readUnsignedByte();
+            value |= ((long) (b & 0x7F)) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid trace: malformed VLong");
+    }
+}
@@ -0,0 +1,99 @@
+package com.fasterxml.storemate.store.trace;
+
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.StoreOperationSource;
+
+/**
+ * Value class that contains information about a single recorded operation.
+ */
+public class TraceRecord
+{
+    protected final TraceOperation _operation;
+
+    protected final StoreOperationSource _source;
+
+    /**
+     * Start time of operation, in microseconds since start of the trace
+     */
+    protected final long _offsetMicros;
+
+    protected final long _durationMicros;
+
+    /**
+     * Hash of the key ({@link com.fasterxml.storemate.shared.StorableKey#hashCode()});
+     * only meaningful if {@link #_keyLength} is positive.
+     */
+    protected final int _keyHash;
+
+    /**
+     * Length of the key in bytes; 0 if operation had no key.
+     */
+    protected final int _keyLength;
+
+    /**
+     * Number of bytes stored (after compression), if known; -1 if not.
+     */
+    protected final long _storageLength;
+
+    /**
+     * Number of bytes before compression, if known; -1 if not (or if
+     * content was not compressed, in which case storage length is the
+     * actual length).
+     */
+    protected final long _originalLength;
+
+    /**
+     * Compression used for the entry, if known; null if not
+     */
+    protected final Compression _compression;
+
+    public TraceRecord(TraceOperation op, StoreOperationSource source,
+            long offsetMicros, long durationMicros,
+            int keyHash, int keyLength,
+            long storageLength, long originalLength, Compression comp)
+    {
+        _operation = op;
+        _source = source;
+        _offsetMicros = offsetMicros;
+        _durationMicros = durationMicros;
+        _keyHash = keyHash;
+        _keyLength = keyLength;
+        _storageLength = storageLength;
+        _originalLength = originalLength;
+        _compression = comp;
+    }
+
+    public TraceOperation getOperation() { return _operation; }
+    public StoreOperationSource getSource() { return _source; }
+    public long getOffsetMicros() { return _offsetMicros; }
+    public long getDurationMicros() { return _durationMicros; }
+    public boolean hasKey() { return _keyLength > 0; }
+    public int getKeyHash() { return _keyHash; }
+    public int getKeyLength() { return _keyLength; }
+    public long getStorageLength() { return _storageLength; }
+    public long getOriginalLength() { return _originalLength; }
+    public Compression getCompression() { return _compression; }
+
+    /**
+     * Helper method for figuring out length of content before compression,
+     * if known; -1 if not.
+     */
+    public long getActualUncompressedLength()
+    {
+        if (_originalLength >= 0L) {
+            return _originalLength;
+        }
+        if (_compression == null || _compression == Compression.NONE) {
+            return _storageLength;
+        }
+        return -1L;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[TraceRecord "+_operation+"/"+_source+" @"+_offsetMicros+"us, took "+_durationMicros
+                +"us, key 0x"+Integer.toHexString(_keyHash)+"/"+_keyLength+", size "+_storageLength
+                +"/"+_originalLength+", "+_compression+"]";
+    }
+}
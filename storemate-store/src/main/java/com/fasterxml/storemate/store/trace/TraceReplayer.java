@@ -0,0 +1,354 @@
+package com.fasterxml.storemate.store.trace;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.backend.IterationAction;
+import com.fasterxml.storemate.store.backend.StorableLastModIterationCallback;
+
+/**
+ * Class that re-executes operations of a trace (written by
+ * {@link RecordingThrottler}) against given {@link StorableStore},
+ * either at recorded pace or accelerated.
+ *<p>
+ * Since traces only contain key hashes, keys are synthesized from
+ * hash and length, so that accesses to same key map to same synthesized
+ * key. Payloads are either synthesized to match recorded sizes (and
+ * approximate compression ratio), or left empty to only exercise
+ * metadata handling.
+ *<p>
+ * Operations are mapped as follows: {@link TraceOperation#PUT} to upsert,
+ * {@link TraceOperation#LIST} to a bounded last-modified iteration, and
+ * {@link TraceOperation#FILE_READ} to entry lookup followed by reading of
+ * the external file. {@link TraceOperation#FILE_WRITE}s are skipped,
+ * since they are replayed as part of PUTs.
+ */
+public class TraceReplayer
+{
+    /**
+     * Length of key used for operations that had no key
+     */
+    protected final static int DEFAULT_KEY_LENGTH = 16;
+
+    protected final StorableStore _store;
+
+    /**
+     * Multiplier for replay speed: 1.0 means recorded pace, 2.0 twice as fast
+     * and so on; 0.0 (or negative) as fast as possible.
+     */
+    protected final double _speedFactor;
+
+    protected final boolean _synthesizePayloads;
+
+    protected final int _threads;
+
+    /**
+     * Maximum number of entries to traverse for replayed LIST operations
+     */
+    protected final int _maxListEntries;
+
+    /**
+     * Random content used for synthesized payloads
+     */
+    protected final byte[] _randomBytes;
+
+    public TraceReplayer(StorableStore store, double speedFactor, boolean synthesizePayloads,
+            int threads, int maxListEntries)
+    {
+        _store = store;
+        _speedFactor = speedFactor;
+        _synthesizePayloads = synthesizePayloads;
+        _threads = Math.max(1, threads);
+        _maxListEntries = maxListEntries;
+        _randomBytes = new byte[64000];
+        new Random(1L).nextBytes(_randomBytes);
+    }
+
+    /**
+     * Method that will replay all records from given reader, and return
+     * statistics once all operations have completed.
+     */
+    public Stats replay(TraceReader reader) throws IOException, InterruptedException
+    {
+        final Stats stats = new Stats();
+        // bounded queue, to throttle reading if store can not keep up
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(_threads, _threads,
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(_threads * 100),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        final long nanoStart = System.nanoTime();
+        try {
+            TraceRecord record;
+            while ((record = reader.next()) != null) {
+                if (record.getOperation() == TraceOperation.FILE_WRITE) {
+                    stats._skipped.incrementAndGet();
+                    continue;
+                }
+                if (_speedFactor > 0.0) {
+                    long target = nanoStart + (long) (record.getOffsetMicros() * 1000.0 / _speedFactor);
+                    long wait;
+                    while ((wait = target - System.nanoTime()) > 0L) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    stats.updateLag((System.nanoTime() - target) / 1000L);
+                }
+                final TraceRecord r = record;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        try {
+                            replay(r);
+                        } catch (Exception e) {
+                            stats._errors.incrementAndGet();
+                        }
+                        stats.add(r.getOperation(), (System.nanoTime() - start) / 1000L);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        stats._elapsedMicros = (System.nanoTime() - nanoStart) / 1000L;
+        return stats;
+    }
+
+    /**
+     * Method called to replay a single operation.
+     */
+    public void replay(TraceRecord record) throws IOException, StoreException
+    {
+        final StoreOperationSource source = record.getSource();
+        final StorableKey key = synthesizeKey(record);
+        switch (record.getOperation()) {
+        case HAS:
+            _store.hasEntry(source, null, key);
+            break;
+        case GET:
+            _store.findEntry(source, null, key);
+            break;
+        case FILE_READ:
+            {
+                Storable entry = _store.findEntry(source, null, key);
+                if (entry != null && entry.hasExternalData()) {
+                    _readFully(entry.getExternalFile(_store.getFileManager()));
+                }
+            }
+            break;
+        case LIST:
+            _list(source);
+            break;
+        case PUT:
+            _put(source, key, record);
+            break;
+        case SOFT_DELETE:
+            _store.softDelete(source, null, key, true, true);
+            break;
+        case HARD_DELETE:
+            _store.hardDelete(source, null, key, true);
+            break;
+        case FILE_WRITE: // replayed as part of PUT
+            break;
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Synthesizing keys, payloads
+    /**********************************************************************
+     */
+
+    /**
+     * Method for constructing key to use for given record: key has recorded
+     * length, and consists of hex digits of key hash, repeated as necessary.
+     */
+    public static StorableKey synthesizeKey(TraceRecord record)
+    {
+        int len = record.hasKey() ? record.getKeyLength() : DEFAULT_KEY_LENGTH;
+        final int hash = record.getKeyHash();
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            int nibble = (hash >>> (28 - 4 * (i & 7))) & 0xF;
+            b[i] = (byte) ((nibble < 10) ? ('0' + nibble) : ('a' + nibble - 10));
+        }
+        return new StorableKey(b);
+    }
+
+    /**
+     * Method for constructing payload for given record. Payload has
+     * uncompressed length of the original entry, and consists of random
+     * bytes and repeating pattern in proportion that matches compression
+     * ratio of the original, if known.
+     */
+    public byte[] synthesizePayload(TraceRecord record)
+    {
+        long lenL = record.getActualUncompressedLength();
+        if (lenL < 0L) {
+            lenL = Math.max(0L, record.getStorageLength());
+        }
+        final int len = (int) Math.min(Integer.MAX_VALUE - 8, lenL);
+        byte[] result = new byte[len];
+        // how much of content should be incompressible?
+        int randomLen = len;
+        if (record.getOriginalLength() > 0L && record.getStorageLength() >= 0L) {
+            randomLen = (int) Math.min(len, record.getStorageLength());
+        }
+        int offset = (record.getKeyHash() & 0x7FFFFFFF) % _randomBytes.length;
+        for (int i = 0; i < randomLen; ) {
+            int count = Math.min(randomLen - i, _randomBytes.length - offset);
+            System.arraycopy(_randomBytes, offset, result, i, count);
+            i += count;
+            offset = 0;
+        }
+        for (int i = randomLen; i < len; ++i) {
+            result[i] = (byte) ('a' + (i & 0xF));
+        }
+        return result;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _put(StoreOperationSource source, StorableKey key, TraceRecord record)
+        throws IOException, StoreException
+    {
+        byte[] data = _synthesizePayloads ? synthesizePayload(record) : new byte[0];
+        // let store calculate checksums, decide compression
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                HashConstants.NO_CHECKSUM, HashConstants.NO_CHECKSUM);
+        // pass bigger payloads as streams, similar to how real requests would be handled
+        if (data.length > StoreConfig.DEFAULT_MIN_PAYLOAD_FOR_STREAMING) {
+            _store.upsert(source, null, key, new ByteArrayInputStream(data),
+                    metadata, null, true);
+        } else {
+            _store.upsert(source, null, key, ByteContainer.simple(data),
+                    metadata, null, true);
+        }
+    }
+
+    protected void _list(StoreOperationSource source) throws StoreException
+    {
+        final int max = _maxListEntries;
+        _store.iterateEntriesByModifiedTime(source, null, 0L,
+                new StorableLastModIterationCallback() {
+                    int count = 0;
+
+                    @Override
+                    public IterationAction verifyTimestamp(long timestamp) {
+                        return IterationAction.PROCESS_ENTRY;
+                    }
+
+                    @Override
+                    public IterationAction verifyKey(StorableKey key) {
+                        return IterationAction.PROCESS_ENTRY;
+                    }
+
+                    @Override
+                    public IterationAction processEntry(Storable entry) {
+                        return (++count < max) ? IterationAction.PROCESS_ENTRY
+                                : IterationAction.TERMINATE_ITERATION;
+                    }
+        });
+    }
+
+    protected void _readFully(File f) throws IOException
+    {
+        byte[] buffer = new byte[16000];
+        InputStream in = new FileInputStream(f);
+        try {
+            while (in.read(buffer) >= 0) { }
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper classes
+    /**********************************************************************
+     */
+
+    /**
+     * Statistics collected during replay
+     */
+    public static class Stats
+    {
+        protected final AtomicLong[] _counts, _micros;
+        protected final AtomicLong _errors = new AtomicLong();
+        protected final AtomicLong _skipped = new AtomicLong();
+        protected final AtomicLong _maxLag = new AtomicLong();
+
+        protected long _elapsedMicros;
+
+        protected Stats() {
+            final int count = TraceOperation.values().length;
+            _counts = new AtomicLong[count];
+            _micros = new AtomicLong[count];
+            for (int i = 0; i < count; ++i) {
+                _counts[i] = new AtomicLong();
+                _micros[i] = new AtomicLong();
+            }
+        }
+
+        protected void add(TraceOperation op, long micros) {
+            _counts[op.ordinal()].incrementAndGet();
+            _micros[op.ordinal()].addAndGet(micros);
+        }
+
+        protected void updateLag(long micros) {
+            long old;
+            while (micros > (old = _maxLag.get())) {
+                if (_maxLag.compareAndSet(old, micros)) {
+                    break;
+                }
+            }
+        }
+
+        public long getCount(TraceOperation op) { return _counts[op.ordinal()].get(); }
+
+        /**
+         * @return Total time spent on operations of given type, in microseconds
+         */
+        public long getTotalMicros(TraceOperation op) { return _micros[op.ordinal()].get(); }
+
+        public long getErrorCount() { return _errors.get(); }
+
+        public long getSkippedCount() { return _skipped.get(); }
+
+        /**
+         * @return Maximum delay (in microseconds) between scheduled and actual
+         *    dispatch of an operation; large values indicate that replay could
+         *    not keep up with requested pace
+         */
+        public long getMaxLagMicros() { return _maxLag.get(); }
+
+        public long getElapsedMicros() { return _elapsedMicros; }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder(200);
+            sb.append("Replayed in ").append(_elapsedMicros / 1000L).append(" msec");
+            for (TraceOperation op : TraceOperation.values()) {
+                long count = getCount(op);
+                if (count > 0L) {
+                    sb.append(", ").append(op).append(": ").append(count)
+                        .append(" (avg ").append(getTotalMicros(op) / count).append(" us)");
+                }
+            }
+            sb.append("; errors: ").append(getErrorCount());
+            sb.append(", max lag: ").append(getMaxLagMicros() / 1000L).append(" msec");
+            return sb.toString();
+        }
+    }
+}
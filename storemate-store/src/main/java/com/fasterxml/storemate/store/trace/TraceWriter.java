@@ -0,0 +1,92 @@
+package com.fasterxml.storemate.store.trace;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.compress.Compression;
+
+/**
+ * Class that writes {@link TraceRecord}s in compact binary format.
+ * Format consists of a header (4-byte signature, 1-byte version,
+ * 8-byte start timestamp), followed by records of:
+ *<ul>
+ * <li>operation (1 byte)</li>
+ * <li>source (1 byte)</li>
+ * <li>compression index (1 byte; 0xFF for unknown)</li>
+ * <li>key length (VInt), followed by key hash (4 bytes), if length not 0</li>
+ * <li>start offset in microseconds (VLong)</li>
+ * <li>duration in microseconds (VLong)</li>
+ * <li>storage length and original length (VLong each), both as "length + 1"
+ *   so that unknown length (-1) is encoded as 0</li>
+ *</ul>
+ *<p>
+ * Instances are not thread-safe; caller needs to synchronize access.
+ */
+public class TraceWriter implements Closeable, Flushable
+{
+    public final static byte[] SIGNATURE = new byte[] { 'S', 'M', 'T', 'R' };
+
+    public final static int VERSION = 1;
+
+    protected final static byte NO_COMPRESSION_INFO = (byte) 0xFF;
+
+    protected final DataOutputStream _out;
+
+    protected final long _startTime;
+
+    protected long _recordCount;
+
+    public TraceWriter(OutputStream out, long startTime) throws IOException
+    {
+        _out = new DataOutputStream(new BufferedOutputStream(out, 16000));
+        _startTime = startTime;
+        _out.write(SIGNATURE);
+        _out.writeByte(VERSION);
+        _out.writeLong(startTime);
+    }
+
+    public static TraceWriter create(File f, long startTime) throws IOException {
+        return new TraceWriter(new FileOutputStream(f), startTime);
+    }
+
+    public long getStartTime() { return _startTime; }
+
+    public long getRecordCount() { return _recordCount; }
+
+    public void write(TraceRecord record) throws IOException
+    {
+        final DataOutputStream out = _out;
+        out.writeByte(record.getOperation().asByte());
+        out.writeByte(record.getSource().ordinal());
+        Compression comp = record.getCompression();
+        out.writeByte((comp == null) ? NO_COMPRESSION_INFO : comp.asIndex());
+        final int keyLength = record.getKeyLength();
+        _writeVLong(keyLength);
+        if (keyLength > 0) {
+            out.writeInt(record.getKeyHash());
+        }
+        _writeVLong(Math.max(0L, record.getOffsetMicros()));
+        _writeVLong(Math.max(0L, record.getDurationMicros()));
+        _writeVLong(Math.max(-1L, record.getStorageLength()) + 1L);
+        _writeVLong(Math.max(-1L, record.getOriginalLength()) + 1L);
+        ++_recordCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _out.close();
+    }
+
+    private void _writeVLong(long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0L) {
+            _out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _out.writeByte((int) value);
+    }
+}
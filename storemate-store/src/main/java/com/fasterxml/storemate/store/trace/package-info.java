@@ -0,0 +1,11 @@
+/**
+ * Package that contains functionality for capturing compact binary traces
+ * of store operations (using {@link com.fasterxml.storemate.store.trace.RecordingThrottler})
+ * and replaying them against a store with possibly different backend or
+ * configuration (using {@link com.fasterxml.storemate.store.trace.TraceReplayer}).
+ *<p>
+ * Traces do not contain actual keys or payloads: just hashes and lengths
+ * of keys, payload sizes and compression, so they are safe to capture
+ * from production systems.
+ */
+package com.fasterxml.storemate.store.trace;
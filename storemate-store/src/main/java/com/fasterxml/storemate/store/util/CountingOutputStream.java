@@ -2,6 +2,7 @@ package com.fasterxml.storemate.store.util;
 
 import java.io.*;
 
+import com.fasterxml.storemate.shared.hash.IncrementalHasher128;
 import com.fasterxml.storemate.shared.hash.IncrementalHasher32;
 
 /**
@@ -88,4 +89,16 @@ public class CountingOutputStream extends OutputStream
     public int calculateHash() {
         return _hasher.calculateHash();
     }
+
+    /**
+     * Method for calculating 128-bit hash of content written so far;
+     * only usable if stream was constructed with a {@link IncrementalHasher128}.
+     */
+    public byte[] calculateHash128() {
+        if (!(_hasher instanceof IncrementalHasher128)) {
+            throw new IllegalStateException("Can not calculate 128-bit hash: hasher ("
+                    +((_hasher == null) ? "null" : _hasher.getClass().getName())+") not 128-bit capable");
+        }
+        return ((IncrementalHasher128) _hasher).calculateHash128();
+    }
 }
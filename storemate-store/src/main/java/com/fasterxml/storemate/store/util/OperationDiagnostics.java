@@ -75,6 +75,29 @@ public class OperationDiagnostics
      * Accumulated time for reading request data and/or writing response.
      */
     protected long _requestResponseTotal;
+
+    /*
+    /**********************************************************************
+    /* Waits, other processing
+    /**********************************************************************
+     */
+
+    /**
+     * Accumulated time spent waiting for {@link com.fasterxml.storemate.store.StoreOperationThrottler}
+     * to let operation(s) proceed.
+     */
+    protected long _throttleWait;
+
+    /**
+     * Accumulated time spent waiting to acquire per-key write lock(s).
+     */
+    protected long _lockWait;
+
+    /**
+     * Accumulated time spent compressing content (for in-memory compression;
+     * streaming compression is included in file access time).
+     */
+    protected long _compressionTime;
     
     /*
     /**********************************************************************
@@ -201,6 +224,24 @@ public class OperationDiagnostics
         _requestResponseTotal += nanoSecs;
     }
     
+    /*
+    /**********************************************************************
+    /* Waits, other processing
+    /**********************************************************************
+     */
+
+    public void addThrottleWait(long nanoStart, long nanoEnd) {
+        _throttleWait += (nanoEnd - nanoStart);
+    }
+
+    public void addLockWait(long nanoStart, long nanoEnd) {
+        _lockWait += (nanoEnd - nanoStart);
+    }
+
+    public void addCompressionTime(long nanoStart, long nanoEnd) {
+        _compressionTime += (nanoEnd - nanoStart);
+    }
+
     /*
     /**********************************************************************
     /* Accessors
@@ -235,4 +276,10 @@ public class OperationDiagnostics
     public TotalTime getDbAccess() { return _dbAccess; }
 
     public TotalTimeAndBytes getFileAccess() { return _fileAccess; }
+
+    public long getThrottleWaitTime() { return _throttleWait; }
+
+    public long getLockWaitTime() { return _lockWait; }
+
+    public long getCompressionTime() { return _compressionTime; }
 }
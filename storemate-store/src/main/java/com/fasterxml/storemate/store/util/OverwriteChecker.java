@@ -1,5 +1,7 @@
 package com.fasterxml.storemate.store.util;
 
+import java.util.Arrays;
+
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.store.*;
 
@@ -69,4 +71,27 @@ public interface OverwriteChecker
             return false;
         }
     }
+
+    /**
+     * Implementation that only allows overwriting an entry that has not been
+     * modified since specified version was read (that is, is identical to it);
+     * used for background rewrites, so that concurrent modifications win.
+     */
+    public static class OkIfUnmodified implements OverwriteChecker
+    {
+        protected final byte[] _expected;
+
+        public OkIfUnmodified(Storable expected) {
+            _expected = expected.asBytes();
+        }
+
+        @Override
+        public Boolean mayOverwrite(StorableKey key) { return null; }
+
+        @Override
+        public boolean mayOverwrite(StorableKey key, Storable oldEntry, Storable newEntry)
+            throws StoreException {
+            return (oldEntry != null) && Arrays.equals(_expected, oldEntry.asBytes());
+        }
+    }
 }
@@ -6,6 +6,7 @@ import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.jfr.LockWaitEvent;
 
 /**
  * Object used to implement mutex for write operations
@@ -119,14 +120,17 @@ public class PartitionedWriteMutex
     {
         final int partition = _partitionFor(key);
         final Semaphore semaphore = _semaphores[partition];
+        final LockWaitEvent waitEvent = LockWaitEvent.start(partition, key);
         try {
             semaphore.acquire();
         } catch (InterruptedException e) { // could this ever occur?
             semaphore.release();
+            waitEvent.finish();
             throw new StoreException.Internal(key, "partitionedWrite() Semaphore-wait for "+key+" interrupted ("
                     +e.getClass().getName()+"), message: "+e.getMessage(),
                     e);
         }
+        waitEvent.finish();
         _inFlightStartTimes.set(partition, operationTime);
         try {
             return cb.performWrite(key);
@@ -0,0 +1,153 @@
+package com.fasterxml.storemate.store.util;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StoreOperationSource;
+
+/**
+ * Immutable value class that contains details of a single traced
+ * operation, as retained by {@link SlowOperationTracer}: total time
+ * along with its per-phase breakdown, and sizes of the entry involved
+ * (if any).
+ */
+public class SlowOperation
+    implements Comparable<SlowOperation>
+{
+    protected final long _timestamp;
+
+    protected final String _operation;
+
+    protected final StoreOperationSource _source;
+
+    protected final StorableKey _key;
+
+    protected final long _totalNanos;
+
+    protected final long _throttleNanos;
+    protected final long _lockNanos;
+    protected final long _dbNanos;
+    protected final long _fileNanos;
+    protected final long _compressionNanos;
+
+    protected final long _fileBytes;
+
+    /**
+     * Storage size of the entry, if known; -1 if not.
+     */
+    protected final long _storageLength;
+
+    /**
+     * Original (uncompressed) size of the entry, if known; -1 if not.
+     */
+    protected final long _originalLength;
+
+    protected final Compression _compression;
+
+    public SlowOperation(long timestamp, String operation, StoreOperationSource source,
+            StorableKey key, long totalNanos, OperationDiagnostics diag, Storable entry)
+    {
+        _timestamp = timestamp;
+        _operation = operation;
+        _source = source;
+        _key = key;
+        _totalNanos = totalNanos;
+        _throttleNanos = diag.getThrottleWaitTime();
+        _lockNanos = diag.getLockWaitTime();
+        _dbNanos = diag.hasDbAccess() ? diag.getDbAccess().getTotalTimeWithoutWait() : 0L;
+        if (diag.hasFileAccess()) {
+            TotalTimeAndBytes fa = diag.getFileAccess();
+            _fileNanos = fa.getTotalTimeWithoutWait();
+            _fileBytes = fa.getBytes();
+        } else {
+            _fileNanos = 0L;
+            _fileBytes = 0L;
+        }
+        _compressionNanos = diag.getCompressionTime();
+        if (entry == null) {
+            entry = diag.getEntry();
+        }
+        if (entry == null) {
+            _storageLength = -1L;
+            _originalLength = -1L;
+            _compression = null;
+        } else {
+            _storageLength = entry.getStorageLength();
+            _originalLength = entry.getActualUncompressedLength();
+            _compression = entry.getCompression();
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Accessors
+    /**********************************************************************
+     */
+
+    public long getTimestamp() { return _timestamp; }
+    public String getOperation() { return _operation; }
+    public StoreOperationSource getSource() { return _source; }
+    public StorableKey getKey() { return _key; }
+
+    public long getTotalNanos() { return _totalNanos; }
+    public long getThrottleWaitNanos() { return _throttleNanos; }
+    public long getLockWaitNanos() { return _lockNanos; }
+    public long getDbNanos() { return _dbNanos; }
+    public long getFileNanos() { return _fileNanos; }
+    public long getCompressionNanos() { return _compressionNanos; }
+
+    public long getFileBytes() { return _fileBytes; }
+    public long getStorageLength() { return _storageLength; }
+    public long getOriginalLength() { return _originalLength; }
+    public Compression getCompression() { return _compression; }
+
+    /*
+    /**********************************************************************
+    /* Std method overrides
+    /**********************************************************************
+     */
+
+    /**
+     * Ordering is by total time taken, fastest first
+     */
+    @Override
+    public int compareTo(SlowOperation other) {
+        if (_totalNanos < other._totalNanos) {
+            return -1;
+        }
+        return (_totalNanos == other._totalNanos) ? 0 : 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(120);
+        sb.append(_operation).append('/').append(_source)
+            .append(' ').append(_key)
+            .append(": ");
+        _appendMsecs(sb, _totalNanos);
+        sb.append(" msec (throttle ");
+        _appendMsecs(sb, _throttleNanos);
+        sb.append(", lock ");
+        _appendMsecs(sb, _lockNanos);
+        sb.append(", db ");
+        _appendMsecs(sb, _dbNanos);
+        sb.append(", file ");
+        _appendMsecs(sb, _fileNanos);
+        sb.append(", compress ");
+        _appendMsecs(sb, _compressionNanos);
+        sb.append(')');
+        if (_storageLength >= 0L) {
+            sb.append(", ").append(_storageLength).append('/').append(_originalLength)
+                .append(" bytes (").append(_compression).append(')');
+        }
+        return sb.toString();
+    }
+
+    private static void _appendMsecs(StringBuilder sb, long nanos)
+    {
+        // one decimal is enough
+        long tenths = (nanos + 50000L) / 100000L;
+        sb.append(tenths / 10).append('.').append(tenths % 10);
+    }
+}
@@ -0,0 +1,167 @@
+package com.fasterxml.storemate.store.util;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StoreOperationSource;
+
+/**
+ * Helper class that keeps track of N slowest (sampled) operations
+ * within fixed-length time windows. Retained entries have per-phase
+ * timing breakdown (see {@link SlowOperation}); reservoir size is bounded
+ * so memory usage is constant regardless of traffic.
+ *<p>
+ * When a window is completed, its slowest operations are logged using
+ * a {@link SimpleLogThrottler}, and retained until the next window
+ * completes, so that they may be accessed using {@link #getSlowestOperations}.
+ */
+public class SlowOperationTracer
+{
+    protected final int _maxEntries;
+
+    protected final long _windowMsecs;
+
+    /**
+     * Sampling rate: one out of this many operations is traced.
+     */
+    protected final int _sampleEvery;
+
+    protected final AtomicInteger _sampleCounter = new AtomicInteger(0);
+
+    /**
+     * Throttler used for logging contents of completed windows, if any.
+     */
+    protected final SimpleLogThrottler _logThrottler;
+
+    /**
+     * Min-heap of slowest operations in the current window, so that the fastest
+     * retained operation can be quickly replaced.
+     */
+    protected final PriorityQueue<SlowOperation> _current;
+
+    /**
+     * Slowest operations of the last completed window, slowest first.
+     */
+    protected List<SlowOperation> _previous = Collections.emptyList();
+
+    /**
+     * End time of the current window; 0 before first operation is recorded.
+     */
+    protected volatile long _windowEnd = 0L;
+
+    /**
+     * Duration an operation must exceed to get included when reservoir is
+     * full; used for quick rejection without synchronization.
+     */
+    protected volatile long _threshold = 0L;
+
+    public SlowOperationTracer(int maxEntries, long windowMsecs, int sampleEvery,
+            SimpleLogThrottler logThrottler)
+    {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive, was "+maxEntries);
+        }
+        _maxEntries = maxEntries;
+        _windowMsecs = windowMsecs;
+        _sampleEvery = Math.max(1, sampleEvery);
+        _logThrottler = logThrottler;
+        _current = new PriorityQueue<SlowOperation>(maxEntries);
+    }
+
+    /*
+    /**********************************************************************
+    /* Public API
+    /**********************************************************************
+     */
+
+    /**
+     * Method called before an operation starts, to see whether it should
+     * be traced or not.
+     */
+    public boolean shouldSample() {
+        return (_sampleEvery == 1)
+                || (_sampleCounter.incrementAndGet() % _sampleEvery) == 0;
+    }
+
+    /**
+     * Method called after a traced operation has completed.
+     *
+     * @param entry Entry operated on, if any and if known; if null,
+     *    entry from diagnostics (if any) is used
+     */
+    public void record(long timeMsecs, String operation, StoreOperationSource source,
+            StorableKey key, long totalNanos, OperationDiagnostics diag, Storable entry)
+    {
+        // fast rejection for common case of fast-enough operations
+        if (totalNanos <= _threshold && timeMsecs < _windowEnd) {
+            return;
+        }
+        List<SlowOperation> completed = null;
+        synchronized (this) {
+            if (timeMsecs >= _windowEnd) {
+                completed = _rollWindow(timeMsecs);
+            }
+            if (_current.size() < _maxEntries) {
+                _current.add(new SlowOperation(timeMsecs, operation, source, key, totalNanos, diag, entry));
+                if (_current.size() == _maxEntries) {
+                    _threshold = _current.peek().getTotalNanos();
+                }
+            } else if (totalNanos > _current.peek().getTotalNanos()) {
+                _current.poll();
+                _current.add(new SlowOperation(timeMsecs, operation, source, key, totalNanos, diag, entry));
+                _threshold = _current.peek().getTotalNanos();
+            }
+        }
+        if (completed != null && _logThrottler != null) {
+            _logThrottler.logWarn(timeMsecs, "Slowest {} operations during last {} msecs (slowest first): {}",
+                    completed.size(), _windowMsecs, completed);
+        }
+    }
+
+    /**
+     * Accessor for slowest operations of the last completed window, followed
+     * by those of the current window; within window slowest first.
+     */
+    public synchronized List<SlowOperation> getSlowestOperations()
+    {
+        ArrayList<SlowOperation> result = new ArrayList<SlowOperation>(_previous);
+        result.addAll(_sorted(_current));
+        return result;
+    }
+
+    public int getMaxEntries() { return _maxEntries; }
+
+    public long getWindowMsecs() { return _windowMsecs; }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    /**
+     * @return Contents of the window that was completed, if it had any
+     *    entries; null if not
+     */
+    protected List<SlowOperation> _rollWindow(long timeMsecs)
+    {
+        List<SlowOperation> completed = null;
+        if (!_current.isEmpty()) {
+            completed = _sorted(_current);
+            _previous = completed;
+            _current.clear();
+        }
+        _threshold = 0L;
+        _windowEnd = timeMsecs + _windowMsecs;
+        return completed;
+    }
+
+    protected static List<SlowOperation> _sorted(Collection<SlowOperation> ops)
+    {
+        ArrayList<SlowOperation> result = new ArrayList<SlowOperation>(ops);
+        Collections.sort(result, Collections.reverseOrder());
+        return result;
+    }
+}
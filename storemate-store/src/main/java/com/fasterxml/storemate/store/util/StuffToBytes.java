@@ -63,6 +63,48 @@ public abstract class StuffToBytes
         return new Estimator();
     }
 
+    /**
+     * Factory method for constructing "writer" for content of known exact
+     * length (see {@link #vIntLength} and {@link #vLongLength} for calculating
+     * lengths of variable-length values). Unlike with {@link #writer}, no
+     * extra space is reserved, so that result buffer is fully used.
+     */
+    public static StuffToBytes exactWriter(int length) {
+        return new Writer(new byte[length]);
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods for length calculation
+    /**********************************************************************
+     */
+
+    /**
+     * Method for calculating number of bytes given (non-negative) value
+     * takes when written as VInt.
+     */
+    public static int vIntLength(int value)
+    {
+        int len = 1;
+        while ((value >>>= 7) != 0) {
+            ++len;
+        }
+        return len;
+    }
+
+    /**
+     * Method for calculating number of bytes given (non-negative) value
+     * takes when written as VLong.
+     */
+    public static int vLongLength(long value)
+    {
+        int len = 1;
+        while ((value >>>= 7) != 0L) {
+            ++len;
+        }
+        return len;
+    }
+
     /*
     /**********************************************************************
     /* API
@@ -91,6 +133,12 @@ public abstract class StuffToBytes
 
     public abstract StuffToBytes appendLengthAndBytes(ByteContainer bytes);
 
+    /**
+     * Method for appending given String as single-byte characters; only to be
+     * used for ASCII (or Latin-1) content.
+     */
+    public abstract StuffToBytes appendAsciiBytes(String str);
+
     /**
      * Method for constructing actual serialization with appended data.
      * Will only work for writer, not estimate.
@@ -123,6 +171,12 @@ public abstract class StuffToBytes
             _buffer = new byte[maxLen];
             _end = maxLen;
         }
+
+        protected Writer(byte[] buffer)
+        {
+            _buffer = buffer;
+            _end = buffer.length;
+        }
         
         @Override
         public <T> T withResult(WithBytesCallback<T> cb) {
@@ -250,6 +304,20 @@ public abstract class StuffToBytes
             return this;
         }
 
+        @Override
+        public StuffToBytes appendAsciiBytes(String str)
+        {
+            final int len = str.length();
+            _verifyBounds(len);
+            final byte[] buf = _buffer;
+            int ptr = _ptr;
+            for (int i = 0; i < len; ++i) {
+                buf[ptr++] = (byte) str.charAt(i);
+            }
+            _ptr = ptr;
+            return this;
+        }
+
         @Override
         public StuffToBytes withBytes(byte[] buffer, int offset, int length) {
             return appendBytes(buffer, offset, length);
@@ -381,5 +449,11 @@ public abstract class StuffToBytes
             }
             return this;
         }
+
+        @Override
+        public StuffToBytes appendAsciiBytes(String str) {
+            _ptr += str.length();
+            return this;
+        }
     }
 }
@@ -0,0 +1,213 @@
+package com.fasterxml.storemate.store.util;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.shared.hash.IncrementalHasher32;
+
+/**
+ * Wrapper for {@link InputStream} that calculates checksum over content
+ * as it is read, and verifies both it and the length of content against
+ * expected values, failing the read (by throwing an {@link IOException})
+ * on mismatch. Length is checked as content is read, so that reads fail
+ * as soon as content turns out to be longer than expected; checksum and
+ * shorter-than-expected length are checked when end of content is reached,
+ * before end-of-stream is returned to caller.
+ *<p>
+ * Note that skipped content is read (and hashed) as well, since checksum
+ * is calculated over all of content.
+ */
+public class VerifyingInputStream extends InputStream
+{
+    protected final InputStream _in;
+
+    protected final IncrementalHasher32 _hasher;
+
+    /**
+     * Expected length of content; negative if not known.
+     */
+    protected final long _expectedLength;
+
+    /**
+     * Expected checksum of content; {@link HashConstants#NO_CHECKSUM} if not known.
+     */
+    protected final int _expectedHash;
+
+    protected long _readCount;
+
+    protected boolean _verified;
+
+    /**
+     * Failure reported, if verification has failed: kept so that further
+     * reads fail the same way.
+     */
+    protected IOException _failure;
+
+    protected byte[] TMP = null;
+
+    /**
+     * @param expectedLength Expected length of content, if known; negative if not
+     * @param expectedHash Expected checksum of content (as calculated using
+     *    given hasher, with 0 masked as {@link HashConstants#CHECKSUM_FOR_ZERO}),
+     *    if known; {@link HashConstants#NO_CHECKSUM} if not
+     */
+    public VerifyingInputStream(InputStream src, IncrementalHasher32 hasher,
+            long expectedLength, int expectedHash)
+    {
+        _in = src;
+        _hasher = hasher;
+        _expectedLength = expectedLength;
+        _expectedHash = expectedHash;
+    }
+
+    /*
+    /**********************************************************************
+    /* Extended API
+    /**********************************************************************
+     */
+
+    /**
+     * Accessor for finding number of bytes read (including skipped) from this stream
+     */
+    public long readCount() { return _readCount; }
+
+    /**
+     * Accessor for checking whether content has been fully read and
+     * successfully verified.
+     */
+    public boolean isVerified() {
+        return _verified && (_failure == null);
+    }
+
+    /**
+     * Overridable method called to construct exception to throw when
+     * verification fails; may also be used for reporting the failure.
+     *
+     * @param actualLength Length of content read (so far, if content was longer
+     *    than expected)
+     * @param actualHash Checksum of content read (so far, if content was longer
+     *    than expected)
+     */
+    protected IOException _verificationFailed(long actualLength, int actualHash)
+    {
+        return new IOException("Content verification failed: expected "+_expectedLength
+                +" bytes with checksum 0x"+Integer.toHexString(_expectedHash)
+                +", got "+actualLength+" bytes with checksum 0x"+Integer.toHexString(actualHash));
+    }
+
+    /*
+    /**********************************************************************
+    /* InputStream implementation
+    /**********************************************************************
+     */
+
+    @Override
+    public int available() throws IOException {
+        return _in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (TMP == null) {
+            TMP = new byte[1];
+        }
+        int count = read(TMP, 0, 1);
+        return (count <= 0) ? -1 : (TMP[0] & 0xFF);
+    }
+
+    @Override
+    public final int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int len) throws IOException
+    {
+        if (_failure != null) {
+            throw _failure;
+        }
+        int count = _in.read(b, offset, len);
+        if (count > 0) {
+            _readCount += count;
+            _hasher.update(b, offset, count);
+            // no need to read the rest if it's already too long
+            if ((_expectedLength >= 0L) && (_readCount > _expectedLength)) {
+                _fail();
+            }
+        } else if (count < 0) {
+            _verify();
+        }
+        return count;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        if (n <= 0L) {
+            return 0L;
+        }
+        // need to read skipped content too, to calculate checksum
+        byte[] buffer = new byte[(int) Math.min(n, 4000L)];
+        long total = 0L;
+        while (total < n) {
+            int count = read(buffer, 0, (int) Math.min(n - total, buffer.length));
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /*
+    /**********************************************************************
+    /* Internal methods
+    /**********************************************************************
+     */
+
+    protected void _verify() throws IOException
+    {
+        if (_verified) {
+            return;
+        }
+        _verified = true;
+        if ((_expectedLength >= 0L) && (_readCount != _expectedLength)) {
+            _fail();
+        }
+        if ((_expectedHash != HashConstants.NO_CHECKSUM) && (_actualHash() != _expectedHash)) {
+            _fail();
+        }
+    }
+
+    protected void _fail() throws IOException
+    {
+        _verified = true;
+        _failure = _verificationFailed(_readCount, _actualHash());
+        throw _failure;
+    }
+
+    protected int _actualHash() {
+        int hash = _hasher.calculateHash();
+        return (hash == HashConstants.NO_CHECKSUM) ? HashConstants.CHECKSUM_FOR_ZERO : hash;
+    }
+}
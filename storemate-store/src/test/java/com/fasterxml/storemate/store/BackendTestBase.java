@@ -13,10 +13,14 @@ import com.fasterxml.storemate.shared.hash.BlockMurmur3Hasher;
 import com.fasterxml.storemate.shared.util.UTF8Encoder;
 import com.fasterxml.storemate.shared.util.WithBytesAsArray;
 import com.fasterxml.storemate.store.backend.StoreBackend;
+import com.fasterxml.storemate.store.dedup.ContentKey;
+import com.fasterxml.storemate.store.dedup.SharedFile;
+import com.fasterxml.storemate.store.dict.StoredDictionary;
 import com.fasterxml.storemate.store.file.DefaultFilenameConverter;
 import com.fasterxml.storemate.store.file.FileManager;
 import com.fasterxml.storemate.store.file.FileManagerConfig;
 import com.fasterxml.storemate.store.impl.StorableStoreImpl;
+import com.fasterxml.storemate.store.state.NodeStateStore;
 
 public abstract class BackendTestBase extends StoreTestBase
 {
@@ -51,16 +55,35 @@ public abstract class BackendTestBase extends StoreTestBase
         return createStore(nameSuffix, new TimeMasterForSimpleTesting(startTime));
     }
 
-    protected StorableStore createStore(String nameSuffix, TimeMaster timeMaster) throws IOException
+    protected StorableStore createStore(String nameSuffix, TimeMaster timeMaster) throws IOException {
+        return createStore(nameSuffix, timeMaster, new StoreConfig());
+    }
+
+    protected StorableStore createStore(String nameSuffix, TimeMaster timeMaster,
+            StoreConfig storeConfig) throws IOException
+    {
+        return createStore(nameSuffix, timeMaster, storeConfig, null);
+    }
+
+    protected StorableStore createStore(String nameSuffix, TimeMaster timeMaster,
+            StoreConfig storeConfig, NodeStateStore<Integer,StoredDictionary> dictionaryStore)
+        throws IOException
+    {
+        return createStore(nameSuffix, timeMaster, storeConfig, dictionaryStore, null);
+    }
+
+    protected StorableStore createStore(String nameSuffix, TimeMaster timeMaster,
+            StoreConfig storeConfig, NodeStateStore<Integer,StoredDictionary> dictionaryStore,
+            NodeStateStore<ContentKey,SharedFile> contentIndexStore)
+        throws IOException
     {
         File testRoot = getTestScratchDir(nameSuffix, true);
         File fileDir = new File(testRoot, "files");
-        StoreConfig storeConfig = new StoreConfig();
         FileManagerConfig fmConfig = new FileManagerConfig(fileDir);
         StoreBackend backend = createBackend(testRoot, storeConfig);
         return new StorableStoreImpl(storeConfig, backend, timeMaster,
                 new FileManager(fmConfig, timeMaster, new DefaultFilenameConverter()),
-                null, null);
+                null, null, dictionaryStore, contentIndexStore);
     }
 
     protected abstract StoreBackend createBackend(File testRoot, StoreConfig storeConfig);
@@ -0,0 +1,64 @@
+package com.fasterxml.storemate.store;
+
+import java.io.IOException;
+import java.util.*;
+
+import com.fasterxml.storemate.shared.util.RawEntryConverter;
+import com.fasterxml.storemate.store.state.NodeStateStore;
+
+/**
+ * Simple in-memory {@link NodeStateStore} for tests; goes through
+ * converters same way as persistent implementations, and can be made
+ * to fail writes.
+ */
+public class NodeStateStoreForSimpleTesting<K,V> extends NodeStateStore<K,V>
+{
+    protected final Map<String,byte[]> _entries = new TreeMap<String,byte[]>();
+
+    public boolean failWrites;
+
+    public NodeStateStoreForSimpleTesting(RawEntryConverter<K> keyConverter,
+            RawEntryConverter<V> valueConverter)
+    {
+        super(keyConverter, valueConverter);
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    @Override
+    public synchronized List<V> readAll() throws IOException
+    {
+        List<V> result = new ArrayList<V>();
+        for (byte[] raw : _entries.values()) {
+            result.add(rawToValue(raw, 0, raw.length));
+        }
+        return result;
+    }
+
+    @Override
+    protected synchronized V _findEntry(byte[] rawKey) throws IOException
+    {
+        byte[] raw = _entries.get(_key(rawKey));
+        return (raw == null) ? null : rawToValue(raw, 0, raw.length);
+    }
+
+    @Override
+    protected synchronized void _upsertEntry(byte[] rawKey, byte[] rawValue) throws IOException
+    {
+        if (failWrites) {
+            throw new IOException("Simulated write failure");
+        }
+        _entries.put(_key(rawKey), rawValue);
+    }
+
+    @Override
+    protected synchronized boolean _deleteEntry(byte[] rawKey) throws IOException {
+        return _entries.remove(_key(rawKey)) != null;
+    }
+
+    private String _key(byte[] rawKey) {
+        return Arrays.toString(rawKey);
+    }
+}
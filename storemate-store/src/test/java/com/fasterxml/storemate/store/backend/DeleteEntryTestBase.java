@@ -98,4 +98,39 @@ public abstract class DeleteEntryTestBase extends BackendTestBase
         
         store.stop();
     }
-}
\ No newline at end of file
+
+    /**
+     * Test for admin methods that collect keys of entries to remove
+     * (using compact key representation with prefixes)
+     */
+    public void testBulkRemoval() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.commonKeyPrefixes = new String[] { "data/", "data/entry/" };
+        final AdminStorableStore store = (AdminStorableStore) createStore("db-delete-bulk",
+                new TimeMasterForSimpleTesting(_date(2012, 7, 9)), config);
+        final byte[] DATA = "abc".getBytes("UTF-8");
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(DATA), HashConstants.NO_CHECKSUM);
+        for (int i = 0; i < 10; ++i) {
+            String key = ((i % 3) == 0) ? ("other/"+i) : ("data/entry/"+i);
+            assertTrue(store.insert(StoreOperationSource.REQUEST, null, storableKey(key),
+                    new ByteArrayInputStream(DATA), metadata, null).succeeded());
+        }
+        _verifyCounts(10L, store);
+        for (int i = 1; i < 10; i += 3) {
+            store.softDelete(StoreOperationSource.REQUEST, null, storableKey("data/entry/"+i), true, true);
+        }
+        assertEquals(3, store.removeTombstones(StoreOperationSource.ADMIN_TOOL, 5));
+        _verifyCounts(7L, store);
+        assertFalse(store.hasEntry(StoreOperationSource.REQUEST, null, storableKey("data/entry/4")));
+        assertTrue(store.hasEntry(StoreOperationSource.REQUEST, null, storableKey("data/entry/5")));
+
+        assertEquals(4, store.removeEntries(StoreOperationSource.ADMIN_TOOL, 4));
+        _verifyCounts(3L, store);
+        assertEquals(3, store.removeEntries(StoreOperationSource.ADMIN_TOOL, 100));
+        _verifyCounts(0L, store);
+
+        store.stop();
+    }
+}
@@ -0,0 +1,170 @@
+package com.fasterxml.storemate.store.backend;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.file.FileReference;
+import com.fasterxml.storemate.store.impl.EntryFormatMigrator;
+import com.fasterxml.storemate.store.impl.StorableConverter;
+
+/**
+ * Tests for verifying that entries stored using entry format version 1
+ * can be read, and are migrated to version 2 either by sweeps or
+ * lazily on access, if version 2 is enabled.
+ */
+public abstract class EntryFormatMigrationTestBase extends BackendTestBase
+{
+    final static int ENTRY_COUNT = 25;
+
+    public void testNoMigrationByDefault() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.migrateEntriesOnRead = true;
+        final AdminStorableStore store = (AdminStorableStore) createStore("bdb-migrate-default",
+                new TimeMasterForSimpleTesting(_date(2013, 4, 1)), config);
+        final StoreBackend backend = store.getBackend();
+        // version 2 must be explicitly enabled, to allow rolling back
+        assertEquals(StorableConverter.VERSION_1, backend.getStorableConverter().getOutputVersion());
+        _putOldEntries(backend);
+
+        Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, _key(7));
+        assertEquals(StorableConverter.VERSION_1, entry.getFormatVersion());
+        _verifyOldEntry(7, entry);
+        EntryFormatMigrator migrator = new EntryFormatMigrator(store, 100, 100, 0L);
+        migrator.run();
+        assertTrue(migrator.isCompleted());
+        assertEquals(0L, migrator.getMigratedCount());
+        assertEquals(StorableConverter.VERSION_1, backend.findEntry(_key(7)).getFormatVersion());
+
+        store.stop();
+    }
+
+    public void testSweepMigration() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.entryFormatVersion = 2;
+        final AdminStorableStore store = (AdminStorableStore) createStore("bdb-migrate-sweep",
+                new TimeMasterForSimpleTesting(_date(2013, 4, 1)), config);
+        final StoreBackend backend = store.getBackend();
+        assertEquals(StorableConverter.VERSION_2, backend.getStorableConverter().getOutputVersion());
+
+        _putOldEntries(backend);
+        // plus one entry using current format
+        StorableCreationMetadata stdMetadata = new StorableCreationMetadata(null,
+                HashConstants.NO_CHECKSUM, HashConstants.NO_CHECKSUM);
+        assertTrue(store.insert(StoreOperationSource.REQUEST, null, storableKey("entry/new"),
+                ByteContainer.simple(new byte[] { 1, 2, 3 }), stdMetadata, null).succeeded());
+        _verifyCounts(ENTRY_COUNT + 1, store);
+
+        // first things first: old entries must be readable as is
+        Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, _key(3));
+        assertEquals(StorableConverter.VERSION_1, entry.getFormatVersion());
+        _verifyOldEntry(3, entry);
+
+        EntryFormatMigrator migrator = new EntryFormatMigrator(store, 4, 3, 0L);
+        int batches = 0;
+        while (migrator.runBatch()) {
+            ++batches;
+        }
+        assertTrue(migrator.isCompleted());
+        assertTrue("Should have taken multiple batches, took "+batches, batches > 5);
+        assertEquals(ENTRY_COUNT + 1, migrator.getCheckedCount());
+        assertEquals(ENTRY_COUNT, migrator.getMigratedCount());
+        _verifyCounts(ENTRY_COUNT + 1, store);
+
+        for (int i = 0; i < ENTRY_COUNT; ++i) {
+            entry = backend.findEntry(_key(i));
+            assertEquals(StorableConverter.VERSION_2, entry.getFormatVersion());
+            _verifyOldEntry(i, entry);
+        }
+
+        // and second round should find nothing to do
+        migrator = new EntryFormatMigrator(store, 100, 100, 0L);
+        migrator.run();
+        assertTrue(migrator.isCompleted());
+        assertEquals(0L, migrator.getMigratedCount());
+
+        store.stop();
+    }
+
+    public void testMigrationOnRead() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.entryFormatVersion = 2;
+        config.migrateEntriesOnRead = true;
+        final AdminStorableStore store = (AdminStorableStore) createStore("bdb-migrate-read",
+                new TimeMasterForSimpleTesting(_date(2013, 4, 1)), config);
+        final StoreBackend backend = store.getBackend();
+        _putOldEntries(backend);
+
+        Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, _key(7));
+        assertEquals(StorableConverter.VERSION_2, entry.getFormatVersion());
+        _verifyOldEntry(7, entry);
+        assertEquals(StorableConverter.VERSION_2, backend.findEntry(_key(7)).getFormatVersion());
+        // but others not yet migrated
+        assertEquals(StorableConverter.VERSION_1, backend.findEntry(_key(8)).getFormatVersion());
+        _verifyCounts(ENTRY_COUNT, store);
+
+        store.stop();
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods
+    /**********************************************************************
+     */
+
+    private StorableKey _key(int index) {
+        return storableKey("entry/"+(100 + index));
+    }
+
+    /**
+     * Helper method for writing entries directly using version 1 encoding;
+     * every third entry is external (without actual file)
+     */
+    private void _putOldEntries(StoreBackend backend) throws Exception
+    {
+        StorableConverter conv1 = new StorableConverter(StorableConverter.VERSION_1);
+        for (int i = 0; i < ENTRY_COUNT; ++i) {
+            StorableKey key = _key(i);
+            StorableCreationMetadata stdMetadata = new StorableCreationMetadata(
+                    ((i & 1) == 0) ? null : Compression.LZF, 1000+i, 2000+i);
+            stdMetadata.uncompressedSize = 10000 + i;
+            ByteContainer metadata = ByteContainer.simple(new byte[] { (byte) i, 1 });
+            Storable entry;
+            if ((i % 3) == 0) {
+                stdMetadata.storageSize = 5000 + i;
+                entry = conv1.encodeOfflined(key, _date(2013, 1, 1+i), stdMetadata, metadata,
+                        new FileReference(null, "ext/"+i));
+            } else {
+                byte[] data = ("data-"+i).getBytes("UTF-8");
+                stdMetadata.storageSize = data.length;
+                entry = conv1.encodeInlined(key, _date(2013, 1, 1+i), stdMetadata, metadata,
+                        ByteContainer.simple(data));
+            }
+            assertNull(backend.createEntry(key, entry));
+        }
+    }
+
+    private void _verifyOldEntry(int i, Storable entry) throws Exception
+    {
+        assertEquals(_date(2013, 1, 1+i), entry.getLastModified());
+        assertEquals(1000+i, entry.getContentHash());
+        _verifyMetadata(entry, new byte[] { (byte) i, 1 });
+        if ((i & 1) == 0) {
+            assertEquals(Compression.NONE, entry.getCompression());
+        } else {
+            assertEquals(Compression.LZF, entry.getCompression());
+            assertEquals(2000+i, entry.getCompressedHash());
+            assertEquals(10000L+i, entry.getOriginalLength());
+        }
+        if ((i % 3) == 0) {
+            assertEquals("ext/"+i, entry.getExternalFilePath());
+            assertEquals(5000L+i, entry.getStorageLength());
+        } else {
+            assertEquals("data-"+i, new String(entry.getInlinedData().asBytes(), "UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.fasterxml.storemate.store.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.impl.EntryRecompressor;
+import com.fasterxml.storemate.store.lastaccess.LastAccessUpdateMethod;
+import com.fasterxml.storemate.store.util.OverwriteChecker;
+
+/**
+ * Tests for verifying that cold entries can be recompressed using
+ * a higher-ratio compression method, retaining everything else
+ * about entries.
+ */
+public abstract class EntryRecompressionTestBase extends BackendTestBase
+{
+    final static int SMALL_COUNT = 10;
+
+    final static int LARGE_COUNT = 2;
+
+    final static long HOUR = 60L * 60 * 1000L;
+
+    public void testRecompressColdEntries() throws Exception
+    {
+        final long startTime = _date(2013, 5, 1);
+        final TimeMasterForSimpleTesting time = new TimeMasterForSimpleTesting(startTime);
+        final AdminStorableStore store = (AdminStorableStore) createStore("bdb-recompress",
+                time, _config());
+
+        // cold entries: small (inlined) and large (external files)
+        long[] smallSizes = new long[SMALL_COUNT];
+        for (int i = 0; i < SMALL_COUNT; ++i) {
+            smallSizes[i] = _put(store, "cold/small"+i, _data(1000 + i)).getStorageLength();
+            time.advanceCurrentTimeMillis(1L);
+        }
+        File[] origFiles = new File[LARGE_COUNT];
+        long[] largeSizes = new long[LARGE_COUNT];
+        for (int i = 0; i < LARGE_COUNT; ++i) {
+            Storable entry = _put(store, "cold/large"+i, _data(40000 + i));
+            largeSizes[i] = entry.getStorageLength();
+            assertTrue(entry.hasExternalData());
+            origFiles[i] = entry.getExternalFile(store.getFileManager());
+            assertTrue(origFiles[i].exists());
+        }
+        // one that is too small to compress
+        _put(store, "cold/tiny", new byte[] { 1, 2, 3 });
+        // and entries that are not yet cold
+        time.advanceCurrentTimeMillis(24 * HOUR);
+        for (int i = 0; i < 3; ++i) {
+            _put(store, "hot/"+i, _data(2000 + i));
+        }
+        final int total = SMALL_COUNT + LARGE_COUNT + 1 + 3;
+        _verifyCounts(total, store);
+
+        // let's also pretend one of cold entries was just accessed
+        final StorableKey accessedKey = storableKey("cold/small3");
+        EntryRecompressor recomp = new EntryRecompressor(store, Compression.GZIP, HOUR,
+                new EntryRecompressor.LastAccessChecker<StorableKey,LastAccessUpdateMethod>(null) {
+                    @Override
+                    public long findLastAccessTime(Storable entry) {
+                        return accessedKey.equals(entry.getKey()) ? time.currentTimeMillis() : 0L;
+                    }
+                    @Override
+                    protected StorableKey lastAccessKey(Storable entry) { return entry.getKey(); }
+                    @Override
+                    protected LastAccessUpdateMethod lastAccessMethod(Storable entry) { return null; }
+                },
+                4, 3, 0L);
+        int batches = 0;
+        while (recomp.runBatch()) {
+            ++batches;
+        }
+        assertTrue(recomp.isCompleted());
+        assertTrue("Should have taken multiple batches, took "+batches, batches > 2);
+        assertEquals(SMALL_COUNT + LARGE_COUNT + 1, recomp.getCheckedCount());
+        assertEquals(SMALL_COUNT + LARGE_COUNT - 1, recomp.getRecompressedCount());
+        assertEquals(0L, recomp.getConflictCount());
+        assertEquals(0L, recomp.getFailedCount());
+        assertTrue(recomp.getReclaimedBytes() > 0L);
+        _verifyCounts(total, store);
+
+        long reclaimed = 0L;
+        for (int i = 0; i < SMALL_COUNT; ++i) {
+            Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, storableKey("cold/small"+i));
+            assertEquals(startTime + i, entry.getLastModified());
+            assertTrue(entry.hasInlineData());
+            byte[] data = _data(1000 + i);
+            assertArrayEquals(data, _contents(store, entry));
+            if (i == 3) {
+                assertEquals(Compression.LZF, entry.getCompression());
+            } else {
+                assertEquals(Compression.GZIP, entry.getCompression());
+                reclaimed += smallSizes[i] - entry.getStorageLength();
+            }
+        }
+        for (int i = 0; i < LARGE_COUNT; ++i) {
+            Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, storableKey("cold/large"+i));
+            assertEquals(Compression.GZIP, entry.getCompression());
+            assertTrue(entry.hasExternalData());
+            // old file must have been removed
+            assertFalse(origFiles[i].exists());
+            byte[] data = _data(40000 + i);
+            assertArrayEquals(data, _contents(store, entry));
+            reclaimed += largeSizes[i] - entry.getStorageLength();
+        }
+        assertEquals(reclaimed, recomp.getReclaimedBytes());
+        assertEquals(Compression.NONE, store.findEntry(StoreOperationSource.REQUEST, null,
+                storableKey("cold/tiny")).getCompression());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(Compression.LZF, store.findEntry(StoreOperationSource.REQUEST, null,
+                    storableKey("hot/"+i)).getCompression());
+        }
+
+        // second round, without access checks, should only find the accessed entry
+        recomp = new EntryRecompressor(store, Compression.GZIP, HOUR, 100, 100, 0L);
+        recomp.run();
+        assertTrue(recomp.isCompleted());
+        assertEquals(1L, recomp.getRecompressedCount());
+        recomp = new EntryRecompressor(store, Compression.GZIP, HOUR, 100, 100, 0L);
+        recomp.run();
+        assertEquals(0L, recomp.getRecompressedCount());
+
+        store.stop();
+    }
+
+    public void testConcurrentModificationWins() throws Exception
+    {
+        final TimeMasterForSimpleTesting time = new TimeMasterForSimpleTesting(_date(2013, 5, 1));
+        final AdminStorableStore store = (AdminStorableStore) createStore("bdb-recompress-conflict",
+                time, _config());
+        final StorableKey key = storableKey("entry");
+        Storable orig = _put(store, "entry", _data(1500));
+        assertEquals(Compression.LZF, orig.getCompression());
+
+        // if entry has changed since read, may not be overwritten
+        time.advanceCurrentTimeMillis(1000L);
+        _putAgain(store, "entry", _data(1600));
+        Storable current = store.findEntry(StoreOperationSource.REQUEST, null, key);
+        OverwriteChecker checker = new OverwriteChecker.OkIfUnmodified(orig);
+        assertNull(checker.mayOverwrite(key));
+        assertFalse(checker.mayOverwrite(key, current, orig));
+        assertFalse(checker.mayOverwrite(key, null, orig));
+        assertTrue(new OverwriteChecker.OkIfUnmodified(current).mayOverwrite(key, current, orig));
+
+        // and recompression of current version works, but only once
+        StorableCreationResult result = store.recompressEntry(StoreOperationSource.CLEANUP,
+                key, Compression.GZIP);
+        assertNotNull(result);
+        assertTrue(result.succeeded());
+        assertEquals(current.getLastModified(), result.getNewEntry().getLastModified());
+        assertNull(store.recompressEntry(StoreOperationSource.CLEANUP, key, Compression.GZIP));
+        assertNull(store.recompressEntry(StoreOperationSource.CLEANUP, storableKey("nosuch"),
+                Compression.GZIP));
+        assertArrayEquals(_data(1600), _contents(store,
+                store.findEntry(StoreOperationSource.REQUEST, null, key)));
+
+        store.stop();
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods
+    /**********************************************************************
+     */
+
+    private StoreConfig _config() {
+        StoreConfig config = new StoreConfig();
+        // to get small entries compressed using LZF, as well
+        config.maxUncompressedSizeForGZIP = 100;
+        return config;
+    }
+
+    private byte[] _data(int size) throws Exception {
+        return biggerCompressibleData(size).substring(0, size).getBytes("UTF-8");
+    }
+
+    private Storable _put(StorableStore store, String key, byte[] data) throws Exception
+    {
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(data), HashConstants.NO_CHECKSUM);
+        StorableCreationResult resp = store.insert(StoreOperationSource.REQUEST, null,
+                storableKey(key), new ByteArrayInputStream(data), metadata, null);
+        assertTrue(resp.succeeded());
+        return resp.getNewEntry();
+    }
+
+    private void _putAgain(StorableStore store, String key, byte[] data) throws Exception
+    {
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(data), HashConstants.NO_CHECKSUM);
+        assertTrue(store.upsert(StoreOperationSource.REQUEST, null,
+                storableKey(key), new ByteArrayInputStream(data), metadata, null, true).succeeded());
+    }
+
+    private byte[] _contents(StorableStore store, Storable entry) throws Exception
+    {
+        final int len = (int) entry.getActualUncompressedLength();
+        if (entry.hasInlineData()) {
+            return Compressors.uncompress(entry.getInlinedData(), entry.getCompression(), len).asBytes();
+        }
+        InputStream in = Compressors.uncompressingStream(new FileInputStream(
+                entry.getExternalFile(store.getFileManager())), entry.getCompression());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len);
+        byte[] buffer = new byte[4000];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package com.fasterxml.storemate.store.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.jfr.BackendCallEvent;
+import com.fasterxml.storemate.store.jfr.FileIOEvent;
+import com.fasterxml.storemate.store.jfr.StoreOperationEvent;
+
+/**
+ * Tests to verify that store operations emit expected Flight Recorder
+ * events when a recording is active.
+ */
+public abstract class JFREventsTestBase extends BackendTestBase
+{
+    public void testOperationEvents() throws Exception
+    {
+        StorableStore store = createStore("db-jfr-events");
+        final StorableKey KEY1 = storableKey("jfr/small");
+        final StorableKey KEY2 = storableKey("jfr/bigger");
+        final byte[] SMALL_DATA = "Tiny bit of data".getBytes("UTF-8");
+        // need to exceed default inlining threshold (4000) to get a file
+        final byte[] BIGGER_DATA = biggerRandomData(9000).getBytes("UTF-8");
+
+        File recFile = new File(getTestScratchDir("jfr-events", true), "events.jfr");
+        Recording rec = new Recording();
+        rec.enable(StoreOperationEvent.NAME);
+        rec.enable(BackendCallEvent.NAME);
+        rec.enable(FileIOEvent.NAME);
+        rec.start();
+
+        store.insert(StoreOperationSource.REQUEST, null, KEY1, new ByteArrayInputStream(SMALL_DATA),
+                new StorableCreationMetadata(null, calcChecksum32(SMALL_DATA), HashConstants.NO_CHECKSUM),
+                ByteContainer.emptyContainer());
+        store.insert(StoreOperationSource.SYNC, null, KEY2, new ByteArrayInputStream(BIGGER_DATA),
+                new StorableCreationMetadata(null, calcChecksum32(BIGGER_DATA), HashConstants.NO_CHECKSUM),
+                ByteContainer.emptyContainer());
+        assertNotNull(store.findEntry(StoreOperationSource.REQUEST, null, KEY1));
+        assertTrue(store.hasEntry(StoreOperationSource.REQUEST, null, KEY2));
+        // file reads: both via negotiated read and direct stream access
+        Storable entry2 = store.findEntry(StoreOperationSource.REQUEST, null, KEY2);
+        store.readContent(entry2, null).transferTo(new ByteArrayOutputStream());
+        InputStream in = store.openUncompressedExternalData(entry2, null);
+        while (in.read() >= 0) { }
+        in.close();
+        store.hardDelete(StoreOperationSource.CLEANUP, null, KEY1, true);
+
+        rec.stop();
+        rec.dump(recFile.toPath());
+        rec.close();
+        store.stop();
+
+        Map<String,Integer> ops = new HashMap<String,Integer>();
+        int backendCalls = 0;
+        RecordedEvent fileWrite = null;
+        int fileReads = 0;
+        for (RecordedEvent ev : RecordingFile.readAllEvents(recFile.toPath())) {
+            final String name = ev.getEventType().getName();
+            if (StoreOperationEvent.NAME.equals(name)) {
+                String op = ev.getString("operation");
+                Integer old = ops.get(op);
+                ops.put(op, (old == null) ? 1 : old + 1);
+                if (StoreOperationEvent.OP_PUT.equals(op) && "SYNC".equals(ev.getString("source"))) {
+                    assertEquals(KEY2.length(), ev.getInt("keyLength"));
+                    assertTrue(ev.getLong("bytes") > 0L);
+                }
+            } else if (BackendCallEvent.NAME.equals(name)) {
+                ++backendCalls;
+            } else if (FileIOEvent.NAME.equals(name)) {
+                if (FileIOEvent.OP_READ.equals(ev.getString("operation"))) {
+                    ++fileReads;
+                    assertTrue(ev.getLong("bytes") > 0L);
+                } else {
+                    fileWrite = ev;
+                }
+            }
+        }
+        assertEquals(Integer.valueOf(2), ops.get(StoreOperationEvent.OP_PUT));
+        assertEquals(Integer.valueOf(2), ops.get(StoreOperationEvent.OP_GET));
+        assertEquals(Integer.valueOf(1), ops.get(StoreOperationEvent.OP_HAS));
+        assertEquals(Integer.valueOf(1), ops.get(StoreOperationEvent.OP_HARD_DELETE));
+        // 2 puts, 2 gets, has; plus find and delete for hard delete
+        assertEquals(7, backendCalls);
+
+        assertNotNull(fileWrite);
+        assertEquals(FileIOEvent.OP_WRITE, fileWrite.getString("operation"));
+        assertEquals("SYNC", fileWrite.getString("source"));
+        assertTrue(fileWrite.getLong("bytes") > 0L);
+        assertEquals(2, fileReads);
+    }
+}
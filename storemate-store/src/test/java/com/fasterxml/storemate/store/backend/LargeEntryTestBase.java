@@ -2,16 +2,21 @@ package com.fasterxml.storemate.store.backend;
 
 import static org.junit.Assert.assertArrayEquals;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.ByteRange;
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.shared.ThrottlingByteArrayInputStream;
 import com.fasterxml.storemate.shared.compress.Compression;
 import com.fasterxml.storemate.shared.compress.Compressors;
 import com.fasterxml.storemate.shared.hash.HashConstants;
 import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.dedup.ContentKey;
+import com.fasterxml.storemate.store.dedup.SharedFile;
 
 public abstract class LargeEntryTestBase extends BackendTestBase
 {
@@ -74,6 +79,295 @@ public abstract class LargeEntryTestBase extends BackendTestBase
         }
     }
     
+    /**
+     * Test for verifying that chunk index gets written for LZF-compressed
+     * files, when enabled, and that ranges of content can be read using it.
+     */
+    public void testRangeReadsWithChunkIndex() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.lzfChunkIndex = true;
+        StorableStore store = createStore("bdb-large-chunk-index",
+                new TimeMasterForSimpleTesting(START_TIME), config);
+        final StorableKey KEY1 = storableKey("data/indexed");
+        final byte[] DATA = biggerCompressibleData(400 * 1000).getBytes("UTF-8");
+
+        try {
+            StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                    calcChecksum32(DATA), HashConstants.NO_CHECKSUM);
+            StorableCreationResult resp = store.insert(StoreOperationSource.REQUEST, null,
+                    KEY1, new ThrottlingByteArrayInputStream(DATA, 997), metadata, null);
+            assertTrue(resp.succeeded());
+            Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, KEY1);
+            assertEquals(Compression.LZF, entry.getCompression());
+            File file = entry.getExternalFile(store.getFileManager());
+            File indexFile = store.getFileManager().chunkIndexFileFor(file);
+            assertTrue(indexFile.exists());
+
+            // full content
+            assertArrayEquals(DATA, _readAll(store.openUncompressedExternalData(entry, null)));
+            // ranges, within and across chunks
+            for (long[] range : new long[][] { { 0, 100 }, { 65530, 20 }, { 200000, 100000 },
+                    { DATA.length - 10, 10 } }) {
+                int start = (int) range[0];
+                int end = start + (int) range[1];
+                assertArrayEquals(Arrays.copyOfRange(DATA, start, end),
+                        _readAll(store.openUncompressedExternalData(entry,
+                                new ByteRange(start, range[1]))));
+            }
+            // suffix range, and one past end of content
+            assertArrayEquals(Arrays.copyOfRange(DATA, DATA.length - 500, DATA.length),
+                    _readAll(store.openUncompressedExternalData(entry, ByteRange.valueOf("bytes=-500"))));
+            assertArrayEquals(Arrays.copyOfRange(DATA, 399000, DATA.length),
+                    _readAll(store.openUncompressedExternalData(entry, new ByteRange(399000, 5000))));
+
+            // without index, need to uncompress from start, but results must be same
+            assertTrue(indexFile.delete());
+            assertArrayEquals(Arrays.copyOfRange(DATA, 200000, 300000),
+                    _readAll(store.openUncompressedExternalData(entry, new ByteRange(200000, 100000))));
+
+            // and once entry is deleted, so is its index
+            _writeFile(indexFile);
+            assertTrue(store.hardDelete(StoreOperationSource.REQUEST, null, KEY1, true).hadEntry());
+            assertFalse(file.exists());
+            assertFalse(indexFile.exists());
+        } finally {
+            store.stop();
+        }
+    }
+
+    /**
+     * Test for verifying that negotiated reads pass stored content through
+     * as is when client accepts its encoding, and decode it otherwise.
+     */
+    public void testNegotiatedReads() throws Exception
+    {
+        StorableStore store = createStore("bdb-large-negotiated", START_TIME);
+        final byte[] LARGE = biggerCompressibleData(200 * 1000).getBytes("UTF-8");
+        final byte[] SMALL = biggerCompressibleData(1000).getBytes("UTF-8");
+
+        try {
+            Storable large = _insert(store, "data/large", LARGE);
+            Storable small = _insert(store, "data/small", SMALL);
+            assertEquals(Compression.LZF, large.getCompression());
+            assertEquals(Compression.GZIP, small.getCompression());
+
+            // client accepts LZF: stored file as is, transferred via channel
+            StorableContent content = store.readContent(large, "gzip, deflate, lzf");
+            assertTrue(content.isRaw());
+            assertTrue(content.hasExternalData());
+            assertEquals(Compression.LZF, content.getContentEncoding());
+            assertEquals(large.getStorageLength(), content.getLength());
+            assertEquals(large.getCompressedHash(), content.getHash());
+            File copy = new File(large.getExternalFile(store.getFileManager()).getParentFile(), "copy.tmp");
+            FileOutputStream out = new FileOutputStream(copy);
+            assertEquals(content.getLength(), content.transferTo(out));
+            out.close();
+            byte[] copied = readFile(copy);
+            copy.delete();
+            assertArrayEquals(readFile(large.getExternalFile(store.getFileManager())), copied);
+            _verifyHash(copied, content.getHash(), "raw LZF content");
+
+            // but not if it only accepts gzip
+            content = store.readContent(large, "gzip");
+            assertFalse(content.isRaw());
+            assertEquals(Compression.NONE, content.getContentEncoding());
+            assertEquals(LARGE.length, content.getLength());
+            assertEquals(large.getContentHash(), content.getHash());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            assertEquals(LARGE.length, content.transferTo(bytes));
+            assertArrayEquals(LARGE, bytes.toByteArray());
+
+            // and same for inlined content
+            content = store.readContent(small, "gzip");
+            assertTrue(content.isRaw());
+            assertEquals(Compression.GZIP, content.getContentEncoding());
+            assertArrayEquals(small.getInlinedData().asBytes(), _readAll(content.asStream()));
+            _verifyHash(small.getInlinedData().asBytes(), content.getHash(), "raw GZIP content");
+            content = store.readContent(small, null);
+            assertFalse(content.isRaw());
+            assertEquals(SMALL.length, content.getLength());
+            assertArrayEquals(SMALL, _readAll(content.asStream()));
+        } finally {
+            store.stop();
+        }
+    }
+
+    /**
+     * Test for verifying that verified reads pass intact content, and fail
+     * (and notify listener) for corrupt content.
+     */
+    public void testVerifiedReads() throws Exception
+    {
+        StorableStore store = createStore("bdb-large-verified", START_TIME);
+        final byte[] DATA = biggerCompressibleData(200 * 1000).getBytes("UTF-8");
+        final List<StorableContent> corrupt = new ArrayList<StorableContent>();
+        final ContentCorruptionListener listener = new ContentCorruptionListener() {
+            @Override
+            public void corruptContentFound(StorableContent content, long actualLength, int actualHash) {
+                corrupt.add(content);
+            }
+        };
+
+        try {
+            Storable entry = _insert(store, "data/verified", DATA);
+            StorableContent content = store.readContent(entry, "lzf").withVerification(listener);
+            assertTrue(content.isVerifying());
+            File copy = new File(entry.getExternalFile(store.getFileManager()).getParentFile(), "copy.tmp");
+            FileOutputStream out = new FileOutputStream(copy);
+            assertEquals(entry.getStorageLength(), content.transferTo(out));
+            out.close();
+            copy.delete();
+            assertArrayEquals(DATA, _readAll(store.readContent(entry, null).withVerification(listener).asStream()));
+            assertEquals(0, corrupt.size());
+
+            // then corrupt a byte in the middle of the file
+            File file = entry.getExternalFile(store.getFileManager());
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(file.length() / 2);
+            int b = raf.read();
+            raf.seek(file.length() / 2);
+            raf.write(b ^ 0x01);
+            raf.close();
+
+            content = store.readContent(entry, "lzf").withVerification(listener);
+            try {
+                content.transferTo(new ByteArrayOutputStream());
+                fail("Should not pass");
+            } catch (StoreException e) {
+                verifyException(e, "Corrupt stored content");
+                assertEquals(storableKey("data/verified"), e.getKey());
+            }
+            assertEquals(1, corrupt.size());
+            assertSame(content, corrupt.get(0));
+            assertTrue(corrupt.get(0).isRaw());
+
+            // and without verification, corruption goes unnoticed
+            assertEquals(entry.getStorageLength(),
+                    store.readContent(entry, "lzf").transferTo(new ByteArrayOutputStream()));
+        } finally {
+            store.stop();
+        }
+    }
+
+    /**
+     * Test for verifying that entries with identical content share the
+     * external file when deduplication is enabled, and that file is only
+     * deleted along with the last entry referring to it.
+     */
+    public void testDeduplication() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.entryFormatVersion = 2;
+        config.deduplicateExternalContent = true;
+        NodeStateStoreForSimpleTesting<ContentKey,SharedFile> indexStore
+            = new NodeStateStoreForSimpleTesting<ContentKey,SharedFile>(
+                    ContentKey.Converter.instance, SharedFile.Converter.instance);
+        StorableStore store = createStore("bdb-large-dedup", new TimeMasterForSimpleTesting(START_TIME),
+                config, null, indexStore);
+        final byte[] DATA = biggerCompressibleData(200 * 1000).getBytes("UTF-8");
+        final byte[] OTHER = biggerCompressibleData(210 * 1000).getBytes("UTF-8");
+
+        try {
+            Storable entry1 = _insert(store, "data/1", DATA);
+            Storable entry2 = _insert(store, "data/2", DATA);
+            Storable entry3 = _insert(store, "data/3", OTHER);
+            File file = entry1.getExternalFile(store.getFileManager());
+            assertEquals(16, entry1.getExtendedContentHash().byteLength());
+
+            // first two share the file, third one has its own
+            assertEquals(entry1.getExternalFilePath(), entry2.getExternalFilePath());
+            assertFalse(entry1.getExternalFilePath().equals(entry3.getExternalFilePath()));
+            assertEquals(entry1.getStorageLength(), entry2.getStorageLength());
+            assertEquals(entry1.getCompressedHash(), entry2.getCompressedHash());
+            assertEquals(2, indexStore.readAll().size());
+            SharedFile shared = indexStore.findEntry(ContentKey.forEntry(entry1));
+            assertNotNull(shared);
+            assertEquals(2, shared.getRefCount());
+            assertArrayEquals(DATA, _readAll(store.readContent(entry2, null).asStream()));
+
+            // shared file must not be recompressed (which would un-share it)
+            assertNull(((AdminStorableStore) store).recompressEntry(StoreOperationSource.CLEANUP,
+                    storableKey("data/2"), Compression.GZIP));
+            assertEquals(entry1.getExternalFilePath(), store.findEntry(StoreOperationSource.REQUEST, null,
+                    storableKey("data/2")).getExternalFilePath());
+            assertEquals(2, indexStore.findEntry(ContentKey.forEntry(entry1)).getRefCount());
+
+            // shareable files live outside of date-based directories, so time-based cleanup won't touch them
+            assertTrue(store.getFileManager().isSharedFile(entry1.getExternalFilePath()));
+            assertTrue(store.getFileManager().isSharedFile(entry3.getExternalFilePath()));
+
+            // failed write must not leak a reference
+            StorableCreationMetadata badMetadata = new StorableCreationMetadata(null,
+                    calcChecksum32(DATA) + 1, HashConstants.NO_CHECKSUM);
+            try {
+                store.insert(StoreOperationSource.REQUEST, null, storableKey("data/5"),
+                        new ByteArrayInputStream(DATA), badMetadata, null);
+                fail("Should not pass");
+            } catch (StoreException.Input e) {
+                verifyException(e, "checksum");
+            }
+            assertEquals(2, indexStore.findEntry(ContentKey.forEntry(entry1)).getRefCount());
+
+            // reference counts consistent with entries; but if not, fixed by reconciliation
+            AdminStorableStore admin = (AdminStorableStore) store;
+            assertEquals(0, admin.reconcileSharedFiles(StoreOperationSource.CLEANUP));
+            indexStore.upsertEntry(ContentKey.forEntry(entry1), shared.withRefCount(1));
+            assertEquals(1, admin.reconcileSharedFiles(StoreOperationSource.CLEANUP));
+            assertEquals(2, indexStore.findEntry(ContentKey.forEntry(entry1)).getRefCount());
+
+            // deleting one entry must leave file for the other
+            assertTrue(store.hardDelete(StoreOperationSource.REQUEST, null,
+                    storableKey("data/1"), true).hadEntry());
+            assertTrue(file.exists());
+            assertEquals(1, indexStore.findEntry(ContentKey.forEntry(entry2)).getRefCount());
+            assertArrayEquals(DATA, _readAll(store.readContent(entry2, null).asStream()));
+
+            // but once last reference is gone, so is the file
+            assertTrue(store.softDelete(StoreOperationSource.REQUEST, null,
+                    storableKey("data/2"), true, true).hadEntry());
+            assertFalse(file.exists());
+            assertNull(indexStore.findEntry(ContentKey.forEntry(entry2)));
+            assertEquals(1, indexStore.readAll().size());
+
+            // and new copy gets its own file again
+            Storable entry4 = _insert(store, "data/4", DATA);
+            assertTrue(entry4.getExternalFile(store.getFileManager()).exists());
+            assertArrayEquals(DATA, _readAll(store.readContent(entry4, null).asStream()));
+        } finally {
+            store.stop();
+        }
+    }
+
+    private Storable _insert(StorableStore store, String key, byte[] data) throws Exception
+    {
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(data), HashConstants.NO_CHECKSUM);
+        StorableCreationResult resp = store.insert(StoreOperationSource.REQUEST, null,
+                storableKey(key), new ByteArrayInputStream(data), metadata, null);
+        assertTrue(resp.succeeded());
+        return store.findEntry(StoreOperationSource.REQUEST, null, storableKey(key));
+    }
+
+    private byte[] _readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3000];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    private void _writeFile(File f) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(1);
+        out.close();
+    }
+
     private void _testLarger(long startTime, StorableStore store,
             int origSize) throws Exception
     {
@@ -2,6 +2,7 @@ package com.fasterxml.storemate.store.backend;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 
@@ -145,4 +146,45 @@ public abstract class MediumEntryTestBase extends BackendTestBase
 
         store.stop();
     }
+
+    public void testMediumFilesWithAdaptiveCompression() throws Exception
+    {
+        final long startTime = _date(2012, 7, 9);
+        StoreConfig config = new StoreConfig();
+        config.adaptiveCompression = true;
+        config.adaptiveCompressionCodecs = new String[] { "lzf", "gzip" };
+        // ratio is all that matters here:
+        config.compressionNanosPerSavedByte = 1000000.0;
+        StorableStore store = createStore("bdb-medium-adaptive", new TimeMasterForSimpleTesting(startTime),
+                config);
+
+        // compressible content should use the codec with best ratio, even if bigger
+        final StorableKey KEY1 = storableKey("data/1");
+        final byte[] DATA = biggerCompressibleData(StoreConfig.DEFAULT_MAX_FOR_GZIP + 2000).getBytes("UTF-8");
+        StorableCreationResult resp = store.insert(StoreOperationSource.REQUEST, null,
+                KEY1, new ByteArrayInputStream(DATA),
+                new StorableCreationMetadata(null, calcChecksum32(DATA), HashConstants.NO_CHECKSUM),
+                null);
+        assertTrue(resp.succeeded());
+        Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, KEY1);
+        assertEquals(Compression.GZIP, entry.getCompression());
+        assertEquals(DATA.length, entry.getOriginalLength());
+        assertArrayEquals(DATA, Compressors.gzipUncompress(readFile(entry.getExternalFile(store.getFileManager()))));
+
+        // but random binary content should not be compressed at all
+        final StorableKey KEY2 = storableKey("data/2");
+        final byte[] RANDOM = new byte[20000];
+        new Random(123).nextBytes(RANDOM);
+        resp = store.insert(StoreOperationSource.REQUEST, null,
+                KEY2, new ByteArrayInputStream(RANDOM),
+                new StorableCreationMetadata(null, calcChecksum32(RANDOM), HashConstants.NO_CHECKSUM),
+                null);
+        assertTrue(resp.succeeded());
+        entry = store.findEntry(StoreOperationSource.REQUEST, null, KEY2);
+        assertEquals(Compression.NONE, entry.getCompression());
+        assertEquals(RANDOM.length, entry.getStorageLength());
+        assertArrayEquals(RANDOM, readFile(entry.getExternalFile(store.getFileManager())));
+
+        store.stop();
+    }
 }
@@ -4,14 +4,22 @@ import java.io.ByteArrayInputStream;
 
 import static org.junit.Assert.assertArrayEquals;
 
+import org.skife.config.DataAmount;
+
 import com.fasterxml.storemate.shared.ByteContainer;
 import com.fasterxml.storemate.shared.StorableKey;
 import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.CompressionDictionary;
 import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.shared.compress.DeflateCodec;
 import com.fasterxml.storemate.shared.hash.HashConstants;
 import com.fasterxml.storemate.shared.util.WithBytesAsArray;
 
 import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.dict.StoredDictionary;
+import com.fasterxml.storemate.store.impl.DecompressedContentCache;
+import com.fasterxml.storemate.store.impl.StorableStoreImpl;
+import com.fasterxml.storemate.store.util.OperationDiagnostics;
 
 public abstract class SmallEntryTestBase extends BackendTestBase
 {
@@ -183,6 +191,144 @@ public abstract class SmallEntryTestBase extends BackendTestBase
         store.stop();
     }
 
+    /**
+     * Test to verify that decompressed content of compressed inlined entries
+     * is cached when cache is enabled, and that updates invalidate cached copies.
+     */
+    public void testSmallWithDecompressedCache() throws Exception
+    {
+        final long startTime = _date(2012, 7, 7);
+        StoreConfig config = new StoreConfig();
+        config.decompressedCacheSize = new DataAmount("1MB");
+        TimeMasterForSimpleTesting timeMaster = new TimeMasterForSimpleTesting(startTime);
+        StorableStoreImpl store = (StorableStoreImpl) createStore("bdb-small-cached", timeMaster, config);
+        DecompressedContentCache cache = store.getDecompressedContentCache();
+        assertNotNull(cache);
+
+        final StorableKey KEY1 = storableKey("data/cached");
+        final byte[] SMALL_DATA = biggerCompressibleData(400).getBytes("UTF-8");
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(SMALL_DATA), HashConstants.NO_CHECKSUM);
+        assertTrue(store.insert(StoreOperationSource.REQUEST, null,
+                KEY1, new ByteArrayInputStream(SMALL_DATA), metadata, null).succeeded());
+
+        Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, KEY1);
+        assertEquals(Compression.GZIP, entry.getCompression());
+        // first read uncompresses, and caches
+        assertArrayEquals(SMALL_DATA, store.getUncompressedInlinedData(entry).asBytes());
+        assertEquals(0L, cache.getHitCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(SMALL_DATA.length, cache.getCachedBytes());
+        // second one is served from cache
+        assertArrayEquals(SMALL_DATA, store.getUncompressedInlinedData(entry).asBytes());
+        assertEquals(1L, cache.getHitCount());
+
+        // but once entry is updated, old copy is not to be used
+        timeMaster.advanceCurrentTimeMillis(1000L);
+        final byte[] SMALL_DATA2 = biggerCompressibleData(500).getBytes("UTF-8");
+        metadata = new StorableCreationMetadata(null,
+                calcChecksum32(SMALL_DATA2), HashConstants.NO_CHECKSUM);
+        assertTrue(store.upsert(StoreOperationSource.REQUEST, null,
+                KEY1, new ByteArrayInputStream(SMALL_DATA2), metadata, null, true).succeeded());
+        entry = store.findEntry(StoreOperationSource.REQUEST, null, KEY1);
+        assertArrayEquals(SMALL_DATA2, store.getUncompressedInlinedData(entry).asBytes());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(SMALL_DATA2.length, cache.getCachedBytes());
+
+        store.stop();
+    }
+
+    /**
+     * Test to verify that once enough entries have been seen, small entries
+     * get compressed using a trained preset dictionary, and can be read back
+     * using dictionary found via store.
+     */
+    public void testSmallWithDictionary() throws Exception
+    {
+        final long startTime = _date(2012, 7, 7);
+        StoreConfig config = new StoreConfig();
+        config.entryFormatVersion = 2;
+        config.dictionaryCompression = true;
+        config.dictionaryTrainingSamples = 20;
+        NodeStateStoreForSimpleTesting<Integer,StoredDictionary> dictStore
+            = new NodeStateStoreForSimpleTesting<Integer,StoredDictionary>(
+                    StoredDictionary.IdConverter.instance, StoredDictionary.Converter.instance);
+        StorableStore store = createStore("bdb-small-dict", new TimeMasterForSimpleTesting(startTime),
+                config, dictStore);
+        store.start();
+
+        final int COUNT = 40;
+        for (int i = 0; i < COUNT; ++i) {
+            final byte[] data = smallJsonDoc(i);
+            StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                    calcChecksum32(data), HashConstants.NO_CHECKSUM);
+            StorableCreationResult resp = store.insert(StoreOperationSource.REQUEST, null,
+                    storableKey("json/"+i), new ByteArrayInputStream(data), metadata, null);
+            assertTrue(resp.succeeded());
+            // training done in background, after 20th entry; wait for it to complete
+            if (i == 19) {
+                assertTrue(((StorableStoreImpl) store).getDictionaryManager().waitForTraining(10000L));
+            }
+        }
+        _verifyCounts(COUNT, store);
+        // first dictionary trained after 20 entries, used from there on
+        assertEquals(1, dictStore.size());
+
+        for (int i = 0; i < COUNT; ++i) {
+            final byte[] data = smallJsonDoc(i);
+            Storable entry = store.findEntry(StoreOperationSource.REQUEST, null, storableKey("json/"+i));
+            assertNotNull(entry);
+            assertEquals(data.length, entry.getActualUncompressedLength());
+            if (i < 20) {
+                assertEquals(0, entry.getDictionaryId());
+                continue;
+            }
+            assertEquals(Compression.DEFLATE, entry.getCompression());
+            CompressionDictionary dict = store.findCompressionDictionary(entry.getDictionaryId());
+            assertNotNull(dict);
+            byte[] comp = entry.getInlinedData().asBytes();
+            assertTrue(comp.length < data.length / 2);
+            assertArrayEquals(data, DeflateCodec.instance.uncompress(comp, 0, comp.length,
+                    dict, data.length));
+            assertArrayEquals(data, store.getUncompressedInlinedData(entry).asBytes());
+        }
+        assertNull(store.findCompressionDictionary(2));
+
+        store.stop();
+    }
+
+    /**
+     * Test to verify that slow-operation tracing samples operations as
+     * configured, even if caller passes diagnostics of its own.
+     */
+    public void testSampledTracing() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        config.slowOperationsToTrace = 100;
+        config.slowOperationSampleRate = 4;
+        StorableStoreImpl store = (StorableStoreImpl) createStore("bdb-small-traced",
+                new TimeMasterForSimpleTesting(_date(2012, 7, 7)), config);
+
+        final StorableKey KEY1 = storableKey("data/traced");
+        final byte[] SMALL_DATA = biggerCompressibleData(400).getBytes("UTF-8");
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(SMALL_DATA), HashConstants.NO_CHECKSUM);
+        // first operation is not sampled
+        assertTrue(store.insert(StoreOperationSource.REQUEST, null,
+                KEY1, new ByteArrayInputStream(SMALL_DATA), metadata, null).succeeded());
+        assertEquals(0, store.getSlowestOperations().size());
+
+        // and out of next 8, only every 4th
+        for (int i = 0; i < 8; ++i) {
+            OperationDiagnostics diag = new OperationDiagnostics(System.nanoTime());
+            assertNotNull(store.findEntry(StoreOperationSource.REQUEST, diag, KEY1));
+        }
+        assertEquals(2, store.getSlowestOperations().size());
+
+        store.stop();
+    }
+
     /**
      * Test to verify handling of duplicate entry
      */
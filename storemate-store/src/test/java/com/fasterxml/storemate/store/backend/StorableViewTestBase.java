@@ -0,0 +1,160 @@
+package com.fasterxml.storemate.store.backend;
+
+import java.io.ByteArrayInputStream;
+import java.util.*;
+
+import com.fasterxml.storemate.shared.*;
+import com.fasterxml.storemate.shared.hash.HashConstants;
+import com.fasterxml.storemate.shared.util.WithBytesAsArray;
+import com.fasterxml.storemate.store.*;
+
+/**
+ * Tests for verifying that iteration using {@link StorableView}s works,
+ * and views expose same information as fully decoded {@link Storable}s.
+ */
+public abstract class StorableViewTestBase extends BackendTestBase
+{
+    public void testViewIteration() throws Exception
+    {
+        final long startTime = _date(2013, 3, 1);
+        TimeMasterForSimpleTesting timeMaster = new TimeMasterForSimpleTesting(startTime);
+        final AdminStorableStore store = (AdminStorableStore) createStore("bdb-views", timeMaster);
+
+        // small, inlined, with custom metadata
+        _put(store, "view/1", "Small data".getBytes("UTF-8"), new byte[] { 1, 2, 3 });
+        timeMaster.advanceCurrentTimeMillis(100L);
+        // compressible, inlined after compression
+        _put(store, "view/2", biggerCompressibleData(20000).getBytes("UTF-8"), null);
+        timeMaster.advanceCurrentTimeMillis(100L);
+        // bigger, stored externally
+        _put(store, "view/3", biggerRandomData(100000).getBytes("UTF-8"), null);
+        timeMaster.advanceCurrentTimeMillis(100L);
+        // and one that gets soft-deleted
+        _put(store, "view/4", "To be deleted".getBytes("UTF-8"), null);
+        timeMaster.advanceCurrentTimeMillis(100L);
+        store.softDelete(StoreOperationSource.REQUEST, null, storableKey("view/4"), true, true);
+        _verifyCounts(4L, store);
+
+        final StoreBackend backend = store.getBackend();
+        ViewVerifier cb = new ViewVerifier(store, false);
+        assertEquals(IterationResult.FULLY_ITERATED, backend.scanEntries(cb));
+        assertEquals(4, cb.keys.size());
+        cb = new ViewVerifier(store, false);
+        assertEquals(IterationResult.FULLY_ITERATED, backend.iterateEntriesByKey(cb, null));
+        assertEquals(Arrays.asList("view/1", "view/2", "view/3", "view/4"), cb.keys);
+        cb = new ViewVerifier(store, false);
+        assertEquals(IterationResult.FULLY_ITERATED, backend.iterateEntriesAfterKey(cb, storableKey("view/2")));
+        assertEquals(Arrays.asList("view/3", "view/4"), cb.keys);
+        cb = new ViewVerifier(store, true);
+        assertEquals(IterationResult.FULLY_ITERATED, backend.iterateEntriesByModifiedTime(cb, 0L));
+        assertEquals(Arrays.asList("view/1", "view/2", "view/3", "view/4"), cb.keys);
+
+        // and termination
+        cb = new ViewVerifier(store, false);
+        cb.maxEntries = 2;
+        assertEquals(IterationResult.TERMINATED_FOR_ENTRY, backend.iterateEntriesByKey(cb, null));
+        assertEquals(2, cb.keys.size());
+
+        // then admin methods that use views
+        assertEquals(1L, store.getTombstoneCount(StoreOperationSource.ADMIN_TOOL, 10000L));
+        List<Storable> oldest = store.dumpOldestEntries(StoreOperationSource.ADMIN_TOOL, 10, 0L, false);
+        assertEquals(3, oldest.size());
+        assertEquals(storableKey("view/1"), oldest.get(0).getKey());
+        assertEquals(4, store.dumpEntries(StoreOperationSource.ADMIN_TOOL, 10, true).size());
+
+        store.stop();
+    }
+
+    private void _put(StorableStore store, String key, byte[] data, byte[] customMetadata)
+        throws Exception
+    {
+        StorableCreationMetadata metadata = new StorableCreationMetadata(null,
+                calcChecksum32(data), HashConstants.NO_CHECKSUM);
+        StorableCreationResult resp = store.insert(StoreOperationSource.REQUEST, null,
+                storableKey(key), new ByteArrayInputStream(data), metadata,
+                (customMetadata == null) ? null : ByteContainer.simple(customMetadata));
+        assertTrue(resp.succeeded());
+    }
+
+    /**
+     * Callback that compares every view with entry read separately
+     */
+    class ViewVerifier extends StorableLastModIterationCallback
+    {
+        final StorableStore store;
+        final boolean byTimestamp;
+        final ArrayList<String> keys = new ArrayList<String>();
+
+        int maxEntries = Integer.MAX_VALUE;
+        long lastTimestamp;
+
+        public ViewVerifier(StorableStore store, boolean byTimestamp) {
+            this.store = store;
+            this.byTimestamp = byTimestamp;
+        }
+
+        @Override
+        public IterationAction verifyTimestamp(long timestamp) {
+            lastTimestamp = timestamp;
+            return IterationAction.PROCESS_ENTRY;
+        }
+
+        @Override
+        public IterationAction verifyKey(StorableKey key) {
+            throw new IllegalStateException("Should not be called");
+        }
+
+        @Override
+        public IterationAction processEntry(Storable entry) {
+            throw new IllegalStateException("Should not be called");
+        }
+
+        @Override
+        public boolean wantsViews() {
+            return true;
+        }
+
+        @Override
+        public IterationAction processView(StorableView view) throws StoreException
+        {
+            StorableKey key = view.getKey();
+            assertEquals(key.length(), view.getKeyLength());
+            assertTrue(view.keyHasPrefix(storableKey("view/")));
+            assertFalse(view.keyHasPrefix(storableKey("other/")));
+            Storable entry;
+            try {
+                entry = store.findEntry(StoreOperationSource.REQUEST, null, key);
+            } catch (java.io.IOException e) {
+                throw new StoreException.IO(key, e);
+            }
+            assertNotNull(entry);
+            if (byTimestamp) {
+                assertEquals(lastTimestamp, view.getLastModified());
+            }
+            assertEquals(entry.getLastModified(), view.getLastModified());
+            assertEquals(entry.isDeleted(), view.isDeleted());
+            assertEquals(entry.isReplicated(), view.isReplicated());
+            assertEquals(entry.getCompression(), view.getCompression());
+            assertEquals(entry.getContentHash(), view.getContentHash());
+            assertEquals(entry.getCompressedHash(), view.getCompressedHash());
+            assertEquals(entry.getOriginalLength(), view.getOriginalLength());
+            assertEquals(entry.getStorageLength(), view.getStorageLength());
+            assertEquals(entry.getActualUncompressedLength(), view.getActualUncompressedLength());
+            assertEquals(entry.getMetadataLength(), view.getMetadataLength());
+            assertEquals(entry.hasInlineData(), view.hasInlineData());
+            assertEquals(entry.hasExternalData(), view.hasExternalData());
+            assertEquals(entry.getExternalFilePath(), view.getExternalFilePath());
+            assertTrue(Arrays.equals(entry.getMetadata().asBytes(),
+                    view.withMetadata(WithBytesAsArray.instance)));
+            assertTrue(Arrays.equals(entry.getInlinedData().asBytes(),
+                    view.withInlinedData(WithBytesAsArray.instance)));
+            assertTrue(Arrays.equals(entry.asBytes(), view.toStorable().asBytes()));
+
+            keys.add(new String(key.asBytes()));
+            if (keys.size() >= maxEntries) {
+                return IterationAction.TERMINATE_ITERATION;
+            }
+            return IterationAction.PROCESS_ENTRY;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.fasterxml.storemate.store.dedup;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.NodeStateStoreForSimpleTesting;
+import com.fasterxml.storemate.store.StoreTestBase;
+import com.fasterxml.storemate.store.TimeMasterForSimpleTesting;
+import com.fasterxml.storemate.store.file.DefaultFilenameConverter;
+import com.fasterxml.storemate.store.file.FileManager;
+import com.fasterxml.storemate.store.file.FileManagerConfig;
+import com.fasterxml.storemate.store.file.FileReference;
+
+public class TestContentDeduplicator extends StoreTestBase
+{
+    public void testConverters() throws Exception
+    {
+        final byte[] hash = _hash(3);
+        ContentKey key = new ContentKey(hash, 123456789L, Compression.LZ4);
+        byte[] raw = ContentKey.Converter.instance.toRaw(key);
+        assertEquals(25, raw.length);
+        ContentKey key2 = ContentKey.Converter.instance.fromRaw(raw);
+        assertEquals(key, key2);
+        assertArrayEquals(hash, key2.getHash());
+        assertEquals(Compression.LZ4, key2.getCompression());
+
+        SharedFile shared = new SharedFile(key, "shared/03/0304-0.L", 7, 54321L, -12345);
+        SharedFile shared2 = SharedFile.Converter.instance.fromRaw(SharedFile.Converter.instance.toRaw(shared));
+        assertEquals(shared.getPath(), shared2.getPath());
+        assertEquals(key, shared2.getContentKey());
+        assertEquals(7, shared2.getRefCount());
+        assertEquals(54321L, shared2.getStorageSize());
+        assertEquals(-12345, shared2.getCompressedHash());
+
+        // entries written by older versions have no content key
+        shared = new SharedFile(null, "2012-07-09/00:00/0001.L", 3, 54321L, -12345);
+        shared2 = SharedFile.Converter.instance.fromRaw(SharedFile.Converter.instance.toRaw(shared));
+        assertEquals(shared.getPath(), shared2.getPath());
+        assertNull(shared2.getContentKey());
+        assertEquals(3, shared2.getRefCount());
+
+        try {
+            new ContentKey(new byte[8], 1L, Compression.NONE);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "exactly 16 bytes");
+        }
+    }
+
+    public void testRegister() throws Exception
+    {
+        NodeStateStoreForSimpleTesting<ContentKey,SharedFile> store = _store();
+        FileManager fileManager = _fileManager("dedup-register");
+        ContentDeduplicator dedup = new ContentDeduplicator(store, fileManager, true);
+        final ContentKey key = new ContentKey(_hash(1), 100L, Compression.LZF);
+
+        // new file is moved under shared file directory, outside of date-based directories
+        FileReference ref1 = _file(fileManager, "file1", 40);
+        SharedFile shared = dedup.register(key, ref1, 40L, 123);
+        dedup.registrationDone(key);
+        assertEquals(1, shared.getRefCount());
+        assertTrue(fileManager.isSharedFile(shared.getPath()));
+        assertEquals(key, shared.getContentKey());
+        assertFalse(ref1.getFile().exists());
+        File sharedFile = fileManager.derefenceFile(shared.getPath());
+        assertEquals(40L, sharedFile.length());
+        assertEquals(Arrays.asList(shared.getPath()), fileManager.listSharedFiles());
+
+        // and used for identical content
+        FileReference ref2 = _file(fileManager, "file2", 40);
+        SharedFile shared2 = dedup.register(key, ref2, 40L, 123);
+        dedup.registrationDone(key);
+        assertEquals(shared.getPath(), shared2.getPath());
+        assertEquals(2, shared2.getRefCount());
+        assertTrue(ref2.getFile().exists());
+        assertEquals(2, dedup.findSharedFile(key).getRefCount());
+        // or if known before writing
+        shared2 = dedup.addReference(key);
+        dedup.registrationDone(key);
+        assertEquals(shared.getPath(), shared2.getPath());
+        assertEquals(3, shared2.getRefCount());
+        assertNull(dedup.addReference(new ContentKey(_hash(2), 100L, Compression.LZF)));
+
+        // references released one by one
+        assertFalse(dedup.release(key, shared.getPath()));
+        assertFalse(dedup.release(key, shared.getPath()));
+        // but not by files that were not shared
+        assertTrue(dedup.release(key, ref2.getReference()));
+        assertEquals(1, dedup.findSharedFile(key).getRefCount());
+
+        // if shared file has gone missing, new file is registered instead
+        assertTrue(sharedFile.delete());
+        shared2 = dedup.register(key, ref2, 40L, 123);
+        dedup.registrationDone(key);
+        assertEquals(1, shared2.getRefCount());
+        assertTrue(fileManager.derefenceFile(shared2.getPath()).exists());
+        assertEquals(shared2.getPath(), dedup.findSharedFile(key).getPath());
+        assertEquals(1, store.size());
+
+        assertTrue(dedup.release(key, shared2.getPath()));
+        assertNull(dedup.findSharedFile(key));
+        assertEquals(0, store.size());
+    }
+
+    public void testReconciliation() throws Exception
+    {
+        NodeStateStoreForSimpleTesting<ContentKey,SharedFile> store = _store();
+        FileManager fileManager = _fileManager("dedup-reconcile");
+        ContentDeduplicator dedup = new ContentDeduplicator(store, fileManager, true);
+        final ContentKey key1 = new ContentKey(_hash(1), 100L, Compression.LZF);
+        final ContentKey key2 = new ContentKey(_hash(2), 100L, Compression.LZF);
+
+        // one reference leaked (no entry written), other one still being written
+        SharedFile shared1 = dedup.register(key1, _file(fileManager, "file1", 40), 40L, 123);
+        dedup.registrationDone(key1);
+        SharedFile shared2 = dedup.register(key2, _file(fileManager, "file2", 30), 30L, 456);
+        // as well as a file left over, neither indexed nor referenced
+        FileReference orphan = _file(fileManager, "shared/ff/ffff-0.L", 20);
+
+        // first round: only orphan is deleted; leaked reference must be seen twice
+        assertEquals(1, dedup.startReconciliation().finish());
+        assertFalse(orphan.getFile().exists());
+        assertEquals(1, dedup.findSharedFile(key1).getRefCount());
+        // can only run one at a time
+        ContentDeduplicator.Reconciliation rec = dedup.startReconciliation();
+        try {
+            dedup.startReconciliation();
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "already in progress");
+        }
+        assertEquals(1, rec.finish());
+        assertNull(dedup.findSharedFile(key1));
+        assertFalse(fileManager.derefenceFile(shared1.getPath()).exists());
+        // whereas content being written is not touched
+        assertEquals(1, dedup.findSharedFile(key2).getRefCount());
+        assertTrue(fileManager.derefenceFile(shared2.getPath()).exists());
+
+        // nor is content referenced while reconciliation is in progress
+        dedup.registrationDone(key2);
+        rec = dedup.startReconciliation();
+        assertEquals(0, rec.finish());
+        rec = dedup.startReconciliation();
+        dedup.addReference(key2);
+        dedup.registrationDone(key2);
+        assertEquals(0, rec.finish());
+        assertEquals(2, dedup.findSharedFile(key2).getRefCount());
+
+        // and aborted reconciliation fixes nothing
+        rec = dedup.startReconciliation();
+        rec.abort();
+        assertEquals(0, dedup.startReconciliation().finish());
+        assertEquals(2, dedup.findSharedFile(key2).getRefCount());
+    }
+
+    private NodeStateStoreForSimpleTesting<ContentKey,SharedFile> _store() {
+        return new NodeStateStoreForSimpleTesting<ContentKey,SharedFile>(
+                ContentKey.Converter.instance, SharedFile.Converter.instance);
+    }
+
+    private FileManager _fileManager(String name) throws Exception {
+        File dir = getTestScratchDir(name, true);
+        return new FileManager(new FileManagerConfig(dir),
+                new TimeMasterForSimpleTesting(123L), new DefaultFilenameConverter());
+    }
+
+    private FileReference _file(FileManager fileManager, String name, int length) throws Exception
+    {
+        FileReference ref = new FileReference(fileManager.derefenceFile(name), name);
+        ref.getFile().getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(ref.getFile());
+        out.write(new byte[length]);
+        out.close();
+        return ref;
+    }
+
+    private byte[] _hash(int seed) {
+        byte[] hash = new byte[ContentKey.HASH_LENGTH];
+        for (int i = 0; i < hash.length; ++i) {
+            hash[i] = (byte) (seed * 31 + i);
+        }
+        return hash;
+    }
+}
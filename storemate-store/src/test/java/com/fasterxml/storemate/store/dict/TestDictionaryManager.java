@@ -0,0 +1,172 @@
+package com.fasterxml.storemate.store.dict;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.KeyPrefixDictionary;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.CompressionDictionary;
+import com.fasterxml.storemate.shared.compress.DictionaryTrainer;
+import com.fasterxml.storemate.store.NodeStateStoreForSimpleTesting;
+import com.fasterxml.storemate.store.StoreConfig;
+import com.fasterxml.storemate.store.StoreTestBase;
+import com.fasterxml.storemate.store.TimeMasterForSimpleTesting;
+
+public class TestDictionaryManager extends StoreTestBase
+{
+    private final KeyPrefixDictionary PREFIXES = KeyPrefixDictionary.forPrefixes("docs/", "misc/");
+
+    public void testConstruction() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        TimeMasterForSimpleTesting time = new TimeMasterForSimpleTesting(123L);
+        assertNull(DictionaryManager.construct(config, null, time, null));
+        // can use existing dictionaries even if not creating new ones
+        DictionaryManager mgr = DictionaryManager.construct(config, _store(), time, null);
+        assertNotNull(mgr);
+        assertNull(mgr.dictionaryFor(storableKey("x"), ByteContainer.simple(smallJsonDoc(1))));
+
+        config.dictionaryCompression = true;
+        try {
+            DictionaryManager.construct(config, null, time, null);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "no store for dictionaries");
+        }
+    }
+
+    public void testTrainingAndReload() throws Exception
+    {
+        NodeStateStoreForSimpleTesting<Integer,StoredDictionary> store = _store();
+        DictionaryManager mgr = _manager(store);
+        final StorableKey other = storableKey("misc/1");
+
+        for (int i = 0; i < 39; ++i) {
+            assertNull(mgr.dictionaryFor(storableKey("docs/"+i), ByteContainer.simple(smallJsonDoc(i))));
+        }
+        assertEquals(0, store.size());
+        // last sample triggers training
+        CompressionDictionary dict = mgr.dictionaryFor(storableKey("docs/39"),
+                ByteContainer.simple(smallJsonDoc(39)));
+        assertNotNull(dict);
+        assertEquals(1, dict.getId());
+        assertEquals(1, store.size());
+        assertSame(dict, mgr.findDictionary(1));
+        assertSame(dict, mgr.currentDictionary(storableKey("docs/abc")));
+        assertNull(mgr.currentDictionary(other));
+        assertNull(mgr.findDictionary(2));
+
+        // and should be able to use it
+        byte[] doc = smallJsonDoc(1000);
+        byte[] comp = mgr.compress(ByteContainer.simple(doc), dict);
+        assertTrue(comp.length < doc.length / 2);
+        assertEquals(new String(doc, "UTF-8"),
+                new String(mgr.uncompress(comp, 0, comp.length, dict, doc.length), "UTF-8"));
+
+        // but new manager should find it, and continue from next id
+        mgr = _manager(store);
+        CompressionDictionary dict2 = mgr.findDictionary(1);
+        assertNotNull(dict2);
+        assertEquals(dict.getChecksum(), dict2.getChecksum());
+        assertEquals(dict.getChecksum(), mgr.currentDictionary(storableKey("docs/x")).getChecksum());
+        for (int i = 0; i < 40; ++i) {
+            mgr.dictionaryFor(storableKey("misc/"+i), ByteContainer.simple(smallJsonDoc(i + 500)));
+        }
+        assertEquals(2, mgr.currentDictionary(other).getId());
+        assertEquals(2, mgr.getDictionaryCount());
+        assertEquals(2, store.size());
+    }
+
+    public void testNotUsedIfNotStored() throws Exception
+    {
+        NodeStateStoreForSimpleTesting<Integer,StoredDictionary> store = _store();
+        DictionaryManager mgr = _manager(store);
+        store.failWrites = true;
+        for (int i = 0; i < 40; ++i) {
+            assertNull(mgr.dictionaryFor(storableKey("docs/"+i), ByteContainer.simple(smallJsonDoc(i))));
+        }
+        assertEquals(0, mgr.getDictionaryCount());
+
+        // but will retry with next set of samples
+        store.failWrites = false;
+        for (int i = 0; i < 40; ++i) {
+            mgr.dictionaryFor(storableKey("docs/"+i), ByteContainer.simple(smallJsonDoc(i)));
+        }
+        assertNotNull(mgr.findDictionary(1));
+        assertEquals(1, store.size());
+    }
+
+    public void testTrainingInBackground() throws Exception
+    {
+        NodeStateStoreForSimpleTesting<Integer,StoredDictionary> store = _store();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        DictionaryManager mgr = _manager(store, new Executor() {
+            @Override
+            public void execute(Runnable r) {
+                tasks.add(r);
+            }
+        });
+        for (int i = 0; i < 40; ++i) {
+            assertNull(mgr.dictionaryFor(storableKey("docs/"+i), ByteContainer.simple(smallJsonDoc(i))));
+        }
+        // training started, but not run yet: caller not blocked, no dictionary yet
+        assertEquals(1, tasks.size());
+        assertFalse(mgr.waitForTraining(1L));
+        // nor more training started while one is in progress
+        for (int i = 40; i < 80; ++i) {
+            assertNull(mgr.dictionaryFor(storableKey("docs/"+i), ByteContainer.simple(smallJsonDoc(i))));
+        }
+        assertEquals(1, tasks.size());
+        assertEquals(0, store.size());
+
+        tasks.get(0).run();
+        assertTrue(mgr.waitForTraining(1L));
+        assertEquals(1, store.size());
+        CompressionDictionary dict = mgr.dictionaryFor(storableKey("docs/80"),
+                ByteContainer.simple(smallJsonDoc(80)));
+        assertNotNull(dict);
+        assertEquals(1, dict.getId());
+    }
+
+    public void testDefaultExecutor() throws Exception
+    {
+        NodeStateStoreForSimpleTesting<Integer,StoredDictionary> store = _store();
+        DictionaryManager mgr = new DictionaryManager(store, new TimeMasterForSimpleTesting(123L), PREFIXES,
+                new DictionaryTrainer(4096, 64), 40);
+        for (int i = 0; i < 40; ++i) {
+            mgr.dictionaryFor(storableKey("docs/"+i), ByteContainer.simple(smallJsonDoc(i)));
+        }
+        assertTrue(mgr.waitForTraining(10000L));
+        assertNotNull(mgr.currentDictionary(storableKey("docs/x")));
+        mgr.stop();
+        // and after stopping, no more training, but no failure either
+        for (int i = 0; i < 40; ++i) {
+            mgr.dictionaryFor(storableKey("misc/"+i), ByteContainer.simple(smallJsonDoc(i)));
+        }
+        assertTrue(mgr.waitForTraining(10000L));
+        assertNull(mgr.currentDictionary(storableKey("misc/x")));
+    }
+
+    private NodeStateStoreForSimpleTesting<Integer,StoredDictionary> _store() {
+        return new NodeStateStoreForSimpleTesting<Integer,StoredDictionary>(
+                StoredDictionary.IdConverter.instance, StoredDictionary.Converter.instance);
+    }
+
+    // training done by calling thread, to keep tests deterministic
+    private DictionaryManager _manager(NodeStateStoreForSimpleTesting<Integer,StoredDictionary> store) {
+        return _manager(store, new Executor() {
+            @Override
+            public void execute(Runnable r) {
+                r.run();
+            }
+        });
+    }
+
+    private DictionaryManager _manager(NodeStateStoreForSimpleTesting<Integer,StoredDictionary> store,
+            Executor executor) {
+        return new DictionaryManager(store, new TimeMasterForSimpleTesting(123L), PREFIXES,
+                new DictionaryTrainer(4096, 64), 40, executor);
+    }
+}
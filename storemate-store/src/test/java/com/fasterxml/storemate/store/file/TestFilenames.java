@@ -10,4 +10,33 @@ public class TestFilenames extends StoreTestBase
         FilenameConverter conv = new DefaultFilenameConverter('@');
         assertEquals("this@here@and@there", conv.createFilename(storableKey("this/here and there")));
     }
+
+    public void testLongerNames() throws Exception
+    {
+        FilenameConverter conv = new DefaultFilenameConverter('@');
+        final String BASE = "customer-1234.bucket_A~objects:2013-04-01";
+        assertEquals(BASE, conv.createFilename(storableKey(BASE)));
+        // unsafe bytes at all positions, to cover both block and per-byte checks
+        for (int i = 0; i <= BASE.length(); ++i) {
+            String pre = BASE.substring(0, i), post = BASE.substring(i);
+            for (String unsafe : new String[] { " ", "/", "\\", "\"", "\u007F", "\t", "\u00A9" }) {
+                String exp = pre + ((unsafe.charAt(0) < 0x80) ? "@" : "@@") + post;
+                assertEquals(exp, conv.createFilename(storableKey(pre+unsafe+post)));
+                assertEquals("x/"+exp, conv.appendFilename(storableKey(pre+unsafe+post),
+                        new StringBuilder("x/")).toString());
+            }
+        }
+    }
+
+    public void testCustomSafety() throws Exception
+    {
+        // sub-classes may override safety check, which must be honored
+        FilenameConverter conv = new DefaultFilenameConverter() {
+            @Override
+            protected boolean isSafe(byte b) {
+                return (b != 'a') && super.isSafe(b);
+            }
+        };
+        assertEquals("b_cdefghijklmnop_", conv.createFilename(storableKey("bacdefghijklmnopa")));
+    }
 }
@@ -0,0 +1,106 @@
+package com.fasterxml.storemate.store.impl;
+
+import java.util.*;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.KeyPrefixDictionary;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.compress.CompressionCodec;
+import com.fasterxml.storemate.shared.compress.Compressors;
+import com.fasterxml.storemate.store.StoreConfig;
+import com.fasterxml.storemate.store.StoreTestBase;
+
+public class TestCompressionSelector extends StoreTestBase
+{
+    private final List<CompressionCodec> CODECS = Arrays.asList(
+            Compressors.codecFor(Compression.LZF), Compressors.codecFor(Compression.GZIP));
+
+    public void testConstruction() throws Exception
+    {
+        StoreConfig config = new StoreConfig();
+        assertNull(CompressionSelector.construct(config, null));
+        config.adaptiveCompression = true;
+        assertNotNull(CompressionSelector.construct(config, null));
+        config.adaptiveCompressionCodecs = new String[] { "lzf", "bogus" };
+        try {
+            CompressionSelector.construct(config, null);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Unrecognized compression type 'bogus'");
+        }
+        config.compressionEnabled = false;
+        assertNull(CompressionSelector.construct(config, null));
+    }
+
+    public void testSelectionByTarget() throws Exception
+    {
+        final byte[] text = biggerCompressibleData(10000).getBytes("UTF-8");
+        final StorableKey key = storableKey("key");
+
+        // if space is all that matters, GZIP should be chosen
+        CompressionSelector sel = new CompressionSelector(CODECS, null, 1000000.0, 4096);
+        for (int i = 0; i < 10; ++i) {
+            assertSame(Compression.GZIP, sel.select(key, text, 0, text.length));
+        }
+        // and if CPU is all that matters, no compression
+        sel = new CompressionSelector(CODECS, null, 0.0, 4096);
+        for (int i = 0; i < 10; ++i) {
+            assertSame(Compression.NONE, sel.select(key, ByteContainer.simple(text)));
+        }
+        assertTrue(sel.expectedRatio(key, Compression.LZF) < 1.0);
+        assertEquals(-1.0, sel.expectedRatio(key, Compression.LZ4));
+
+        // random content should not even be tried
+        byte[] random = new byte[5000];
+        new Random(1).nextBytes(random);
+        sel = new CompressionSelector(CODECS, null, 1000000.0, 4096);
+        assertSame(Compression.NONE, sel.select(key, random, 0, random.length));
+        assertEquals(-1.0, sel.expectedRatio(key, Compression.GZIP));
+    }
+
+    public void testStatsPerPrefix() throws Exception
+    {
+        final byte[] text = biggerCompressibleData(10000).getBytes("UTF-8");
+        CompressionSelector sel = new CompressionSelector(CODECS,
+                KeyPrefixDictionary.forPrefixes("images/", "docs/"), 1000000.0, 4096);
+        final StorableKey doc = storableKey("docs/1");
+        final StorableKey image = storableKey("images/1");
+        final StorableKey other = storableKey("misc/1");
+
+        assertSame(Compression.GZIP, sel.select(doc, text, 0, text.length));
+        double docRatio = sel.expectedRatio(doc, Compression.GZIP);
+        assertTrue(docRatio > 0.0 && docRatio < 0.5);
+        assertEquals(-1.0, sel.expectedRatio(image, Compression.GZIP));
+        assertEquals(-1.0, sel.expectedRatio(other, Compression.GZIP));
+
+        // if actual results show that nothing is gained, should give up, once
+        // past initial trials
+        for (int i = 0; i < CompressionSelector.INITIAL_TRIALS; ++i) {
+            assertSame(Compression.GZIP, sel.select(image, text, 0, text.length));
+        }
+        for (int i = 0; i < 40; ++i) {
+            sel.observe(image, Compression.GZIP, 1000, 1000, 50000L);
+            sel.observe(image, Compression.LZF, 1000, 1000, 10000L);
+        }
+        assertEquals(1.0, sel.expectedRatio(image, Compression.GZIP), 0.001);
+        assertSame(Compression.NONE, sel.select(image, text, 0, text.length));
+        // without affecting other prefixes
+        assertEquals(docRatio, sel.expectedRatio(doc, Compression.GZIP));
+    }
+
+    public void testTrialScheduleAfterManyEntries() throws Exception
+    {
+        CompressionSelector.Stats stats = new CompressionSelector.Stats(1);
+        stats.update(0, 0.5, 1.0);
+        // should keep trialing only periodically, even past 2^31 entries
+        stats._entries = Integer.MAX_VALUE;
+        int trials = 0;
+        for (int i = 0; i < 2 * CompressionSelector.TRIAL_INTERVAL; ++i) {
+            if (stats.shouldTrial()) {
+                ++trials;
+            }
+        }
+        assertEquals(2, trials);
+    }
+}
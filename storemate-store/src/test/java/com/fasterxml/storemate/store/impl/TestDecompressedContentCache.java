@@ -0,0 +1,177 @@
+package com.fasterxml.storemate.store.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.store.StoreTestBase;
+
+public class TestDecompressedContentCache extends StoreTestBase
+{
+    public void testConstruction() throws Exception
+    {
+        try {
+            new DecompressedContentCache(0L, 100);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Invalid maxBytes");
+        }
+        try {
+            new DecompressedContentCache(1000L, 2000);
+            fail("Should not pass");
+        } catch (IllegalArgumentException e) {
+            verifyException(e, "Invalid maxEntryBytes");
+        }
+    }
+
+    public void testSimpleHitAndMiss() throws Exception
+    {
+        DecompressedContentCache cache = new DecompressedContentCache(10000L, 1000);
+        final StorableKey key = storableKey("key");
+        final byte[] data = _data(100, 'a');
+
+        assertNull(cache.find(key, 1000L, 123));
+        assertTrue(cache.add(key, 1000L, 123, ByteContainer.simple(data)));
+        // no need to re-add same version
+        assertFalse(cache.add(key, 1000L, 123, ByteContainer.simple(data)));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(100L, cache.getCachedBytes());
+
+        ByteContainer result = cache.find(key, 1000L, 123);
+        assertNotNull(result);
+        assertArrayEquals(data, result.asBytes());
+        // and multiple reads must not affect each other
+        assertArrayEquals(data, cache.find(key, 1000L, 123).asBytes());
+        assertArrayEquals(data, result.asBytes());
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+
+        // too big entries are not cached
+        assertFalse(cache.add(storableKey("big"), 1000L, 1, ByteContainer.simple(new byte[1001])));
+        assertEquals(1, cache.getEntryCount());
+
+        cache.remove(key);
+        assertNull(cache.find(key, 1000L, 123));
+        assertEquals(0L, cache.getCachedBytes());
+    }
+
+    public void testInvalidationOnUpdate() throws Exception
+    {
+        DecompressedContentCache cache = new DecompressedContentCache(10000L, 1000);
+        final StorableKey key = storableKey("key");
+        assertTrue(cache.add(key, 1000L, 123, ByteContainer.simple(_data(100, 'a'))));
+
+        // different content hash: stale, gets dropped
+        assertNull(cache.find(key, 1000L, 456));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0L, cache.getCachedBytes());
+
+        // same with newer timestamp
+        assertTrue(cache.add(key, 1000L, 123, ByteContainer.simple(_data(100, 'a'))));
+        assertNull(cache.find(key, 2000L, 123));
+        assertEquals(0, cache.getEntryCount());
+
+        // and newer version replaces older one, but not the other way around
+        assertTrue(cache.add(key, 2000L, 456, ByteContainer.simple(_data(200, 'b'))));
+        assertFalse(cache.add(key, 1000L, 123, ByteContainer.simple(_data(100, 'a'))));
+        assertTrue(cache.add(key, 3000L, 789, ByteContainer.simple(_data(300, 'c'))));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(300L, cache.getCachedBytes());
+        assertArrayEquals(_data(300, 'c'), cache.find(key, 3000L, 789).asBytes());
+    }
+
+    public void testBoundedSize() throws Exception
+    {
+        DecompressedContentCache cache = new DecompressedContentCache(1000L, 500);
+        // each entry more popular than previous ones, so older ones get evicted
+        for (int i = 0; i < 12; ++i) {
+            StorableKey key = storableKey("key"+i);
+            for (int j = 0; j <= i; ++j) {
+                cache.find(key, 1L, i);
+            }
+            assertTrue(cache.add(key, 1L, i, ByteContainer.simple(_data(300, 'x'))));
+            assertTrue(cache.getCachedBytes() <= 1000L);
+        }
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(900L, cache.getCachedBytes());
+        assertEquals(9L, cache.getEvictedCount());
+        assertNotNull(cache.find(storableKey("key11"), 1L, 11));
+        assertNull(cache.find(storableKey("key0"), 1L, 0));
+    }
+
+    public void testFrequencyBasedAdmission() throws Exception
+    {
+        DecompressedContentCache cache = new DecompressedContentCache(1000L, 500);
+        // fill cache with hot entries
+        for (int i = 0; i < 4; ++i) {
+            StorableKey key = storableKey("hot"+i);
+            for (int j = 0; j < 5; ++j) {
+                cache.find(key, 1L, i);
+            }
+            assertTrue(cache.add(key, 1L, i, ByteContainer.simple(_data(250, 'h'))));
+        }
+        assertEquals(1000L, cache.getCachedBytes());
+
+        // one-off read of a cold entry should not evict hot ones
+        StorableKey cold = storableKey("cold");
+        assertNull(cache.find(cold, 1L, 0));
+        assertFalse(cache.add(cold, 1L, 0, ByteContainer.simple(_data(250, 'c'))));
+        assertEquals(1L, cache.getRejectedCount());
+        assertEquals(0L, cache.getEvictedCount());
+        for (int i = 0; i < 4; ++i) {
+            assertNotNull(cache.find(storableKey("hot"+i), 1L, i));
+        }
+
+        // but once it gets hotter than least recently used one, it is admitted
+        for (int j = 0; j < 10; ++j) {
+            cache.find(cold, 1L, 0);
+        }
+        assertTrue(cache.add(cold, 1L, 0, ByteContainer.simple(_data(250, 'c'))));
+        assertEquals(1L, cache.getEvictedCount());
+        assertEquals(4, cache.getEntryCount());
+        assertNull(cache.find(storableKey("hot0"), 1L, 0));
+    }
+
+    public void testSegmentsAndReuse() throws Exception
+    {
+        DecompressedContentCache cache = new DecompressedContentCache(100000L, 1000);
+        assertEquals(8, cache.getSegmentCount());
+        // churn through many more entries than fit, of varying sizes, making
+        // newer ones hotter so that blocks of evicted copies get reused
+        for (int i = 0; i < 1000; ++i) {
+            StorableKey key = storableKey("key"+i);
+            for (int j = 0; j < 1 + (i % 5); ++j) {
+                cache.find(key, 1L, i);
+            }
+            cache.add(key, 1L, i, ByteContainer.simple(_data(i % 1000, (char) ('a' + (i % 20)))));
+            assertTrue(cache.getCachedBytes() <= 100000L);
+        }
+        assertTrue(cache.getEvictedCount() > 0L);
+        int found = 0;
+        long bytes = 0L;
+        for (int i = 0; i < 1000; ++i) {
+            ByteContainer result = cache.find(storableKey("key"+i), 1L, i);
+            if (result != null) {
+                assertArrayEquals(_data(i % 1000, (char) ('a' + (i % 20))), result.asBytes());
+                ++found;
+                bytes += result.byteLength();
+            }
+        }
+        assertEquals(cache.getEntryCount(), found);
+        assertEquals(cache.getCachedBytes(), bytes);
+
+        cache.clear();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0L, cache.getCachedBytes());
+        assertTrue(cache.add(storableKey("key"), 1L, 1, ByteContainer.simple(_data(1000, 'z'))));
+        assertArrayEquals(_data(1000, 'z'), cache.find(storableKey("key"), 1L, 1).asBytes());
+    }
+
+    private byte[] _data(int length, char c) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (c + (i % 7));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,355 @@
+package com.fasterxml.storemate.store.impl;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+
+import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.shared.util.IOUtil;
+import com.fasterxml.storemate.store.Storable;
+import com.fasterxml.storemate.store.StorableCreationMetadata;
+import com.fasterxml.storemate.store.StoreTestBase;
+import com.fasterxml.storemate.store.file.FileReference;
+import com.fasterxml.storemate.store.util.StuffToBytes;
+
+/**
+ * Tests to verify that single-pass encoding of entries produces exactly
+ * the same serialization as the original two-pass (estimate, then write)
+ * encoding did, and that results can be decoded back; as well as
+ * handling of the fixed-width version 2 format.
+ */
+public class TestStorableConverter extends StoreTestBase
+{
+    private final static long MODTIME = 0x123456789AL;
+
+    private final StorableConverter _converter = new StorableConverter(StorableConverter.VERSION_1);
+
+    public void testInlinedEncoding()
+    {
+        final StorableKey key = storableKey("inlined/entry");
+        final int[] DATA_LENGTHS = { 0, 1, 127, 128, 16383, 16384, 70000 };
+        final int[] META_LENGTHS = { -1, 0, 3, 200 };
+
+        for (int dataLen : DATA_LENGTHS) {
+            for (int metaLen : META_LENGTHS) {
+                for (Compression comp : new Compression[] { null, Compression.LZF }) {
+                    StorableCreationMetadata stdMetadata = _metadata(comp, dataLen);
+                    ByteContainer metadata = (metaLen < 0) ? null : ByteContainer.simple(_bytes(metaLen, 7));
+                    ByteContainer data = ByteContainer.simple(_bytes(dataLen, 3));
+
+                    Storable result = _converter.encodeInlined(key, MODTIME, stdMetadata, metadata, data);
+                    byte[] encoded = result.asBytes();
+                    Assert.assertArrayEquals(_legacyInlined(stdMetadata, metadata, data), encoded);
+
+                    Storable decoded = _converter.decode(key, encoded);
+                    assertEquals(MODTIME, decoded.getLastModified());
+                    assertEquals(dataLen, decoded.getStorageLength());
+                    assertEquals(Math.max(0, metaLen), decoded.getMetadataLength());
+                    Assert.assertArrayEquals(data.asBytes(), decoded.getInlinedData().asBytes());
+                    assertEquals(result.getInlineDataLength(), decoded.getInlineDataLength());
+                }
+            }
+        }
+    }
+
+    public void testOfflinedEncoding()
+    {
+        final StorableKey key = storableKey("offlined/entry");
+        final String[] PATHS = { "a", "2013-01/entries/12345678_abc.lzf", _path(255) };
+        final long[] STORAGE_LENGTHS = { 100000L, Integer.MAX_VALUE + 17L };
+
+        for (String path : PATHS) {
+            for (long storageLen : STORAGE_LENGTHS) {
+                for (int metaLen : new int[] { -1, 0, 150 }) {
+                    StorableCreationMetadata stdMetadata = _metadata(Compression.GZIP, 0);
+                    stdMetadata.uncompressedSize = storageLen * 3;
+                    stdMetadata.storageSize = storageLen;
+                    ByteContainer metadata = (metaLen < 0) ? null : ByteContainer.simple(_bytes(metaLen, 1));
+                    FileReference ref = new FileReference(new File(path), path);
+
+                    Storable result = _converter.encodeOfflined(key, MODTIME, stdMetadata, metadata, ref);
+                    byte[] encoded = result.asBytes();
+                    Assert.assertArrayEquals(_legacyOfflined(stdMetadata, metadata, path), encoded);
+
+                    Storable decoded = _converter.decode(key, encoded);
+                    assertEquals(path, decoded.getExternalFilePath());
+                    assertEquals(storageLen, decoded.getStorageLength());
+                    assertEquals(storageLen * 3, decoded.getOriginalLength());
+                    assertEquals(Compression.GZIP, decoded.getCompression());
+                }
+            }
+        }
+    }
+
+    public void testTooLongExternalPath()
+    {
+        StorableCreationMetadata stdMetadata = _metadata(null, 0);
+        stdMetadata.storageSize = 1000L;
+        String path = _path(256);
+        try {
+            _converter.encodeOfflined(storableKey("x"), MODTIME, stdMetadata, null,
+                    new FileReference(new File(path), path));
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "exceeds 255");
+        }
+    }
+
+    public void testVersion2RoundTrip()
+    {
+        final StorableConverter conv2 = new StorableConverter(StorableConverter.VERSION_2);
+        final StorableKey key = storableKey("v2/entry");
+        final byte[] EXT_HASH = _bytes(16, 11);
+        StorableCreationMetadata stdMetadata = _metadata(Compression.LZF, 500);
+        stdMetadata.extendedContentHash = EXT_HASH;
+        stdMetadata.timeToLiveSecs = 3600;
+        stdMetadata.replicated = true;
+        ByteContainer metadata = ByteContainer.simple(_bytes(20, 5));
+        ByteContainer data = ByteContainer.simple(_bytes(500, 3));
+
+        Storable result = conv2.encodeInlined(key, MODTIME, stdMetadata, metadata, data);
+        byte[] encoded = result.asBytes();
+        assertEquals(StorableConverter.V2_HEADER_LENGTH + 16 + 20 + 500, encoded.length);
+        assertEquals(StorableConverter.VERSION_2, result.getFormatVersion());
+
+        for (Storable entry : new Storable[] { result, conv2.decode(key, encoded) }) {
+            assertEquals(MODTIME, entry.getLastModified());
+            assertEquals(Compression.LZF, entry.getCompression());
+            assertEquals(0x1234567, entry.getContentHash());
+            assertEquals(0x7654321, entry.getCompressedHash());
+            assertEquals(2500L, entry.getOriginalLength());
+            assertEquals(500L, entry.getStorageLength());
+            assertEquals(3600, entry.getTimeToLiveSecs());
+            assertTrue(entry.isReplicated());
+            assertFalse(entry.isDeleted());
+            Assert.assertArrayEquals(EXT_HASH, entry.getExtendedContentHash().asBytes());
+            Assert.assertArrayEquals(metadata.asBytes(), entry.getMetadata().asBytes());
+            Assert.assertArrayEquals(data.asBytes(), entry.getInlinedData().asBytes());
+        }
+
+        // also: decoding must work with non-zero offset
+        byte[] padded = new byte[encoded.length + 7];
+        System.arraycopy(encoded, 0, padded, 3, encoded.length);
+        Storable decoded = conv2.decode(key, padded, 3, encoded.length);
+        Assert.assertArrayEquals(data.asBytes(), decoded.getInlinedData().asBytes());
+
+        // and external data
+        stdMetadata = _metadata(null, 0);
+        stdMetadata.storageSize = 123456L;
+        result = conv2.encodeOfflined(key, MODTIME, stdMetadata, null,
+                new FileReference(null, "2013/ext_file.txt"));
+        decoded = conv2.decode(key, result.asBytes());
+        assertEquals("2013/ext_file.txt", decoded.getExternalFilePath());
+        assertEquals(123456L, decoded.getStorageLength());
+        assertEquals(-1L, decoded.getOriginalLength());
+        assertEquals(0, decoded.getExtendedContentHash().byteLength());
+        assertEquals(0, decoded.getTimeToLiveSecs());
+    }
+
+    public void testVersion2SoftDelete()
+    {
+        final StorableConverter conv2 = new StorableConverter(StorableConverter.VERSION_2);
+        final StorableKey key = storableKey("v2/deleted");
+        StorableCreationMetadata stdMetadata = _metadata(null, 300);
+        ByteContainer metadata = ByteContainer.simple(_bytes(10, 5));
+        Storable orig = conv2.decode(key, conv2.encodeInlined(key, MODTIME, stdMetadata,
+                metadata, ByteContainer.simple(_bytes(300, 1))).asBytes());
+
+        Storable deleted = conv2.softDeletedCopy(key, orig, MODTIME + 1000L, true, true);
+        Storable decoded = conv2.decode(key, deleted.asBytes());
+        assertTrue(decoded.isDeleted());
+        assertEquals(MODTIME + 1000L, decoded.getLastModified());
+        assertFalse(decoded.hasInlineData());
+        assertEquals(0L, decoded.getStorageLength());
+        Assert.assertArrayEquals(metadata.asBytes(), decoded.getMetadata().asBytes());
+
+        // or, just marking as deleted, retaining data
+        deleted = conv2.softDeletedCopy(key, orig, MODTIME + 1000L, false, false);
+        decoded = conv2.decode(key, deleted.asBytes());
+        assertTrue(decoded.isDeleted());
+        assertEquals(300L, decoded.getStorageLength());
+    }
+
+    public void testVersion2DictionaryId()
+    {
+        final StorableConverter conv2 = new StorableConverter(StorableConverter.VERSION_2);
+        final StorableKey key = storableKey("v2/dict");
+        StorableCreationMetadata stdMetadata = _metadata(Compression.DEFLATE, 200);
+        stdMetadata.dictionaryId = 0xFEDC;
+        ByteContainer data = ByteContainer.simple(_bytes(200, 7));
+
+        Storable decoded = conv2.decode(key, conv2.encodeInlined(key, MODTIME, stdMetadata,
+                null, data).asBytes());
+        assertEquals(Compression.DEFLATE, decoded.getCompression());
+        assertEquals(0xFEDC, decoded.getDictionaryId());
+        Assert.assertArrayEquals(data.asBytes(), decoded.getInlinedData().asBytes());
+
+        Storable deleted = conv2.decode(key, conv2.softDeletedCopy(key, decoded,
+                MODTIME + 1L, false, false).asBytes());
+        assertEquals(0xFEDC, deleted.getDictionaryId());
+
+        // no room for dictionary id in version 1
+        try {
+            _converter.encodeInlined(key, MODTIME, stdMetadata, null, data);
+            fail("Should not pass");
+        } catch (IllegalStateException e) {
+            verifyException(e, "dictionary");
+        }
+    }
+
+    public void testUpgradeFromVersion1()
+    {
+        final StorableConverter conv2 = new StorableConverter(StorableConverter.VERSION_2);
+        final StorableKey key = storableKey("upgrade/entry");
+        StorableCreationMetadata stdMetadata = _metadata(Compression.GZIP, 800);
+        stdMetadata.deleted = true;
+        ByteContainer metadata = ByteContainer.simple(_bytes(33, 5));
+        ByteContainer data = ByteContainer.simple(_bytes(800, 3));
+
+        Storable v1 = _converter.decode(key,
+                _converter.encodeInlined(key, MODTIME, stdMetadata, metadata, data).asBytes());
+        assertEquals(StorableConverter.VERSION_1, v1.getFormatVersion());
+        // v1 converter has nothing to upgrade
+        assertNull(_converter.upgrade(key, v1));
+
+        Storable v2 = conv2.upgrade(key, v1);
+        assertNotNull(v2);
+        assertNull(conv2.upgrade(key, v2));
+        Assert.assertArrayEquals(conv2.encodeInlined(key, MODTIME, stdMetadata, metadata, data).asBytes(),
+                v2.asBytes());
+        // and v2 converter can still read v1 entries
+        Storable decoded = conv2.decode(key, v1.asBytes());
+        assertEquals(StorableConverter.VERSION_1, decoded.getFormatVersion());
+        Assert.assertArrayEquals(data.asBytes(), decoded.getInlinedData().asBytes());
+        Assert.assertArrayEquals(metadata.asBytes(), decoded.getMetadata().asBytes());
+    }
+
+    public void testDecodeFromDirectBuffer()
+    {
+        final StorableKey key = storableKey("direct/entry");
+        StorableCreationMetadata stdMetadata = _metadata(Compression.LZF, 700);
+        ByteContainer metadata = ByteContainer.simple(_bytes(12, 5));
+        ByteContainer data = ByteContainer.simple(_bytes(700, 3));
+
+        for (StorableConverter conv : new StorableConverter[] {
+                _converter, new StorableConverter(StorableConverter.VERSION_2) }) {
+            byte[] encoded = conv.encodeInlined(key, MODTIME, stdMetadata, metadata, data).asBytes();
+            ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length + 5);
+            direct.position(5);
+            direct.put(encoded);
+            direct.position(5);
+            Storable decoded = conv.decode(key, ByteContainer.forBuffer(direct));
+            assertEquals(MODTIME, decoded.getLastModified());
+            assertEquals(2000L + 1500L, decoded.getOriginalLength());
+            Assert.assertArrayEquals(metadata.asBytes(), decoded.getMetadata().asBytes());
+            Assert.assertArrayEquals(data.asBytes(), decoded.getInlinedData().asBytes());
+            Assert.assertArrayEquals(encoded, decoded.asBytes());
+        }
+    }
+
+    /*
+    /**********************************************************************
+    /* Helper methods
+    /**********************************************************************
+     */
+
+    private StorableCreationMetadata _metadata(Compression comp, int dataLen)
+    {
+        StorableCreationMetadata stdMetadata = new StorableCreationMetadata(comp, 0x1234567, 0x7654321);
+        stdMetadata.storageSize = dataLen;
+        if (comp != null && comp != Compression.NONE) {
+            stdMetadata.uncompressedSize = dataLen * 5;
+        }
+        return stdMetadata;
+    }
+
+    private byte[] _bytes(int len, int seed)
+    {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            b[i] = (byte) (i * seed);
+        }
+        return b;
+    }
+
+    private String _path(int len)
+    {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; ++i) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        return sb.toString();
+    }
+
+    // Reference implementations of the original two-pass encoding
+
+    private byte[] _legacyInlined(StorableCreationMetadata stdMetadata, ByteContainer metadata,
+            ByteContainer data)
+    {
+        StuffToBytes est = StuffToBytes.estimator();
+        _legacyInlined(est, stdMetadata, metadata, data);
+        StuffToBytes w = StuffToBytes.writer(est.offset());
+        _legacyInlined(w, stdMetadata, metadata, data);
+        return w.bufferedBytes().asBytes();
+    }
+
+    private void _legacyInlined(StuffToBytes w, StorableCreationMetadata stdMetadata,
+            ByteContainer metadata, ByteContainer data)
+    {
+        _legacyHeader(w, stdMetadata, 0);
+        if (stdMetadata.usesCompression()) {
+            long uncompLen = stdMetadata.uncompressedSize;
+            w.appendInt(stdMetadata.compressedContentHash)
+                .appendVLong((uncompLen == -1L) ? 0L : uncompLen);
+        }
+        _legacyMetadata(w, metadata);
+        w.appendVInt(data.byteLength());
+        w.appendBytes(data);
+    }
+
+    private byte[] _legacyOfflined(StorableCreationMetadata stdMetadata, ByteContainer metadata,
+            String path)
+    {
+        StuffToBytes est = StuffToBytes.estimator();
+        _legacyOfflined(est, stdMetadata, metadata, path);
+        StuffToBytes w = StuffToBytes.writer(est.offset());
+        _legacyOfflined(w, stdMetadata, metadata, path);
+        return w.bufferedBytes().asBytes();
+    }
+
+    private void _legacyOfflined(StuffToBytes w, StorableCreationMetadata stdMetadata,
+            ByteContainer metadata, String path)
+    {
+        byte[] rawRef = IOUtil.getAsciiBytes(path);
+        _legacyHeader(w, stdMetadata, rawRef.length);
+        if (stdMetadata.usesCompression()) {
+            w.appendInt(stdMetadata.compressedContentHash)
+                .appendVLong(stdMetadata.uncompressedSize);
+        }
+        _legacyMetadata(w, metadata);
+        w.appendVLong(stdMetadata.storageSize);
+        w.appendBytes(rawRef);
+    }
+
+    private void _legacyHeader(StuffToBytes w, StorableCreationMetadata stdMetadata, int pathLength)
+    {
+        w.appendLong(MODTIME)
+            .appendByte(StorableConverter.VERSION_1)
+            .appendByte(stdMetadata.statusAsByte())
+            .appendByte(stdMetadata.compressionAsByte())
+            .appendByte((byte) pathLength)
+            .appendInt(stdMetadata.contentHash);
+    }
+
+    private void _legacyMetadata(StuffToBytes w, ByteContainer metadata)
+    {
+        if (metadata == null) {
+            w.appendVLong(0L);
+        } else {
+            w.appendLengthAndBytes(metadata);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.fasterxml.storemate.store.trace;
+
+import java.io.*;
+
+import com.fasterxml.storemate.shared.StorableKey;
+import com.fasterxml.storemate.shared.compress.Compression;
+import com.fasterxml.storemate.store.*;
+import com.fasterxml.storemate.store.backend.IterationResult;
+
+public class TestTraceRecording extends StoreTestBase
+{
+    public void testWriteAndRead() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter w = new TraceWriter(bytes, 123456789L);
+        w.write(new TraceRecord(TraceOperation.PUT, StoreOperationSource.SYNC,
+                1000L, 250L, 0xCAFEBABE, 42, 20000L, 90000L, Compression.GZIP));
+        w.write(new TraceRecord(TraceOperation.LIST, StoreOperationSource.REQUEST,
+                3000000000L, 17L, 0, 0, -1L, -1L, null));
+        assertEquals(2L, w.getRecordCount());
+        w.close();
+
+        TraceReader r = new TraceReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(123456789L, r.getStartTime());
+        TraceRecord rec = r.next();
+        assertNotNull(rec);
+        assertEquals(TraceOperation.PUT, rec.getOperation());
+        assertEquals(StoreOperationSource.SYNC, rec.getSource());
+        assertEquals(1000L, rec.getOffsetMicros());
+        assertEquals(250L, rec.getDurationMicros());
+        assertEquals(0xCAFEBABE, rec.getKeyHash());
+        assertEquals(42, rec.getKeyLength());
+        assertEquals(20000L, rec.getStorageLength());
+        assertEquals(90000L, rec.getOriginalLength());
+        assertEquals(Compression.GZIP, rec.getCompression());
+
+        rec = r.next();
+        assertNotNull(rec);
+        assertEquals(TraceOperation.LIST, rec.getOperation());
+        assertFalse(rec.hasKey());
+        assertEquals(3000000000L, rec.getOffsetMicros());
+        assertEquals(-1L, rec.getStorageLength());
+        assertEquals(-1L, rec.getOriginalLength());
+        assertNull(rec.getCompression());
+
+        assertNull(r.next());
+        r.close();
+    }
+
+    public void testInvalidHeader() throws Exception
+    {
+        try {
+            new TraceReader(new ByteArrayInputStream(new byte[] { 'S', 'M', 'X', 'X', 1 }));
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "signature does not match");
+        }
+    }
+
+    public void testRecordingThrottler() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RecordingThrottler throttler = new RecordingThrottler(null, new TraceWriter(bytes, 0L));
+        final StorableKey key = storableKey("some/key");
+
+        Boolean b = throttler.performHas(StoreOperationSource.REQUEST, 0L, key,
+                new StoreOperationCallback<Boolean>() {
+                    @Override
+                    public Boolean perform(long time, StorableKey k, Storable value) {
+                        return Boolean.TRUE;
+                    }
+        });
+        assertEquals(Boolean.TRUE, b);
+        throttler.performList(StoreOperationSource.SYNC, 0L,
+                new StoreOperationCallback<IterationResult>() {
+                    @Override
+                    public IterationResult perform(long time, StorableKey k, Storable value) {
+                        return IterationResult.FULLY_ITERATED;
+                    }
+        });
+        File f = new File(getTestScratchDir("traceRecording", true), "data.bin");
+        throttler.performFileWrite(StoreOperationSource.REQUEST, 0L, key, f,
+                new FileOperationCallback<Void>() {
+                    @Override
+                    public Void perform(long time, StorableKey k, Storable value, File file)
+                        throws IOException {
+                        FileOutputStream out = new FileOutputStream(file);
+                        out.write(new byte[1234]);
+                        out.close();
+                        return null;
+                    }
+        });
+        throttler.stopRecording();
+        assertFalse(throttler.isRecording());
+
+        TraceReader r = new TraceReader(new ByteArrayInputStream(bytes.toByteArray()));
+        TraceRecord rec = r.next();
+        assertEquals(TraceOperation.HAS, rec.getOperation());
+        assertEquals(key.hashCode(), rec.getKeyHash());
+        assertEquals(key.length(), rec.getKeyLength());
+        rec = r.next();
+        assertEquals(TraceOperation.LIST, rec.getOperation());
+        assertEquals(StoreOperationSource.SYNC, rec.getSource());
+        rec = r.next();
+        assertEquals(TraceOperation.FILE_WRITE, rec.getOperation());
+        assertEquals(1234L, rec.getStorageLength());
+        assertNull(r.next());
+        r.close();
+    }
+
+    public void testSynthesizedKeysAndPayloads() throws Exception
+    {
+        TraceRecord rec = new TraceRecord(TraceOperation.PUT, StoreOperationSource.REQUEST,
+                0L, 0L, 0x12AB34CD, 20, 300L, 1000L, Compression.LZF);
+        StorableKey key = TraceReplayer.synthesizeKey(rec);
+        assertEquals(20, key.length());
+        assertEquals("12ab34cd12ab34cd12ab", new String(key.asBytes(), "UTF-8"));
+        // same hash, length -> same key
+        assertEquals(key, TraceReplayer.synthesizeKey(rec));
+
+        TraceReplayer replayer = new TraceReplayer(null, 0.0, true, 1, 10);
+        byte[] payload = replayer.synthesizePayload(rec);
+        assertEquals(1000, payload.length);
+    }
+}
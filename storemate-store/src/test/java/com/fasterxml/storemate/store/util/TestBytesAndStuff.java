@@ -3,6 +3,7 @@ package com.fasterxml.storemate.store.util;
 import org.junit.Assert;
 
 import com.fasterxml.storemate.shared.ByteContainer;
+import com.fasterxml.storemate.shared.util.IOUtil;
 import com.fasterxml.storemate.store.StoreTestBase;
 
 public class TestBytesAndStuff extends StoreTestBase
@@ -42,4 +43,34 @@ public class TestBytesAndStuff extends StoreTestBase
         Assert.assertArrayEquals(EMPTY5, b);
         assertEquals(stuff.length, reader.offset());
     }
+
+    public void testLengthCalculation()
+    {
+        final long[] VALUES = { 0L, 1L, 0x7FL, 0x80L, 0x3FFFL, 0x4000L, 0x1FFFFFL, 0x200000L,
+                Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 0x800000000L, 0x7FFFFFFFFFFFFFFL,
+                Long.MAX_VALUE };
+        for (long value : VALUES) {
+            StuffToBytes est = StuffToBytes.estimator();
+            est.appendVLong(value);
+            assertEquals("VLong length for "+value, est.offset(), StuffToBytes.vLongLength(value));
+            StuffToBytes w = StuffToBytes.exactWriter(StuffToBytes.vLongLength(value));
+            w.appendVLong(value);
+            assertEquals(value, new BytesToStuff(w.bufferedBytes().asBytes()).nextVLong());
+
+            if (value <= Integer.MAX_VALUE) {
+                est = StuffToBytes.estimator();
+                est.appendVInt((int) value);
+                assertEquals("VInt length for "+value, est.offset(), StuffToBytes.vIntLength((int) value));
+            }
+        }
+    }
+
+    public void testAsciiBytes()
+    {
+        final String STR = "abc/123_xyz";
+        StuffToBytes w = StuffToBytes.exactWriter(STR.length());
+        w.appendAsciiBytes(STR);
+        Assert.assertArrayEquals(IOUtil.getAsciiBytes(STR),
+                w.bufferedBytes().asBytes());
+    }
 }
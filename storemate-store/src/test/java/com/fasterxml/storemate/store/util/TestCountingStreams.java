@@ -2,6 +2,7 @@ package com.fasterxml.storemate.store.util;
 
 import java.io.*;
 
+import com.fasterxml.storemate.shared.hash.HashConstants;
 import com.fasterxml.storemate.shared.hash.IncrementalHasher32;
 import com.fasterxml.storemate.shared.hash.IncrementalMurmur3Hasher;
 import com.fasterxml.storemate.store.StoreTestBase;
@@ -51,4 +52,63 @@ public class TestCountingStreams extends StoreTestBase
         
         out.close();
     }
+
+    public void testVerifyingInputStream() throws Exception
+    {
+        byte[] INPUT = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8  };
+        final int hash = calcChecksum32(INPUT);
+
+        // all good: skipped content is verified as well
+        VerifyingInputStream in = new VerifyingInputStream(new ByteArrayInputStream(INPUT),
+                new IncrementalMurmur3Hasher(), INPUT.length, hash);
+        assertEquals(1, in.read());
+        assertEquals(3L, in.skip(3));
+        byte[] buffer = new byte[8];
+        assertEquals(4, in.read(buffer));
+        assertFalse(in.isVerified());
+        assertEquals(-1, in.read(buffer));
+        assertTrue(in.isVerified());
+        assertEquals(8L, in.readCount());
+        in.close();
+
+        // wrong hash: fails at end
+        in = new VerifyingInputStream(new ByteArrayInputStream(INPUT),
+                new IncrementalMurmur3Hasher(), INPUT.length, hash+1);
+        assertEquals(8, in.read(buffer));
+        try {
+            in.read(buffer);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "verification failed");
+        }
+        // and keeps on failing
+        try {
+            in.read();
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "verification failed");
+        }
+        assertFalse(in.isVerified());
+
+        // too long: fails right away
+        in = new VerifyingInputStream(new ByteArrayInputStream(INPUT),
+                new IncrementalMurmur3Hasher(), 4, hash);
+        try {
+            in.read(buffer);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "expected 4 bytes");
+        }
+
+        // too short: fails at end, even if hash not known
+        in = new VerifyingInputStream(new ByteArrayInputStream(INPUT),
+                new IncrementalMurmur3Hasher(), 10, HashConstants.NO_CHECKSUM);
+        assertEquals(8, in.read(buffer));
+        try {
+            in.read(buffer);
+            fail("Should not pass");
+        } catch (IOException e) {
+            verifyException(e, "got 8 bytes");
+        }
+    }
 }
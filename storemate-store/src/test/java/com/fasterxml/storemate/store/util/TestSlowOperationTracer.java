@@ -0,0 +1,78 @@
+package com.fasterxml.storemate.store.util;
+
+import java.util.List;
+
+import com.fasterxml.storemate.store.StoreOperationSource;
+import com.fasterxml.storemate.store.StoreTestBase;
+
+public class TestSlowOperationTracer extends StoreTestBase
+{
+    public void testKeepsSlowest() throws Exception
+    {
+        SlowOperationTracer tracer = new SlowOperationTracer(3, 1000L, 1, null);
+        final long now = 10000L;
+        for (int i = 1; i <= 10; ++i) {
+            // mix up order a bit
+            long nanos = ((i * 7) % 10 + 1) * 1000000L;
+            tracer.record(now + i, "PUT", StoreOperationSource.REQUEST,
+                    storableKey("key"+i), nanos, _diag(nanos), null);
+        }
+        List<SlowOperation> ops = tracer.getSlowestOperations();
+        assertEquals(3, ops.size());
+        assertEquals(10000000L, ops.get(0).getTotalNanos());
+        assertEquals(9000000L, ops.get(1).getTotalNanos());
+        assertEquals(8000000L, ops.get(2).getTotalNanos());
+
+        // verify phase breakdown got copied
+        SlowOperation op = ops.get(0);
+        assertEquals(1000L, op.getThrottleWaitNanos());
+        assertEquals(2000L, op.getLockWaitNanos());
+        assertEquals(3000L, op.getCompressionNanos());
+        assertEquals(10000000L / 2, op.getDbNanos());
+        assertEquals(-1L, op.getStorageLength());
+    }
+
+    public void testWindowRolling() throws Exception
+    {
+        SlowOperationTracer tracer = new SlowOperationTracer(2, 1000L, 1, null);
+        tracer.record(5000L, "GET", StoreOperationSource.REQUEST, storableKey("a"), 500L, _diag(500L), null);
+        tracer.record(5100L, "GET", StoreOperationSource.REQUEST, storableKey("b"), 700L, _diag(700L), null);
+        // new window: previous gets retained
+        tracer.record(6500L, "GET", StoreOperationSource.SYNC, storableKey("c"), 100L, _diag(100L), null);
+        List<SlowOperation> ops = tracer.getSlowestOperations();
+        assertEquals(3, ops.size());
+        assertEquals(700L, ops.get(0).getTotalNanos());
+        assertEquals(500L, ops.get(1).getTotalNanos());
+        assertEquals(100L, ops.get(2).getTotalNanos());
+        assertEquals(StoreOperationSource.SYNC, ops.get(2).getSource());
+
+        // and one more: only last completed window retained
+        tracer.record(8000L, "GET", StoreOperationSource.REQUEST, storableKey("d"), 50L, _diag(50L), null);
+        ops = tracer.getSlowestOperations();
+        assertEquals(2, ops.size());
+        assertEquals(100L, ops.get(0).getTotalNanos());
+        assertEquals(50L, ops.get(1).getTotalNanos());
+    }
+
+    public void testSampling() throws Exception
+    {
+        SlowOperationTracer tracer = new SlowOperationTracer(2, 1000L, 4, null);
+        int count = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (tracer.shouldSample()) {
+                ++count;
+            }
+        }
+        assertEquals(25, count);
+    }
+
+    private OperationDiagnostics _diag(long total)
+    {
+        OperationDiagnostics diag = new OperationDiagnostics(0L);
+        diag.addThrottleWait(0L, 1000L);
+        diag.addLockWait(1000L, 3000L);
+        diag.addCompressionTime(0L, 3000L);
+        diag.addDbAccess(0L, 0L, total / 2);
+        return diag;
+    }
+}